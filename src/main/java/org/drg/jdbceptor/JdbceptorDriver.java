@@ -0,0 +1,161 @@
+package org.drg.jdbceptor;
+
+import org.drg.jdbceptor.impl.DataSourceManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * JDBC {@link Driver} entry point for Jdbceptor which wraps physical connections established through a delegate driver
+ * in instrumented connections. This allows Jdbceptor to be used underneath a connection pool (such as c3p0) without any
+ * Hibernate-specific wiring. </br>
+ * URLs handled by this driver take the form <code>jdbc:jdbceptor:&lt;dataSourceId&gt;:&lt;realUrl&gt;</code>, for
+ * example <code>jdbc:jdbceptor:main:jdbc:mysql://localhost:3306/app</code>. </br>
+ * The delegate driver and {@link DataSourceManager} are resolved once per URL and cached, so that establishing a
+ * connection never has to scan the {@link DriverManager} or consult the data source registry again.
+ *
+ * @author dgarson
+ */
+public class JdbceptorDriver implements Driver {
+
+    private static final Logger log = LoggerFactory.getLogger(JdbceptorDriver.class);
+
+    /**
+     * Prefix for all URLs that are handled by this driver.
+     */
+    public static final String URL_PREFIX = "jdbc:jdbceptor:";
+
+    private static final int MAJOR_VERSION = 0;
+    private static final int MINOR_VERSION = 1;
+
+    static {
+        try {
+            DriverManager.registerDriver(new JdbceptorDriver());
+        } catch (SQLException se) {
+            log.error("Unable to register the Jdbceptor driver with the DriverManager", se);
+        }
+    }
+
+    // resolved delegate drivers and data source managers, keyed by the full Jdbceptor URL
+    private final ConcurrentMap<String, ResolvedUrl> resolvedUrls = new ConcurrentHashMap<>();
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        // per the JDBC contract, return null for any URL that we do not handle
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        ResolvedUrl resolved = resolve(url);
+        Connection realConnection = resolved.delegateDriver.connect(resolved.realUrl, info);
+        if (realConnection == null) {
+            throw new SQLException("Delegate driver " + resolved.delegateDriver.getClass().getName() +
+                " refused to connect to '" + resolved.realUrl + "' for data source '" + resolved.dataSourceId + "'");
+        }
+        return resolved.dataSourceManager.wrapPhysicalConnection(realConnection);
+    }
+
+    @Override
+    public boolean acceptsURL(String url) throws SQLException {
+        return (url != null && url.startsWith(URL_PREFIX));
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return new DriverPropertyInfo[0];
+        }
+        ResolvedUrl resolved = resolve(url);
+        return resolved.delegateDriver.getPropertyInfo(resolved.realUrl, info);
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return MAJOR_VERSION;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return MINOR_VERSION;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        // we are only as compliant as the driver we are delegating to, which is not known until a URL is resolved
+        return false;
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException("Jdbceptor logs through SLF4J rather than java.util.logging");
+    }
+
+    /**
+     * Returns the cached resolution of a Jdbceptor <strong>url</strong>, resolving and caching it if this is the first
+     * time the URL has been seen by this driver.
+     */
+    private ResolvedUrl resolve(String url) throws SQLException {
+        ResolvedUrl resolved = resolvedUrls.get(url);
+        if (resolved == null) {
+            ResolvedUrl newResolved = resolveUncached(url);
+            resolved = resolvedUrls.putIfAbsent(url, newResolved);
+            // only non-null if another thread resolved the same URL concurrently
+            if (resolved == null) {
+                resolved = newResolved;
+            }
+        }
+        return resolved;
+    }
+
+    private ResolvedUrl resolveUncached(String url) throws SQLException {
+        int separatorPos = url.indexOf(':', URL_PREFIX.length());
+        if (separatorPos <= URL_PREFIX.length() || separatorPos == url.length() - 1) {
+            throw new SQLException("Malformed Jdbceptor URL '" + url + "', expected format is " + URL_PREFIX +
+                "<dataSourceId>:<realUrl>");
+        }
+        String dataSourceId = url.substring(URL_PREFIX.length(), separatorPos);
+        String realUrl = url.substring(separatorPos + 1);
+        if (realUrl.startsWith(URL_PREFIX)) {
+            throw new SQLException("Unable to nest Jdbceptor URLs for data source '" + dataSourceId + "': " + url);
+        }
+
+        DataSourceManager dataSourceManager;
+        try {
+            dataSourceManager = Jdbceptor.getDataSourceManager(dataSourceId);
+        } catch (IllegalStateException ise) {
+            throw new SQLException("Unable to resolve data source '" + dataSourceId + "' for URL '" + url + "'", ise);
+        }
+
+        // this will throw a SQLException if no suitable driver is registered for the real URL
+        Driver delegateDriver = DriverManager.getDriver(realUrl);
+        log.debug("Resolved delegate driver {} for data source '{}'", delegateDriver.getClass().getName(),
+            dataSourceId);
+        return new ResolvedUrl(dataSourceId, realUrl, delegateDriver, dataSourceManager);
+    }
+
+    /**
+     * Immutable holder for everything that must be known about a Jdbceptor URL in order to establish a connection.
+     */
+    private static class ResolvedUrl {
+
+        private final String dataSourceId;
+        private final String realUrl;
+        private final Driver delegateDriver;
+        private final DataSourceManager dataSourceManager;
+
+        ResolvedUrl(String dataSourceId, String realUrl, Driver delegateDriver, DataSourceManager dataSourceManager) {
+            this.dataSourceId = dataSourceId;
+            this.realUrl = realUrl;
+            this.delegateDriver = delegateDriver;
+            this.dataSourceManager = dataSourceManager;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.drg.jdbceptor.analysis;
+
+/**
+ * Determines how a {@link WorkloadReplayer} paces the statements it re-executes against the target data source.
+ *
+ * @author dgarson
+ */
+public enum ReplayMode {
+
+    /**
+     * Start each statement at the same offset from the start of the replay as it had from the start of the journal,
+     * with each original connection replayed on its own thread. This reproduces both the arrival rate and the
+     * concurrency of the captured workload, and reports how far behind schedule the replay fell.
+     */
+    ORIGINAL_TIMING,
+
+    /**
+     * Replay each original connection on its own thread, executing its statements back to back without waiting for
+     * their original start times. This keeps the captured concurrency but compresses the idle time between statements,
+     * so statements on different connections may run in a different order than they originally did.
+     */
+    ORIGINAL_CONCURRENCY,
+
+    /**
+     * Execute every statement on a single thread, in journal order and without any pauses. This measures the cost of
+     * the statements themselves, free of any contention between connections.
+     */
+    AS_FAST_AS_POSSIBLE,
+    //
+    ;
+}
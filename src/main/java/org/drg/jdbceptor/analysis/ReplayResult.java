@@ -0,0 +1,93 @@
+package org.drg.jdbceptor.analysis;
+
+import org.drg.jdbceptor.impl.HistogramSnapshot;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable result of replaying a captured workload with a {@link WorkloadReplayer}. The replayed statements are
+ * summarized in a {@link WorkloadReport}, in exactly the same form as {@link WorkloadAnalyzer} reports on the original
+ * journal, so that the two can be compared side by side.
+ *
+ * @author dgarson
+ */
+public class ReplayResult {
+
+    private final ReplayMode mode;
+    private final WorkloadReport report;
+    private final HistogramSnapshot scheduleLag;
+    private final long skippedCount;
+    private final long originalSpanNanos;
+    private final long elapsedNanos;
+
+    ReplayResult(ReplayMode mode, WorkloadReport report, HistogramSnapshot scheduleLag, long skippedCount,
+                 long originalSpanNanos, long elapsedNanos) {
+        this.mode = mode;
+        this.report = report;
+        this.scheduleLag = scheduleLag;
+        this.skippedCount = skippedCount;
+        this.originalSpanNanos = originalSpanNanos;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public ReplayMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns the report for the statements, transactions and connections as they were replayed.
+     */
+    public WorkloadReport getReport() {
+        return report;
+    }
+
+    /**
+     * Returns the distribution of how late each statement was started relative to its original offset from the start
+     * of the journal. This is only recorded for {@link ReplayMode#ORIGINAL_TIMING} and is empty otherwise.
+     */
+    public HistogramSnapshot getScheduleLag() {
+        return scheduleLag;
+    }
+
+    /**
+     * Returns the number of statements that could not be replayed, such as prepared statements whose parameters were
+     * not captured or whose SQL was lost when the journal rolled over to a new segment.
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * Returns the time between the first and the last record in the replayed journal.
+     */
+    public long getOriginalSpanNanos() {
+        return originalSpanNanos;
+    }
+
+    /**
+     * Returns the wall clock time taken by the replay.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Writes this result to <strong>out</strong> as plain text.
+     */
+    public void print(PrintStream out) {
+        out.printf("Replay mode: %s, elapsed: %.3f s (original span: %.3f s), skipped statements: %d%n", mode,
+            elapsedNanos / 1e9, originalSpanNanos / 1e9, skippedCount);
+        if (scheduleLag.getTotalCount() > 0) {
+            out.printf("Schedule lag: p50=%.3f ms p99=%.3f ms max=%.3f ms%n",
+                millis(scheduleLag.getValueAtPercentile(50.0)), millis(scheduleLag.getValueAtPercentile(99.0)),
+                millis(scheduleLag.getMaxNanos()));
+        }
+        out.println();
+        report.print(out);
+    }
+
+    private static double millis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,157 @@
+package org.drg.jdbceptor.analysis;
+
+import com.google.common.base.Preconditions;
+import org.drg.jdbceptor.impl.JournalReader;
+import org.drg.jdbceptor.impl.JournalRecord;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Offline analyzer for the segment files written by a {@link org.drg.jdbceptor.impl.StatementJournal}, reporting the
+ * top SQL fingerprints by total time, latency percentiles, statements per transaction and connection hold times. </br>
+ * Segments are summarized in parallel on a fork/join pool, one task per segment, and adjacent summaries are merged in
+ * journal order so that transactions and connection leases spanning segment boundaries are still paired up. Each
+ * segment is memory-mapped and read without copying, so the analysis is bound by the CPU cost of fingerprinting rather
+ * than by I/O. </br>
+ * This can be run from the command line, with the journal directories or segment files to analyze as arguments:
+ * <pre>
+ *   java org.drg.jdbceptor.analysis.WorkloadAnalyzer [--top N] [--threads N] &lt;journal dir or segment&gt;...
+ * </pre>
+ *
+ * @author dgarson
+ */
+public class WorkloadAnalyzer {
+
+    /**
+     * Default number of fingerprints, transactions and connections listed in each section of the report.
+     */
+    public static final int DEFAULT_TOP_N = 20;
+
+    private final int topN;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates an analyzer that uses one thread per available processor.
+     */
+    public WorkloadAnalyzer(int topN) {
+        this(topN, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param topN the number of entries listed in each section of the report
+     * @param parallelism the number of segments to summarize concurrently
+     */
+    public WorkloadAnalyzer(int topN, int parallelism) {
+        Preconditions.checkArgument(topN > 0, "topN must be positive");
+        this.topN = topN;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Analyzes every journal segment in <strong>directory</strong>.
+     */
+    public WorkloadReport analyzeDirectory(File directory) {
+        return analyze(JournalReader.listSegments(directory));
+    }
+
+    /**
+     * Analyzes the given segment files, which must be in the order they were written.
+     */
+    public WorkloadReport analyze(List<File> segmentFiles) {
+        List<File> files = new ArrayList<>(segmentFiles);
+        WorkloadSummary summary = (files.isEmpty() ? emptySummary() :
+            pool.invoke(new SummarizeTask(files, 0, files.size())));
+        summary.completePendingTransactions();
+        return new WorkloadReport(files.size(), summary, topN);
+    }
+
+    /**
+     * Shuts down the threads used for analysis.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private WorkloadSummary emptySummary() {
+        WorkloadSummary summary = new WorkloadSummary(topN);
+        summary.endSegment();
+        return summary;
+    }
+
+    private WorkloadSummary summarize(File segmentFile) {
+        WorkloadSummary summary = new WorkloadSummary(topN);
+        for (JournalRecord record : new JournalReader(Collections.singletonList(segmentFile))) {
+            summary.add(record);
+        }
+        summary.endSegment();
+        return summary;
+    }
+
+    /**
+     * Summarizes a contiguous range of segments by splitting it in half until a single segment remains.
+     */
+    private class SummarizeTask extends RecursiveTask<WorkloadSummary> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> files;
+        private final int from;
+        private final int to;
+
+        SummarizeTask(List<File> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected WorkloadSummary compute() {
+            if (to - from == 1) {
+                return summarize(files.get(from));
+            }
+            int mid = (from + to) >>> 1;
+            SummarizeTask earlier = new SummarizeTask(files, from, mid);
+            earlier.fork();
+            WorkloadSummary later = new SummarizeTask(files, mid, to).compute();
+            WorkloadSummary summary = earlier.join();
+            // merging must go from earlier to later segments so that leases and transactions pair up correctly
+            summary.merge(later);
+            return summary;
+        }
+    }
+
+    public static void main(String[] args) {
+        int topN = DEFAULT_TOP_N;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        List<File> segmentFiles = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--top".equals(args[i]) && i + 1 < args.length) {
+                topN = Integer.parseInt(args[++i]);
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                parallelism = Integer.parseInt(args[++i]);
+            } else {
+                File file = new File(args[i]);
+                if (file.isDirectory()) {
+                    segmentFiles.addAll(JournalReader.listSegments(file));
+                } else {
+                    segmentFiles.add(file);
+                }
+            }
+        }
+        if (segmentFiles.isEmpty()) {
+            System.err.println("Usage: WorkloadAnalyzer [--top N] [--threads N] <journal dir or segment>...");
+            System.exit(1);
+        }
+        WorkloadAnalyzer analyzer = new WorkloadAnalyzer(topN, parallelism);
+        try {
+            analyzer.analyze(segmentFiles).print(System.out);
+        } finally {
+            analyzer.shutdown();
+        }
+    }
+}
@@ -0,0 +1,619 @@
+package org.drg.jdbceptor.analysis;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.drg.jdbceptor.Jdbceptor;
+import org.drg.jdbceptor.api.StatementMethod;
+import org.drg.jdbceptor.impl.JournalReader;
+import org.drg.jdbceptor.impl.JournalRecord;
+import org.drg.jdbceptor.impl.LatencyHistogram;
+import org.drg.jdbceptor.impl.ParameterStore;
+import org.drg.jdbceptor.impl.SqlFingerprint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-executes the statements captured by a {@link org.drg.jdbceptor.impl.StatementJournal} against a target JDBC URL,
+ * such as a copy of the production schema with a new index, or an embedded database standing in for it in CI. </br>
+ * Every original connection is replayed on a connection of its own, with its statements in their original order and
+ * its transactions committed or rolled back as they originally were. Prepared statements are re-bound with their
+ * captured parameters, so the journal must have been written with parameter capture enabled for them to be replayed;
+ * large objects were only captured by their length and are replayed as zero-filled arrays of that length. How the
+ * statements are paced is determined by the {@link ReplayMode}. </br>
+ * Unless statements are replayed as fast as possible, connections are replayed concurrently on a bounded pool of
+ * threads, and a connection only occupies a thread while it has operations waiting to be applied. Connections beyond
+ * the size of the pool wait for a thread to free up, so the pool should be at least as large as the number of
+ * connections that held locks at the same time, or one waiting on a lock held by another that is waiting for a thread
+ * stalls the replay. </br>
+ * The replayed statements are summarized in the same {@link WorkloadReport} that {@link WorkloadAnalyzer} produces
+ * for the original journal. If the target URL is itself a Jdbceptor URL for a registered data source, the replay is
+ * also recorded by that data source's statistics, listeners and journal just like any other workload. </br>
+ * This can be run from the command line, printing the report for the original journal followed by that of the replay:
+ * <pre>
+ *   java org.drg.jdbceptor.analysis.WorkloadReplayer --url &lt;jdbc url&gt; [--user U] [--password P]
+ *       [--mode ORIGINAL_TIMING|ORIGINAL_CONCURRENCY|AS_FAST_AS_POSSIBLE] [--top N] [--threads N]
+ *       &lt;journal dir or segment&gt;...
+ * </pre>
+ *
+ * @author dgarson
+ */
+public class WorkloadReplayer {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkloadReplayer.class);
+
+    // operations queued for a single replayed connection before the journal reader waits for it to catch up
+    private static final int SESSION_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Default maximum number of connections that are replayed concurrently.
+     */
+    public static final int DEFAULT_MAX_THREADS = 64;
+
+    private final String url;
+    private final Properties info;
+    private final ReplayMode mode;
+    private final int topN;
+    private final int maxThreads;
+
+    public WorkloadReplayer(String url, Properties info, ReplayMode mode) {
+        this(url, info, mode, WorkloadAnalyzer.DEFAULT_TOP_N);
+    }
+
+    public WorkloadReplayer(String url, Properties info, ReplayMode mode, int topN) {
+        this(url, info, mode, topN, DEFAULT_MAX_THREADS);
+    }
+
+    /**
+     * @param url the JDBC URL of the target data source
+     * @param info the connection properties, such as the user and password, for the target data source
+     * @param mode how statements are paced
+     * @param topN the number of entries listed in each section of the replay report
+     * @param maxThreads the maximum number of connections replayed concurrently, unless statements are replayed as
+     *                   fast as possible, in which case everything is replayed on the calling thread
+     */
+    public WorkloadReplayer(String url, Properties info, ReplayMode mode, int topN, int maxThreads) {
+        Preconditions.checkNotNull(url, "url");
+        Preconditions.checkNotNull(mode, "mode");
+        Preconditions.checkArgument(topN > 0, "topN must be positive");
+        Preconditions.checkArgument(maxThreads > 0, "maxThreads must be positive");
+        this.url = url;
+        this.info = (info == null ? new Properties() : info);
+        this.mode = mode;
+        this.topN = topN;
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * Replays every journal segment in <strong>directory</strong>.
+     */
+    public ReplayResult replayDirectory(File directory) throws InterruptedException {
+        return replay(JournalReader.listSegments(directory));
+    }
+
+    /**
+     * Replays the given segment files, which must be in the order they were written. This returns once every replayed
+     * statement has completed and every connection to the target has been closed.
+     */
+    public ReplayResult replay(List<File> segmentFiles) throws InterruptedException {
+        return new Replay(new ArrayList<>(segmentFiles)).run();
+    }
+
+    /**
+     * State of a single run of {@link #replay(List)}.
+     */
+    private class Replay {
+
+        private final List<File> segmentFiles;
+        private final WorkloadSummary summary = new WorkloadSummary(topN);
+        private final LatencyHistogram scheduleLag = new LatencyHistogram();
+        private final AtomicLong skippedCount = new AtomicLong();
+        // one party for the journal reader plus one for each session that is replayed on the pool
+        private final Phaser activeSessions = new Phaser(1);
+        // replayed connections by original connection id, only accessed by the thread reading the journal
+        private final Map<String, Session> sessions = new HashMap<>();
+        // applies the operations of sessions, or null if they are applied on the thread reading the journal
+        private final ExecutorService executor;
+
+        Replay(List<File> segmentFiles) {
+            this.segmentFiles = segmentFiles;
+            this.executor = (mode == ReplayMode.AS_FAST_AS_POSSIBLE ? null : Executors.newFixedThreadPool(maxThreads,
+                new ThreadFactoryBuilder().setNameFormat("jdbceptor-replay-%d").setDaemon(true).build()));
+        }
+
+        ReplayResult run() throws InterruptedException {
+            long startNanos = Jdbceptor.timestampNanos();
+            long originNanos = Long.MIN_VALUE;
+            long firstTimestampNanos = Long.MAX_VALUE;
+            long lastTimestampNanos = Long.MIN_VALUE;
+            boolean completed = false;
+            try {
+                for (JournalRecord record : new JournalReader(segmentFiles)) {
+                    long timestamp = record.getTimestampNanos();
+                    firstTimestampNanos = Math.min(firstTimestampNanos, timestamp);
+                    lastTimestampNanos = Math.max(lastTimestampNanos, timestamp);
+                    ReplayOperation operation = toOperation(record);
+                    if (operation == null) {
+                        continue;
+                    }
+                    if (mode == ReplayMode.ORIGINAL_TIMING) {
+                        // records are written on completion, so they are only roughly in order of their start times
+                        if (originNanos == Long.MIN_VALUE) {
+                            originNanos = operation.originalStartNanos;
+                        }
+                        operation.scheduledNanos = startNanos + Math.max(0L, operation.originalStartNanos -
+                            originNanos);
+                        awaitSchedule(operation.scheduledNanos);
+                    }
+                    dispatch(operation);
+                }
+                completed = true;
+            } finally {
+                finish(completed);
+            }
+            long elapsedNanos = Jdbceptor.timestampNanos() - startNanos;
+
+            summary.endSegment();
+            summary.completePendingTransactions();
+            long originalSpanNanos = (firstTimestampNanos > lastTimestampNanos ? 0L :
+                lastTimestampNanos - firstTimestampNanos);
+            return new ReplayResult(mode, new WorkloadReport(segmentFiles.size(), summary, topN),
+                scheduleLag.snapshot(), skippedCount.get(), originalSpanNanos, elapsedNanos);
+        }
+
+        /**
+         * Copies what is needed to replay a record out of the journal, or returns <code>null</code> if there is
+         * nothing to replay for it.
+         */
+        private ReplayOperation toOperation(JournalRecord record) {
+            byte type = record.getType();
+            long timestamp = record.getTimestampNanos();
+            switch (type) {
+                case JournalRecord.TYPE_STATEMENT_EXECUTED:
+                    String sql = record.getSql();
+                    boolean hasParameters = record.hasFlag(JournalRecord.FLAG_PARAMETERS);
+                    // prepared statements cannot be replayed without the parameters that were bound to them
+                    if (sql == null || (record.getTemplateId() != 0 && !hasParameters && sql.indexOf('?') >= 0)) {
+                        skippedCount.incrementAndGet();
+                        return null;
+                    }
+                    ParameterStore parameters = null;
+                    if (hasParameters) {
+                        parameters = new ParameterStore();
+                        record.readParameters(parameters);
+                    }
+                    return new ReplayOperation(type, record.getConnectionId(), record.getTransactionId(),
+                        timestamp - record.getElapsedNanos(), sql, record.getBatchStatements(), parameters,
+                        record.getMethod(), false);
+                case JournalRecord.TYPE_TRANSACTION_BEGAN:
+                case JournalRecord.TYPE_TRANSACTION_FINISHED:
+                    return new ReplayOperation(type, record.getConnectionId(), record.getTransactionId(), timestamp,
+                        null, null, null, null, record.hasFlag(JournalRecord.FLAG_COMMITTED));
+                case JournalRecord.TYPE_CONNECTION_OPENED:
+                case JournalRecord.TYPE_CONNECTION_CLOSED:
+                    // physical events for pooled connections do not correspond to anything the application did
+                    if (record.hasFlag(JournalRecord.FLAG_POOLED) && record.hasFlag(JournalRecord.FLAG_PHYSICAL)) {
+                        return null;
+                    }
+                    return new ReplayOperation(type, record.getConnectionId(), null, timestamp, null, null, null, null,
+                        false);
+                default:
+                    return null;
+            }
+        }
+
+        private void awaitSchedule(long scheduledNanos) throws InterruptedException {
+            long remainingNanos;
+            while ((remainingNanos = scheduledNanos - Jdbceptor.timestampNanos()) > 0L) {
+                TimeUnit.NANOSECONDS.sleep(remainingNanos);
+            }
+        }
+
+        private void dispatch(ReplayOperation operation) throws InterruptedException {
+            Session session = sessions.get(operation.connectionId);
+            if (session == null) {
+                session = new Session(operation.connectionId, mode != ReplayMode.AS_FAST_AS_POSSIBLE);
+                sessions.put(operation.connectionId, session);
+            }
+            if (operation.type == JournalRecord.TYPE_CONNECTION_CLOSED) {
+                // a later lease of the same connection id is replayed on a new connection
+                sessions.remove(operation.connectionId);
+            }
+            session.submit(operation);
+        }
+
+        /**
+         * Closes every connection that was still open at the end of the journal, waiting for each to finish replaying
+         * its statements first, unless the replay was interrupted.
+         */
+        private void finish(boolean completed) throws InterruptedException {
+            for (Session session : sessions.values()) {
+                if (completed) {
+                    session.submit(ReplayOperation.END);
+                } else {
+                    session.abort();
+                }
+            }
+            sessions.clear();
+            if (completed) {
+                // every session deregisters once it has closed its connection
+                activeSessions.arriveAndAwaitAdvance();
+            }
+            if (executor != null) {
+                // aborted sessions still close their connections on the pool before its threads exit
+                executor.shutdown();
+            }
+        }
+
+        /**
+         * Replays the operations of a single lease of an original connection. Operations are either applied on the
+         * journal reader's thread, or queued and applied in order by a task on the pool, which is only scheduled while
+         * there are operations waiting so that idle connections do not hold on to a thread.
+         */
+        private class Session implements Runnable {
+
+            private final String connectionId;
+            private final BlockingQueue<ReplayOperation> queue;
+            // whether a task for this session is queued or running on the pool, so only one applies its operations
+            private final AtomicBoolean scheduled = new AtomicBoolean();
+            private volatile boolean aborted;
+            // only accessed by whichever thread is currently applying this session's operations
+            private Connection connection;
+            private boolean ended;
+
+            Session(String connectionId, boolean pooled) {
+                this.connectionId = connectionId;
+                if (pooled) {
+                    activeSessions.register();
+                    this.queue = new ArrayBlockingQueue<>(SESSION_QUEUE_CAPACITY);
+                } else {
+                    this.queue = null;
+                }
+            }
+
+            void submit(ReplayOperation operation) throws InterruptedException {
+                if (queue != null) {
+                    queue.put(operation);
+                    schedule();
+                } else if (operation == ReplayOperation.END || !apply(operation)) {
+                    closeConnection();
+                }
+            }
+
+            void abort() {
+                if (queue != null) {
+                    aborted = true;
+                    schedule();
+                } else {
+                    closeConnection();
+                }
+            }
+
+            private void schedule() {
+                if (scheduled.compareAndSet(false, true)) {
+                    executor.execute(this);
+                }
+            }
+
+            @Override
+            public void run() {
+                while (!ended) {
+                    ReplayOperation operation = (aborted ? ReplayOperation.END : queue.poll());
+                    if (operation == null) {
+                        scheduled.set(false);
+                        // an operation queued since the poll may have seen this session as still scheduled
+                        if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                            return;
+                        }
+                    } else if (operation == ReplayOperation.END || !apply(operation)) {
+                        // this session stays scheduled from here on, so nothing is applied after it has ended
+                        ended = true;
+                        closeConnection();
+                        activeSessions.arriveAndDeregister();
+                    }
+                }
+            }
+
+            /**
+             * Applies a single operation to the target connection.
+             * @return <code>false</code> if the operation closed the connection, ending this session
+             */
+            private boolean apply(ReplayOperation operation) {
+                try {
+                    switch (operation.type) {
+                        case JournalRecord.TYPE_STATEMENT_EXECUTED:
+                            execute(operation);
+                            break;
+                        case JournalRecord.TYPE_TRANSACTION_BEGAN:
+                            connection().setAutoCommit(false);
+                            synchronized (summary) {
+                                summary.transactionBegan(Jdbceptor.timestampNanos(), operation.transactionId);
+                            }
+                            break;
+                        case JournalRecord.TYPE_TRANSACTION_FINISHED:
+                            Connection target = connection();
+                            if (!target.getAutoCommit()) {
+                                if (operation.committed) {
+                                    target.commit();
+                                } else {
+                                    target.rollback();
+                                }
+                                target.setAutoCommit(true);
+                            }
+                            synchronized (summary) {
+                                summary.transactionFinished(Jdbceptor.timestampNanos(), operation.transactionId);
+                            }
+                            break;
+                        case JournalRecord.TYPE_CONNECTION_OPENED:
+                            connection();
+                            synchronized (summary) {
+                                summary.leaseOpened(Jdbceptor.timestampNanos(), connectionId);
+                            }
+                            break;
+                        case JournalRecord.TYPE_CONNECTION_CLOSED:
+                            closeConnection();
+                            synchronized (summary) {
+                                summary.leaseClosed(Jdbceptor.timestampNanos(), connectionId);
+                            }
+                            return false;
+                        default:
+                            break;
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    log.warn("Unable to replay journal record of type {} for connection {}", operation.type,
+                        connectionId, e);
+                }
+                return true;
+            }
+
+            private void execute(ReplayOperation operation) {
+                if (operation.scheduledNanos != 0L) {
+                    scheduleLag.record(Math.max(0L, Jdbceptor.timestampNanos() - operation.scheduledNanos));
+                }
+                boolean error = false;
+                long updateCount = -1L;
+                long startNanos = Jdbceptor.timestampNanos();
+                try {
+                    Connection target = connection();
+                    startNanos = Jdbceptor.timestampNanos();
+                    updateCount = executeStatement(target, operation);
+                } catch (SQLException | RuntimeException e) {
+                    error = true;
+                    log.debug("Replayed statement failed on connection {}: {}", connectionId, operation.sql, e);
+                }
+                long completedNanos = Jdbceptor.timestampNanos();
+                String fingerprint = SqlFingerprint.of(operation.sql);
+                synchronized (summary) {
+                    summary.addStatement(completedNanos, fingerprint, completedNanos - startNanos, error, updateCount,
+                        operation.transactionId);
+                }
+            }
+
+            private Connection connection() throws SQLException {
+                if (connection == null) {
+                    connection = DriverManager.getConnection(url, info);
+                }
+                return connection;
+            }
+
+            private void closeConnection() {
+                if (connection == null) {
+                    return;
+                }
+                try {
+                    if (!connection.getAutoCommit()) {
+                        // a transaction that never finished in the journal is not committed by the replay either
+                        connection.rollback();
+                    }
+                    connection.close();
+                } catch (SQLException se) {
+                    log.warn("Unable to close replayed connection {}", connectionId, se);
+                }
+                connection = null;
+            }
+        }
+    }
+
+    /**
+     * Executes a single captured statement and returns its update count, or -1 if it did not update any rows. Queries
+     * have their results read in full, since that is part of what the original application waited for.
+     */
+    private static long executeStatement(Connection target, ReplayOperation operation) throws SQLException {
+        StatementMethod method = (operation.method == null ? StatementMethod.EXECUTE : operation.method);
+        if (method == StatementMethod.EXECUTE_BATCH) {
+            try (Statement statement = target.createStatement()) {
+                // older journals only recorded the batch joined into one string, which cannot be split apart reliably
+                List<String> batch = (operation.batch == null ? Collections.singletonList(operation.sql) :
+                    operation.batch);
+                for (String sql : batch) {
+                    statement.addBatch(sql);
+                }
+                long updateCount = 0L;
+                for (int count : statement.executeBatch()) {
+                    if (count > 0) {
+                        updateCount += count;
+                    }
+                }
+                return updateCount;
+            }
+        } else if (operation.parameters == null) {
+            try (Statement statement = target.createStatement()) {
+                switch (method) {
+                    case EXECUTE_QUERY:
+                        return drain(statement.executeQuery(operation.sql));
+                    case EXECUTE_UPDATE:
+                        return statement.executeUpdate(operation.sql);
+                    default:
+                        return (statement.execute(operation.sql) ? drain(statement.getResultSet()) :
+                            statement.getUpdateCount());
+                }
+            }
+        }
+        try (PreparedStatement statement = target.prepareStatement(operation.sql)) {
+            bind(statement, operation.parameters);
+            switch (method) {
+                case EXECUTE_QUERY:
+                    return drain(statement.executeQuery());
+                case EXECUTE_UPDATE:
+                    return statement.executeUpdate();
+                default:
+                    return (statement.execute() ? drain(statement.getResultSet()) : statement.getUpdateCount());
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement statement, ParameterStore parameters) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            int parameterIndex = i + 1;
+            switch (parameters.getType(i)) {
+                case ParameterStore.TYPE_BOOLEAN:
+                    statement.setBoolean(parameterIndex, parameters.getLong(i) != 0L);
+                    break;
+                case ParameterStore.TYPE_BYTE:
+                    statement.setByte(parameterIndex, (byte)parameters.getLong(i));
+                    break;
+                case ParameterStore.TYPE_SHORT:
+                    statement.setShort(parameterIndex, (short)parameters.getLong(i));
+                    break;
+                case ParameterStore.TYPE_INT:
+                    statement.setInt(parameterIndex, (int)parameters.getLong(i));
+                    break;
+                case ParameterStore.TYPE_LONG:
+                    statement.setLong(parameterIndex, parameters.getLong(i));
+                    break;
+                case ParameterStore.TYPE_FLOAT:
+                    statement.setFloat(parameterIndex, (float)parameters.getDouble(i));
+                    break;
+                case ParameterStore.TYPE_DOUBLE:
+                    statement.setDouble(parameterIndex, parameters.getDouble(i));
+                    break;
+                case ParameterStore.TYPE_BYTES:
+                    statement.setBytes(parameterIndex, new byte[(int)parameters.getLong(i)]);
+                    break;
+                case ParameterStore.TYPE_OBJECT:
+                    // objects were captured by their string value, which the driver converts to the column type
+                    statement.setObject(parameterIndex, parameters.getValue(i));
+                    break;
+                default:
+                    statement.setNull(parameterIndex, Types.NULL);
+                    break;
+            }
+        }
+    }
+
+    private static long drain(ResultSet results) throws SQLException {
+        try (ResultSet rs = results) {
+            while (rs.next()) {
+                // only the cost of fetching the rows matters
+            }
+        }
+        return -1L;
+    }
+
+    /**
+     * A journal record copied out of its segment so that it can be replayed on another thread.
+     */
+    private static final class ReplayOperation {
+
+        // marks the end of the journal for a session's thread
+        static final ReplayOperation END = new ReplayOperation((byte)0, null, null, 0L, null, null, null, null,
+            false);
+
+        final byte type;
+        final String connectionId;
+        final String transactionId;
+        final long originalStartNanos;
+        final String sql;
+        // each statement of a batch, or null if this is not a batch
+        final List<String> batch;
+        final ParameterStore parameters;
+        final StatementMethod method;
+        final boolean committed;
+        // the time at which this is due to start, or zero if it is not replayed on a schedule
+        long scheduledNanos;
+
+        ReplayOperation(byte type, String connectionId, String transactionId, long originalStartNanos, String sql,
+                        List<String> batch, ParameterStore parameters, StatementMethod method, boolean committed) {
+            this.type = type;
+            this.connectionId = connectionId;
+            this.transactionId = transactionId;
+            this.originalStartNanos = originalStartNanos;
+            this.sql = sql;
+            this.batch = batch;
+            this.parameters = parameters;
+            this.method = method;
+            this.committed = committed;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String url = null;
+        Properties info = new Properties();
+        ReplayMode mode = ReplayMode.ORIGINAL_TIMING;
+        int topN = WorkloadAnalyzer.DEFAULT_TOP_N;
+        int maxThreads = DEFAULT_MAX_THREADS;
+        List<File> segmentFiles = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--url".equals(args[i]) && i + 1 < args.length) {
+                url = args[++i];
+            } else if ("--user".equals(args[i]) && i + 1 < args.length) {
+                info.setProperty("user", args[++i]);
+            } else if ("--password".equals(args[i]) && i + 1 < args.length) {
+                info.setProperty("password", args[++i]);
+            } else if ("--mode".equals(args[i]) && i + 1 < args.length) {
+                mode = ReplayMode.valueOf(args[++i]);
+            } else if ("--top".equals(args[i]) && i + 1 < args.length) {
+                topN = Integer.parseInt(args[++i]);
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                maxThreads = Integer.parseInt(args[++i]);
+            } else {
+                File file = new File(args[i]);
+                if (file.isDirectory()) {
+                    segmentFiles.addAll(JournalReader.listSegments(file));
+                } else {
+                    segmentFiles.add(file);
+                }
+            }
+        }
+        if (url == null || segmentFiles.isEmpty()) {
+            System.err.println("Usage: WorkloadReplayer --url <jdbc url> [--user U] [--password P] [--mode M] " +
+                "[--top N] [--threads N] <journal dir or segment>...");
+            System.exit(1);
+        }
+
+        WorkloadAnalyzer analyzer = new WorkloadAnalyzer(topN);
+        try {
+            System.out.println("Original workload");
+            System.out.println("=================");
+            analyzer.analyze(segmentFiles).print(System.out);
+        } finally {
+            analyzer.shutdown();
+        }
+        System.out.println();
+        System.out.println("Replayed workload");
+        System.out.println("=================");
+        new WorkloadReplayer(url, info, mode, topN, maxThreads).replay(segmentFiles).print(System.out);
+    }
+}
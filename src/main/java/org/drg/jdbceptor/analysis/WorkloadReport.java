@@ -0,0 +1,328 @@
+package org.drg.jdbceptor.analysis;
+
+import org.drg.jdbceptor.impl.HistogramSnapshot;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable result of analyzing a set of statement journal segments with a {@link WorkloadAnalyzer}. All durations are
+ * in nanoseconds and percentiles are only as precise as the underlying latency histograms.
+ *
+ * @author dgarson
+ */
+public class WorkloadReport {
+
+    private final int segmentCount;
+    private final long firstTimestampNanos;
+    private final long lastTimestampNanos;
+    private final long errorCount;
+    private final HistogramSnapshot latency;
+    private final List<FingerprintLoad> topFingerprints;
+    private final int fingerprintCount;
+    private final long transactionCount;
+    private final HistogramSnapshot statementsPerTransaction;
+    private final List<TransactionLoad> largestTransactions;
+    private final HistogramSnapshot holdTimes;
+    private final List<ConnectionLoad> topConnections;
+    private final int connectionCount;
+    private final int unclosedLeaseCount;
+
+    WorkloadReport(int segmentCount, WorkloadSummary summary, int topN) {
+        this.segmentCount = segmentCount;
+        boolean empty = (summary.firstTimestampNanos > summary.lastTimestampNanos);
+        this.firstTimestampNanos = (empty ? 0L : summary.firstTimestampNanos);
+        this.lastTimestampNanos = (empty ? 0L : summary.lastTimestampNanos);
+        this.errorCount = summary.errorCount;
+        this.latency = summary.latency;
+
+        List<FingerprintLoad> fingerprints = new ArrayList<>(summary.fingerprints.size());
+        for (WorkloadSummary.FingerprintTotals totals : summary.fingerprints.values()) {
+            fingerprints.add(new FingerprintLoad(totals.fingerprint, totals.latency, totals.errorCount,
+                totals.rowsAffected));
+        }
+        Collections.sort(fingerprints, new Comparator<FingerprintLoad>() {
+            @Override
+            public int compare(FingerprintLoad left, FingerprintLoad right) {
+                return Long.compare(right.getTotalNanos(), left.getTotalNanos());
+            }
+        });
+        this.fingerprintCount = fingerprints.size();
+        this.topFingerprints = Collections.unmodifiableList(new ArrayList<>(fingerprints.subList(0,
+            Math.min(topN, fingerprints.size()))));
+
+        this.transactionCount = summary.transactionCount;
+        this.statementsPerTransaction = summary.transactionSizes;
+        List<TransactionLoad> transactions = new ArrayList<>();
+        for (WorkloadSummary.TransactionTotals totals : summary.getLargestTransactions()) {
+            transactions.add(new TransactionLoad(totals.transactionId, totals.statementCount));
+        }
+        this.largestTransactions = Collections.unmodifiableList(transactions);
+
+        this.holdTimes = summary.holdTimes;
+        List<ConnectionLoad> connections = new ArrayList<>(summary.connections.size());
+        for (WorkloadSummary.ConnectionTotals totals : summary.connections.values()) {
+            connections.add(new ConnectionLoad(totals.connectionId, totals.leaseCount, totals.totalHoldNanos,
+                totals.maxHoldNanos));
+        }
+        Collections.sort(connections, new Comparator<ConnectionLoad>() {
+            @Override
+            public int compare(ConnectionLoad left, ConnectionLoad right) {
+                return Long.compare(right.getTotalHoldNanos(), left.getTotalHoldNanos());
+            }
+        });
+        this.connectionCount = connections.size();
+        this.topConnections = Collections.unmodifiableList(new ArrayList<>(connections.subList(0,
+            Math.min(topN, connections.size()))));
+        this.unclosedLeaseCount = summary.pendingOpens.size();
+    }
+
+    /**
+     * Returns the number of segment files that were analyzed.
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Returns the time between the earliest and the latest record analyzed.
+     */
+    public long getSpanNanos() {
+        return lastTimestampNanos - firstTimestampNanos;
+    }
+
+    public long getStatementCount() {
+        return latency.getTotalCount();
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Returns the latency distribution of every statement analyzed.
+     */
+    public HistogramSnapshot getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns the number of distinct SQL fingerprints that were executed.
+     */
+    public int getFingerprintCount() {
+        return fingerprintCount;
+    }
+
+    /**
+     * Returns the fingerprints that accounted for the most total execution time, largest first.
+     */
+    public List<FingerprintLoad> getTopFingerprints() {
+        return topFingerprints;
+    }
+
+    /**
+     * Returns the number of transactions that executed at least one statement or were seen to begin or finish.
+     */
+    public long getTransactionCount() {
+        return transactionCount;
+    }
+
+    /**
+     * Returns the distribution of the number of statements executed per transaction. Its values are counts rather than
+     * durations, despite the histogram type.
+     */
+    public HistogramSnapshot getStatementsPerTransaction() {
+        return statementsPerTransaction;
+    }
+
+    /**
+     * Returns the transactions that executed the most statements, largest first.
+     */
+    public List<TransactionLoad> getLargestTransactions() {
+        return largestTransactions;
+    }
+
+    /**
+     * Returns the distribution of how long connections were held between being opened (or leased from a pool) and
+     * closed (or released back to it).
+     */
+    public HistogramSnapshot getHoldTimes() {
+        return holdTimes;
+    }
+
+    /**
+     * Returns the number of distinct connections that were opened or closed.
+     */
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    /**
+     * Returns the connections that were held for the most total time, largest first.
+     */
+    public List<ConnectionLoad> getTopConnections() {
+        return topConnections;
+    }
+
+    /**
+     * Returns the number of connections that were still open at the end of the last segment.
+     */
+    public int getUnclosedLeaseCount() {
+        return unclosedLeaseCount;
+    }
+
+    /**
+     * Writes this report to <strong>out</strong> as plain text.
+     */
+    public void print(PrintStream out) {
+        out.printf("Segments analyzed: %d, span: %.3f s%n", segmentCount, getSpanNanos() / 1e9);
+        out.printf("Statements: %d (%d errors), latency: %s%n", getStatementCount(), errorCount,
+            formatLatency(latency));
+
+        out.printf("%nTop %d of %d fingerprints by total time:%n", topFingerprints.size(), fingerprintCount);
+        out.printf("%12s %12s %10s %10s %10s %10s %8s  %s%n", "total ms", "count", "mean ms", "p50 ms", "p99 ms",
+            "p999 ms", "errors", "fingerprint");
+        for (FingerprintLoad load : topFingerprints) {
+            HistogramSnapshot fingerprintLatency = load.getLatency();
+            out.printf("%12.1f %12d %10.3f %10.3f %10.3f %10.3f %8d  %s%n", millis(load.getTotalNanos()),
+                load.getCount(), millis(fingerprintLatency.getMeanNanos()),
+                millis(fingerprintLatency.getValueAtPercentile(50.0)),
+                millis(fingerprintLatency.getValueAtPercentile(99.0)),
+                millis(fingerprintLatency.getValueAtPercentile(99.9)), load.getErrorCount(), load.getFingerprint());
+        }
+
+        out.printf("%nTransactions: %d, statements per transaction: p50=%d p99=%d p999=%d max=%d%n",
+            transactionCount, statementsPerTransaction.getValueAtPercentile(50.0),
+            statementsPerTransaction.getValueAtPercentile(99.0), statementsPerTransaction.getValueAtPercentile(99.9),
+            statementsPerTransaction.getMaxNanos());
+        for (TransactionLoad load : largestTransactions) {
+            out.printf("%12d  %s%n", load.getStatementCount(), load.getTransactionId());
+        }
+
+        out.printf("%nConnections: %d (%d still open), hold time: %s%n", connectionCount, unclosedLeaseCount,
+            formatLatency(holdTimes));
+        out.printf("%12s %10s %10s %10s  %s%n", "total ms", "leases", "mean ms", "max ms", "connection");
+        for (ConnectionLoad load : topConnections) {
+            out.printf("%12.1f %10d %10.3f %10.3f  %s%n", millis(load.getTotalHoldNanos()), load.getLeaseCount(),
+                millis(load.getMeanHoldNanos()), millis(load.getMaxHoldNanos()), load.getConnectionId());
+        }
+        out.flush();
+    }
+
+    private static String formatLatency(HistogramSnapshot snapshot) {
+        return String.format("mean=%.3f ms p50=%.3f ms p99=%.3f ms p999=%.3f ms max=%.3f ms",
+            millis(snapshot.getMeanNanos()), millis(snapshot.getValueAtPercentile(50.0)),
+            millis(snapshot.getValueAtPercentile(99.0)), millis(snapshot.getValueAtPercentile(99.9)),
+            millis(snapshot.getMaxNanos()));
+    }
+
+    private static double millis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Execution totals for a single SQL fingerprint.
+     */
+    public static final class FingerprintLoad {
+
+        private final String fingerprint;
+        private final HistogramSnapshot latency;
+        private final long errorCount;
+        private final long rowsAffected;
+
+        FingerprintLoad(String fingerprint, HistogramSnapshot latency, long errorCount, long rowsAffected) {
+            this.fingerprint = fingerprint;
+            this.latency = latency;
+            this.errorCount = errorCount;
+            this.rowsAffected = rowsAffected;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public long getCount() {
+            return latency.getTotalCount();
+        }
+
+        public long getTotalNanos() {
+            return latency.getTotalNanos();
+        }
+
+        public HistogramSnapshot getLatency() {
+            return latency;
+        }
+
+        public long getErrorCount() {
+            return errorCount;
+        }
+
+        public long getRowsAffected() {
+            return rowsAffected;
+        }
+    }
+
+    /**
+     * Number of statements executed within a single transaction.
+     */
+    public static final class TransactionLoad {
+
+        private final String transactionId;
+        private final long statementCount;
+
+        TransactionLoad(String transactionId, long statementCount) {
+            this.transactionId = transactionId;
+            this.statementCount = statementCount;
+        }
+
+        public String getTransactionId() {
+            return transactionId;
+        }
+
+        public long getStatementCount() {
+            return statementCount;
+        }
+    }
+
+    /**
+     * Hold time totals for all leases of a single connection.
+     */
+    public static final class ConnectionLoad {
+
+        private final String connectionId;
+        private final long leaseCount;
+        private final long totalHoldNanos;
+        private final long maxHoldNanos;
+
+        ConnectionLoad(String connectionId, long leaseCount, long totalHoldNanos, long maxHoldNanos) {
+            this.connectionId = connectionId;
+            this.leaseCount = leaseCount;
+            this.totalHoldNanos = totalHoldNanos;
+            this.maxHoldNanos = maxHoldNanos;
+        }
+
+        public String getConnectionId() {
+            return connectionId;
+        }
+
+        public long getLeaseCount() {
+            return leaseCount;
+        }
+
+        public long getTotalHoldNanos() {
+            return totalHoldNanos;
+        }
+
+        public double getMeanHoldNanos() {
+            return (leaseCount == 0 ? 0.0 : (double)totalHoldNanos / leaseCount);
+        }
+
+        public long getMaxHoldNanos() {
+            return maxHoldNanos;
+        }
+    }
+}
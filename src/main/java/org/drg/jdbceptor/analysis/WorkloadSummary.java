@@ -0,0 +1,422 @@
+package org.drg.jdbceptor.analysis;
+
+import org.drg.jdbceptor.impl.HistogramSnapshot;
+import org.drg.jdbceptor.impl.JournalRecord;
+import org.drg.jdbceptor.impl.LatencyHistogram;
+import org.drg.jdbceptor.impl.SqlFingerprint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Mutable aggregate of the records in a contiguous run of journal segments. One summary is built per segment by a
+ * single thread and then merged pairwise with the summary of the segments that follow it, so a summary built by
+ * {@link WorkloadAnalyzer} is never accessed concurrently. A summary of a replay is shared by the connections being
+ * replayed instead, which must hold its monitor while updating it since it does no locking of its own. </br>
+ * Transactions and connection leases can span segments, so anything whose start or end was not seen by a summary is
+ * kept pending and resolved when it is merged with its neighbour.
+ *
+ * @author dgarson
+ * @see WorkloadAnalyzer
+ */
+class WorkloadSummary {
+
+    // per-fingerprint histograms use less precision since there may be many thousands of them
+    static final int FINGERPRINT_PRECISION_BITS = 5;
+
+    static final String UNKNOWN_FINGERPRINT = "<unknown>";
+
+    private final int topN;
+
+    long firstTimestampNanos = Long.MAX_VALUE;
+    long lastTimestampNanos = Long.MIN_VALUE;
+    long statementCount;
+    long errorCount;
+
+    // live histograms are only used while summarizing a single segment and are sealed into snapshots afterwards
+    private LatencyHistogram liveLatency = newHistogram(LatencyHistogram.DEFAULT_PRECISION_BITS);
+    private LatencyHistogram liveTransactionSizes = newHistogram(LatencyHistogram.DEFAULT_PRECISION_BITS);
+    private LatencyHistogram liveHoldTimes = newHistogram(LatencyHistogram.DEFAULT_PRECISION_BITS);
+    HistogramSnapshot latency;
+    HistogramSnapshot transactionSizes;
+    HistogramSnapshot holdTimes;
+
+    final Map<String, FingerprintTotals> fingerprints = new HashMap<>();
+
+    // transactions that have not been seen to both begin and finish yet
+    final Map<String, TransactionTotals> pendingTransactions = new HashMap<>();
+    final PriorityQueue<TransactionTotals> largestTransactions = new PriorityQueue<>();
+    long transactionCount;
+
+    final Map<String, ConnectionTotals> connections = new HashMap<>();
+    // the last lease opened on each connection that has not been closed yet
+    final Map<String, Long> pendingOpens = new HashMap<>();
+    // leases closed before any other record for the connection, which were opened in an earlier segment
+    final Map<String, Long> leadingCloses = new HashMap<>();
+
+    // reused for the templates of the segment currently being summarized
+    private final Map<Integer, String> templateFingerprints = new HashMap<>();
+
+    WorkloadSummary(int topN) {
+        this.topN = topN;
+    }
+
+    /**
+     * Adds a single record from the segment being summarized.
+     */
+    void add(JournalRecord record) {
+        long timestamp = record.getTimestampNanos();
+        switch (record.getType()) {
+            case JournalRecord.TYPE_STATEMENT_EXECUTED:
+                addStatement(timestamp, fingerprintOf(record), record.getElapsedNanos(),
+                    record.hasFlag(JournalRecord.FLAG_ERROR), record.getUpdateCount(), record.getTransactionId());
+                break;
+            case JournalRecord.TYPE_TRANSACTION_BEGAN:
+                transactionBegan(timestamp, record.getTransactionId());
+                break;
+            case JournalRecord.TYPE_TRANSACTION_FINISHED:
+                transactionFinished(timestamp, record.getTransactionId());
+                break;
+            case JournalRecord.TYPE_CONNECTION_OPENED:
+                if (isLease(record)) {
+                    leaseOpened(timestamp, record.getConnectionId());
+                } else {
+                    addTimestamp(timestamp);
+                }
+                break;
+            case JournalRecord.TYPE_CONNECTION_CLOSED:
+                if (isLease(record)) {
+                    leaseClosed(timestamp, record.getConnectionId());
+                } else {
+                    addTimestamp(timestamp);
+                }
+                break;
+            default:
+                addTimestamp(timestamp);
+                break;
+        }
+    }
+
+    /**
+     * Adds a single statement execution. This and the other event methods are also used to summarize a replayed
+     * workload, which has no journal records of its own.
+     */
+    void addStatement(long timestamp, String fingerprint, long elapsedNanos, boolean error, long updateCount,
+                      String transactionId) {
+        addTimestamp(timestamp);
+        statementCount++;
+        if (error) {
+            errorCount++;
+        }
+        liveLatency.record(elapsedNanos);
+
+        FingerprintTotals totals = fingerprints.get(fingerprint);
+        if (totals == null) {
+            totals = new FingerprintTotals(fingerprint);
+            fingerprints.put(fingerprint, totals);
+        }
+        totals.add(elapsedNanos, error, updateCount);
+
+        if (transactionId != null) {
+            pendingTransaction(transactionId).statementCount++;
+        }
+    }
+
+    void transactionBegan(long timestamp, String transactionId) {
+        addTimestamp(timestamp);
+        pendingTransaction(transactionId).began = true;
+    }
+
+    void transactionFinished(long timestamp, String transactionId) {
+        addTimestamp(timestamp);
+        TransactionTotals transaction = pendingTransaction(transactionId);
+        transaction.finished = true;
+        if (transaction.began) {
+            pendingTransactions.remove(transactionId);
+            completeTransaction(transaction, liveTransactionSizes);
+        }
+    }
+
+    void leaseOpened(long timestamp, String connectionId) {
+        addTimestamp(timestamp);
+        connectionTotals(connectionId);
+        pendingOpens.put(connectionId, timestamp);
+    }
+
+    void leaseClosed(long timestamp, String connectionId) {
+        addTimestamp(timestamp);
+        closeLease(connectionId, timestamp);
+    }
+
+    /**
+     * Marks the end of the segment, releasing any per-segment state and sealing the live histograms.
+     */
+    void endSegment() {
+        templateFingerprints.clear();
+        for (FingerprintTotals totals : fingerprints.values()) {
+            totals.seal();
+        }
+        latency = liveLatency.snapshot();
+        transactionSizes = liveTransactionSizes.snapshot();
+        holdTimes = liveHoldTimes.snapshot();
+        liveLatency = null;
+        liveTransactionSizes = null;
+        liveHoldTimes = null;
+    }
+
+    /**
+     * Merges the summary of the segments immediately following this summary's segments into this one.
+     */
+    void merge(WorkloadSummary next) {
+        firstTimestampNanos = Math.min(firstTimestampNanos, next.firstTimestampNanos);
+        lastTimestampNanos = Math.max(lastTimestampNanos, next.lastTimestampNanos);
+        statementCount += next.statementCount;
+        errorCount += next.errorCount;
+        latency = latency.plus(next.latency);
+
+        for (FingerprintTotals totals : next.fingerprints.values()) {
+            FingerprintTotals existing = fingerprints.get(totals.fingerprint);
+            if (existing == null) {
+                fingerprints.put(totals.fingerprint, totals);
+            } else {
+                existing.merge(totals);
+            }
+        }
+
+        LatencyHistogram resolved = newHistogram(LatencyHistogram.DEFAULT_PRECISION_BITS);
+        transactionCount += next.transactionCount;
+        for (TransactionTotals transaction : next.largestTransactions) {
+            offerLargest(transaction);
+        }
+        for (TransactionTotals transaction : next.pendingTransactions.values()) {
+            TransactionTotals existing = pendingTransactions.get(transaction.transactionId);
+            if (existing == null) {
+                pendingTransactions.put(transaction.transactionId, transaction);
+                continue;
+            }
+            existing.statementCount += transaction.statementCount;
+            existing.began |= transaction.began;
+            existing.finished |= transaction.finished;
+            if (existing.began && existing.finished) {
+                pendingTransactions.remove(existing.transactionId);
+                completeTransaction(existing, resolved);
+            }
+        }
+        transactionSizes = transactionSizes.plus(next.transactionSizes).plus(resolved.snapshot());
+
+        resolved = newHistogram(LatencyHistogram.DEFAULT_PRECISION_BITS);
+        for (Map.Entry<String, Long> entry : next.leadingCloses.entrySet()) {
+            String connectionId = entry.getKey();
+            Long openedNanos = pendingOpens.remove(connectionId);
+            if (openedNanos != null) {
+                long holdNanos = entry.getValue() - openedNanos;
+                connectionTotals(connectionId).addLease(holdNanos);
+                resolved.record(holdNanos);
+            } else if (!connections.containsKey(connectionId)) {
+                leadingCloses.put(connectionId, entry.getValue());
+            }
+        }
+        for (ConnectionTotals totals : next.connections.values()) {
+            connectionTotals(totals.connectionId).merge(totals);
+            // anything the next segments did with a connection supersedes a lease left open in this one
+            if (!next.leadingCloses.containsKey(totals.connectionId)) {
+                pendingOpens.remove(totals.connectionId);
+            }
+        }
+        pendingOpens.putAll(next.pendingOpens);
+        holdTimes = holdTimes.plus(next.holdTimes).plus(resolved.snapshot());
+    }
+
+    /**
+     * Completes every transaction that is still pending, such as those that were already running when the journal
+     * started or were not created through an instrumented transaction factory.
+     */
+    void completePendingTransactions() {
+        LatencyHistogram resolved = newHistogram(LatencyHistogram.DEFAULT_PRECISION_BITS);
+        for (TransactionTotals transaction : pendingTransactions.values()) {
+            completeTransaction(transaction, resolved);
+        }
+        pendingTransactions.clear();
+        transactionSizes = transactionSizes.plus(resolved.snapshot());
+    }
+
+    /**
+     * Returns the largest transactions by statement count, largest first.
+     */
+    List<TransactionTotals> getLargestTransactions() {
+        List<TransactionTotals> sorted = new ArrayList<>(largestTransactions);
+        Collections.sort(sorted, Collections.reverseOrder());
+        return sorted;
+    }
+
+    private void addTimestamp(long timestamp) {
+        firstTimestampNanos = Math.min(firstTimestampNanos, timestamp);
+        lastTimestampNanos = Math.max(lastTimestampNanos, timestamp);
+    }
+
+    private String fingerprintOf(JournalRecord record) {
+        int templateId = record.getTemplateId();
+        if (templateId == 0) {
+            return SqlFingerprint.of(record.getSql());
+        }
+        // templates are only decoded and fingerprinted once per segment
+        String fingerprint = templateFingerprints.get(templateId);
+        if (fingerprint == null) {
+            String sql = record.getSql();
+            fingerprint = (sql == null ? UNKNOWN_FINGERPRINT : SqlFingerprint.of(sql));
+            templateFingerprints.put(templateId, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    private TransactionTotals pendingTransaction(String transactionId) {
+        TransactionTotals transaction = pendingTransactions.get(transactionId);
+        if (transaction == null) {
+            transaction = new TransactionTotals(transactionId);
+            pendingTransactions.put(transactionId, transaction);
+        }
+        return transaction;
+    }
+
+    private void completeTransaction(TransactionTotals transaction, LatencyHistogram sizes) {
+        transactionCount++;
+        sizes.record(transaction.statementCount);
+        offerLargest(transaction);
+    }
+
+    private void offerLargest(TransactionTotals transaction) {
+        if (largestTransactions.size() < topN) {
+            largestTransactions.add(transaction);
+        } else if (transaction.compareTo(largestTransactions.peek()) > 0) {
+            largestTransactions.poll();
+            largestTransactions.add(transaction);
+        }
+    }
+
+    private void closeLease(String connectionId, long closedNanos) {
+        Long openedNanos = pendingOpens.remove(connectionId);
+        if (openedNanos != null) {
+            long holdNanos = closedNanos - openedNanos;
+            connectionTotals(connectionId).addLease(holdNanos);
+            liveHoldTimes.record(holdNanos);
+        } else if (!connections.containsKey(connectionId)) {
+            leadingCloses.put(connectionId, closedNanos);
+            connectionTotals(connectionId);
+        }
+    }
+
+    private ConnectionTotals connectionTotals(String connectionId) {
+        ConnectionTotals totals = connections.get(connectionId);
+        if (totals == null) {
+            totals = new ConnectionTotals(connectionId);
+            connections.put(connectionId, totals);
+        }
+        return totals;
+    }
+
+    /**
+     * Checks whether a connection record marks a lease being opened or closed. Physical events for pooled connections
+     * only bound the lifetime of the pooled connection, not how long it was held.
+     */
+    private static boolean isLease(JournalRecord record) {
+        return !(record.hasFlag(JournalRecord.FLAG_POOLED) && record.hasFlag(JournalRecord.FLAG_PHYSICAL));
+    }
+
+    static LatencyHistogram newHistogram(int precisionBits) {
+        // summaries are confined to a single thread, so a single stripe is enough
+        return new LatencyHistogram(1, precisionBits);
+    }
+
+    /**
+     * Totals for all executions sharing a single SQL fingerprint.
+     */
+    static class FingerprintTotals {
+
+        final String fingerprint;
+        long errorCount;
+        long rowsAffected;
+        private LatencyHistogram liveLatency = newHistogram(FINGERPRINT_PRECISION_BITS);
+        HistogramSnapshot latency;
+
+        FingerprintTotals(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        void add(long elapsedNanos, boolean error, long updateCount) {
+            liveLatency.record(elapsedNanos);
+            if (error) {
+                errorCount++;
+            }
+            if (updateCount > 0) {
+                rowsAffected += updateCount;
+            }
+        }
+
+        void seal() {
+            if (liveLatency != null) {
+                latency = liveLatency.snapshot();
+                liveLatency = null;
+            }
+        }
+
+        void merge(FingerprintTotals other) {
+            errorCount += other.errorCount;
+            rowsAffected += other.rowsAffected;
+            latency = latency.plus(other.latency);
+        }
+    }
+
+    /**
+     * Number of statements executed within a single transaction, ordered by that count.
+     */
+    static class TransactionTotals implements Comparable<TransactionTotals> {
+
+        final String transactionId;
+        long statementCount;
+        boolean began;
+        boolean finished;
+
+        TransactionTotals(String transactionId) {
+            this.transactionId = transactionId;
+        }
+
+        @Override
+        public int compareTo(TransactionTotals other) {
+            return Long.compare(statementCount, other.statementCount);
+        }
+    }
+
+    /**
+     * Totals for all leases of a single connection.
+     */
+    static class ConnectionTotals {
+
+        final String connectionId;
+        long leaseCount;
+        long totalHoldNanos;
+        long maxHoldNanos;
+
+        ConnectionTotals(String connectionId) {
+            this.connectionId = connectionId;
+        }
+
+        void addLease(long holdNanos) {
+            leaseCount++;
+            totalHoldNanos += holdNanos;
+            maxHoldNanos = Math.max(maxHoldNanos, holdNanos);
+        }
+
+        void merge(ConnectionTotals other) {
+            if (other == this) {
+                return;
+            }
+            leaseCount += other.leaseCount;
+            totalHoldNanos += other.totalHoldNanos;
+            maxHoldNanos = Math.max(maxHoldNanos, other.maxHoldNanos);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.drg.jdbceptor.api;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable, shared representation of a distinct sequence of stack frames, such as the application code that
+ * executed a statement. Call sites are interned so that every capture of the same frames resolves to the same
+ * instance, which means they can be compared by identity and aggregated by their {@link #getId() id}. </br>
+ * The only mutable state is the number of times the call site has been captured.
+ *
+ * @author dgarson
+ * @see CallSiteSourceInfo
+ */
+public final class CallSite {
+
+    /**
+     * Id of call sites that could not be interned, for example because the interning cache was full.
+     */
+    public static final int UNINTERNED_ID = 0;
+
+    private final int id;
+    private final List<StackTraceElement> frames;
+    private final AtomicLong occurrences = new AtomicLong();
+
+    /**
+     * @param id the stable id of this call site, or {@link #UNINTERNED_ID}
+     * @param frames the frames of this call site, innermost first, which must not be modified afterwards
+     */
+    public CallSite(int id, StackTraceElement[] frames) {
+        this.id = id;
+        this.frames = Collections.unmodifiableList(Arrays.asList(frames));
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Checks whether this call site was interned, and therefore shared by every capture of the same frames.
+     */
+    public boolean isInterned() {
+        return id != UNINTERNED_ID;
+    }
+
+    /**
+     * Returns the frames of this call site, innermost first. The returned list is read-only and shared.
+     */
+    public List<StackTraceElement> getFrames() {
+        return frames;
+    }
+
+    /**
+     * Returns the number of times this call site has been captured.
+     */
+    public long getOccurrences() {
+        return occurrences.get();
+    }
+
+    /**
+     * Records another capture of this call site.
+     */
+    public void recordOccurrence() {
+        occurrences.incrementAndGet();
+    }
+
+    public String toReadableString() {
+        return "CallSite#" + id + "\n\tat " + StringUtils.join(frames, "\n\tat ");
+    }
+
+    @Override
+    public String toString() {
+        return toReadableString();
+    }
+}
@@ -0,0 +1,58 @@
+package org.drg.jdbceptor.api;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Source info that refers to a shared, interned {@link CallSite} rather than retaining its own copy of the stack
+ * frames. Each instance only holds the call site reference along with the id of the thread it was captured on, so
+ * retaining large numbers of these costs a few bytes each regardless of stack depth.
+ *
+ * @author dgarson
+ */
+public class CallSiteSourceInfo implements SourceInfo {
+
+    private final CallSite callSite;
+    private final long threadId;
+
+    /**
+     * Creates source info for <strong>callSite</strong> on the current thread.
+     */
+    public CallSiteSourceInfo(CallSite callSite) {
+        this(callSite, Thread.currentThread().getId());
+    }
+
+    public CallSiteSourceInfo(CallSite callSite, long threadId) {
+        this.callSite = Preconditions.checkNotNull(callSite, "callSite");
+        this.threadId = threadId;
+    }
+
+    public CallSite getCallSite() {
+        return callSite;
+    }
+
+    /**
+     * Convenience getter for the id of the call site, which can be used to aggregate by call site.
+     */
+    public int getCallSiteId() {
+        return callSite.getId();
+    }
+
+    public long getThreadId() {
+        return threadId;
+    }
+
+    @Override
+    public String toReadableString() {
+        return "Thread#" + threadId + " " + callSite.toReadableString();
+    }
+
+    @Override
+    public boolean isDisabled() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return toReadableString();
+    }
+}
@@ -55,7 +55,10 @@ public interface InstrumentedStatement<T extends Statement> extends Statement, U
      * Returns the SQL query executed for this statement. If this statement is a prepared or callable statement, then
      * the returned query may or may not include question marks for parameterized queries, depending on whether query
      * parameter capturing is enabled through the
-     * {@link org.drg.jdbceptor.config.JdbceptorConfiguration#isCaptureQueryParametersEnabled()} property.
+     * {@link org.drg.jdbceptor.config.JdbceptorConfiguration#isCaptureQueryParametersEnabled()} property. </br>
+     * For prepared and callable statements the parameter substitution is deferred until this method is first called
+     * for a given execution, so statements whose SQL is never requested do not pay the formatting cost.
+     * @see SqlSnapshotProvider#getSqlSnapshot()
      */
     String getSqlStatement();
 }
\ No newline at end of file
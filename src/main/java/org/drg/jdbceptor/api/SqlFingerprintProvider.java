@@ -0,0 +1,23 @@
+package org.drg.jdbceptor.api;
+
+/**
+ * Optional interface for an {@link InstrumentedStatement} that can provide a normalized fingerprint of its SQL. This is
+ * kept separate from {@link InstrumentedStatement} so that existing implementations of that interface are not required
+ * to provide it; statements that do not implement this interface are fingerprinted from their formatted
+ * {@link InstrumentedStatement#getSqlStatement()}. </br>
+ * All statements created by Jdbceptor implement this interface.
+ *
+ * @author dgarson
+ * @see org.drg.jdbceptor.impl.SqlFingerprint#forStatement(InstrumentedStatement)
+ */
+public interface SqlFingerprintProvider {
+
+    /**
+     * Returns a normalized fingerprint of the SQL for the current (or most recent) execution of this statement, with
+     * literal values and <code>IN</code> lists collapsed, so that executions of the same logical query can be grouped.
+     * This is computed at most once per execution, and for prepared and callable statements only once per distinct SQL
+     * query. This returns <code>null</code> if no SQL is available, such as before the first execution.
+     * @see org.drg.jdbceptor.impl.SqlFingerprint
+     */
+    String getSqlFingerprint();
+}
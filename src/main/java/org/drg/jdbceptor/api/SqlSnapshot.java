@@ -0,0 +1,35 @@
+package org.drg.jdbceptor.api;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Immutable capture of the SQL executed by an {@link InstrumentedStatement}, along with a copy of any query parameters
+ * that were bound at the time it was taken. The fully formatted SQL is only built the first time it is requested, so
+ * listeners that need to retain statement SQL beyond their callback can take a snapshot cheaply on the JDBC caller's
+ * thread and defer the formatting cost to another thread.
+ *
+ * @author dgarson
+ * @see SqlSnapshotProvider#getSqlSnapshot()
+ */
+public interface SqlSnapshot {
+
+    /**
+     * Returns the SQL as it was provided by the caller, which may contain question marks for parameterized queries.
+     */
+    String getRawSql();
+
+    /**
+     * Returns the fully formatted SQL, with parameter values substituted if they were captured. The formatting is
+     * performed on the calling thread the first time this method is invoked and cached thereafter.
+     */
+    String getSqlStatement();
+
+    /**
+     * Formats this snapshot using the provided <strong>executor</strong>, returning a future that will be completed
+     * with the value of {@link #getSqlStatement()}. If the SQL has already been formatted then the returned future is
+     * already complete.
+     */
+    ListenableFuture<String> formatAsync(Executor executor);
+}
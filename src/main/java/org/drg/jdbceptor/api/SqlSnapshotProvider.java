@@ -0,0 +1,21 @@
+package org.drg.jdbceptor.api;
+
+/**
+ * Optional interface for an {@link InstrumentedStatement} that can take an immutable {@link SqlSnapshot} of the SQL for
+ * its current (or most recent) execution. This is kept separate from {@link InstrumentedStatement} so that existing
+ * implementations of that interface are not required to provide it; statements that do not implement this interface
+ * are snapshotted from their already formatted {@link InstrumentedStatement#getSqlStatement()}. </br>
+ * All statements created by Jdbceptor implement this interface.
+ *
+ * @author dgarson
+ */
+public interface SqlSnapshotProvider {
+
+    /**
+     * Returns an immutable snapshot of the SQL for the current (or most recent) execution of this statement. Unlike
+     * {@link InstrumentedStatement#getSqlStatement()}, the snapshot remains valid after parameters are re-bound and may
+     * be formatted on another thread.
+     * @see SqlSnapshot#formatAsync(java.util.concurrent.Executor)
+     */
+    SqlSnapshot getSqlSnapshot();
+}
@@ -15,8 +15,16 @@ public class StackTraceSourceInfo implements SourceInfo {
     private final long threadId;
 
     public StackTraceSourceInfo() {
+        this(Thread.currentThread().getStackTrace());
+    }
+
+    /**
+     * Creates source info for the current thread with stack trace elements that have already been captured, and
+     * possibly filtered, by the caller.
+     */
+    public StackTraceSourceInfo(StackTraceElement[] stackTraceElements) {
         Thread thread = Thread.currentThread();
-        stackTraceElements = thread.getStackTrace();
+        this.stackTraceElements = stackTraceElements;
         threadName = thread.getName();
         threadId = thread.getId();
     }
@@ -0,0 +1,50 @@
+package org.drg.jdbceptor.api;
+
+/**
+ * Enumeration of the JDBC statement methods that execute SQL against the database and are timed by Jdbceptor.
+ *
+ * @author dgarson
+ */
+public enum StatementMethod {
+    EXECUTE("execute"),
+    EXECUTE_QUERY("executeQuery"),
+    EXECUTE_UPDATE("executeUpdate"),
+    EXECUTE_BATCH("executeBatch"),
+    //
+    ;
+
+    private final String methodName;
+
+    StatementMethod(String methodName) {
+        this.methodName = methodName;
+    }
+
+    /**
+     * Returns the name of the {@link java.sql.Statement} method, such as &quot;executeQuery&quot;.
+     */
+    public String getMethodName() {
+        return methodName;
+    }
+
+    /**
+     * Returns the enum value for a given statement <strong>methodName</strong>, or <code>null</code> if it is not one
+     * of the timed execution methods.
+     */
+    public static StatementMethod forMethodName(String methodName) {
+        if (methodName == null) {
+            return null;
+        }
+        switch (methodName) {
+            case "execute":
+                return EXECUTE;
+            case "executeQuery":
+                return EXECUTE_QUERY;
+            case "executeUpdate":
+                return EXECUTE_UPDATE;
+            case "executeBatch":
+                return EXECUTE_BATCH;
+            default:
+                return null;
+        }
+    }
+}
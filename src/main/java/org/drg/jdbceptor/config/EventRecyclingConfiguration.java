@@ -0,0 +1,20 @@
+package org.drg.jdbceptor.config;
+
+/**
+ * Optional extension of {@link JdbceptorConfiguration} for configurations that allow statement events to be recycled.
+ * Configurations that only implement {@link JdbceptorConfiguration} never recycle events.
+ *
+ * @author dgarson
+ */
+public interface EventRecyclingConfiguration extends JdbceptorConfiguration {
+
+    /**
+     * Checks whether each connection should re-use a single pair of statement executing/executed events for all of its
+     * statement executions rather than allocating new events every time. </br>
+     * When enabled, events passed to a {@link org.drg.jdbceptor.event.StatementExecutionListener} are only valid for the
+     * duration of the callback, so any listener that retains an event (e.g. to process it on another thread) must use
+     * the event's <code>copy()</code> method. </br>
+     * This is consulted whenever a connection is opened (or acquired from a pool).
+     */
+    boolean isRecycleStatementEventsEnabled();
+}
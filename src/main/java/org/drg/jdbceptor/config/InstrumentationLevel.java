@@ -0,0 +1,50 @@
+package org.drg.jdbceptor.config;
+
+/**
+ * How much instrumentation is applied to connections of a data source, which may be changed at runtime without a
+ * restart. The level is read once whenever a connection is opened or acquired from a pool, so a change applies to every
+ * lease that starts afterwards while leases already in progress keep the level they started with.
+ *
+ * @author dgarson
+ * @see org.drg.jdbceptor.impl.DataSourceManager#setInstrumentationLevel(InstrumentationLevel)
+ */
+public enum InstrumentationLevel {
+
+    /**
+     * No instrumentation at all. Connections are opened in pass-through mode and the {@link FeatureChecker} is never
+     * consulted, so this costs nothing beyond reading the level once per lease.
+     */
+    OFF,
+
+    /**
+     * Instrumentation is decided per lease by the data source's {@link FeatureChecker}, and query parameters are
+     * captured according to {@link JdbceptorConfiguration#isCaptureQueryParametersEnabled()}. This is the level for
+     * instrumented data sources until it is changed.
+     */
+    FEATURES,
+
+    /**
+     * Statements are only counted and timed, without capturing any SQL.
+     * @see MetricsFeatureChecker#shouldCollectStatementMetrics()
+     */
+    METRICS,
+
+    /**
+     * Statements are captured, but their query parameters are not.
+     */
+    STATEMENTS,
+
+    /**
+     * Statements and their query parameters are always captured, such as while investigating an incident.
+     */
+    FULL,
+    //
+    ;
+
+    /**
+     * Returns <code>true</code> if connections may be instrumented at this level.
+     */
+    public boolean isEnabled() {
+        return this != OFF;
+    }
+}
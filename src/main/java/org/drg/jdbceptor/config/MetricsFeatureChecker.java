@@ -0,0 +1,21 @@
+package org.drg.jdbceptor.config;
+
+/**
+ * Optional extension of {@link FeatureChecker} for feature checkers that support the metrics-only tier of
+ * instrumentation. Instrumented connections whose feature checker does not implement this interface never collect
+ * statement metrics unless they are capturing statements.
+ *
+ * @author dgarson
+ */
+public interface MetricsFeatureChecker extends FeatureChecker {
+
+    /**
+     * Checks whether statements should be timed, without capturing any SQL, for connections that are being instrumented
+     * but for which {@link #shouldCaptureStatements()} returned <code>false</code>. This is a much lighter-weight tier
+     * of instrumentation: executions are only counted and timed, per statement method, in the data source's
+     * {@link org.drg.jdbceptor.impl.StatementMetrics}, and no SQL, query parameters or statement listeners are retained.
+     * </br>
+     * Like statement capturing, this is consulted and cached when a connection is opened (or acquired from a pool).
+     */
+    boolean shouldCollectStatementMetrics();
+}
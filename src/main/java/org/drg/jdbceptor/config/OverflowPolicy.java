@@ -0,0 +1,32 @@
+package org.drg.jdbceptor.config;
+
+/**
+ * Determines what happens when a listener event is published for asynchronous delivery but the data source's event
+ * queue is already full (or, for {@link #SAMPLE}, filling up).
+ *
+ * @author dgarson
+ * @see org.drg.jdbceptor.impl.DataSourceManager#enableAsyncDispatch(int, OverflowPolicy)
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Discard the event and count it as dropped. The JDBC caller never waits on listeners, but listeners may miss
+     * events under sustained load.
+     */
+    DROP,
+
+    /**
+     * Make the JDBC caller wait until space is available in the queue. No events are lost, but a consistently slow
+     * listener will eventually add to query latency just as it would when invoked synchronously.
+     */
+    BLOCK,
+
+    /**
+     * Once the queue is more than half full, only accept a random sample of events and drop the rest, so that listeners
+     * continue to see a representative subset of activity rather than nothing at all once the queue fills. Events are
+     * still dropped if the queue is completely full.
+     */
+    SAMPLE,
+    //
+    ;
+}
@@ -0,0 +1,45 @@
+package org.drg.jdbceptor.config;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sampling feature checker that fully instruments a random fraction of connection leases. Each decision draws from the
+ * calling thread's own random number generator, so it shares no state with other threads and costs a few
+ * nanoseconds.
+ *
+ * @author dgarson
+ */
+public class ProbabilisticFeatureChecker extends SamplingFeatureChecker {
+
+    // 2^31, the exclusive upper bound of the non-negative integers that are compared against the threshold
+    private static final double THRESHOLD_SCALE = 2147483648.0;
+
+    private final double fraction;
+    private final long threshold;
+
+    /**
+     * @param fraction the fraction of leases to sample, from 0.0 (none) to 1.0 (all), such as 0.01 for 1%
+     * @param collectMetricsWhenNotSampled if true then leases that are not sampled still collect statement metrics,
+     *                                     otherwise they are not instrumented at all
+     */
+    public ProbabilisticFeatureChecker(double fraction, boolean collectMetricsWhenNotSampled) {
+        super(collectMetricsWhenNotSampled);
+        Preconditions.checkArgument(fraction >= 0.0 && fraction <= 1.0, "fraction must be between 0.0 and 1.0");
+        this.fraction = fraction;
+        this.threshold = (long)(fraction * THRESHOLD_SCALE);
+    }
+
+    /**
+     * Returns the fraction of leases that are sampled.
+     */
+    public double getFraction() {
+        return fraction;
+    }
+
+    @Override
+    protected boolean sample() {
+        return (ThreadLocalRandom.current().nextInt() & Integer.MAX_VALUE) < threshold;
+    }
+}
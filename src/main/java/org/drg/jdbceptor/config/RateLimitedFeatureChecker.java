@@ -0,0 +1,41 @@
+package org.drg.jdbceptor.config;
+
+import com.google.common.base.Preconditions;
+import org.drg.jdbceptor.util.BurstRateLimiter;
+
+/**
+ * Sampling feature checker that fully instruments up to a fixed number of connection leases per second, which bounds
+ * the cost of capturing regardless of traffic. Each checker has its own budget, so it should not be shared between
+ * data sources. </br>
+ * The budget allows a burst of up to one second's worth of leases and is enforced by a {@link BurstRateLimiter}, so
+ * once it is used up every lease is turned away with a single read.
+ *
+ * @author dgarson
+ */
+public class RateLimitedFeatureChecker extends SamplingFeatureChecker {
+
+    private final BurstRateLimiter limiter;
+
+    /**
+     * @param leasesPerSecond the maximum sustained number of leases sampled per second, which is also the largest burst
+     * @param collectMetricsWhenNotSampled if true then leases that are not sampled still collect statement metrics,
+     *                                     otherwise they are not instrumented at all
+     */
+    public RateLimitedFeatureChecker(int leasesPerSecond, boolean collectMetricsWhenNotSampled) {
+        super(collectMetricsWhenNotSampled);
+        Preconditions.checkArgument(leasesPerSecond > 0, "leasesPerSecond must be positive");
+        this.limiter = new BurstRateLimiter(leasesPerSecond);
+    }
+
+    /**
+     * Returns the maximum number of leases sampled per second.
+     */
+    public int getLeasesPerSecond() {
+        return limiter.getPermitsPerSecond();
+    }
+
+    @Override
+    protected boolean sample() {
+        return limiter.tryAcquire();
+    }
+}
@@ -0,0 +1,52 @@
+package org.drg.jdbceptor.config;
+
+/**
+ * Base class for feature checkers that only fully instrument a sample of connection leases, so that full capture can
+ * be afforded in production. Subclasses decide which leases are sampled, and each lease is sampled at most once, when
+ * it is opened or acquired from a pool. </br>
+ * Leases that are not sampled are either left uninstrumented altogether, or still have their statements counted and
+ * timed so that {@link org.drg.jdbceptor.impl.StatementMetrics} keep covering all traffic. In the latter case every
+ * lease is instrumented and only statement capturing is sampled.
+ *
+ * @author dgarson
+ */
+public abstract class SamplingFeatureChecker implements MetricsFeatureChecker {
+
+    private final boolean collectMetricsWhenNotSampled;
+
+    /**
+     * @param collectMetricsWhenNotSampled if true then leases that are not sampled still collect statement metrics,
+     *                                     otherwise they are not instrumented at all
+     */
+    protected SamplingFeatureChecker(boolean collectMetricsWhenNotSampled) {
+        this.collectMetricsWhenNotSampled = collectMetricsWhenNotSampled;
+    }
+
+    /**
+     * Returns <code>true</code> if leases that are not sampled still collect statement metrics.
+     */
+    public boolean isCollectMetricsWhenNotSampled() {
+        return collectMetricsWhenNotSampled;
+    }
+
+    /**
+     * Decides whether the lease being opened is sampled. This is invoked exactly once per lease.
+     */
+    protected abstract boolean sample();
+
+    @Override
+    public boolean shouldInstrumentConnection() {
+        return collectMetricsWhenNotSampled || sample();
+    }
+
+    @Override
+    public boolean shouldCaptureStatements() {
+        // only consulted for instrumented leases, which were already sampled unless every lease is instrumented
+        return !collectMetricsWhenNotSampled || sample();
+    }
+
+    @Override
+    public boolean shouldCollectStatementMetrics() {
+        return collectMetricsWhenNotSampled;
+    }
+}
@@ -0,0 +1,30 @@
+package org.drg.jdbceptor.config;
+
+/**
+ * Determines how each slow statement is written by a {@link org.drg.jdbceptor.impl.SlowQueryLog}. Both formats write a
+ * single line per statement, so log files can be tailed and split on line boundaries.
+ *
+ * @author dgarson
+ */
+public enum SlowQueryLogFormat {
+
+    /**
+     * One JSON object per line, with the fields <code>time</code>, <code>dataSource</code>, <code>elapsedMs</code>,
+     * <code>method</code>, <code>connectionId</code>, <code>transactionId</code>, <code>error</code>,
+     * <code>callSite</code> (an array of application stack frames, innermost first) and <code>sql</code>. Fields
+     * without a value are written as <code>null</code>.
+     */
+    JSON_LINES,
+
+    /**
+     * A compact, human readable line of space separated fields ending with the SQL, such as
+     * <pre>
+     *   2016-01-03T17:42:05.120Z 1532.114ms executeQuery conn=main-17 tx=main-tx-42 select * from users where id = 5
+     * </pre>
+     * Transaction ids, errors and the innermost application frame of the call site (as <code>at=</code>) are only
+     * included when present, and line breaks within the SQL are replaced by spaces.
+     */
+    TEXT,
+    //
+    ;
+}
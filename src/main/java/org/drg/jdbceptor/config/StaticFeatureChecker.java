@@ -8,9 +8,10 @@ import com.google.common.base.Preconditions;
  *
  * @author dgarson
  */
-public class StaticFeatureChecker implements FeatureChecker {
+public class StaticFeatureChecker implements MetricsFeatureChecker {
 
     private boolean captureStatementsEnabled;
+    private boolean statementMetricsEnabled;
     private boolean instrumentationEnabled;
     private boolean mutable;
 
@@ -22,7 +23,18 @@ public class StaticFeatureChecker implements FeatureChecker {
      */
     public StaticFeatureChecker(boolean instrumentationEnabled, boolean captureStatementsEnabled,
                                 boolean mutable) {
+        this(instrumentationEnabled, captureStatementsEnabled, /*statementMetricsEnabled=*/false, mutable);
+    }
+
+    /**
+     * Creates a new static feature checker that additionally specifies whether statement metrics are collected for
+     * instrumented connections that are not capturing statements.
+     * @see MetricsFeatureChecker#shouldCollectStatementMetrics()
+     */
+    public StaticFeatureChecker(boolean instrumentationEnabled, boolean captureStatementsEnabled,
+                                boolean statementMetricsEnabled, boolean mutable) {
         this.captureStatementsEnabled = captureStatementsEnabled;
+        this.statementMetricsEnabled = statementMetricsEnabled;
         this.instrumentationEnabled = instrumentationEnabled;
         this.mutable = mutable;
     }
@@ -62,4 +74,18 @@ public class StaticFeatureChecker implements FeatureChecker {
         Preconditions.checkState(mutable, "Cannot modify an immutable feature checker");
         this.captureStatementsEnabled = captureStatementsEnabled;
     }
+
+    @Override
+    public boolean shouldCollectStatementMetrics() {
+        return statementMetricsEnabled;
+    }
+
+    /**
+     * Sets whether statement metrics are collected when statements are not being captured.
+     * @throws IllegalStateException if this checker is not mutable
+     */
+    public void setStatementMetricsEnabled(boolean statementMetricsEnabled) {
+        Preconditions.checkState(mutable, "Cannot modify an immutable feature checker");
+        this.statementMetricsEnabled = statementMetricsEnabled;
+    }
 }
@@ -0,0 +1,24 @@
+package org.drg.jdbceptor.config;
+
+/**
+ * Decides, once a transaction has finished, whether the statements it buffered are worth keeping. Unlike a
+ * {@link FeatureChecker}, which has to decide before anything is known about a connection lease, this is consulted
+ * with the outcome of the whole transaction, so full detail can be kept for exactly the transactions that turn out to
+ * be interesting.
+ *
+ * @author dgarson
+ * @see org.drg.jdbceptor.impl.DataSourceManager#enableTailSampling
+ */
+public interface TailSamplingPolicy {
+
+    /**
+     * Determines whether the statements of a finished transaction should be materialized and reported. This is invoked
+     * on the thread that committed or rolled back the transaction, once per transaction, and should be cheap.
+     * @param durationNanos how long the transaction was open
+     * @param statementCount the number of statements executed in the transaction, including any that did not fit in
+     *                       the buffer
+     * @param errorCount the number of those statements that threw an exception
+     * @param committed true if the transaction was committed, false if it was rolled back
+     */
+    boolean shouldRetain(long durationNanos, int statementCount, int errorCount, boolean committed);
+}
@@ -0,0 +1,55 @@
+package org.drg.jdbceptor.config;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tail sampling policy that retains transactions that were slow, that failed, or that executed an unusually large
+ * number of statements.
+ *
+ * @author dgarson
+ */
+public class ThresholdTailSamplingPolicy implements TailSamplingPolicy {
+
+    private final long slowTransactionNanos;
+    private final int statementThreshold;
+    private final boolean retainFailed;
+
+    /**
+     * @param slowTransactionThreshold transactions open for at least this long are retained, or zero to not retain
+     *                                 transactions for being slow
+     * @param unit the unit of <strong>slowTransactionThreshold</strong>
+     * @param statementThreshold transactions that execute more than this many statements are retained, or zero to not
+     *                           retain transactions for their number of statements
+     * @param retainFailed whether transactions that were rolled back, or in which any statement threw an exception,
+     *                     are retained
+     */
+    public ThresholdTailSamplingPolicy(long slowTransactionThreshold, TimeUnit unit, int statementThreshold,
+                                       boolean retainFailed) {
+        Preconditions.checkArgument(slowTransactionThreshold >= 0L, "slowTransactionThreshold must not be negative");
+        Preconditions.checkArgument(statementThreshold >= 0, "statementThreshold must not be negative");
+        this.slowTransactionNanos = unit.toNanos(slowTransactionThreshold);
+        this.statementThreshold = statementThreshold;
+        this.retainFailed = retainFailed;
+    }
+
+    public long getSlowTransactionNanos() {
+        return slowTransactionNanos;
+    }
+
+    public int getStatementThreshold() {
+        return statementThreshold;
+    }
+
+    public boolean isRetainFailed() {
+        return retainFailed;
+    }
+
+    @Override
+    public boolean shouldRetain(long durationNanos, int statementCount, int errorCount, boolean committed) {
+        return (retainFailed && (!committed || errorCount > 0)) ||
+            (slowTransactionNanos > 0L && durationNanos >= slowTransactionNanos) ||
+            (statementThreshold > 0 && statementCount > statementThreshold);
+    }
+}
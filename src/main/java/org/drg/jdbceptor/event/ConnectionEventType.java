@@ -9,6 +9,7 @@ import org.drg.jdbceptor.config.DataSourceConfiguration;
  *     <li>connection closed/released</li>
  *     <li>prior to statement execution</li>
  *     <li>after statement execution</li>
+ *     <li>connection held, or transaction left open, for longer than the lease watchdog allows</li>
  * </ul>
  *
  * @author dgarson
@@ -18,6 +19,8 @@ public enum ConnectionEventType implements EventType {
     CONNECTION_CLOSED("Connection Closed", "Connection Released"),
     STATEMENT_EXECUTING("Executing Statement"),
     STATEMENT_EXECUTED("Executed Statement"),
+    CONNECTION_OVERDUE("Connection Held Too Long", "Connection Lease Overdue"),
+    TRANSACTION_OVERDUE("Transaction Open Too Long"),
     //
     ;
 
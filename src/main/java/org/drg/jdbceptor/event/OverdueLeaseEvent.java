@@ -0,0 +1,96 @@
+package org.drg.jdbceptor.event;
+
+import org.drg.jdbceptor.api.InstrumentedConnection;
+import org.drg.jdbceptor.api.InstrumentedStatement;
+import org.drg.jdbceptor.api.SourceInfo;
+import org.drg.jdbceptor.hibernate.InstrumentedTransaction;
+
+/**
+ * Event that is fired by a lease watchdog when a connection has been held, or a transaction has been left open, for
+ * longer than its budget. The event source is the overdue transaction, if any, and otherwise the connection. </br>
+ * The executing statement is read from the connection on the watchdog thread, so it is a best-effort snapshot that
+ * may already have completed by the time the event is handled.
+ *
+ * @author dgarson
+ */
+public class OverdueLeaseEvent extends ConnectionEvent {
+
+    private final InstrumentedTransaction transaction;
+    private final SourceInfo acquisitionSource;
+    private final InstrumentedStatement<?> executingStatement;
+    private final long heldNanos;
+    private final long budgetNanos;
+
+    /**
+     * Creates an event for a connection lease that is overdue.
+     */
+    public OverdueLeaseEvent(InstrumentedConnection connection, long timestampNanos, boolean pooled,
+                             SourceInfo acquisitionSource, InstrumentedStatement<?> executingStatement,
+                             long heldNanos, long budgetNanos) {
+        super(connection, ConnectionEventType.CONNECTION_OVERDUE, timestampNanos, pooled, connection);
+        this.transaction = null;
+        this.acquisitionSource = acquisitionSource;
+        this.executingStatement = executingStatement;
+        this.heldNanos = heldNanos;
+        this.budgetNanos = budgetNanos;
+    }
+
+    /**
+     * Creates an event for a transaction that is overdue. The <strong>connection</strong> may be <code>null</code>
+     * if the transaction does not currently have one.
+     */
+    public OverdueLeaseEvent(InstrumentedTransaction transaction, InstrumentedConnection connection,
+                             long timestampNanos, boolean pooled, SourceInfo acquisitionSource,
+                             InstrumentedStatement<?> executingStatement, long heldNanos, long budgetNanos) {
+        super(connection, ConnectionEventType.TRANSACTION_OVERDUE, timestampNanos, pooled, transaction);
+        this.transaction = transaction;
+        this.acquisitionSource = acquisitionSource;
+        this.executingStatement = executingStatement;
+        this.heldNanos = heldNanos;
+        this.budgetNanos = budgetNanos;
+    }
+
+    /**
+     * Checks whether this event is for an overdue transaction rather than a connection lease.
+     */
+    public boolean isTransaction() {
+        return transaction != null;
+    }
+
+    /**
+     * Returns the overdue transaction, or <code>null</code> if this event is for a connection lease.
+     */
+    public InstrumentedTransaction getTransaction() {
+        return transaction;
+    }
+
+    /**
+     * Returns where the connection was acquired, or the transaction begun, or {@link SourceInfo#DISABLED} if the
+     * watchdog is not capturing sources.
+     */
+    public SourceInfo getAcquisitionSource() {
+        return acquisitionSource;
+    }
+
+    /**
+     * Returns the statement that was executing on the connection when the lease became overdue, or <code>null</code>
+     * if the connection was idle.
+     */
+    public InstrumentedStatement<?> getExecutingStatement() {
+        return executingStatement;
+    }
+
+    /**
+     * Returns how long the connection had been held, or the transaction open, when this event was fired.
+     */
+    public long getHeldNanos() {
+        return heldNanos;
+    }
+
+    /**
+     * Returns the budget that the connection lease or transaction exceeded.
+     */
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+}
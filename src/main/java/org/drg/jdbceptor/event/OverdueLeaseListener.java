@@ -0,0 +1,18 @@
+package org.drg.jdbceptor.event;
+
+/**
+ * Listener whose callback is invoked by a data source's lease watchdog whenever a connection has been held, or a
+ * transaction has been left open, for longer than its budget.
+ *
+ * @author dgarson
+ * @see org.drg.jdbceptor.impl.DataSourceManager#enableLeaseWatchdog
+ */
+public interface OverdueLeaseListener {
+
+    /**
+     * Invoked on the watchdog thread, at most once per connection lease or transaction, once it exceeds its budget.
+     * Implementations should return quickly since the watchdog does not check any other leases in the meantime.
+     * @param event event object describing the overdue connection or transaction
+     */
+    void leaseOverdue(OverdueLeaseEvent event);
+}
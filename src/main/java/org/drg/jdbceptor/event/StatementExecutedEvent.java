@@ -2,24 +2,71 @@ package org.drg.jdbceptor.event;
 
 import org.drg.jdbceptor.api.InstrumentedConnection;
 import org.drg.jdbceptor.api.InstrumentedStatement;
+import org.drg.jdbceptor.api.SourceInfo;
+import org.drg.jdbceptor.api.StatementMethod;
 
 /**
- * Event object for after a statement has been executed through an instrumented connection.
+ * Event object for after a statement has been executed through an instrumented connection. </br>
+ * If statement event recycling is enabled then the same instance is re-populated for every execution on a connection
+ * and is only valid for the duration of the listener callback. Listeners that need to retain the event beyond that
+ * must hold onto the result of {@link #copy()} instead.
  *
  * @author dgarson
+ * @see org.drg.jdbceptor.config.EventRecyclingConfiguration#isRecycleStatementEventsEnabled()
  */
 public class StatementExecutedEvent extends ConnectionEvent {
 
     private final String methodName;
+    private final StatementMethod method;
     private final Exception exception;
     private final long executionTimeNanos;
+    private final long updateCount;
+    private final SourceInfo callSite;
 
     public StatementExecutedEvent(InstrumentedConnection connection, long timestampNanos, long executionTimeNanos,
                                   InstrumentedStatement<?> statement, Exception exception, String methodName) {
+        this(connection, timestampNanos, executionTimeNanos, statement, exception, methodName, /*updateCount=*/-1L);
+    }
+
+    public StatementExecutedEvent(InstrumentedConnection connection, long timestampNanos, long executionTimeNanos,
+                                  InstrumentedStatement<?> statement, Exception exception, String methodName,
+                                  long updateCount) {
+        this(connection, timestampNanos, executionTimeNanos, statement, exception, methodName, updateCount,
+            /*callSite=*/null);
+    }
+
+    public StatementExecutedEvent(InstrumentedConnection connection, long timestampNanos, long executionTimeNanos,
+                                  InstrumentedStatement<?> statement, Exception exception, String methodName,
+                                  long updateCount, SourceInfo callSite) {
+        this(connection, timestampNanos, executionTimeNanos, statement, exception, methodName,
+            StatementMethod.forMethodName(methodName), updateCount, callSite);
+    }
+
+    public StatementExecutedEvent(InstrumentedConnection connection, long timestampNanos, long executionTimeNanos,
+                                  InstrumentedStatement<?> statement, Exception exception, StatementMethod method,
+                                  long updateCount, SourceInfo callSite) {
+        this(connection, timestampNanos, executionTimeNanos, statement, exception, method.getMethodName(), method,
+            updateCount, callSite);
+    }
+
+    private StatementExecutedEvent(InstrumentedConnection connection, long timestampNanos, long executionTimeNanos,
+                                   InstrumentedStatement<?> statement, Exception exception, String methodName,
+                                   StatementMethod method, long updateCount, SourceInfo callSite) {
         super(connection, ConnectionEventType.STATEMENT_EXECUTED, timestampNanos, connection.isPooled(), statement);
         this.exception = exception;
         this.methodName = methodName;
+        this.method = method;
         this.executionTimeNanos = executionTimeNanos;
+        this.updateCount = updateCount;
+        this.callSite = callSite;
+    }
+
+    /**
+     * Constructor for recycled event subclasses, which keep their own mutable state that is populated before each use
+     * and override the getters of this class to return it.
+     */
+    protected StatementExecutedEvent(InstrumentedConnection connection) {
+        this(connection, 0L, 0L, null, null, null, null, -1L, null);
     }
 
     /**
@@ -29,6 +76,14 @@ public class StatementExecutedEvent extends ConnectionEvent {
         return methodName;
     }
 
+    /**
+     * Returns the SQL query execution method, or <code>null</code> if {@link #getMethodName()} is not one of the timed
+     * execution methods.
+     */
+    public StatementMethod getStatementMethod() {
+        return method;
+    }
+
     /**
      * Convenience getter to return the event source as an instrumented statement.
      */
@@ -40,7 +95,7 @@ public class StatementExecutedEvent extends ConnectionEvent {
      * Checks whether this statement executed successfully or failed.
      */
     public boolean hasError() {
-        return exception != null;
+        return getException() != null;
     }
 
     /**
@@ -57,4 +112,37 @@ public class StatementExecutedEvent extends ConnectionEvent {
     public long getElapsedNanos() {
         return executionTimeNanos;
     }
+
+    /**
+     * Returns the number of rows affected by an <code>executeUpdate</code> or <code>executeBatch</code> call, or -1 if
+     * the statement failed, returned a result set, or the count is otherwise unknown.
+     */
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * Returns the application code that executed this statement, or <code>null</code> if it was not captured. Call
+     * sites are only captured for statements that exceed the data source's call site threshold.
+     * @see org.drg.jdbceptor.impl.DataSourceManager#enableCallSiteCapture(long, java.util.concurrent.TimeUnit, int)
+     */
+    public SourceInfo getCallSite() {
+        return callSite;
+    }
+
+    /**
+     * Checks whether this event instance will be re-used for subsequent executions on the same connection, in which case
+     * it must not be referenced once the listener callback returns.
+     */
+    public boolean isRecycled() {
+        return false;
+    }
+
+    /**
+     * Returns an immutable copy of this event that is safe to retain after the listener callback returns.
+     */
+    public StatementExecutedEvent copy() {
+        return new StatementExecutedEvent(connection, getTimestampNanos(), getElapsedNanos(), getStatement(),
+            getException(), getMethodName(), getStatementMethod(), getUpdateCount(), getCallSite());
+    }
 }
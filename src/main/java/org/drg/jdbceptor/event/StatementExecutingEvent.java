@@ -5,9 +5,13 @@ import org.drg.jdbceptor.api.InstrumentedStatement;
 
 /**
  * Event object for after a statement is about to be executed, but has not yet started running, through an instrumented
- * connection.
+ * connection. </br>
+ * If statement event recycling is enabled then the same instance is re-populated for every execution on a connection
+ * and is only valid for the duration of the listener callback. Listeners that need to retain the event beyond that
+ * must hold onto the result of {@link #copy()} instead.
  *
  * @author dgarson
+ * @see org.drg.jdbceptor.config.EventRecyclingConfiguration#isRecycleStatementEventsEnabled()
  */
 public class StatementExecutingEvent extends ConnectionEvent {
 
@@ -19,6 +23,14 @@ public class StatementExecutingEvent extends ConnectionEvent {
         this.methodName = methodName;
     }
 
+    /**
+     * Constructor for recycled event subclasses, which keep their own mutable state that is populated before each use
+     * and override the getters of this class to return it.
+     */
+    protected StatementExecutingEvent(InstrumentedConnection connection) {
+        this(connection, 0L, null, null);
+    }
+
     /**
      * Returns the name of the SQL query execution method, such as &quot;executeQuery&quot; or &quot;executeUpdate&quot;
      */
@@ -32,4 +44,19 @@ public class StatementExecutingEvent extends ConnectionEvent {
     public InstrumentedStatement<?> getStatement() {
         return (InstrumentedStatement<?>)getEventSource();
     }
+
+    /**
+     * Checks whether this event instance will be re-used for subsequent executions on the same connection, in which case
+     * it must not be referenced once the listener callback returns.
+     */
+    public boolean isRecycled() {
+        return false;
+    }
+
+    /**
+     * Returns an immutable copy of this event that is safe to retain after the listener callback returns.
+     */
+    public StatementExecutingEvent copy() {
+        return new StatementExecutingEvent(connection, getTimestampNanos(), getStatement(), getMethodName());
+    }
 }
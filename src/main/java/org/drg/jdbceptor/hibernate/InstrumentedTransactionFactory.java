@@ -4,10 +4,12 @@ import com.google.common.base.Preconditions;
 import org.apache.commons.lang3.StringUtils;
 import org.drg.jdbceptor.api.InstrumentedConnection;
 import org.drg.jdbceptor.config.ConnectionResolver;
+import org.drg.jdbceptor.config.IdentifierGenerator;
 import org.drg.jdbceptor.hibernate.config.HibernateDataSourceConfiguration;
 import org.drg.jdbceptor.hibernate.impl.InstrumentedJDBCContextImpl;
 import org.drg.jdbceptor.hibernate.impl.InstrumentedTransactionImpl;
 import org.drg.jdbceptor.impl.DataSourceManager;
+import org.drg.jdbceptor.impl.SnowflakeIdentifierGenerator;
 import org.drg.jdbceptor.util.JdbcUtils;
 import org.hibernate.ConnectionReleaseMode;
 import org.hibernate.HibernateException;
@@ -19,7 +21,6 @@ import org.hibernate.transaction.TransactionFactoryFactory;
 
 import java.sql.Connection;
 import java.util.Properties;
-import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 
@@ -28,8 +29,6 @@ import javax.annotation.Nonnull;
  */
 public class InstrumentedTransactionFactory implements TransactionFactory {
 
-    private static final String HOSTNAME_PREFIX = JdbcUtils.getHostname();
-
     /**
      * Property in the configuration properties that declares the transaction factory implementation class to use under
      * the hood in this instrumented wrapper. If this property is undefined, then an exception will be thrown.
@@ -64,12 +63,6 @@ public class InstrumentedTransactionFactory implements TransactionFactory {
      */
     private InstrumentedConnectionProvider connectionProvider;
 
-    /**
-     * AtomicLong that keeps track of the next identifier unique to this particular TransactionFactory instance, which
-     * is always one-to-one with a particular {@link org.hibernate.SessionFactory}.
-     */
-    private final AtomicLong nextLocalTransactionId = new AtomicLong();
-
     public InstrumentedTransactionFactory() {
         dataSourceConfig = InstrumentedHibernateConfiguration.getCurrentDataSourceConfig();
         if (dataSourceConfig == null) {
@@ -130,10 +123,13 @@ public class InstrumentedTransactionFactory implements TransactionFactory {
             return realTransaction;
         }
 
-        // generate a new unique identifier for the transaction and continue
-        String transactionId = generateNextTransactionId(dataSourceConfig.getId(), conn);
+        // generate a new unique identifier for the transaction, which is only rendered if a custom generator is used
         InstrumentedTransactionImpl transaction = new InstrumentedTransactionImpl(connectionProvider,
-            jdbcContext, realTransaction, transactionId);
+            jdbcContext, realTransaction, SnowflakeIdentifierGenerator.nextId());
+        IdentifierGenerator<InstrumentedTransaction> idGenerator = dataSourceManager.getTransactionIdGenerator();
+        if (idGenerator != null) {
+            transaction.setTransactionId(idGenerator.generateIdentifier(transaction));
+        }
 
         // customize the transaction if there is a customizer defined
         dataSourceManager.customizeTransaction(transaction);
@@ -177,22 +173,4 @@ public class InstrumentedTransactionFactory implements TransactionFactory {
                                            Transaction transaction) {
         return targetFactory.isTransactionInProgress(jdbcContext, transactionContext, transaction);
     }
-
-    private String generateNextTransactionId(String dataSourceId, InstrumentedConnection conn) {
-        return generateNextTransactionId(dataSourceId, conn != null ? conn.getConnectionId() : null);
-    }
-
-    private String generateNextTransactionId(String dataSourceId, String connectionId) {
-        StringBuilder sb = new StringBuilder(128);
-        sb.append(HOSTNAME_PREFIX);
-        if (dataSourceId != null) {
-            sb.append("_db-").append(dataSourceId);
-        }
-        if (connectionId != null) {
-            sb.append("_c-").append(connectionId);
-        }
-        sb.append("_");
-        sb.append(nextLocalTransactionId.incrementAndGet());
-        return sb.toString();
-    }
 }
@@ -0,0 +1,22 @@
+package org.drg.jdbceptor.hibernate;
+
+import org.drg.jdbceptor.impl.TransactionStatementLog;
+
+/**
+ * Optional interface for an {@link InstrumentedTransaction} that keeps a log of the statements executed within it. This
+ * is kept separate from {@link InstrumentedTransaction} so that existing implementations of that interface are not
+ * required to provide it. </br>
+ * All transactions created by Jdbceptor implement this interface.
+ *
+ * @author dgarson
+ */
+public interface TransactionStatementLogProvider {
+
+    /**
+     * Returns the log of statements executed within this transaction, or <code>null</code> if transaction statement
+     * capture is not enabled for the data source. The log is closed once the callbacks for this transaction committing,
+     * rolling back or failing to do either have been invoked, so it must only be read before then.
+     * @see org.drg.jdbceptor.hibernate.config.HibernateDataSourceConfiguration#isTransactionStatementCaptureEnabled()
+     */
+    TransactionStatementLog getStatementLog();
+}
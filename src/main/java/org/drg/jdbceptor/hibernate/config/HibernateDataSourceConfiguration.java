@@ -35,7 +35,11 @@ public interface HibernateDataSourceConfiguration extends DataSourceConfiguratio
      * This may incur too high of a cost, depending on how the other feature checking methods, namely
      * {@link org.drg.jdbceptor.config.FeatureChecker#shouldInstrumentConnection()}, are implemented. If they are very
      * restrictive, then the overhead induced by this feature may be minimized due to the frequency it is being used
-     * overall.
+     * overall. </br>
+     * Each transaction's statements are available from
+     * {@link org.drg.jdbceptor.hibernate.TransactionStatementLogProvider#getStatementLog()}, which keeps a bounded
+     * amount in memory and spills the rest to a temporary file.
+     * @see org.drg.jdbceptor.impl.DataSourceManager#enableTransactionStatementCapture(int, long, java.io.File)
      */
     boolean isTransactionStatementCaptureEnabled();
 
@@ -0,0 +1,79 @@
+package org.drg.jdbceptor.hibernate.event;
+
+import org.drg.jdbceptor.api.SqlSnapshot;
+import org.drg.jdbceptor.api.StatementMethod;
+
+/**
+ * A single statement execution within a {@link TransactionTrace}.
+ *
+ * @author dgarson
+ */
+public final class TracedStatement {
+
+    private final StatementMethod method;
+    private final int templateId;
+    private final SqlSnapshot sql;
+    private final long offsetNanos;
+    private final long elapsedNanos;
+    private final long updateCount;
+    private final Exception exception;
+
+    public TracedStatement(StatementMethod method, int templateId, SqlSnapshot sql, long offsetNanos,
+                           long elapsedNanos, long updateCount, Exception exception) {
+        this.method = method;
+        this.templateId = templateId;
+        this.sql = sql;
+        this.offsetNanos = offsetNanos;
+        this.elapsedNanos = elapsedNanos;
+        this.updateCount = updateCount;
+        this.exception = exception;
+    }
+
+    /**
+     * Returns the execution method that was invoked, or <code>null</code> if it was not one of the timed methods.
+     */
+    public StatementMethod getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns the id of the shared SQL template for prepared statements, or zero for plain statements and batches.
+     * @see org.drg.jdbceptor.impl.SqlTemplate#getId()
+     */
+    public int getTemplateId() {
+        return templateId;
+    }
+
+    /**
+     * Returns the SQL that was executed, including any query parameters that were captured, which is only formatted
+     * when first requested.
+     */
+    public SqlSnapshot getSql() {
+        return sql;
+    }
+
+    /**
+     * Returns when the statement began executing, in nanoseconds since the transaction began.
+     */
+    public long getOffsetNanos() {
+        return offsetNanos;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the number of rows affected, or -1 if unknown.
+     */
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * Returns the exception thrown by the execution, or <code>null</code> if it succeeded.
+     */
+    public Exception getException() {
+        return exception;
+    }
+}
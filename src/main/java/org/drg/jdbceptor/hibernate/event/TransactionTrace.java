@@ -0,0 +1,82 @@
+package org.drg.jdbceptor.hibernate.event;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Every statement executed by a transaction that a tail sampling policy decided to retain, in execution order.
+ *
+ * @author dgarson
+ * @see TransactionTraceListener
+ */
+public final class TransactionTrace {
+
+    private final String dataSourceId;
+    private final String connectionId;
+    private final String transactionId;
+    private final boolean committed;
+    private final long durationNanos;
+    private final int statementCount;
+    private final int errorCount;
+    private final List<TracedStatement> statements;
+
+    public TransactionTrace(String dataSourceId, String connectionId, String transactionId, boolean committed,
+                            long durationNanos, int statementCount, int errorCount, List<TracedStatement> statements) {
+        this.dataSourceId = dataSourceId;
+        this.connectionId = connectionId;
+        this.transactionId = transactionId;
+        this.committed = committed;
+        this.durationNanos = durationNanos;
+        this.statementCount = statementCount;
+        this.errorCount = errorCount;
+        this.statements = Collections.unmodifiableList(statements);
+    }
+
+    public String getDataSourceId() {
+        return dataSourceId;
+    }
+
+    /**
+     * Returns the id of the connection the transaction ran on, or <code>null</code> if it never acquired one.
+     */
+    public String getConnectionId() {
+        return connectionId;
+    }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * Returns <code>true</code> if the transaction was committed and <code>false</code> if it was rolled back.
+     */
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Returns the number of statements executed by the transaction, which is larger than the number of statements in
+     * this trace if the transaction executed more statements than could be buffered.
+     */
+    public int getStatementCount() {
+        return statementCount;
+    }
+
+    /**
+     * Returns the number of statements that threw an exception.
+     */
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Returns the buffered statements, in the order they were executed.
+     */
+    public List<TracedStatement> getStatements() {
+        return statements;
+    }
+}
@@ -0,0 +1,18 @@
+package org.drg.jdbceptor.hibernate.event;
+
+/**
+ * Listener whose callback is invoked with the statements of every transaction that a data source's tail sampling
+ * policy decided to retain.
+ *
+ * @author dgarson
+ * @see org.drg.jdbceptor.impl.DataSourceManager#enableTailSampling
+ */
+public interface TransactionTraceListener {
+
+    /**
+     * Invoked on the thread that committed or rolled back the transaction, after all other callbacks for it. The trace
+     * is immutable and may be retained or handed to another thread, where formatting its SQL is best done.
+     * @param trace the statements executed by the transaction
+     */
+    void transactionTraced(TransactionTrace trace);
+}
@@ -3,12 +3,20 @@ package org.drg.jdbceptor.hibernate.impl;
 import static org.drg.jdbceptor.Jdbceptor.timestampNanos;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 import org.drg.jdbceptor.api.InstrumentedConnection;
+import org.drg.jdbceptor.event.StatementExecutedEvent;
 import org.drg.jdbceptor.hibernate.InstrumentedConnectionProvider;
 import org.drg.jdbceptor.hibernate.InstrumentedTransaction;
+import org.drg.jdbceptor.hibernate.TransactionStatementLogProvider;
 import org.drg.jdbceptor.hibernate.event.TransactionListener;
 import org.drg.jdbceptor.impl.DataSourceManager;
 import org.drg.jdbceptor.impl.InstrumentedConnectionImpl;
+import org.drg.jdbceptor.impl.LeaseWatchdog;
+import org.drg.jdbceptor.impl.TailSampler;
+import org.drg.jdbceptor.impl.TransactionStatementCapture;
+import org.drg.jdbceptor.impl.TransactionStatementLog;
+import org.drg.jdbceptor.impl.TransactionTraceBuffer;
 import org.drg.jdbceptor.impl.UserDataStorageImpl;
 import org.drg.jdbceptor.util.JdbcUtils;
 import org.hibernate.HibernateException;
@@ -26,13 +34,16 @@ import javax.transaction.Synchronization;
 /**
  * @author dgarson
  */
-public class InstrumentedTransactionImpl extends UserDataStorageImpl implements Transaction, InstrumentedTransaction {
+public class InstrumentedTransactionImpl extends UserDataStorageImpl implements Transaction, InstrumentedTransaction,
+    TransactionStatementLogProvider {
 
     private static final Logger log = LoggerFactory.getLogger(InstrumentedTransactionImpl.class);
 
     private final InstrumentedConnectionProvider connectionProvider;
     private final Transaction realTransaction;
-    private final String transactionId;
+    // assigned by a custom generator, or otherwise rendered from 'numericTransactionId' when first requested
+    private String transactionId;
+    private final long numericTransactionId;
 
     // non-final in case the connection is lazily opened
     private InstrumentedConnection connection;
@@ -41,6 +52,16 @@ public class InstrumentedTransactionImpl extends UserDataStorageImpl implements
 
     private List<TransactionListener> transactionListeners;
 
+    // timer wheel entry used by the data source's lease watchdog, which is reused every time this transaction begins
+    private LeaseWatchdog.Lease watchdogLease;
+
+    // statements buffered for the data source's tail sampler, borrowed when the transaction begins
+    private TailSampler tailSampler;
+    private TransactionTraceBuffer traceBuffer;
+
+    // every statement executed within this transaction, if transaction statement capture is enabled
+    private TransactionStatementLog statementLog;
+
     long openedTimestampNanos; // timestamp when the begin() method was called
     long closedTimestampNanos;
 
@@ -48,13 +69,13 @@ public class InstrumentedTransactionImpl extends UserDataStorageImpl implements
     private Object userData;
 
     InstrumentedTransactionImpl(InstrumentedConnectionProvider connectionProvider, JDBCContext jdbcContext,
-                                Transaction realTransaction, String transactionId) {
+                                Transaction realTransaction, long numericTransactionId) {
         // this should always be the case otherwise an instance of this class should have never been allowed to be
         //          constructed
         this.connectionProvider = connectionProvider;
         this.jdbcContext = jdbcContext;
         this.realTransaction = realTransaction;
-        this.transactionId = transactionId;
+        this.numericTransactionId = numericTransactionId;
     }
 
     @Override
@@ -72,7 +93,28 @@ public class InstrumentedTransactionImpl extends UserDataStorageImpl implements
 
     @Override
     public String getTransactionId() {
-        return transactionId;
+        String id = transactionId;
+        if (id == null) {
+            id = getDataSourceManager().formatTransactionId(numericTransactionId);
+            transactionId = id;
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id generated for this transaction by the default
+     * {@link org.drg.jdbceptor.impl.SnowflakeIdentifierGenerator}, even if a custom generator assigned a different
+     * transaction id.
+     */
+    public long getNumericTransactionId() {
+        return numericTransactionId;
+    }
+
+    /**
+     * Replaces the default transaction id with one produced by a custom generator.
+     */
+    public void setTransactionId(String transactionId) {
+        this.transactionId = Preconditions.checkNotNull(transactionId, "transactionId");
     }
 
     @Override
@@ -131,8 +173,27 @@ public class InstrumentedTransactionImpl extends UserDataStorageImpl implements
     }
 
     private void onBegin() {
+        // a transaction object that failed to commit and was never rolled back may still hold the previous buffer
+        finishTrace(connection, /*committed=*/false);
+        closeStatementLog();
+
+        openedTimestampNanos = timestampNanos();
+        closedTimestampNanos = 0L;
         refreshConnection();
 
+        TransactionStatementCapture capture = getDataSourceManager().getTransactionStatementCapture();
+        if (capture != null) {
+            statementLog = capture.newLog(openedTimestampNanos);
+        }
+
+        TailSampler sampler = getDataSourceManager().getTailSampler();
+        if (sampler != null) {
+            tailSampler = sampler;
+            traceBuffer = sampler.acquireBuffer();
+        }
+
+        armWatchdog();
+
         // notify parent connection if present
         if (connection != null) {
             ((InstrumentedConnectionImpl)connection).beganTransaction(this);
@@ -159,6 +220,9 @@ public class InstrumentedTransactionImpl extends UserDataStorageImpl implements
     }
 
     private void onCommit() {
+        closedTimestampNanos = timestampNanos();
+        disarmWatchdog();
+
         // refresh connection field in case the connection has been opened between calling commit() and now
         InstrumentedConnectionImpl conn = (InstrumentedConnectionImpl)connection;
         // this may cause the 'connection' field to become null if using RELEASE_ON_CLOSE or what not ;-)
@@ -174,9 +238,13 @@ public class InstrumentedTransactionImpl extends UserDataStorageImpl implements
         if (conn != null) {
             conn.finishedTransaction(this, /*committed=*/true);
         }
+
+        finishTrace(conn, /*committed=*/true);
+        closeStatementLog();
     }
 
     private void onCommitFailed(HibernateException e) {
+        disarmWatchdog();
         // refresh connection field in case the connection has been opened between calling commit() and now
         refreshConnection();
 
@@ -185,6 +253,10 @@ public class InstrumentedTransactionImpl extends UserDataStorageImpl implements
                 listener.transactionCommitFailed(this, e);
             }
         }
+
+        // a failed commit is traced as a transaction that did not commit, which releases the buffer for reuse
+        finishTrace(connection, /*committed=*/false);
+        closeStatementLog();
     }
 
     @Override
@@ -199,6 +271,9 @@ public class InstrumentedTransactionImpl extends UserDataStorageImpl implements
     }
 
     private void onRollback() {
+        closedTimestampNanos = timestampNanos();
+        disarmWatchdog();
+
         InstrumentedConnectionImpl conn = (InstrumentedConnectionImpl)connection;
         if (conn != null) {
             conn.finishedTransaction(this, /*committed=*/false);
@@ -209,14 +284,75 @@ public class InstrumentedTransactionImpl extends UserDataStorageImpl implements
                 listener.transactionRolledBack(this);
             }
         }
+
+        finishTrace(conn, /*committed=*/false);
+        closeStatementLog();
     }
 
     private void rollbackFailed(HibernateException e) {
+        disarmWatchdog();
         if (transactionListeners != null) {
             for (TransactionListener listener : transactionListeners) {
                 listener.transactionRollbackFailed(this, e);
             }
         }
+
+        finishTrace(connection, /*committed=*/false);
+        closeStatementLog();
+    }
+
+    /**
+     * Invoked by the connection this transaction is running on whenever a statement finishes executing.
+     */
+    public void statementExecuted(StatementExecutedEvent event) {
+        if (traceBuffer != null) {
+            traceBuffer.record(event);
+        }
+        if (statementLog != null) {
+            statementLog.append(event);
+        }
+    }
+
+    @Override
+    public TransactionStatementLog getStatementLog() {
+        return statementLog;
+    }
+
+    private void closeStatementLog() {
+        if (statementLog != null) {
+            statementLog.close();
+            statementLog = null;
+        }
+    }
+
+    private void finishTrace(InstrumentedConnection conn, boolean committed) {
+        if (traceBuffer != null) {
+            TransactionTraceBuffer buffer = traceBuffer;
+            traceBuffer = null;
+            tailSampler.finish(this, conn, buffer, committed);
+            tailSampler = null;
+        }
+    }
+
+    /**
+     * Arms the data source's lease watchdog for this transaction, creating a new timer wheel entry only if the watchdog
+     * has been enabled or replaced since this transaction last began.
+     */
+    private void armWatchdog() {
+        LeaseWatchdog watchdog = getDataSourceManager().getLeaseWatchdog();
+        if (watchdog == null) {
+            return;
+        }
+        if (watchdogLease == null || watchdogLease.getWatchdog() != watchdog) {
+            watchdogLease = watchdog.newLease(this);
+        }
+        watchdog.arm(watchdogLease);
+    }
+
+    private void disarmWatchdog() {
+        if (watchdogLease != null) {
+            watchdogLease.getWatchdog().disarm(watchdogLease);
+        }
     }
 
     private void refreshConnection() {
@@ -3,9 +3,13 @@ package org.drg.jdbceptor.impl;
 import static org.drg.jdbceptor.Jdbceptor.timestampNanos;
 
 import org.apache.commons.lang3.StringUtils;
-import org.drg.jdbceptor.Jdbceptor;
 import org.drg.jdbceptor.api.InstrumentedConnection;
 import org.drg.jdbceptor.api.InstrumentedStatement;
+import org.drg.jdbceptor.api.SourceInfo;
+import org.drg.jdbceptor.api.SqlFingerprintProvider;
+import org.drg.jdbceptor.api.SqlSnapshot;
+import org.drg.jdbceptor.api.SqlSnapshotProvider;
+import org.drg.jdbceptor.api.StatementMethod;
 import org.drg.jdbceptor.event.StatementExecutedEvent;
 import org.drg.jdbceptor.event.StatementExecutingEvent;
 import org.drg.jdbceptor.event.StatementExecutionListener;
@@ -20,6 +24,7 @@ import java.sql.SQLWarning;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Package-private abstract base class for implementations of {@link InstrumentedStatement}.
@@ -27,34 +32,55 @@ import java.util.List;
  * @author dgarson
  */
 abstract class AbstractInstrumentedStatement<T extends Statement> extends UserDataStorageImpl
-    implements InstrumentedHibernateStatement<T>, Statement {
+    implements InstrumentedHibernateStatement<T>, SqlSnapshotProvider, SqlFingerprintProvider, Statement {
 
     protected final T statement;
     protected final InstrumentedConnection connection;
     protected final String transactionId;
     protected final int statementId;
 
+    // whether executions are only timed in the data source's statement metrics, without capturing anything
+    private final boolean metricsOnly;
+
     private boolean running;
 
     // timestamp when statement began executing SQL against the database
     private long startTimeNanos;
+    // timestamp after the before-execution hooks ran, which is where the statement's own execution time starts
+    private long executionStartNanos;
     private long completionTimeNanos;
 
     // optional batch statement list to track SQL queries in the batch if we are tracking statements and using batching
     protected List<String> batchStatementList;
 
-    // optional list of execution listeners
-    private List<StatementExecutionListener> executionListeners;
+    // snapshot of execution listeners, which is replaced rather than modified when a listener is added
+    private StatementExecutionListener[] executionListeners = DataSourceManager.NO_STATEMENT_LISTENERS;
 
     // optional SQL statement that is cached whenever an execute(String, ..) method is called so that it can be
     // captured when committing/rolling back a transaction
     private String sql;
 
-    protected AbstractInstrumentedStatement(InstrumentedConnection connection, T statement, int statementId) {
+    // fingerprint of the SQL for the current execution, computed when first requested so that every aggregator fed by
+    // the same execution shares it
+    private String sqlFingerprint;
+
+    protected AbstractInstrumentedStatement(InstrumentedConnection connection, T statement, int statementId,
+                                            boolean metricsOnly) {
         this.statement = statement;
         this.transactionId = StatementHelper.getTransactionIdOrNull(connection);
         this.connection = connection;
         this.statementId = statementId;
+        this.metricsOnly = metricsOnly;
+    }
+
+    /**
+     * Checks whether this statement belongs to a connection that only collects statement metrics. Such statements time
+     * each execution in the data source's {@link StatementMetrics}, but retain no SQL, batch lists or query parameters
+     * and produce no events, so their execution listeners are never invoked.
+     * @see org.drg.jdbceptor.config.MetricsFeatureChecker#shouldCollectStatementMetrics()
+     */
+    boolean isMetricsOnly() {
+        return metricsOnly;
     }
 
     @Override
@@ -72,6 +98,60 @@ abstract class AbstractInstrumentedStatement<T extends Statement> extends UserDa
         return sql;
     }
 
+    @Override
+    public SqlSnapshot getSqlSnapshot() {
+        String formattedSql = getSqlStatement();
+        return new SqlSnapshotImpl(formattedSql, formattedSql);
+    }
+
+    @Override
+    public String getSqlFingerprint() {
+        String result = sqlFingerprint;
+        if (result == null) {
+            // plain statement batches are fingerprinted by their first statement to avoid joining the whole batch
+            if (batchStatementList != null && !batchStatementList.isEmpty()) {
+                result = SqlFingerprint.of(batchStatementList.get(0));
+            } else {
+                result = SqlFingerprint.of(sql);
+            }
+            sqlFingerprint = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the shared template for the SQL this statement executes, or <code>null</code> if it is not a prepared
+     * statement or its SQL is only available with parameters already substituted, such as for a batch.
+     */
+    SqlTemplate getSqlTemplate() {
+        return null;
+    }
+
+    /**
+     * Returns the statements added to the batch being executed, or <code>null</code> if this is not a batch or it is
+     * not being tracked. The returned list is owned by this statement and must not be retained.
+     */
+    List<String> getBatchStatements() {
+        return batchStatementList;
+    }
+
+    /**
+     * Returns the SQL for this statement prior to any parameter substitution, to be recorded alongside the values
+     * returned by {@link #getBoundParameters()}. Plain statements have nothing to substitute, so this is the same as
+     * {@link #getSqlStatement()}.
+     */
+    String getRawSql() {
+        return getSqlStatement();
+    }
+
+    /**
+     * Returns the parameters currently bound to this statement, or <code>null</code> if there are none or they are not
+     * being captured. The returned store is owned by this statement and must not be retained.
+     */
+    ParameterStore getBoundParameters() {
+        return null;
+    }
+
     /**
      * Returns the fully expanded SQL query that was or is executing in this statement. If SQL statement capturing is
      * disabled then this method may return <code>null</code>.
@@ -120,54 +200,97 @@ abstract class AbstractInstrumentedStatement<T extends Statement> extends UserDa
 
     @Override
     public long getDurationMillis() {
-        return (completionTimeNanos > 0 ? completionTimeNanos - startTimeNanos :
-            System.currentTimeMillis() - startTimeNanos);
+        long endTimeNanos = (running ? timestampNanos() : completionTimeNanos);
+        return TimeUnit.NANOSECONDS.toMillis(endTimeNanos - startTimeNanos);
     }
 
     @Override
     public void addExecutionListener(StatementExecutionListener listener) {
-        if (executionListeners == null) {
-            executionListeners = new ArrayList<>();
-        }
-        executionListeners.add(listener);
+        executionListeners = ListenerRegistry.added(executionListeners, listener);
     }
 
     /**
-     * Reports
-     * @param methodName
-     * @param sql
+     * Reports that this statement is about to begin executing and invokes any registered listeners.
+     * @param method the execution method being invoked
+     * @param sql the SQL being executed, or <code>null</code> if it should be lazily resolved through
+     *              {@link #getFormattedSql()} when first requested
      */
-    protected void reportBeginExecution(String methodName, String sql) {
-        // capture SQL statement as execution begins
-        this.sql = sql;
-
+    protected void reportBeginExecution(StatementMethod method, String sql) {
         // mark as running, invoke callbacks
         running = true;
         startTimeNanos = timestampNanos();
+        if (metricsOnly) {
+            executionStartNanos = startTimeNanos;
+            return;
+        }
 
-        StatementExecutingEvent event = new StatementExecutingEvent(connection, Jdbceptor.timestampNanos(),
-            this, methodName);
-        ((InstrumentedConnectionImpl)connection).beforeExecutingStatement(event);
+        // capture SQL statement as execution begins, which also clears anything cached by a previous execution
+        this.sql = sql;
+        sqlFingerprint = null;
 
-        if (executionListeners != null) {
-            for (StatementExecutionListener listener : executionListeners) {
-                listener.beforeExecutingStatement(event);
+        InstrumentedConnectionImpl connectionImpl = (InstrumentedConnectionImpl)connection;
+        StatementExecutingEvent event = connectionImpl.obtainExecutingEvent(this, startTimeNanos, method);
+        try {
+            connectionImpl.beforeExecutingStatement(event);
+
+            if (executionListeners.length != 0) {
+                connection.getDataSourceManager().fireBeforeExecutingStatement(executionListeners, event);
             }
+        } finally {
+            connectionImpl.releaseEvent(event);
         }
+
+        // time spent in the hooks above is overhead, and must not also be counted as statement execution time
+        executionStartNanos = timestampNanos();
+        OverheadGovernor governor = connection.getDataSourceManager().getOverheadGovernor();
+        if (governor != null) {
+            governor.record(executionStartNanos - startTimeNanos, /*statementNanos=*/0L);
+        }
+    }
+
+    protected void reportStatementCompletion(StatementMethod method, String sql, Exception exception) {
+        reportStatementCompletion(method, sql, exception, /*updateCount=*/-1L);
     }
 
-    protected void reportStatementCompletion(String methodName, String sql, Exception exception) {
+    /**
+     * Reports that this statement has finished executing and invokes any registered listeners.
+     * @param method the execution method that was invoked
+     * @param sql the SQL that was executed, or <code>null</code> if it is lazily resolved
+     * @param exception the exception thrown by the execution, or <code>null</code> if it succeeded
+     * @param updateCount the number of rows affected, or -1 if unknown
+     */
+    protected void reportStatementCompletion(StatementMethod method, String sql, Exception exception,
+                                             long updateCount) {
         running = false;
         completionTimeNanos = timestampNanos();
-        long executionTimeNanos = completionTimeNanos - startTimeNanos;
-        StatementExecutedEvent event = new StatementExecutedEvent(connection, completionTimeNanos,
-            executionTimeNanos, this, exception, methodName);
-        ((InstrumentedConnectionImpl)connection).statementExecuted(event);
-
-        if (executionListeners != null) {
-            for (StatementExecutionListener listener : executionListeners) {
-                listener.statementExecuted(event);
+        long executionTimeNanos = completionTimeNanos - executionStartNanos;
+
+        connection.getDataSourceManager().getStatementMetrics().record(method, executionTimeNanos, exception != null);
+        if (metricsOnly) {
+            return;
+        }
+
+        // the caller is still on the stack here, so its call site only needs capturing once the statement is known to
+        // be slow
+        CallSiteCapture callSiteCapture = connection.getDataSourceManager().getCallSiteCapture();
+        SourceInfo callSite = (callSiteCapture == null ? null : callSiteCapture.captureIfSlow(executionTimeNanos));
+
+        InstrumentedConnectionImpl connectionImpl = (InstrumentedConnectionImpl)connection;
+        StatementExecutedEvent event = connectionImpl.obtainExecutedEvent(this, completionTimeNanos,
+            executionTimeNanos, exception, method, updateCount, callSite);
+        try {
+            connectionImpl.statementExecuted(event);
+
+            if (executionListeners.length != 0) {
+                connection.getDataSourceManager().fireStatementExecuted(executionListeners, event);
             }
+        } finally {
+            connectionImpl.releaseEvent(event);
+        }
+
+        OverheadGovernor governor = connection.getDataSourceManager().getOverheadGovernor();
+        if (governor != null) {
+            governor.record(timestampNanos() - completionTimeNanos, executionTimeNanos);
         }
     }
 
@@ -183,117 +306,117 @@ abstract class AbstractInstrumentedStatement<T extends Statement> extends UserDa
 
     @Override
     public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
-        reportBeginExecution("executeUpdate", sql);
+        reportBeginExecution(StatementMethod.EXECUTE_UPDATE, sql);
         try {
             int result = statement.executeUpdate(sql, autoGeneratedKeys);
-            reportStatementCompletion("executeUpdate", sql, /*exception=*/null);
+            reportStatementCompletion(StatementMethod.EXECUTE_UPDATE, sql, /*exception=*/null, result);
             return result;
         } catch (SQLException | RuntimeException e) {
-            reportStatementCompletion("executeUpdate", sql, e);
+            reportStatementCompletion(StatementMethod.EXECUTE_UPDATE, sql, e);
             throw e;
         }
     }
 
     @Override
     public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
-        reportBeginExecution("executeUpdate", sql);
+        reportBeginExecution(StatementMethod.EXECUTE_UPDATE, sql);
         try {
             int result = statement.executeUpdate(sql, columnIndexes);
-            reportStatementCompletion("executeUpdate", sql, /*exception=*/null);
+            reportStatementCompletion(StatementMethod.EXECUTE_UPDATE, sql, /*exception=*/null, result);
             return result;
         } catch (SQLException | RuntimeException e) {
-            reportStatementCompletion("executeUpdate", sql, e);
+            reportStatementCompletion(StatementMethod.EXECUTE_UPDATE, sql, e);
             throw e;
         }
     }
 
     @Override
     public int executeUpdate(String sql, String[] columnNames) throws SQLException {
-        reportBeginExecution("executeUpdate", sql);
+        reportBeginExecution(StatementMethod.EXECUTE_UPDATE, sql);
         try {
             int result = statement.executeUpdate(sql, columnNames);
-            reportStatementCompletion("executeUpdate", sql, /*exception=*/null);
+            reportStatementCompletion(StatementMethod.EXECUTE_UPDATE, sql, /*exception=*/null, result);
             return result;
         } catch (SQLException | RuntimeException e) {
-            reportStatementCompletion("executeUpdate", sql, e);
+            reportStatementCompletion(StatementMethod.EXECUTE_UPDATE, sql, e);
             throw e;
         }
     }
 
     @Override
     public int executeUpdate(String sql) throws SQLException {
-        reportBeginExecution("executeUpdate", sql);
+        reportBeginExecution(StatementMethod.EXECUTE_UPDATE, sql);
         try {
             int result = statement.executeUpdate(sql);
-            reportStatementCompletion("executeUpdate", sql, /*exception=*/null);
+            reportStatementCompletion(StatementMethod.EXECUTE_UPDATE, sql, /*exception=*/null, result);
             return result;
         } catch (SQLException | RuntimeException e) {
-            reportStatementCompletion("executeUpdate", sql, e);
+            reportStatementCompletion(StatementMethod.EXECUTE_UPDATE, sql, e);
             throw e;
         }
     }
 
     @Override
     public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
-        reportBeginExecution("execute", sql);
+        reportBeginExecution(StatementMethod.EXECUTE, sql);
         try {
             boolean result = statement.execute(sql, autoGeneratedKeys);
-            reportStatementCompletion("execute", sql, /*exception=*/null);
+            reportStatementCompletion(StatementMethod.EXECUTE, sql, /*exception=*/null);
             return result;
         } catch (SQLException | RuntimeException e) {
-            reportStatementCompletion("execute", sql, e);
+            reportStatementCompletion(StatementMethod.EXECUTE, sql, e);
             throw e;
         }
     }
 
     @Override
     public boolean execute(String sql, int[] columnIndexes) throws SQLException {
-        reportBeginExecution("execute", sql);
+        reportBeginExecution(StatementMethod.EXECUTE, sql);
         try {
             boolean result = statement.execute(sql, columnIndexes);
-            reportStatementCompletion("execute", sql, /*exception=*/null);
+            reportStatementCompletion(StatementMethod.EXECUTE, sql, /*exception=*/null);
             return result;
         } catch (SQLException | RuntimeException e) {
-            reportStatementCompletion("execute", sql, e);
+            reportStatementCompletion(StatementMethod.EXECUTE, sql, e);
             throw e;
         }
     }
 
     @Override
     public boolean execute(String sql, String[] columnNames) throws SQLException {
-        reportBeginExecution("execute", sql);
+        reportBeginExecution(StatementMethod.EXECUTE, sql);
         try {
             boolean result = statement.execute(sql, columnNames);
-            reportStatementCompletion("execute", sql, /*exception=*/null);
+            reportStatementCompletion(StatementMethod.EXECUTE, sql, /*exception=*/null);
             return result;
         } catch (SQLException | RuntimeException e) {
-            reportStatementCompletion("execute", sql, e);
+            reportStatementCompletion(StatementMethod.EXECUTE, sql, e);
             throw e;
         }
     }
 
     @Override
     public boolean execute(String sql) throws SQLException {
-        reportBeginExecution("execute", sql);
+        reportBeginExecution(StatementMethod.EXECUTE, sql);
         try {
             boolean result = statement.execute(sql);
-            reportStatementCompletion("execute", sql, /*exception=*/null);
+            reportStatementCompletion(StatementMethod.EXECUTE, sql, /*exception=*/null);
             return result;
         } catch (SQLException | RuntimeException e) {
-            reportStatementCompletion("execute", sql, e);
+            reportStatementCompletion(StatementMethod.EXECUTE, sql, e);
             throw e;
         }
     }
 
     @Override
     public ResultSet executeQuery(String sql) throws SQLException {
-        reportBeginExecution("executeQuery", sql);
+        reportBeginExecution(StatementMethod.EXECUTE_QUERY, sql);
         try {
             ResultSet results = statement.executeQuery(sql);
-            reportStatementCompletion("executeQuery", sql, /*exception=*/null);
+            reportStatementCompletion(StatementMethod.EXECUTE_QUERY, sql, /*exception=*/null);
             return results;
         } catch (SQLException | RuntimeException e) {
-            reportStatementCompletion("executeQuery", sql, e);
+            reportStatementCompletion(StatementMethod.EXECUTE_QUERY, sql, e);
             throw e;
         }
     }
@@ -303,6 +426,9 @@ abstract class AbstractInstrumentedStatement<T extends Statement> extends UserDa
         // add statement to underlying Statement batch list first in case that fails
         statement.addBatch(sql);
 
+        if (metricsOnly) {
+            return;
+        }
         if (batchStatementList == null) {
             batchStatementList = new ArrayList<>();
         }
@@ -317,21 +443,38 @@ abstract class AbstractInstrumentedStatement<T extends Statement> extends UserDa
 
     @Override
     public int[] executeBatch() throws SQLException {
-        String[] sqlStatements = (batchStatementList == null ? null :
-            batchStatementList.toArray(new String[batchStatementList.size()]));
-        if (sqlStatements != null) {
-            reportBeginExecution("executeBatch", /*sql=*/null);
-        }
+        // always report the beginning of execution so that the completion is timed from the correct start time, even
+        //      if the batch is empty
+        reportBeginExecution(StatementMethod.EXECUTE_BATCH, /*sql=*/null);
         try {
             int[] results = statement.executeBatch();
-            reportStatementCompletion("executeBatch",  /*sql=*/null, /*exception=*/null);
+            reportStatementCompletion(StatementMethod.EXECUTE_BATCH, /*sql=*/null, /*exception=*/null,
+                sumUpdateCounts(results));
             return results;
         } catch (SQLException | RuntimeException e) {
-            reportStatementCompletion("executeBatch",  /*sql=*/null, e);
+            reportStatementCompletion(StatementMethod.EXECUTE_BATCH, /*sql=*/null, e);
             throw e;
         }
     }
 
+    /**
+     * Sums the update counts returned from executing a batch, or returns -1 if any of the counts are unknown.
+     */
+    private static long sumUpdateCounts(int[] updateCounts) {
+        if (updateCounts == null) {
+            return -1L;
+        }
+        long total = 0;
+        for (int count : updateCounts) {
+            if (count < 0) {
+                // Statement.SUCCESS_NO_INFO or Statement.EXECUTE_FAILED
+                return -1L;
+            }
+            total += count;
+        }
+        return total;
+    }
+
     @Override
     public int getResultSetHoldability() throws SQLException {
         return statement.getResultSetHoldability();
@@ -364,8 +507,8 @@ abstract class AbstractInstrumentedStatement<T extends Statement> extends UserDa
 
     @Override
     public <T> T unwrap(Class<T> iface) throws SQLException {
-        if (iface == PreparedStatement.class || iface == Statement.class || iface == CallableStatement.class) {
-            return (T)this;
+        if (isUnwrappedToSelf(iface)) {
+            return iface.cast(this);
         } else {
             return statement.unwrap(iface);
         }
@@ -373,18 +516,23 @@ abstract class AbstractInstrumentedStatement<T extends Statement> extends UserDa
 
     @Override
     public boolean isWrapperFor(Class<?> iface) throws SQLException {
-        if (iface == PreparedStatement.class || iface == Statement.class) {
-            return true;
-        } else {
-            return statement.isWrapperFor(iface);
-        }
+        return isUnwrappedToSelf(iface) || statement.isWrapperFor(iface);
+    }
+
+    /**
+     * Checks whether unwrapping to <strong>iface</strong> returns this wrapper rather than the wrapped statement, which
+     * is only the case for the JDBC statement interfaces that this wrapper actually implements.
+     */
+    private boolean isUnwrappedToSelf(Class<?> iface) {
+        return ((iface == Statement.class || iface == PreparedStatement.class || iface == CallableStatement.class) &&
+            iface.isInstance(this));
     }
 
     @Override
     public void close() throws SQLException {
         // clear reference to facilitate garbage collection
         batchStatementList = null;
-        executionListeners = null;
+        executionListeners = DataSourceManager.NO_STATEMENT_LISTENERS;
         statement.close();
     }
 
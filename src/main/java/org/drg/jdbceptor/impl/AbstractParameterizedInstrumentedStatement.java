@@ -1,6 +1,8 @@
 package org.drg.jdbceptor.impl;
 
 import org.drg.jdbceptor.api.InstrumentedConnection;
+import org.drg.jdbceptor.api.SqlSnapshot;
+import org.drg.jdbceptor.api.StatementMethod;
 
 import java.io.InputStream;
 import java.io.Reader;
@@ -21,6 +23,7 @@ import java.sql.SQLException;
 import java.sql.SQLXML;
 import java.sql.Time;
 import java.sql.Timestamp;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
@@ -31,129 +34,162 @@ import java.util.List;
 class AbstractParameterizedInstrumentedStatement<T extends PreparedStatement>
     extends AbstractInstrumentedStatement<T> implements PreparedStatement {
 
+    // shared tokenized form of the SQL, or null for metrics-only statements which never format it
+    private final SqlTemplate template;
     private final String sql;
-    private List<Object> paramList;
+    // lazily created on the first bind and re-used across executions and clearParameters()
+    private ParameterStore params;
 
     // determines whether we want to capture full SQL queries or just gather execution times and support listeners
     protected final boolean captureQueryParameters;
 
-    private String formattedSql;
+    public AbstractParameterizedInstrumentedStatement(InstrumentedConnection connection, T statement,
+                                                      int statementId, SqlTemplate template,
+                                                      boolean captureQueryParameters, boolean metricsOnly) {
+        this(connection, statement, statementId, template.getSql(), template, captureQueryParameters, metricsOnly);
+    }
 
+    /**
+     * Creates a statement for <strong>sql</strong>, which is only looked up in the shared template cache if this
+     * statement captures more than metrics, since metrics-only statements never format their SQL.
+     */
     public AbstractParameterizedInstrumentedStatement(InstrumentedConnection connection, T statement,
-                                                      int statementId, String sql, boolean captureQueryParameters) {
-        super(connection, statement, statementId);
+                                                      int statementId, String sql,
+                                                      boolean captureQueryParameters, boolean metricsOnly) {
+        this(connection, statement, statementId, sql, (metricsOnly ? null : SqlTemplate.forSql(sql)),
+            captureQueryParameters, metricsOnly);
+    }
+
+    private AbstractParameterizedInstrumentedStatement(InstrumentedConnection connection, T statement,
+                                                       int statementId, String sql, SqlTemplate template,
+                                                       boolean captureQueryParameters, boolean metricsOnly) {
+        super(connection, statement, statementId, metricsOnly);
         this.captureQueryParameters = captureQueryParameters;
+        this.template = template;
         this.sql = sql;
     }
 
     @Override
     public void close() throws SQLException {
         // some explicit clean-up for minor optimization
-        paramList = null;
-        formattedSql = null;
+        params = null;
 
         super.close();
     }
 
     @Override
     protected String getFormattedSql() {
-        if (formattedSql == null) {
-            // if there are no parameters or we are not enabling query parameter capture, then return the raw SQL
-            //      prior to parameter substitution
-            if (paramList == null || !captureQueryParameters) {
-                return sql;
-            } else {
-                formattedSql = formatSqlQuery();
-            }
+        // if there are no parameters or we are not enabling query parameter capture, then return the raw SQL
+        //      prior to parameter substitution
+        if (params == null || params.isEmpty() || !captureQueryParameters) {
+            return sql;
+        } else {
+            return formatSqlQuery();
         }
-        return formattedSql;
+    }
+
+    @Override
+    public SqlSnapshot getSqlSnapshot() {
+        // copy the bound parameters only if there is still formatting work left to be done
+        if (batchStatementList == null && getCachedSql() == null && params != null && !params.isEmpty() &&
+            captureQueryParameters && template != null) {
+            return new SqlSnapshotImpl(connection.getDataSourceManager(), template, params.copy());
+        }
+        return super.getSqlSnapshot();
+    }
+
+    @Override
+    public String getSqlFingerprint() {
+        return (template == null ? SqlFingerprint.of(sql) : template.getFingerprint());
+    }
+
+    @Override
+    SqlTemplate getSqlTemplate() {
+        return (batchStatementList == null ? template : null);
+    }
+
+    @Override
+    String getRawSql() {
+        // batches are only available with their parameters already substituted
+        return (batchStatementList == null ? sql : getSqlStatement());
+    }
+
+    @Override
+    ParameterStore getBoundParameters() {
+        return (batchStatementList == null && params != null && !params.isEmpty() ? params : null);
     }
 
     /**
      * Formats the parameters in this prepared statement such that the exact (raw) SQL can be captured rather than
-     * seeing placeholders for indexed parameter values.
+     * seeing placeholders for indexed parameter values. The SQL itself is only tokenized once per distinct query.
+     * @see SqlTemplate#forSql(String)
      */
     protected String formatSqlQuery() {
-        StringBuilder formattedSql = new StringBuilder(sql.length() * 2);
-        int lastPos = 0;
-        int qpos = sql.indexOf('?', lastPos);
-        int argIdx = 0;
-        String argValue;
-        while (qpos >= 0) {
-            try {
-                argValue = connection.getDataSourceManager().formatParameterValue(paramList.get(argIdx));
-            } catch (IndexOutOfBoundsException ioobe) {
-                argValue = "?";
-            }
-
-            argIdx++;
-            formattedSql.append(sql.substring(lastPos, qpos));
-            lastPos = qpos + 1;
-            qpos = sql.indexOf('?', lastPos);
-            formattedSql.append(argValue);
-        }
-        if (lastPos < sql.length()) {
-            formattedSql.append(sql.substring(lastPos, sql.length()));
-        }
-        return formattedSql.toString();
+        return (template == null ? sql : template.format(connection.getDataSourceManager(), params));
     }
 
     @Override
     public boolean execute() throws SQLException {
-        String sql = getFormattedSql();
-        reportBeginExecution("execute", sql);
+        // the formatted SQL is built lazily, only if it is requested through getSqlStatement()
+        reportBeginExecution(StatementMethod.EXECUTE, /*sql=*/null);
         try {
             boolean result = statement.execute();
-            reportStatementCompletion("execute", sql, /*exception=*/null);
+            reportStatementCompletion(StatementMethod.EXECUTE, /*sql=*/null, /*exception=*/null);
             return result;
         } catch (SQLException | RuntimeException e) {
-            reportStatementCompletion("execute", sql, e);
+            reportStatementCompletion(StatementMethod.EXECUTE, /*sql=*/null, e);
             throw e;
         }
     }
 
     @Override
     public int executeUpdate() throws SQLException {
-        String sql = getFormattedSql();
-        reportBeginExecution("executeUpdate", sql);
+        // the formatted SQL is built lazily, only if it is requested through getSqlStatement()
+        reportBeginExecution(StatementMethod.EXECUTE_UPDATE, /*sql=*/null);
         try {
             int result = statement.executeUpdate();
-            reportStatementCompletion("executeUpdate", sql, /*exception=*/null);
+            reportStatementCompletion(StatementMethod.EXECUTE_UPDATE, /*sql=*/null, /*exception=*/null, result);
             return result;
         } catch (SQLException | RuntimeException e) {
-            reportStatementCompletion("executeUpdate", sql, e);
+            reportStatementCompletion(StatementMethod.EXECUTE_UPDATE, /*sql=*/null, e);
             throw e;
         }
     }
 
     @Override
     public ResultSet executeQuery() throws SQLException {
-        String sql = getFormattedSql();
-        reportBeginExecution("executeQuery", sql);
+        // the formatted SQL is built lazily, only if it is requested through getSqlStatement()
+        reportBeginExecution(StatementMethod.EXECUTE_QUERY, /*sql=*/null);
         try {
             ResultSet results = statement.executeQuery();
-            reportStatementCompletion("executeQuery", sql, /*exception=*/null);
+            reportStatementCompletion(StatementMethod.EXECUTE_QUERY, /*sql=*/null, /*exception=*/null);
             return results;
         } catch (SQLException | RuntimeException e) {
-            reportStatementCompletion("executeQuery", sql, e);
+            reportStatementCompletion(StatementMethod.EXECUTE_QUERY, /*sql=*/null, e);
             throw e;
         }
     }
 
-    protected void trackArgument(int paramIndex, Object value) {
+    /**
+     * Returns the parameter store for this statement, creating it on first use, or <code>null</code> if query parameters
+     * are not being captured.
+     */
+    protected ParameterStore trackedParameters() {
         // do nothing if we are not capturing query parameter values
-        if (!captureQueryParameters) {
-            return;
+        if (!captureQueryParameters || template == null) {
+            return null;
         }
-        if (paramList == null) {
-            paramList = new ArrayList<>();
+        if (params == null) {
+            params = new ParameterStore(Math.max(template.getPlaceholderCount(), 1));
         }
-        // if an object is being inserted out of sequence, fill up missing values with null
-        int ix = paramIndex - 1;
-        while (ix >= paramList.size()) {
-            paramList.add(paramList.size(), null);
+        return params;
+    }
+
+    protected void trackArgument(int paramIndex, Object value) {
+        ParameterStore store = trackedParameters();
+        if (store != null) {
+            store.setObject(paramIndex, value);
         }
-        paramList.set(ix, value);
     }
 
     public void setNClob(int parameterIndex, Reader reader) throws SQLException {
@@ -162,42 +198,66 @@ class AbstractParameterizedInstrumentedStatement<T extends PreparedStatement>
     }
 
     public void setNull(int parameterIndex, int sqlType) throws SQLException {
-        trackArgument(parameterIndex, null);
+        ParameterStore store = trackedParameters();
+        if (store != null) {
+            store.setNull(parameterIndex);
+        }
         statement.setNull(parameterIndex, sqlType);
     }
 
     public void setBoolean(int parameterIndex, boolean x) throws SQLException {
-        trackArgument(parameterIndex, x);
+        ParameterStore store = trackedParameters();
+        if (store != null) {
+            store.setBoolean(parameterIndex, x);
+        }
         statement.setBoolean(parameterIndex, x);
     }
 
     public void setByte(int parameterIndex, byte x) throws SQLException {
-        trackArgument(parameterIndex, x);
+        ParameterStore store = trackedParameters();
+        if (store != null) {
+            store.setByte(parameterIndex, x);
+        }
         statement.setByte(parameterIndex, x);
     }
 
     public void setShort(int parameterIndex, short x) throws SQLException {
-        trackArgument(parameterIndex, x);
+        ParameterStore store = trackedParameters();
+        if (store != null) {
+            store.setShort(parameterIndex, x);
+        }
         statement.setShort(parameterIndex, x);
     }
 
     public void setInt(int parameterIndex, int x) throws SQLException {
-        trackArgument(parameterIndex, x);
+        ParameterStore store = trackedParameters();
+        if (store != null) {
+            store.setInt(parameterIndex, x);
+        }
         statement.setInt(parameterIndex, x);
     }
 
     public void setLong(int parameterIndex, long x) throws SQLException {
-        trackArgument(parameterIndex, x);
+        ParameterStore store = trackedParameters();
+        if (store != null) {
+            store.setLong(parameterIndex, x);
+        }
         statement.setLong(parameterIndex, x);
     }
 
     public void setFloat(int parameterIndex, float x) throws SQLException {
-        trackArgument(parameterIndex, x);
+        ParameterStore store = trackedParameters();
+        if (store != null) {
+            store.setFloat(parameterIndex, x);
+        }
         statement.setFloat(parameterIndex, x);
     }
 
     public void setDouble(int parameterIndex, double x) throws SQLException {
-        trackArgument(parameterIndex, x);
+        ParameterStore store = trackedParameters();
+        if (store != null) {
+            store.setDouble(parameterIndex, x);
+        }
         statement.setDouble(parameterIndex, x);
     }
 
@@ -212,7 +272,14 @@ class AbstractParameterizedInstrumentedStatement<T extends PreparedStatement>
     }
 
     public void setBytes(int parameterIndex, byte[] x) throws SQLException {
-        trackArgument(parameterIndex, "byte[" + x.length + "]");
+        ParameterStore store = trackedParameters();
+        if (store != null) {
+            if (x == null) {
+                store.setNull(parameterIndex);
+            } else {
+                store.setBytesLength(parameterIndex, x.length);
+            }
+        }
         statement.setBytes(parameterIndex, x);
     }
 
@@ -248,7 +315,9 @@ class AbstractParameterizedInstrumentedStatement<T extends PreparedStatement>
     }
 
     public void clearParameters() throws SQLException {
-        paramList = null;
+        if (params != null) {
+            params.clear();
+        }
         statement.clearParameters();
     }
 
@@ -266,10 +335,22 @@ class AbstractParameterizedInstrumentedStatement<T extends PreparedStatement>
         // add statement to underlying Statement batch list first in case that fails
         statement.addBatch();
 
-        if (batchStatementList == null) {
-            batchStatementList = new ArrayList<>();
+        if (isMetricsOnly()) {
+            return;
+        }
+        SnapshotBatch batch;
+        if (batchStatementList instanceof SnapshotBatch) {
+            batch = (SnapshotBatch)batchStatementList;
+        } else {
+            batch = new SnapshotBatch(batchStatementList);
+            batchStatementList = batch;
+        }
+        // keep a copy of the bound parameters rather than formatting them now, since most batches are never rendered
+        if (params == null || params.isEmpty() || !captureQueryParameters || template == null) {
+            batch.add(sql);
+        } else {
+            batch.addSnapshot(new SqlSnapshotImpl(connection.getDataSourceManager(), template, params.copy()));
         }
-        batchStatementList.add(formatSqlQuery());
     }
 
     public void setCharacterStream(int parameterIndex, Reader reader, int length) throws SQLException {
@@ -317,7 +398,10 @@ class AbstractParameterizedInstrumentedStatement<T extends PreparedStatement>
     }
 
     public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
-        trackArgument(parameterIndex, null);
+        ParameterStore store = trackedParameters();
+        if (store != null) {
+            store.setNull(parameterIndex);
+        }
         statement.setNull(parameterIndex, sqlType, typeName);
     }
 
@@ -418,4 +502,41 @@ class AbstractParameterizedInstrumentedStatement<T extends PreparedStatement>
         trackArgument(parameterIndex, "<Blob>");
         statement.setBlob(parameterIndex, inputStream);
     }
-}
\ No newline at end of file
+
+    /**
+     * Batch of statements that holds a snapshot of each entry's parameters and only formats an entry's SQL when it is
+     * first read, such as when the batch is journaled or its SQL is requested.
+     */
+    private static class SnapshotBatch extends AbstractList<String> {
+
+        private final List<SqlSnapshotImpl> entries = new ArrayList<>();
+
+        /**
+         * @param statements statements already added to the batch as plain SQL, or <code>null</code> if none were
+         */
+        SnapshotBatch(List<String> statements) {
+            if (statements != null) {
+                addAll(statements);
+            }
+        }
+
+        void addSnapshot(SqlSnapshotImpl snapshot) {
+            entries.add(snapshot);
+        }
+
+        @Override
+        public void add(int index, String sql) {
+            entries.add(index, new SqlSnapshotImpl(sql, sql));
+        }
+
+        @Override
+        public String get(int index) {
+            return entries.get(index).getSqlStatement();
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.base.Preconditions;
+import org.drg.jdbceptor.config.OverflowPolicy;
+import org.drg.jdbceptor.event.ConnectionClosedEvent;
+import org.drg.jdbceptor.event.ConnectionClosedListener;
+import org.drg.jdbceptor.event.ConnectionEvent;
+import org.drg.jdbceptor.event.ConnectionEventType;
+import org.drg.jdbceptor.event.ConnectionOpenedEvent;
+import org.drg.jdbceptor.event.ConnectionOpenedListener;
+import org.drg.jdbceptor.event.StatementExecutedEvent;
+import org.drg.jdbceptor.event.StatementExecutingEvent;
+import org.drg.jdbceptor.event.StatementExecutionListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers connection and statement listener callbacks for a single data source on a dedicated consumer thread instead
+ * of the JDBC caller's thread, so that a slow listener does not add to query latency. </br>
+ * Each event is published once into a bounded {@link SingleConsumerQueue}, along with the listeners registered at the
+ * time, and the consumer thread drains the queue in order and fans each event out to its listeners. What happens when
+ * the queue is full is determined by the {@link OverflowPolicy}, and every event that is not delivered is counted.
+ * </br>
+ * Recycled statement events are copied before they are queued, but the statement an event refers to may have been
+ * re-bound or re-executed by the time a listener sees it, so listeners that inspect the statement itself should take an
+ * {@link org.drg.jdbceptor.api.SqlSnapshot} where it matters. Exceptions thrown by listeners are logged and counted
+ * rather than propagated. </br>
+ * Once {@link #shutdown()} has been called, anything still queued is delivered and later events are delivered
+ * synchronously on the publishing thread.
+ *
+ * @author dgarson
+ * @see DataSourceManager#enableAsyncDispatch(int, OverflowPolicy)
+ */
+public class AsyncEventDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncEventDispatcher.class);
+
+    /**
+     * Default for {@link OverflowPolicy#SAMPLE}: accept one in this many events once the queue is half full.
+     */
+    public static final int DEFAULT_SAMPLE_RATE = 10;
+
+    // upper bound on how long the idle consumer can miss a wake-up from a producer
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // how long a blocked producer waits between attempts to publish
+    private static final long BLOCKED_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final SingleConsumerQueue<PendingEvent> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final int sampleRate;
+    private final int sampleThreshold;
+
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong sampledOutCount = new AtomicLong();
+    private final AtomicLong blockedCount = new AtomicLong();
+    private final AtomicLong listenerErrorCount = new AtomicLong();
+
+    /**
+     * Creates a dispatcher and starts its consumer thread.
+     * @param dataSourceId the id of the data source, used to name the consumer thread
+     * @param capacity the maximum number of queued events, which must be a power of two
+     * @param overflowPolicy what to do with events published while the queue is full
+     * @param sampleRate for {@link OverflowPolicy#SAMPLE}, accept one in this many events once the queue is half full
+     */
+    public AsyncEventDispatcher(String dataSourceId, int capacity, OverflowPolicy overflowPolicy, int sampleRate) {
+        Preconditions.checkNotNull(overflowPolicy, "overflowPolicy");
+        Preconditions.checkArgument(sampleRate > 0, "sampleRate must be positive");
+        this.queue = new SingleConsumerQueue<PendingEvent>(capacity, IDLE_PARK_NANOS) {
+            @Override
+            protected void consume(PendingEvent pending) {
+                dispatch(pending);
+            }
+        };
+        this.overflowPolicy = overflowPolicy;
+        this.sampleRate = sampleRate;
+        this.sampleThreshold = capacity / 2;
+        queue.start("jdbceptor-events-" + dataSourceId);
+    }
+
+    /**
+     * Returns the policy applied to events published while the queue is full.
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Returns the maximum number of events that can be queued.
+     */
+    public int getCapacity() {
+        return queue.capacity();
+    }
+
+    /**
+     * Returns the approximate number of events queued and not yet delivered.
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of events accepted into the queue. Each event is queued once no matter how many listeners it
+     * is delivered to.
+     */
+    public long getPublishedCount() {
+        return publishedCount.get();
+    }
+
+    /**
+     * Returns the number of queued events delivered to their listeners, including those for which a listener threw an
+     * exception.
+     */
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * Returns the number of events discarded because the queue was full.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Returns the number of events discarded by {@link OverflowPolicy#SAMPLE} while the queue was more than half full.
+     */
+    public long getSampledOutCount() {
+        return sampledOutCount.get();
+    }
+
+    /**
+     * Returns the number of times a publishing thread had to wait for space under {@link OverflowPolicy#BLOCK}.
+     */
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    /**
+     * Returns the number of listener callbacks that threw an exception on the consumer thread.
+     */
+    public long getListenerErrorCount() {
+        return listenerErrorCount.get();
+    }
+
+    /**
+     * Checks whether the consumer thread is still accepting events.
+     */
+    public boolean isRunning() {
+        return queue.isRunning();
+    }
+
+    /**
+     * Stops accepting events once everything already queued has been delivered. Events published after this point are
+     * delivered synchronously on the publishing thread.
+     */
+    public void shutdown() {
+        queue.shutdown();
+    }
+
+    /**
+     * Waits up to the given amount of time for the consumer thread to finish delivering queued events after
+     * {@link #shutdown()}.
+     * @return <code>true</code> if the consumer thread has finished
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.awaitTermination(Math.max(1L, unit.toMillis(timeout)));
+    }
+
+    void beforeExecutingStatement(StatementExecutionListener[] listeners, StatementExecutingEvent event) {
+        publish(new PendingEvent(listeners, event.isRecycled() ? event.copy() : event));
+    }
+
+    void statementExecuted(StatementExecutionListener[] listeners, StatementExecutedEvent event) {
+        publish(new PendingEvent(listeners, event.isRecycled() ? event.copy() : event));
+    }
+
+    void connectionOpened(ConnectionOpenedListener[] listeners, ConnectionOpenedEvent event) {
+        publish(new PendingEvent(listeners, event));
+    }
+
+    void connectionClosed(ConnectionClosedListener[] listeners, ConnectionClosedEvent event) {
+        publish(new PendingEvent(listeners, event));
+    }
+
+    private void publish(PendingEvent pending) {
+        // a listener that itself uses this data source must not wait on the thread that is supposed to free up space
+        if (!queue.isRunning() || queue.isConsumerThread()) {
+            pending.deliver();
+            return;
+        }
+        if (overflowPolicy == OverflowPolicy.SAMPLE && queue.size() >= sampleThreshold &&
+            ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            sampledOutCount.incrementAndGet();
+            return;
+        }
+        if (!queue.offer(pending)) {
+            if (overflowPolicy != OverflowPolicy.BLOCK) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+            blockedCount.incrementAndGet();
+            do {
+                if (!queue.isRunning()) {
+                    pending.deliver();
+                    return;
+                }
+                LockSupport.parkNanos(this, BLOCKED_PARK_NANOS);
+            } while (!queue.offer(pending));
+        }
+        publishedCount.incrementAndGet();
+    }
+
+    /**
+     * Delivers a queued event to each of its listeners in turn, so that one failing listener does not prevent the
+     * others from seeing the event.
+     */
+    private void dispatch(PendingEvent pending) {
+        for (Object listener : pending.listeners) {
+            try {
+                pending.deliverTo(listener);
+            } catch (RuntimeException e) {
+                listenerErrorCount.incrementAndGet();
+                log.warn("Listener {} failed to handle {} event", listener, pending.event.getEventType(), e);
+            }
+        }
+        deliveredCount.incrementAndGet();
+    }
+
+    /**
+     * A single event waiting to be delivered to every listener that was registered when it was published.
+     */
+    private static class PendingEvent {
+
+        // immutable snapshot taken from the listener registry, so it is safe to iterate on the consumer thread
+        private final Object[] listeners;
+        private final ConnectionEvent event;
+
+        PendingEvent(Object[] listeners, ConnectionEvent event) {
+            this.listeners = listeners;
+            this.event = event;
+        }
+
+        /**
+         * Delivers the event to all listeners on the current thread, propagating the first exception thrown.
+         */
+        void deliver() {
+            for (Object listener : listeners) {
+                deliverTo(listener);
+            }
+        }
+
+        void deliverTo(Object listener) {
+            switch ((ConnectionEventType)event.getEventType()) {
+                case CONNECTION_OPENED:
+                    ((ConnectionOpenedListener)listener).connectionOpened((ConnectionOpenedEvent)event);
+                    break;
+                case CONNECTION_CLOSED:
+                    ((ConnectionClosedListener)listener).connectionClosed((ConnectionClosedEvent)event);
+                    break;
+                case STATEMENT_EXECUTING:
+                    ((StatementExecutionListener)listener).beforeExecutingStatement((StatementExecutingEvent)event);
+                    break;
+                case STATEMENT_EXECUTED:
+                    ((StatementExecutionListener)listener).statementExecuted((StatementExecutedEvent)event);
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported event type: " + event.getEventType());
+            }
+        }
+    }
+}
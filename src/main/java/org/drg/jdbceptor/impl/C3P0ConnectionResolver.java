@@ -9,7 +9,6 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.UUID;
 
 /**
  * Provided implementation for a {@link org.drg.jdbceptor.config.ConnectionResolver} that
@@ -65,8 +64,7 @@ public class C3P0ConnectionResolver implements ConnectionResolver {
 
     @Override
     public String generateConnectionId(Connection connection) {
-        // TODO FIXME(dgarson) implement this properly...
-        return UUID.randomUUID().toString();
+        return SnowflakeIdentifierGenerator.format(SnowflakeIdentifierGenerator.nextId());
     }
 
     public static C3P0ConnectionResolver getInstance() {
@@ -0,0 +1,175 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.base.Preconditions;
+import org.drg.jdbceptor.api.CallSiteSourceInfo;
+import org.drg.jdbceptor.api.SourceInfo;
+import org.drg.jdbceptor.util.BurstRateLimiter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Captures the application call site of statements that turn out to be slow. Statement completion is reported on the
+ * thread that executed the statement, so the code that issued it is still on the stack at that point and the stack
+ * only needs to be walked once a statement's elapsed time is known to exceed the threshold. Statements below the
+ * threshold cost a single comparison. </br>
+ * Frames belonging to Jdbceptor, Hibernate, the JDK, connection pools and common JDBC drivers are filtered out, so the
+ * captured {@link SourceInfo} starts at the first application frame. Captures are rate-limited so that a sudden
+ * database-wide slowdown, where every statement exceeds the threshold, does not also turn into a flood of stack walks;
+ * statements that are not captured because of the rate limit are counted. </br>
+ * Captured frames are interned by a {@link CallSiteInterner}, so each captured source info only references one of
+ * the shared call sites, and the most frequent sources of slow statements can be read from
+ * {@link #getInterner()}.
+ *
+ * @author dgarson
+ * @see DataSourceManager#enableCallSiteCapture(long, TimeUnit, int)
+ */
+public class CallSiteCapture {
+
+    /**
+     * Default maximum number of application frames retained for each call site.
+     */
+    public static final int DEFAULT_MAX_FRAMES = 8;
+
+    /**
+     * Class name prefixes of frames that are never reported as part of a call site.
+     */
+    public static final List<String> DEFAULT_IGNORED_PREFIXES = Collections.unmodifiableList(Arrays.asList(
+        "org.drg.jdbceptor.", "org.hibernate.", "java.", "javax.", "sun.", "com.sun.", "jdk.",
+        "com.mchange.", "com.zaxxer.hikari.", "org.apache.commons.dbcp", "org.apache.tomcat.jdbc.",
+        "com.mysql.", "org.mariadb.", "org.postgresql.", "oracle.jdbc.", "com.microsoft.sqlserver.", "org.h2.",
+        "org.hsqldb.", "org.springframework.jdbc.", "org.springframework.orm."));
+
+    private final long thresholdNanos;
+    private final BurstRateLimiter limiter;
+    private final int maxFrames;
+    private final String[] ignoredPrefixes;
+    private final CallSiteInterner interner;
+
+    private final AtomicLong capturedCount = new AtomicLong();
+    private final AtomicLong suppressedCount = new AtomicLong();
+
+    /**
+     * Creates a call site capture that ignores the {@link #DEFAULT_IGNORED_PREFIXES default} frames and retains up to
+     * {@link #DEFAULT_MAX_FRAMES} application frames.
+     */
+    public CallSiteCapture(long thresholdNanos, int maxCapturesPerSecond) {
+        this(thresholdNanos, maxCapturesPerSecond, DEFAULT_MAX_FRAMES, DEFAULT_IGNORED_PREFIXES);
+    }
+
+    /**
+     * @param thresholdNanos statements that take at least this long have their call site captured
+     * @param maxCapturesPerSecond the maximum sustained rate of captures, which is also the largest burst allowed
+     * @param maxFrames the maximum number of application frames retained for each call site
+     * @param ignoredPrefixes class name prefixes of frames that are not part of the application
+     */
+    public CallSiteCapture(long thresholdNanos, int maxCapturesPerSecond, int maxFrames,
+                           Collection<String> ignoredPrefixes) {
+        this(thresholdNanos, maxCapturesPerSecond, maxFrames, ignoredPrefixes, new CallSiteInterner());
+    }
+
+    /**
+     * @param thresholdNanos statements that take at least this long have their call site captured
+     * @param maxCapturesPerSecond the maximum sustained rate of captures, which is also the largest burst allowed
+     * @param maxFrames the maximum number of application frames retained for each call site
+     * @param ignoredPrefixes class name prefixes of frames that are not part of the application
+     * @param interner the cache that captured call sites are interned in, which may be shared with other captures
+     */
+    public CallSiteCapture(long thresholdNanos, int maxCapturesPerSecond, int maxFrames,
+                           Collection<String> ignoredPrefixes, CallSiteInterner interner) {
+        Preconditions.checkArgument(thresholdNanos >= 0L, "thresholdNanos must not be negative");
+        Preconditions.checkArgument(maxCapturesPerSecond > 0, "maxCapturesPerSecond must be positive");
+        Preconditions.checkArgument(maxFrames > 0, "maxFrames must be positive");
+        Preconditions.checkNotNull(ignoredPrefixes, "ignoredPrefixes");
+        Preconditions.checkNotNull(interner, "interner");
+        this.thresholdNanos = thresholdNanos;
+        this.limiter = new BurstRateLimiter(maxCapturesPerSecond);
+        this.maxFrames = maxFrames;
+        this.ignoredPrefixes = ignoredPrefixes.toArray(new String[ignoredPrefixes.size()]);
+        this.interner = interner;
+    }
+
+    public long getThresholdNanos() {
+        return thresholdNanos;
+    }
+
+    /**
+     * Returns the cache of distinct call sites captured so far.
+     */
+    public CallSiteInterner getInterner() {
+        return interner;
+    }
+
+    /**
+     * Returns the number of call sites captured.
+     */
+    public long getCapturedCount() {
+        return capturedCount.get();
+    }
+
+    /**
+     * Returns the number of statements that exceeded the threshold but were not captured because of the rate limit.
+     */
+    public long getSuppressedCount() {
+        return suppressedCount.get();
+    }
+
+    /**
+     * Captures the call site of the current thread if <strong>elapsedNanos</strong> is at or above the threshold and
+     * the rate limit allows it. This must be called on the thread that executed the statement.
+     * @return the call site, or <code>null</code> if it was not captured
+     */
+    public SourceInfo captureIfSlow(long elapsedNanos) {
+        if (elapsedNanos < thresholdNanos) {
+            return null;
+        }
+        if (!limiter.tryAcquire()) {
+            suppressedCount.incrementAndGet();
+            return null;
+        }
+        return capture();
+    }
+
+    /**
+     * Captures the call site of the current thread regardless of the threshold and rate limit, for callers that need
+     * the source of every occurrence of something rare, such as a connection lease.
+     */
+    public SourceInfo capture() {
+        capturedCount.incrementAndGet();
+        return new CallSiteSourceInfo(interner.intern(applicationFrames(new Throwable().getStackTrace())));
+    }
+
+    /**
+     * Returns the frames of <strong>stack</strong> that belong to the application, starting from the innermost one.
+     */
+    StackTraceElement[] applicationFrames(StackTraceElement[] stack) {
+        List<StackTraceElement> frames = new ArrayList<>(maxFrames);
+        for (StackTraceElement frame : stack) {
+            if (!isIgnored(frame.getClassName())) {
+                frames.add(frame);
+                if (frames.size() == maxFrames) {
+                    break;
+                }
+            }
+        }
+        return frames.toArray(new StackTraceElement[frames.size()]);
+    }
+
+    private boolean isIgnored(String className) {
+        // dynamic proxies and generated accessors are never application code
+        if (className.contains("$Proxy") || className.contains("$$")) {
+            return true;
+        }
+        for (String prefix : ignoredPrefixes) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
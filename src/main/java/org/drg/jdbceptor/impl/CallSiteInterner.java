@@ -0,0 +1,142 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.base.Preconditions;
+import org.drg.jdbceptor.api.CallSite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Interning cache that maps each distinct sequence of stack frames to a single shared {@link CallSite} with a stable
+ * id. An application typically only has a few hundred distinct places that execute slow statements (or acquire
+ * connections), so interning means that captured source info retains a reference to one of a small, fixed set of
+ * call sites rather than a freshly captured array of frames, and that captures can be aggregated by call site id.
+ * </br>
+ * The cache is bounded: once it holds <strong>maxCallSites</strong> entries, frames that have not been seen before are
+ * returned as {@link CallSite#UNINTERNED_ID uninterned} call sites, which are not shared, and are counted as overflows.
+ *
+ * @author dgarson
+ */
+public class CallSiteInterner {
+
+    /**
+     * Default maximum number of distinct call sites retained by the cache.
+     */
+    public static final int DEFAULT_MAX_CALL_SITES = 4096;
+
+    private final int maxCallSites;
+    private final ConcurrentMap<FramesKey, CallSite> callSitesByFrames = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, CallSite> callSitesById = new ConcurrentHashMap<>();
+    private final AtomicInteger lastId = new AtomicInteger(CallSite.UNINTERNED_ID);
+    private final AtomicLong overflowCount = new AtomicLong();
+
+    public CallSiteInterner() {
+        this(DEFAULT_MAX_CALL_SITES);
+    }
+
+    public CallSiteInterner(int maxCallSites) {
+        Preconditions.checkArgument(maxCallSites > 0, "maxCallSites must be positive");
+        this.maxCallSites = maxCallSites;
+    }
+
+    /**
+     * Returns the shared call site for <strong>frames</strong>, creating it if these frames have not been seen before,
+     * and records an occurrence of it. The array is retained by a newly created call site, so callers must not modify
+     * it afterwards.
+     */
+    public CallSite intern(StackTraceElement[] frames) {
+        FramesKey key = new FramesKey(frames);
+        CallSite callSite = callSitesByFrames.get(key);
+        if (callSite == null) {
+            callSite = create(key);
+        }
+        callSite.recordOccurrence();
+        return callSite;
+    }
+
+    private CallSite create(FramesKey key) {
+        if (callSitesByFrames.size() >= maxCallSites) {
+            overflowCount.incrementAndGet();
+            return new CallSite(CallSite.UNINTERNED_ID, key.frames);
+        }
+        // ids are only assigned to call sites that win the race to be interned, so they stay dense
+        synchronized (this) {
+            CallSite callSite = callSitesByFrames.get(key);
+            if (callSite == null) {
+                callSite = new CallSite(lastId.incrementAndGet(), key.frames);
+                callSitesById.put(callSite.getId(), callSite);
+                callSitesByFrames.put(key, callSite);
+            }
+            return callSite;
+        }
+    }
+
+    /**
+     * Returns the interned call site with the provided <strong>id</strong>, or <code>null</code> if there is none.
+     */
+    public CallSite getCallSite(int id) {
+        return callSitesById.get(id);
+    }
+
+    /**
+     * Returns all interned call sites, ordered by descending number of occurrences.
+     */
+    public List<CallSite> getCallSites() {
+        List<CallSite> callSites = new ArrayList<>(callSitesById.values());
+        Collections.sort(callSites, new Comparator<CallSite>() {
+            @Override
+            public int compare(CallSite left, CallSite right) {
+                long leftCount = left.getOccurrences();
+                long rightCount = right.getOccurrences();
+                return (leftCount < rightCount ? 1 : (leftCount == rightCount ? 0 : -1));
+            }
+        });
+        return callSites;
+    }
+
+    /**
+     * Returns the number of distinct call sites that have been interned.
+     */
+    public int size() {
+        return callSitesById.size();
+    }
+
+    /**
+     * Returns the number of captures that could not be interned because the cache was full.
+     */
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+    /**
+     * Hash key over an array of frames. The hash is computed once, since it is needed for every lookup and the frames
+     * of a call site never change.
+     */
+    private static final class FramesKey {
+        private final StackTraceElement[] frames;
+        private final int hashCode;
+
+        FramesKey(StackTraceElement[] frames) {
+            this.frames = frames;
+            this.hashCode = Arrays.hashCode(frames);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof FramesKey && ((FramesKey)obj).hashCode == hashCode &&
+                Arrays.equals(((FramesKey)obj).frames, frames));
+        }
+    }
+}
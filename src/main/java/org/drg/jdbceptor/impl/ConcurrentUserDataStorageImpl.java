@@ -0,0 +1,96 @@
+package org.drg.jdbceptor.impl;
+
+import org.drg.jdbceptor.internal.UserDataKey;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * User data storage for objects whose typed values are written by several threads at once. Each typed value is read
+ * and written atomically, and values are published safely to other threads. Growing the slot array is the only
+ * operation that normally takes a lock, which only happens when a key created after the first stored value is used.
+ * A write that may have raced with a grow, because it saw a grow in progress or the array was replaced afterwards, is
+ * repeated on the published array under the same lock, so the grown copy never loses or resurrects a value.
+ *
+ * @author dgarson
+ */
+public class ConcurrentUserDataStorageImpl extends UserDataStorageImpl {
+
+    private volatile AtomicReferenceArray<Object> concurrentSlots;
+
+    // set while a grow copies the slot array, so that writers which may have been missed by the copy repeat their write
+    private volatile boolean growing;
+
+    @Override
+    public void clearUserData() {
+        super.clearUserData();
+        AtomicReferenceArray<Object> slots = concurrentSlots;
+        if (slots != null) {
+            for (int i = 0; i < slots.length(); i++) {
+                writeSlot(slots, i, null);
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getUserData(UserDataKey<T> key) {
+        AtomicReferenceArray<Object> slots = concurrentSlots;
+        int index = key.getIndex();
+        return (slots == null || index >= slots.length() ? null : (T)slots.get(index));
+    }
+
+    @Override
+    public <T> void setUserData(UserDataKey<T> key, T value) {
+        int index = key.getIndex();
+        AtomicReferenceArray<Object> slots = concurrentSlots;
+        if (slots == null || index >= slots.length()) {
+            if (value == null) {
+                return;
+            }
+            slots = growConcurrentSlots(index);
+        }
+        writeSlot(slots, index, value);
+    }
+
+    @Override
+    public void removeUserData(UserDataKey<?> key) {
+        int index = key.getIndex();
+        AtomicReferenceArray<Object> slots = concurrentSlots;
+        if (slots != null && index < slots.length()) {
+            writeSlot(slots, index, null);
+        }
+    }
+
+    /**
+     * Writes <strong>value</strong> to <strong>slots</strong>, repeating the write on the published array under the
+     * grow lock if a grow may have copied the slot before this write reached it.
+     */
+    private void writeSlot(AtomicReferenceArray<Object> slots, int index, Object value) {
+        slots.set(index, value);
+        // a grow either starts after this write and so copies it, or is seen here through the flag or the new array
+        if (growing || slots != concurrentSlots) {
+            synchronized (this) {
+                concurrentSlots.set(index, value);
+            }
+        }
+    }
+
+    private synchronized AtomicReferenceArray<Object> growConcurrentSlots(int index) {
+        AtomicReferenceArray<Object> slots = concurrentSlots;
+        if (slots != null && index < slots.length()) {
+            return slots;
+        }
+        growing = true;
+        try {
+            Object[] values = new Object[(slots == null ? 0 : slots.length())];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = slots.get(i);
+            }
+            AtomicReferenceArray<Object> grown = new AtomicReferenceArray<>(growSlots(values, index));
+            concurrentSlots = grown;
+            return grown;
+        } finally {
+            growing = false;
+        }
+    }
+}
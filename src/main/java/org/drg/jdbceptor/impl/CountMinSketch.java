@@ -0,0 +1,101 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free Count-Min sketch that estimates the total weight added for each key in a fixed amount of memory. </br>
+ * Each row hashes the key itself with its own seeded murmur3 hash, so that keys colliding in one row are unlikely to
+ * collide in any other. Estimates never under-count; with probability <code>1 - e^-depth</code> an estimate over-counts
+ * by at most <code>(e / width) * N</code>, where <code>N</code> is the total weight added to the sketch. </br>
+ * Keys are hashed by {@link #hash(String)} before being added or estimated. Sketches of the same depth hash keys
+ * identically, so a key only needs hashing once to be used with several sketches.
+ *
+ * @author dgarson
+ */
+class CountMinSketch {
+
+    private static final int SEED_INCREMENT = 0x9E3779B9;
+
+    private final int depth;
+    private final int width;
+    private final int mask;
+    private final HashFunction[] rowHashFunctions;
+    private final AtomicLongArray counters;
+
+    /**
+     * @param depth the number of hash rows, which determines the confidence of the error bound
+     * @param width the number of counters in each row, which must be a power of two and determines the error bound
+     */
+    CountMinSketch(int depth, int width) {
+        Preconditions.checkArgument(depth > 0, "depth must be positive");
+        Preconditions.checkArgument(width > 0 && Integer.bitCount(width) == 1, "width must be a power of two");
+        this.depth = depth;
+        this.width = width;
+        this.mask = width - 1;
+        this.rowHashFunctions = new HashFunction[depth];
+        for (int row = 0; row < depth; row++) {
+            rowHashFunctions[row] = Hashing.murmur3_32((row + 1) * SEED_INCREMENT);
+        }
+        this.counters = new AtomicLongArray(depth * width);
+    }
+
+    /**
+     * Returns the hash of <strong>key</strong> for each row of this sketch.
+     */
+    int[] hash(String key) {
+        int[] hashes = new int[depth];
+        for (int row = 0; row < depth; row++) {
+            hashes[row] = rowHashFunctions[row].hashUnencodedChars(key).asInt();
+        }
+        return hashes;
+    }
+
+    /**
+     * Adds <strong>weight</strong> to the key with the given row <strong>hashes</strong>.
+     */
+    void add(int[] hashes, long weight) {
+        for (int row = 0; row < depth; row++) {
+            counters.addAndGet(row * width + (hashes[row] & mask), weight);
+        }
+    }
+
+    /**
+     * Returns the estimated total weight for the key with the given row <strong>hashes</strong>.
+     */
+    long estimate(int[] hashes) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counters.get(row * width + (hashes[row] & mask)));
+        }
+        return min;
+    }
+
+    /**
+     * Returns the total weight added to this sketch, which is the sum of any single row.
+     */
+    long total() {
+        long total = 0;
+        for (int i = 0; i < width; i++) {
+            total += counters.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the maximum amount, relative to the total weight, by which an estimate may over-count.
+     */
+    double getEpsilon() {
+        return Math.E / width;
+    }
+
+    /**
+     * Returns the probability that an estimate is within the error bound.
+     */
+    double getConfidence() {
+        return 1.0 - Math.exp(-depth);
+    }
+}
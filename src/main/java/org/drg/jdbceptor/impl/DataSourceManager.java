@@ -6,23 +6,32 @@ import org.drg.jdbceptor.api.InstrumentedConnection;
 import org.drg.jdbceptor.config.ConnectionResolver;
 import org.drg.jdbceptor.config.DataSourceConfiguration;
 import org.drg.jdbceptor.config.FeatureChecker;
+import org.drg.jdbceptor.config.IdentifierGenerator;
+import org.drg.jdbceptor.config.InstrumentationLevel;
+import org.drg.jdbceptor.config.OverflowPolicy;
 import org.drg.jdbceptor.config.QueryParameterFormatter;
+import org.drg.jdbceptor.config.SlowQueryLogFormat;
+import org.drg.jdbceptor.config.TailSamplingPolicy;
 import org.drg.jdbceptor.event.ConnectionClosedEvent;
 import org.drg.jdbceptor.event.ConnectionClosedListener;
 import org.drg.jdbceptor.event.ConnectionOpenedEvent;
 import org.drg.jdbceptor.event.ConnectionOpenedListener;
+import org.drg.jdbceptor.event.OverdueLeaseListener;
+import org.drg.jdbceptor.event.StatementExecutedEvent;
+import org.drg.jdbceptor.event.StatementExecutingEvent;
+import org.drg.jdbceptor.event.StatementExecutionListener;
 import org.drg.jdbceptor.hibernate.InstrumentedTransaction;
 import org.drg.jdbceptor.hibernate.TransactionCustomizer;
 import org.drg.jdbceptor.hibernate.config.HibernateDataSourceConfiguration;
+import org.drg.jdbceptor.hibernate.event.TransactionTraceListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.UUID;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Centralized logic for managing callbacks and invoking associated listeners, etc. for a single data source. This
@@ -44,29 +53,110 @@ public class DataSourceManager {
     private final FeatureChecker features;
     private final QueryParameterFormatter queryParamFormatter;
     private final boolean pooled;
-    private final boolean instrumented;
+
+    /**
+     * Current instrumentation level, which is read once per connection lease and may be replaced at any time. Changing
+     * it never takes this manager's monitor, so that the overhead governor can adjust it while the governor itself is
+     * being replaced or stopped under that monitor.
+     */
+    private final AtomicReference<InstrumentationLevel> instrumentationLevel = new AtomicReference<>();
 
     private final boolean usingHibernate;
 
     /**
-     * Local counters used for generating new transaction and connection identifiers
+     * Default generators for connection and transaction identifiers, which only render an id as a string when it is
+     * first needed.
+     */
+    private final SnowflakeIdentifierGenerator<InstrumentedConnection> defaultConnectionIds;
+    private final SnowflakeIdentifierGenerator<InstrumentedTransaction> defaultTransactionIds;
+
+    /**
+     * Optional user-provided generators that replace the default connection and transaction identifiers.
+     */
+    private volatile IdentifierGenerator<InstrumentedConnection> connectionIdGenerator;
+    private volatile IdentifierGenerator<InstrumentedTransaction> transactionIdGenerator;
+
+    /**
+     * Execution counters shared by all statements created through connections to this data source.
+     */
+    private final StatementMetrics statementMetrics = new StatementMetrics();
+
+    /**
+     * Optional per-fingerprint statistics, which are only aggregated once explicitly enabled since fingerprinting has a
+     * cost for plain statements with inlined SQL.
+     */
+    private volatile StatementStatistics statementStatistics;
+
+    /**
+     * Optional fixed-memory top-K tracker, for data sources whose statement cardinality is too high for exact
+     * per-fingerprint statistics.
+     */
+    private volatile HeavyHitterTracker heavyHitters;
+
+    /**
+     * Optional dispatcher that delivers listener callbacks on a dedicated thread rather than the JDBC caller's thread.
+     */
+    private volatile AsyncEventDispatcher asyncDispatcher;
+
+    /**
+     * Optional binary journal that persists statement, connection and transaction events to memory-mapped files.
+     */
+    private volatile StatementJournal journal;
+
+    /**
+     * Optional log of statements exceeding a latency threshold, written by a background thread.
+     */
+    private volatile SlowQueryLog slowQueryLog;
+
+    /**
+     * Optional capture of the application call site for statements exceeding a latency threshold.
+     */
+    private volatile CallSiteCapture callSiteCapture;
+
+    /**
+     * Optional governor that lowers the instrumentation level whenever instrumentation takes too much statement time.
+     */
+    private volatile OverheadGovernor overheadGovernor;
+
+    /**
+     * Optional tail sampler buffering the statements of each transaction until it is known whether to keep them.
+     */
+    private volatile TailSampler tailSampler;
+
+    /**
+     * Optional settings for logging every statement of each transaction, which are only set for Hibernate data sources.
+     */
+    private volatile TransactionStatementCapture transactionStatementCapture;
+
+    /**
+     * Optional watchdog reporting connections held, or transactions left open, for longer than a budget.
      */
-    private final AtomicLong nextConnectionId = new AtomicLong();
-    private final AtomicLong nextTransactionId = new AtomicLong();
+    private volatile LeaseWatchdog leaseWatchdog;
+
+    /**
+     * Shared empty listener snapshots, so that checking for listeners is a single length comparison.
+     */
+    static final ConnectionOpenedListener[] NO_OPENED_LISTENERS = new ConnectionOpenedListener[0];
+    static final ConnectionClosedListener[] NO_CLOSED_LISTENERS = new ConnectionClosedListener[0];
+    static final StatementExecutionListener[] NO_STATEMENT_LISTENERS = new StatementExecutionListener[0];
 
     /**
      * Logical opened event listeners - in the case of pooling, these will be automatically attached to physical
      * connections after they are first established.
      */
-    private final List<ConnectionOpenedListener> logicalConnectionOpenedListeners = new CopyOnWriteArrayList<>();
-    private final List<ConnectionClosedListener> logicalConnectionClosedListeners = new ArrayList<>();
+    private final ListenerRegistry<ConnectionOpenedListener> logicalConnectionOpenedListeners =
+        new ListenerRegistry<>(NO_OPENED_LISTENERS);
+    private final ListenerRegistry<ConnectionClosedListener> logicalConnectionClosedListeners =
+        new ListenerRegistry<>(NO_CLOSED_LISTENERS);
 
     /**
-     * List of connection opened event listeners that wish to subscribe to physical connection events when Jdbceptor is
-     * being used underneath and integrated with a connection pool.
+     * Connection event listeners that wish to subscribe to physical connection events when Jdbceptor is being used
+     * underneath and integrated with a connection pool.
      */
-    private final List<ConnectionOpenedListener> physicalConnectionOpenedListeners = new CopyOnWriteArrayList<>();
-    private final List<ConnectionClosedListener> physicalConnectionClosedListeners = new CopyOnWriteArrayList<>();
+    private final ListenerRegistry<ConnectionOpenedListener> physicalConnectionOpenedListeners =
+        new ListenerRegistry<>(NO_OPENED_LISTENERS);
+    private final ListenerRegistry<ConnectionClosedListener> physicalConnectionClosedListeners =
+        new ListenerRegistry<>(NO_CLOSED_LISTENERS);
 
     public DataSourceManager(DataSourceConfiguration config) {
         Preconditions.checkNotNull(config, "DataSourceConfiguration was not provided");
@@ -79,7 +169,15 @@ public class DataSourceManager {
         this.transactionCustomizer = (usingHibernate ?
             ((HibernateDataSourceConfiguration)config).getTransactionCustomizer() : null);
         this.pooled = config.isPoolingConnections();
-        this.instrumented = config.isInstrumented();
+        if (usingHibernate && ((HibernateDataSourceConfiguration)config).isTransactionStatementCaptureEnabled()) {
+            this.transactionStatementCapture = new TransactionStatementCapture(
+                TransactionStatementCapture.DEFAULT_MEMORY_BUDGET, TransactionStatementCapture.DEFAULT_MAX_SPILL_BYTES,
+                /*spillDirectory=*/null);
+        }
+        this.instrumentationLevel.set(config.isInstrumented() ? InstrumentationLevel.FEATURES :
+            InstrumentationLevel.OFF);
+        this.defaultConnectionIds = new SnowflakeIdentifierGenerator<>(id + "-");
+        this.defaultTransactionIds = new SnowflakeIdentifierGenerator<>(id + "-tx-");
     }
 
     /**
@@ -91,11 +189,45 @@ public class DataSourceManager {
     }
 
     /**
-     * Returns true if any instrumentation might be enabled and false if all instrumentation is and will remain disabled
-     * for this data source.
+     * Returns true if any instrumentation might be enabled and false if all instrumentation is currently disabled for
+     * this data source.
+     * @see #getInstrumentationLevel()
      */
     public boolean isInstrumented() {
-        return instrumented;
+        return instrumentationLevel.get().isEnabled();
+    }
+
+    /**
+     * Returns the instrumentation level applied to connection leases that start from now on.
+     */
+    public InstrumentationLevel getInstrumentationLevel() {
+        return instrumentationLevel.get();
+    }
+
+    /**
+     * Changes how much instrumentation is applied to this data source, such as to capture everything during an incident
+     * and to go back to the previous level afterwards. The new level applies to every connection lease that starts
+     * afterwards, while leases in progress keep the level they started with. </br>
+     * Data sources that were configured as not instrumented may be instrumented this way as well, although any
+     * Hibernate integration that is only installed for instrumented data sources remains absent.
+     * @return the previous level
+     * @see InstrumentationControl
+     */
+    public InstrumentationLevel setInstrumentationLevel(InstrumentationLevel level) {
+        Preconditions.checkNotNull(level, "level");
+        InstrumentationLevel previous = instrumentationLevel.getAndSet(level);
+        if (previous != level) {
+            log.info("Changed instrumentation level for data source '{}' from {} to {}", id, previous, level);
+        }
+        return previous;
+    }
+
+    /**
+     * Changes the instrumentation level to <strong>level</strong> only if it is currently <strong>expected</strong>, so
+     * that automatic adjustments never override a level that was just set by someone else.
+     */
+    boolean compareAndSetInstrumentationLevel(InstrumentationLevel expected, InstrumentationLevel level) {
+        return instrumentationLevel.compareAndSet(expected, level);
     }
 
     /**
@@ -114,6 +246,423 @@ public class DataSourceManager {
         return features;
     }
 
+    /**
+     * Returns the execution counters and timings for all instrumented statements executed against this data source.
+     */
+    public StatementMetrics getStatementMetrics() {
+        return statementMetrics;
+    }
+
+    /**
+     * Returns the per-fingerprint statement statistics for this data source, or <code>null</code> if they have not been
+     * enabled.
+     * @see #enableStatementStatistics(int)
+     */
+    public StatementStatistics getStatementStatistics() {
+        return statementStatistics;
+    }
+
+    /**
+     * Starts aggregating per-fingerprint statistics for every statement executed through connections that are capturing
+     * statements. If statistics are already enabled then the existing aggregator is returned unchanged.
+     * @param maxFingerprints the maximum number of distinct fingerprints to track individually
+     * @return the statistics aggregator
+     */
+    public synchronized StatementStatistics enableStatementStatistics(int maxFingerprints) {
+        if (statementStatistics == null) {
+            statementStatistics = new StatementStatistics(maxFingerprints);
+        }
+        return statementStatistics;
+    }
+
+    /**
+     * Stops aggregating per-fingerprint statistics and discards everything aggregated so far.
+     */
+    public synchronized void disableStatementStatistics() {
+        statementStatistics = null;
+    }
+
+    /**
+     * Returns the top-K heavy hitter tracker for this data source, or <code>null</code> if it has not been enabled.
+     * @see #enableHeavyHitters(int)
+     */
+    public HeavyHitterTracker getHeavyHitters() {
+        return heavyHitters;
+    }
+
+    /**
+     * Starts tracking the top <strong>k</strong> statements by execution count and by total time for every statement
+     * executed through connections that are capturing statements. Unlike {@link #enableStatementStatistics(int)}, this
+     * uses a fixed amount of memory regardless of how many distinct statements are executed, at the cost of only
+     * providing estimates. If tracking is already enabled then the existing tracker is returned unchanged.
+     * @return the heavy hitter tracker
+     */
+    public synchronized HeavyHitterTracker enableHeavyHitters(int k) {
+        if (heavyHitters == null) {
+            heavyHitters = new HeavyHitterTracker(k);
+        }
+        return heavyHitters;
+    }
+
+    /**
+     * Stops tracking heavy hitters and discards everything tracked so far.
+     */
+    public synchronized void disableHeavyHitters() {
+        heavyHitters = null;
+    }
+
+    /**
+     * Returns the dispatcher delivering listener callbacks asynchronously for this data source, or <code>null</code> if
+     * listeners are being invoked synchronously.
+     * @see #enableAsyncDispatch(int, OverflowPolicy)
+     */
+    public AsyncEventDispatcher getAsyncDispatcher() {
+        return asyncDispatcher;
+    }
+
+    /**
+     * Starts delivering connection and statement listener callbacks for this data source on a dedicated thread, using
+     * {@link AsyncEventDispatcher#DEFAULT_SAMPLE_RATE} for the {@link OverflowPolicy#SAMPLE} policy.
+     * @see #enableAsyncDispatch(int, OverflowPolicy, int)
+     */
+    public AsyncEventDispatcher enableAsyncDispatch(int capacity, OverflowPolicy overflowPolicy) {
+        return enableAsyncDispatch(capacity, overflowPolicy, AsyncEventDispatcher.DEFAULT_SAMPLE_RATE);
+    }
+
+    /**
+     * Starts delivering connection and statement listener callbacks for this data source on a dedicated thread instead
+     * of the thread using the connection. Listeners registered with this data source and with its connections and
+     * statements are all affected. If asynchronous dispatch is already enabled then the existing dispatcher is returned
+     * unchanged.
+     * @param capacity the maximum number of queued listener invocations, which must be a power of two
+     * @param overflowPolicy what to do with events published while the queue is full
+     * @param sampleRate for {@link OverflowPolicy#SAMPLE}, accept one in this many events once the queue is half full
+     * @return the dispatcher, which exposes the counts of delivered and dropped events
+     */
+    public synchronized AsyncEventDispatcher enableAsyncDispatch(int capacity, OverflowPolicy overflowPolicy,
+                                                                 int sampleRate) {
+        if (asyncDispatcher == null) {
+            asyncDispatcher = new AsyncEventDispatcher(id, capacity, overflowPolicy, sampleRate);
+        }
+        return asyncDispatcher;
+    }
+
+    /**
+     * Goes back to invoking listeners synchronously. Events that are already queued are still delivered by the
+     * dispatcher's thread, which exits once the queue is empty.
+     */
+    public synchronized void disableAsyncDispatch() {
+        if (asyncDispatcher != null) {
+            asyncDispatcher.shutdown();
+            asyncDispatcher = null;
+        }
+    }
+
+    /**
+     * Returns the binary journal persisting events for this data source, or <code>null</code> if it has not been
+     * enabled.
+     * @see #enableJournal(File, int, int, boolean)
+     */
+    public StatementJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Starts appending a binary record of every statement executed through connections that are capturing statements,
+     * along with connection and transaction events, to rolling memory-mapped segment files in
+     * <strong>directory</strong>. If the journal is already enabled then the existing journal is returned unchanged.
+     * @param directory the directory to write segment files to
+     * @param segmentSize the size of each segment file in bytes
+     * @param maxSegments the number of segment files to retain before the oldest are deleted
+     * @param captureParameters whether to record the parameters bound to prepared statements
+     * @return the journal, which exposes the counts of appended and dropped records
+     * @throws IOException if the journal directory or its first segment cannot be created
+     */
+    public synchronized StatementJournal enableJournal(File directory, int segmentSize, int maxSegments,
+                                                       boolean captureParameters) throws IOException {
+        if (journal == null) {
+            journal = new StatementJournal(id, directory, segmentSize, maxSegments, captureParameters);
+        }
+        return journal;
+    }
+
+    /**
+     * Stops journaling events and flushes the segment that was being written. Segment files are left in place so they
+     * can still be read with a {@link JournalReader}.
+     */
+    public synchronized void disableJournal() {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    /**
+     * Returns the slow statement log for this data source, or <code>null</code> if it has not been enabled.
+     * @see #enableSlowQueryLog(File, long, TimeUnit, SlowQueryLogFormat)
+     */
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * Starts logging statements that take at least <strong>threshold</strong> to a rolling file in
+     * <strong>directory</strong>, using the default file size, file count and queue capacity.
+     * @see #enableSlowQueryLog(File, long, TimeUnit, SlowQueryLogFormat, long, int, int)
+     */
+    public SlowQueryLog enableSlowQueryLog(File directory, long threshold, TimeUnit unit, SlowQueryLogFormat format)
+        throws IOException {
+        return enableSlowQueryLog(directory, threshold, unit, format, SlowQueryLog.DEFAULT_MAX_FILE_SIZE,
+            SlowQueryLog.DEFAULT_MAX_FILES, SlowQueryLog.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Starts logging every statement executed through connections to this data source that takes at least
+     * <strong>threshold</strong>, along with its connection id, transaction id and formatted SQL. Statements are
+     * written by a background thread so the JDBC caller never waits on file I/O. If the slow query log is already
+     * enabled then the existing log is returned unchanged; its threshold can be changed through
+     * {@link SlowQueryLog#setThreshold(long, TimeUnit)}.
+     * @param directory the directory to write log files to
+     * @param threshold the minimum execution time of a statement to be logged
+     * @param unit the unit of <strong>threshold</strong>
+     * @param format how each statement is written
+     * @param maxFileSize the size in bytes at which the log file is rolled over
+     * @param maxFiles the number of log files to keep, including the one being written
+     * @param queueCapacity the maximum number of statements waiting to be written, which must be a power of two
+     * @return the log, which exposes the counts of logged and dropped statements
+     * @throws IOException if the log directory or file cannot be created
+     */
+    public synchronized SlowQueryLog enableSlowQueryLog(File directory, long threshold, TimeUnit unit,
+                                                        SlowQueryLogFormat format, long maxFileSize, int maxFiles,
+                                                        int queueCapacity) throws IOException {
+        if (slowQueryLog == null) {
+            slowQueryLog = new SlowQueryLog(id, directory, unit.toNanos(threshold), format, maxFileSize, maxFiles,
+                queueCapacity);
+        }
+        return slowQueryLog;
+    }
+
+    /**
+     * Stops logging slow statements. Statements that are already queued are still written before the file is closed.
+     */
+    public synchronized void disableSlowQueryLog() {
+        if (slowQueryLog != null) {
+            slowQueryLog.close();
+            slowQueryLog = null;
+        }
+    }
+
+    /**
+     * Returns the call site capture for slow statements on this data source, or <code>null</code> if it has not been
+     * enabled.
+     * @see #enableCallSiteCapture(long, TimeUnit, int)
+     */
+    public CallSiteCapture getCallSiteCapture() {
+        return callSiteCapture;
+    }
+
+    /**
+     * Starts capturing the application call site of every statement that takes at least <strong>threshold</strong>,
+     * which is then available from {@link StatementExecutedEvent#getCallSite()} and is included in the slow query log.
+     * If call site capture is already enabled then it is replaced.
+     * @param threshold the minimum execution time of a statement for its call site to be captured
+     * @param unit the unit of <strong>threshold</strong>
+     * @param maxCapturesPerSecond the maximum rate at which call sites are captured
+     * @return the call site capture, which exposes the interned call sites and the counts of captured and
+     *         rate-limited statements
+     */
+    public synchronized CallSiteCapture enableCallSiteCapture(long threshold, TimeUnit unit,
+                                                              int maxCapturesPerSecond) {
+        callSiteCapture = new CallSiteCapture(unit.toNanos(threshold), maxCapturesPerSecond);
+        return callSiteCapture;
+    }
+
+    public synchronized void disableCallSiteCapture() {
+        callSiteCapture = null;
+    }
+
+    /**
+     * Returns the lease watchdog for this data source, or <code>null</code> if it has not been enabled.
+     * @see #enableLeaseWatchdog(long, long, TimeUnit, boolean, OverdueLeaseListener)
+     */
+    public LeaseWatchdog getLeaseWatchdog() {
+        return leaseWatchdog;
+    }
+
+    /**
+     * Starts watching connections and transactions for this data source, notifying <strong>listener</strong> whenever
+     * a connection is held for longer than <strong>connectionBudget</strong> or a transaction is open for longer than
+     * <strong>transactionBudget</strong>. Connections already held are only watched from their next acquisition. If
+     * the watchdog is already enabled then it is replaced.
+     * @param connectionBudget the longest a connection may be held, or zero to not watch connections
+     * @param transactionBudget the longest a transaction may be open, or zero to not watch transactions
+     * @param unit the unit of both budgets
+     * @param captureSources whether to capture where each connection was acquired and each transaction was begun,
+     *                       which costs a stack walk per lease
+     * @param listener the listener notified, on the watchdog thread, of overdue connections and transactions
+     * @return the watchdog, which exposes the counts of overdue leases and any captured sources
+     */
+    public synchronized LeaseWatchdog enableLeaseWatchdog(long connectionBudget, long transactionBudget,
+                                                          TimeUnit unit, boolean captureSources,
+                                                          OverdueLeaseListener listener) {
+        if (leaseWatchdog != null) {
+            leaseWatchdog.close();
+        }
+        leaseWatchdog = new LeaseWatchdog(this, unit.toNanos(connectionBudget), unit.toNanos(transactionBudget),
+            captureSources, listener, TimeUnit.MILLISECONDS.toNanos(LeaseWatchdog.DEFAULT_TICK_MILLIS),
+            LeaseWatchdog.DEFAULT_WHEEL_SIZE);
+        return leaseWatchdog;
+    }
+
+    /**
+     * Stops the lease watchdog. Connections and transactions that are still being watched are never reported.
+     */
+    public synchronized void disableLeaseWatchdog() {
+        if (leaseWatchdog != null) {
+            leaseWatchdog.close();
+            leaseWatchdog = null;
+        }
+    }
+
+    /**
+     * Returns the governor keeping instrumentation overhead within a budget for this data source, or <code>null</code>
+     * if it has not been enabled.
+     * @see #enableOverheadGovernor(double, InstrumentationLevel)
+     */
+    public OverheadGovernor getOverheadGovernor() {
+        return overheadGovernor;
+    }
+
+    /**
+     * Starts keeping instrumentation overhead within <strong>budget</strong>, using the default interval and number of
+     * quiet intervals.
+     * @see #enableOverheadGovernor(double, InstrumentationLevel, long, TimeUnit, int)
+     */
+    public OverheadGovernor enableOverheadGovernor(double budget, InstrumentationLevel ceiling) {
+        return enableOverheadGovernor(budget, ceiling, OverheadGovernor.DEFAULT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS,
+            OverheadGovernor.DEFAULT_QUIET_INTERVALS);
+    }
+
+    /**
+     * Starts measuring the time spent in instrumentation as a fraction of statement time, and stepping the
+     * instrumentation level down whenever that fraction exceeds <strong>budget</strong> and back up once it subsides.
+     * The level is immediately set to <strong>ceiling</strong>. If the governor is already enabled then it is
+     * replaced.
+     * @param budget the largest fraction of statement time that instrumentation may take, such as 0.05 for 5%
+     * @param ceiling the highest level to step back up to, which is one of {@link InstrumentationLevel#METRICS},
+     *                {@link InstrumentationLevel#STATEMENTS} or {@link InstrumentationLevel#FULL}
+     * @param interval how often the overhead is evaluated
+     * @param unit the unit of <strong>interval</strong>
+     * @param quietIntervals how many consecutive intervals must stay within half of the budget before stepping up
+     * @return the governor, which exposes the last measured overhead and the number of level changes
+     */
+    public synchronized OverheadGovernor enableOverheadGovernor(double budget, InstrumentationLevel ceiling,
+                                                                long interval, TimeUnit unit, int quietIntervals) {
+        if (overheadGovernor != null) {
+            overheadGovernor.close();
+        }
+        overheadGovernor = new OverheadGovernor(this, budget, ceiling, unit.toNanos(interval), quietIntervals);
+        return overheadGovernor;
+    }
+
+    /**
+     * Stops the overhead governor, leaving the instrumentation level wherever it currently is.
+     */
+    public synchronized void disableOverheadGovernor() {
+        if (overheadGovernor != null) {
+            overheadGovernor.close();
+            overheadGovernor = null;
+        }
+    }
+
+    /**
+     * Returns the tail sampler for transactions on this data source, or <code>null</code> if it has not been enabled.
+     * @see #enableTailSampling(TailSamplingPolicy, int, TransactionTraceListener)
+     */
+    public TailSampler getTailSampler() {
+        return tailSampler;
+    }
+
+    /**
+     * Starts tail sampling transactions, buffering up to {@link TailSampler#DEFAULT_MAX_STATEMENTS} statements each.
+     * @see #enableTailSampling(TailSamplingPolicy, int, TransactionTraceListener)
+     */
+    public TailSampler enableTailSampling(TailSamplingPolicy policy, TransactionTraceListener listener) {
+        return enableTailSampling(policy, TailSampler.DEFAULT_MAX_STATEMENTS, listener);
+    }
+
+    /**
+     * Starts buffering the statements of every transaction on this data source, and reporting them to
+     * <strong>listener</strong> for the transactions that <strong>policy</strong> decides to retain once they have
+     * committed or rolled back. Transactions already in progress are not sampled. If tail sampling is already enabled
+     * then it is replaced.
+     * @param policy decides which finished transactions to retain
+     * @param maxStatements the maximum number of statements buffered per transaction
+     * @param listener the listener that retained transactions are reported to
+     * @return the tail sampler, which exposes the counts of retained and discarded transactions
+     */
+    public synchronized TailSampler enableTailSampling(TailSamplingPolicy policy, int maxStatements,
+                                                       TransactionTraceListener listener) {
+        tailSampler = new TailSampler(id, policy, maxStatements, listener);
+        return tailSampler;
+    }
+
+    /**
+     * Stops tail sampling. Transactions already in progress are still decided upon when they finish.
+     */
+    public synchronized void disableTailSampling() {
+        tailSampler = null;
+    }
+
+    /**
+     * Returns the settings for logging the statements of each transaction on this data source, or <code>null</code> if
+     * transaction statement capture is not enabled.
+     * @see HibernateDataSourceConfiguration#isTransactionStatementCaptureEnabled()
+     */
+    public TransactionStatementCapture getTransactionStatementCapture() {
+        return transactionStatementCapture;
+    }
+
+    /**
+     * Starts logging every statement of each transaction that begins on this data source, replacing the defaults used
+     * when {@link HibernateDataSourceConfiguration#isTransactionStatementCaptureEnabled()} is set. Transactions already
+     * in progress keep the settings they began with.
+     * @param memoryBudget the number of bytes of statements each transaction keeps in memory
+     * @param maxSpillBytes the maximum size of the temporary file each transaction spills to once the memory budget is
+     *                      used up, or zero to drop statements instead
+     * @param spillDirectory the directory to create spill files in, or <code>null</code> for the temporary directory
+     * @return the settings, which expose the counts of spilled transactions and dropped statements
+     * @see org.drg.jdbceptor.hibernate.TransactionStatementLogProvider#getStatementLog()
+     */
+    public TransactionStatementCapture enableTransactionStatementCapture(int memoryBudget, long maxSpillBytes,
+                                                                         File spillDirectory) {
+        return enableTransactionStatementCapture(memoryBudget, TransactionStatementCapture.DEFAULT_TOTAL_MEMORY_BUDGET,
+            maxSpillBytes, spillDirectory);
+    }
+
+    /**
+     * Starts logging every statement of each transaction that begins on this data source, with a limit on the memory
+     * used by all open transactions together in addition to the limit for each one.
+     * @param totalMemoryBudget the number of bytes of statements that all open transactions together keep in memory,
+     *                          beyond which transactions spill early
+     * @see #enableTransactionStatementCapture(int, long, File)
+     */
+    public synchronized TransactionStatementCapture enableTransactionStatementCapture(int memoryBudget,
+                                                                                      long totalMemoryBudget,
+                                                                                      long maxSpillBytes,
+                                                                                      File spillDirectory) {
+        transactionStatementCapture = new TransactionStatementCapture(memoryBudget, totalMemoryBudget, maxSpillBytes,
+            spillDirectory);
+        return transactionStatementCapture;
+    }
+
+    /**
+     * Stops logging the statements of transactions that begin from now on.
+     */
+    public synchronized void disableTransactionStatementCapture() {
+        transactionStatementCapture = null;
+    }
+
     /**
      * Formats a parameter value so that it can be output as part of a parameterized query being dumped such that the
      * output matches exactly what could be input into the SQL client and run against the database. This is used for
@@ -136,11 +685,66 @@ public class DataSourceManager {
      * @return some String uniquely identifying the connection
      */
     public String getConnectionId(InstrumentedConnection connection) {
-        if (connectionResolver != null) {
+        IdentifierGenerator<InstrumentedConnection> generator = connectionIdGenerator;
+        return (generator != null ? generator : defaultConnectionIds).generateIdentifier(connection);
+    }
+
+    /**
+     * Renders a connection id generated by the default {@link SnowflakeIdentifierGenerator}.
+     */
+    String formatConnectionId(long id) {
+        return defaultConnectionIds.render(id);
+    }
+
+    /**
+     * Renders a transaction id generated by the default {@link SnowflakeIdentifierGenerator}.
+     */
+    public String formatTransactionId(long id) {
+        return defaultTransactionIds.render(id);
+    }
+
+    public IdentifierGenerator<InstrumentedConnection> getConnectionIdGenerator() {
+        return connectionIdGenerator;
+    }
+
+    /**
+     * Replaces the default connection identifiers with those from <strong>generator</strong> for connections opened
+     * from now on, or restores the default if <code>null</code>. The default ids are only rendered as strings when
+     * first used, so a custom generator should be cheap to call.
+     */
+    public void setConnectionIdGenerator(IdentifierGenerator<InstrumentedConnection> generator) {
+        this.connectionIdGenerator = generator;
+    }
+
+    public IdentifierGenerator<InstrumentedTransaction> getTransactionIdGenerator() {
+        return transactionIdGenerator;
+    }
+
+    /**
+     * Replaces the default transaction identifiers with those from <strong>generator</strong> for transactions created
+     * from now on, or restores the default if <code>null</code>.
+     */
+    public void setTransactionIdGenerator(IdentifierGenerator<InstrumentedTransaction> generator) {
+        this.transactionIdGenerator = generator;
+    }
 
+    /**
+     * Wraps a physical connection that was just established by a delegate driver for this data source, assigning it an
+     * identifier and firing any applicable opened events.
+     * @param realConnection the connection established by the real, underlying driver
+     * @return the instrumented connection wrapping <strong>realConnection</strong>
+     * @see org.drg.jdbceptor.JdbceptorDriver
+     */
+    public InstrumentedConnection wrapPhysicalConnection(Connection realConnection) {
+        InstrumentedConnectionImpl connection = new InstrumentedConnectionImpl(this, realConnection);
+        IdentifierGenerator<InstrumentedConnection> generator = connectionIdGenerator;
+        if (generator != null) {
+            connection.setConnectionId(generator.generateIdentifier(connection));
+        } else {
+            connection.setConnectionId(SnowflakeIdentifierGenerator.nextId());
         }
-        // XXX TODO(dgarson) figure out how to properly abstract this... should it be in an existing class/interface?
-        return UUID.randomUUID().toString();
+        connection.physicallyOpened();
+        return connection;
     }
 
     /**
@@ -149,9 +753,8 @@ public class DataSourceManager {
      * a physical connection.
      */
     public void addConnectionOpenedListener(ConnectionOpenedListener listener) {
-        Preconditions.checkState(!logicalConnectionOpenedListeners.contains(listener), "listener already registered: " +
+        Preconditions.checkState(logicalConnectionOpenedListeners.add(listener), "listener already registered: " +
             listener);
-        logicalConnectionOpenedListeners.add(listener);
     }
 
     public void removeConnectionOpenedListener(ConnectionOpenedListener listener) {
@@ -165,10 +768,9 @@ public class DataSourceManager {
      */
     public void addPhysicalConnectionOpenedListener(ConnectionOpenedListener listener) {
         if (pooled) {
-            Preconditions.checkState(!physicalConnectionOpenedListeners.contains(listener),
+            Preconditions.checkState(physicalConnectionOpenedListeners.add(listener),
                 "listener already registered: " + listener);
-            physicalConnectionOpenedListeners.add(listener);
-        } else if (!logicalConnectionOpenedListeners.contains(listener)) {
+        } else {
             logicalConnectionOpenedListeners.add(listener);
         }
     }
@@ -176,6 +778,40 @@ public class DataSourceManager {
     public void removePhysicalConnectionOpenedListener(ConnectionOpenedListener listener) {
         if (pooled) {
             physicalConnectionOpenedListeners.remove(listener);
+        } else {
+            logicalConnectionOpenedListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Attaches a listener that will be notified whenever a connection is closed. If wrapped by a connection pool, then
+     * this event will only be fired when logically <i>releasing</i> a connection back to the pool.
+     */
+    public void addConnectionClosedListener(ConnectionClosedListener listener) {
+        Preconditions.checkState(logicalConnectionClosedListeners.add(listener), "listener already registered: " +
+            listener);
+    }
+
+    public void removeConnectionClosedListener(ConnectionClosedListener listener) {
+        logicalConnectionClosedListeners.remove(listener);
+    }
+
+    /**
+     * Attaches a listener that will be notified whenever a physical connection is closed. If not wrapped by a
+     * connection pool then every close is physical, so the listener is attached to logical close events instead.
+     */
+    public void addPhysicalConnectionClosedListener(ConnectionClosedListener listener) {
+        if (pooled) {
+            Preconditions.checkState(physicalConnectionClosedListeners.add(listener),
+                "listener already registered: " + listener);
+        } else {
+            logicalConnectionClosedListeners.add(listener);
+        }
+    }
+
+    public void removePhysicalConnectionClosedListener(ConnectionClosedListener listener) {
+        if (pooled) {
+            physicalConnectionClosedListeners.remove(listener);
         } else {
             logicalConnectionClosedListeners.remove(listener);
         }
@@ -242,9 +878,11 @@ public class DataSourceManager {
             return;
         }
         // invoke physical event listeners only
-        for (ConnectionOpenedListener listener : physicalConnectionOpenedListeners) {
-            listener.connectionOpened(event);
+        StatementJournal currentJournal = journal;
+        if (currentJournal != null) {
+            currentJournal.connectionOpened(event, /*physical=*/true);
         }
+        fireConnectionOpened(physicalConnectionOpenedListeners.get(), event);
     }
 
     /**
@@ -258,8 +896,54 @@ public class DataSourceManager {
             log.warn("physicalConnectionClosed was called for {} but isPooled = false", getId());
             return;
         }
-        for (ConnectionClosedListener listener : physicalConnectionClosedListeners) {
-            listener.connectionClosed(event);
+        StatementJournal currentJournal = journal;
+        if (currentJournal != null) {
+            currentJournal.connectionClosed(event, /*physical=*/true);
+        }
+        fireConnectionClosed(physicalConnectionClosedListeners.get(), event);
+    }
+
+    /**
+     * Invoked whenever an instrumented statement finishes executing through a connection to this data source, to feed
+     * any enabled statement aggregators.
+     */
+    public void statementExecuted(StatementExecutedEvent event) {
+        StatementStatistics statistics = statementStatistics;
+        if (statistics != null) {
+            statistics.record(event);
+        }
+        HeavyHitterTracker tracker = heavyHitters;
+        if (tracker != null) {
+            tracker.record(event);
+        }
+        StatementJournal currentJournal = journal;
+        if (currentJournal != null) {
+            currentJournal.statementExecuted(event);
+        }
+        SlowQueryLog slowLog = slowQueryLog;
+        if (slowLog != null) {
+            slowLog.statementExecuted(event);
+        }
+    }
+
+    /**
+     * Invoked whenever a transaction begins on a connection to this data source.
+     */
+    public void transactionBegan(InstrumentedConnection connection, InstrumentedTransaction transaction) {
+        StatementJournal currentJournal = journal;
+        if (currentJournal != null) {
+            currentJournal.transactionBegan(connection, transaction);
+        }
+    }
+
+    /**
+     * Invoked whenever a transaction is committed or rolled back on a connection to this data source.
+     */
+    public void transactionFinished(InstrumentedConnection connection, InstrumentedTransaction transaction,
+                                    boolean committed) {
+        StatementJournal currentJournal = journal;
+        if (currentJournal != null) {
+            currentJournal.transactionFinished(connection, transaction, committed);
         }
     }
 
@@ -267,17 +951,107 @@ public class DataSourceManager {
      * Invoked whenever a logical connection is opened. </br>
      */
     public void logicalConnectionOpened(ConnectionOpenedEvent event) {
-        for (ConnectionOpenedListener listener : logicalConnectionOpenedListeners) {
-            listener.connectionOpened(event);
+        StatementJournal currentJournal = journal;
+        if (currentJournal != null) {
+            // without a pool, the logical open is also the physical one
+            currentJournal.connectionOpened(event, /*physical=*/!event.isPooled());
         }
+        fireConnectionOpened(logicalConnectionOpenedListeners.get(), event);
     }
 
     /**
      * Invoked whenever a logical connection is released. </br>
      */
     public void logicalConnectionClosed(ConnectionClosedEvent event) {
-        for (ConnectionClosedListener listener : logicalConnectionClosedListeners) {
-            listener.connectionClosed(event);
+        StatementJournal currentJournal = journal;
+        if (currentJournal != null) {
+            currentJournal.connectionClosed(event, /*physical=*/!event.isPooled());
+        }
+        fireConnectionClosed(logicalConnectionClosedListeners.get(), event);
+    }
+
+    /**
+     * Invokes each of the <strong>listeners</strong> with a connection opened event, either directly or through the
+     * asynchronous dispatcher if it is enabled. The zero and single listener cases are handled separately since they
+     * are by far the most common.
+     */
+    void fireConnectionOpened(ConnectionOpenedListener[] listeners, ConnectionOpenedEvent event) {
+        int count = listeners.length;
+        if (count == 0) {
+            return;
+        }
+        AsyncEventDispatcher dispatcher = asyncDispatcher;
+        if (dispatcher != null) {
+            dispatcher.connectionOpened(listeners, event);
+        } else if (count == 1) {
+            listeners[0].connectionOpened(event);
+        } else {
+            for (int i = 0; i < count; i++) {
+                listeners[i].connectionOpened(event);
+            }
+        }
+    }
+
+    /**
+     * Invokes each of the <strong>listeners</strong> with a connection closed event, either directly or through the
+     * asynchronous dispatcher if it is enabled.
+     */
+    void fireConnectionClosed(ConnectionClosedListener[] listeners, ConnectionClosedEvent event) {
+        int count = listeners.length;
+        if (count == 0) {
+            return;
+        }
+        AsyncEventDispatcher dispatcher = asyncDispatcher;
+        if (dispatcher != null) {
+            dispatcher.connectionClosed(listeners, event);
+        } else if (count == 1) {
+            listeners[0].connectionClosed(event);
+        } else {
+            for (int i = 0; i < count; i++) {
+                listeners[i].connectionClosed(event);
+            }
+        }
+    }
+
+    /**
+     * Invokes each of the <strong>listeners</strong> before a statement executes, either directly or through the
+     * asynchronous dispatcher if it is enabled.
+     */
+    void fireBeforeExecutingStatement(StatementExecutionListener[] listeners, StatementExecutingEvent event) {
+        int count = listeners.length;
+        if (count == 0) {
+            return;
+        }
+        AsyncEventDispatcher dispatcher = asyncDispatcher;
+        if (dispatcher != null) {
+            dispatcher.beforeExecutingStatement(listeners, event);
+        } else if (count == 1) {
+            listeners[0].beforeExecutingStatement(event);
+        } else {
+            for (int i = 0; i < count; i++) {
+                listeners[i].beforeExecutingStatement(event);
+            }
+        }
+    }
+
+    /**
+     * Invokes each of the <strong>listeners</strong> after a statement executes, either directly or through the
+     * asynchronous dispatcher if it is enabled.
+     */
+    void fireStatementExecuted(StatementExecutionListener[] listeners, StatementExecutedEvent event) {
+        int count = listeners.length;
+        if (count == 0) {
+            return;
+        }
+        AsyncEventDispatcher dispatcher = asyncDispatcher;
+        if (dispatcher != null) {
+            dispatcher.statementExecuted(listeners, event);
+        } else if (count == 1) {
+            listeners[0].statementExecuted(event);
+        } else {
+            for (int i = 0; i < count; i++) {
+                listeners[i].statementExecuted(event);
+            }
         }
     }
 }
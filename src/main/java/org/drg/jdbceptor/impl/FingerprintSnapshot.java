@@ -0,0 +1,91 @@
+package org.drg.jdbceptor.impl;
+
+/**
+ * Immutable point-in-time statistics for all executions sharing a single SQL fingerprint.
+ *
+ * @author dgarson
+ * @see StatementStatistics#snapshot()
+ */
+public final class FingerprintSnapshot {
+
+    private final String fingerprint;
+    private final HistogramSnapshot latency;
+    private final long errorCount;
+    private final long rowsAffected;
+    private final long minNanos;
+    private final long maxNanos;
+
+    FingerprintSnapshot(String fingerprint, HistogramSnapshot latency, long errorCount, long rowsAffected,
+                        long minNanos, long maxNanos) {
+        this.fingerprint = fingerprint;
+        this.latency = latency;
+        this.errorCount = errorCount;
+        this.rowsAffected = rowsAffected;
+        this.minNanos = minNanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * Returns the normalized SQL fingerprint, or {@link StatementStatistics#OTHER_FINGERPRINT} for the bucket that
+     * collects executions of fingerprints that could not be tracked individually.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Returns the number of executions, including failed executions.
+     */
+    public long getCount() {
+        return latency.getTotalCount();
+    }
+
+    /**
+     * Returns the number of executions that threw an exception.
+     */
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Returns the total number of rows affected by all executions that reported an update count.
+     */
+    public long getRowsAffected() {
+        return rowsAffected;
+    }
+
+    /**
+     * Returns the cumulative execution time in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return latency.getTotalNanos();
+    }
+
+    /**
+     * Returns the exact shortest execution time in nanoseconds.
+     */
+    public long getMinNanos() {
+        return minNanos;
+    }
+
+    /**
+     * Returns the exact longest execution time in nanoseconds.
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Returns the latency distribution for this fingerprint, which can be used to compute percentiles.
+     */
+    public HistogramSnapshot getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return "FingerprintSnapshot{fingerprint='" + fingerprint + "', count=" + getCount() + ", errors=" + errorCount +
+            ", rows=" + rowsAffected + ", totalNanos=" + getTotalNanos() + ", minNanos=" + minNanos +
+            ", maxNanos=" + maxNanos + "}";
+    }
+}
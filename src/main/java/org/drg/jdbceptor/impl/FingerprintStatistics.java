@@ -0,0 +1,61 @@
+package org.drg.jdbceptor.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mutable, thread-safe statistics for all executions sharing a single SQL fingerprint.
+ *
+ * @author dgarson
+ * @see StatementStatistics
+ */
+class FingerprintStatistics {
+
+    // a small number of stripes and reduced precision keep the footprint of each fingerprint to a few kilobytes
+    private static final int HISTOGRAM_CONCURRENCY = 2;
+    private static final int HISTOGRAM_PRECISION_BITS = 4;
+
+    private final String fingerprint;
+    private final LatencyHistogram latency = new LatencyHistogram(HISTOGRAM_CONCURRENCY, HISTOGRAM_PRECISION_BITS);
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong rowsAffected = new AtomicLong();
+    private final AtomicLong minNanos = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    FingerprintStatistics(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    String getFingerprint() {
+        return fingerprint;
+    }
+
+    void record(long elapsedNanos, boolean error, long updateCount) {
+        latency.record(elapsedNanos);
+        if (error) {
+            errorCount.incrementAndGet();
+        }
+        if (updateCount > 0) {
+            rowsAffected.addAndGet(updateCount);
+        }
+        // only contended when a new extreme is observed, which becomes rare once a query has warmed up
+        long min;
+        while (elapsedNanos < (min = minNanos.get())) {
+            if (minNanos.compareAndSet(min, elapsedNanos)) {
+                break;
+            }
+        }
+        long max;
+        while (elapsedNanos > (max = maxNanos.get())) {
+            if (maxNanos.compareAndSet(max, elapsedNanos)) {
+                break;
+            }
+        }
+    }
+
+    FingerprintSnapshot snapshot() {
+        HistogramSnapshot latencySnapshot = latency.snapshot();
+        long min = minNanos.get();
+        return new FingerprintSnapshot(fingerprint, latencySnapshot, errorCount.get(), rowsAffected.get(),
+            (min == Long.MAX_VALUE ? 0L : min), maxNanos.get());
+    }
+}
@@ -0,0 +1,68 @@
+package org.drg.jdbceptor.impl;
+
+/**
+ * Immutable estimate for one of the statements that dominate execution count or time on a data source.
+ *
+ * @author dgarson
+ * @see HeavyHitterTracker
+ */
+public final class HeavyHitter {
+
+    private final String fingerprint;
+    private final long estimatedCount;
+    private final long estimatedTotalNanos;
+    private final long countErrorBound;
+    private final long totalNanosErrorBound;
+
+    HeavyHitter(String fingerprint, long estimatedCount, long estimatedTotalNanos, long countErrorBound,
+                long totalNanosErrorBound) {
+        this.fingerprint = fingerprint;
+        this.estimatedCount = estimatedCount;
+        this.estimatedTotalNanos = estimatedTotalNanos;
+        this.countErrorBound = countErrorBound;
+        this.totalNanosErrorBound = totalNanosErrorBound;
+    }
+
+    /**
+     * Returns the normalized SQL fingerprint of the statement.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Returns the estimated number of executions, which is never less than the actual number.
+     */
+    public long getEstimatedCount() {
+        return estimatedCount;
+    }
+
+    /**
+     * Returns the estimated cumulative execution time in nanoseconds, which is never less than the actual time.
+     */
+    public long getEstimatedTotalNanos() {
+        return estimatedTotalNanos;
+    }
+
+    /**
+     * Returns the maximum amount by which {@link #getEstimatedCount()} may over-count, with the confidence given by
+     * {@link HeavyHitterTracker#getConfidence()}.
+     */
+    public long getCountErrorBound() {
+        return countErrorBound;
+    }
+
+    /**
+     * Returns the maximum amount by which {@link #getEstimatedTotalNanos()} may over-count, with the confidence given
+     * by {@link HeavyHitterTracker#getConfidence()}.
+     */
+    public long getTotalNanosErrorBound() {
+        return totalNanosErrorBound;
+    }
+
+    @Override
+    public String toString() {
+        return "HeavyHitter{fingerprint='" + fingerprint + "', count=" + estimatedCount + " (+" + countErrorBound +
+            "), totalNanos=" + estimatedTotalNanos + " (+" + totalNanosErrorBound + ")}";
+    }
+}
@@ -0,0 +1,238 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.base.Preconditions;
+import org.drg.jdbceptor.event.StatementExecutedEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tracks the top-K statements for a data source, both by execution count and by total execution time, using a fixed
+ * amount of memory regardless of how many distinct statements are executed. </br>
+ * Counts and times are estimated with a pair of {@link CountMinSketch}es keyed by SQL fingerprint, and only the
+ * fingerprints currently estimated to be in the top-K are retained. Every update hashes the fingerprint once per
+ * sketch row and makes a fixed number of atomic additions plus, for fingerprints not already in the top-K, a single
+ * estimate compared against the current top-K threshold. The top-K sets are only locked when a fingerprint may displace
+ * one of their members, which finds the smallest member through a min-heap. </br>
+ * Estimates never under-count, and with probability {@link #getConfidence()} over-count by no more than the error
+ * bounds reported on each {@link HeavyHitter}.
+ *
+ * @author dgarson
+ * @see DataSourceManager#enableHeavyHitters(int)
+ */
+public class HeavyHitterTracker {
+
+    /**
+     * Default number of hash rows in each sketch, for a confidence of roughly 98%.
+     */
+    public static final int DEFAULT_DEPTH = 4;
+
+    /**
+     * Default number of counters in each row, for an error bound of roughly 0.13% of the total.
+     */
+    public static final int DEFAULT_WIDTH = 2048;
+
+    private final int k;
+    private final CountMinSketch countSketch;
+    private final CountMinSketch timeSketch;
+    private final TopK topByCount;
+    private final TopK topByTime;
+
+    /**
+     * Creates a tracker for the top <strong>k</strong> statements using the default sketch dimensions.
+     */
+    public HeavyHitterTracker(int k) {
+        this(k, DEFAULT_DEPTH, DEFAULT_WIDTH);
+    }
+
+    /**
+     * @param k the number of statements to retain in each of the top-K sets
+     * @param depth the number of hash rows in each sketch
+     * @param width the number of counters in each sketch row, which must be a power of two
+     */
+    public HeavyHitterTracker(int k, int depth, int width) {
+        Preconditions.checkArgument(k > 0, "k must be positive");
+        this.k = k;
+        this.countSketch = new CountMinSketch(depth, width);
+        this.timeSketch = new CountMinSketch(depth, width);
+        this.topByCount = new TopK(countSketch, k);
+        this.topByTime = new TopK(timeSketch, k);
+    }
+
+    /**
+     * Records a single statement execution. Executions for which no SQL fingerprint is available are ignored.
+     */
+    public void record(StatementExecutedEvent event) {
+        String fingerprint = SqlFingerprint.forStatement(event.getStatement());
+        if (fingerprint != null) {
+            record(fingerprint, event.getElapsedNanos());
+        }
+    }
+
+    /**
+     * Records a single execution of a statement with a given <strong>fingerprint</strong>.
+     */
+    public void record(String fingerprint, long elapsedNanos) {
+        // both sketches have the same depth, so they share the hashes of each fingerprint
+        int[] hashes = countSketch.hash(fingerprint);
+        countSketch.add(hashes, 1L);
+        timeSketch.add(hashes, Math.max(elapsedNanos, 0L));
+        topByCount.offer(fingerprint, hashes);
+        topByTime.offer(fingerprint, hashes);
+    }
+
+    /**
+     * Returns up to K statements with the highest estimated execution counts, in descending order.
+     */
+    public List<HeavyHitter> getTopByCount() {
+        return toHeavyHitters(topByCount, true);
+    }
+
+    /**
+     * Returns up to K statements with the highest estimated total execution times, in descending order. This answers
+     * which statements dominate database time on this node.
+     */
+    public List<HeavyHitter> getTopByTotalTime() {
+        return toHeavyHitters(topByTime, false);
+    }
+
+    /**
+     * Returns the number of statements retained in each of the top-K sets.
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * Returns the probability that each estimate is within its reported error bound.
+     */
+    public double getConfidence() {
+        return countSketch.getConfidence();
+    }
+
+    private List<HeavyHitter> toHeavyHitters(TopK topK, final boolean byCount) {
+        long countError = (long)Math.ceil(countSketch.getEpsilon() * countSketch.total());
+        long timeError = (long)Math.ceil(timeSketch.getEpsilon() * timeSketch.total());
+        List<HeavyHitter> result = new ArrayList<>(k);
+        for (Member member : topK.members.values()) {
+            result.add(new HeavyHitter(member.fingerprint, countSketch.estimate(member.hashes),
+                timeSketch.estimate(member.hashes), countError, timeError));
+        }
+        Collections.sort(result, new Comparator<HeavyHitter>() {
+            @Override
+            public int compare(HeavyHitter left, HeavyHitter right) {
+                return (byCount ? Long.compare(right.getEstimatedCount(), left.getEstimatedCount()) :
+                    Long.compare(right.getEstimatedTotalNanos(), left.getEstimatedTotalNanos()));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Fingerprint retained in a top-K set, along with its hashes and the last estimate seen for it.
+     */
+    private static class Member {
+
+        private final String fingerprint;
+        private final int[] hashes;
+
+        // only accessed while holding the lock on the owning set; estimates only ever grow, so this is a lower bound
+        private long estimate;
+
+        Member(String fingerprint, int[] hashes, long estimate) {
+            this.fingerprint = fingerprint;
+            this.hashes = hashes;
+            this.estimate = estimate;
+        }
+    }
+
+    /**
+     * Set of up to K fingerprints with the highest estimates in a single sketch. Members are also kept in a min-heap
+     * ordered by their last known estimates, so finding the smallest member only refreshes the estimates of members
+     * at the top of the heap rather than scanning them all.
+     */
+    private static class TopK {
+
+        private static final Comparator<Member> BY_ESTIMATE = new Comparator<Member>() {
+            @Override
+            public int compare(Member left, Member right) {
+                return Long.compare(left.estimate, right.estimate);
+            }
+        };
+
+        private final CountMinSketch sketch;
+        private final int k;
+        private final ConcurrentMap<String, Member> members = new ConcurrentHashMap<>();
+
+        // only accessed while holding the lock on this object
+        private final PriorityQueue<Member> heap;
+
+        // lower bound on the smallest estimate among the members once the set is full; estimates only ever grow, so a
+        // stale value can only cause an unnecessary trip into the lock and never a missed candidate
+        private volatile long threshold;
+
+        TopK(CountMinSketch sketch, int k) {
+            this.sketch = sketch;
+            this.k = k;
+            this.heap = new PriorityQueue<>(k, BY_ESTIMATE);
+        }
+
+        void offer(String fingerprint, int[] hashes) {
+            if (members.containsKey(fingerprint)) {
+                return;
+            }
+            long estimate = sketch.estimate(hashes);
+            if (members.size() >= k && estimate <= threshold) {
+                return;
+            }
+            synchronized (this) {
+                if (members.containsKey(fingerprint)) {
+                    return;
+                }
+                if (heap.size() < k) {
+                    add(new Member(fingerprint, hashes, estimate));
+                } else {
+                    Member minMember = refreshMinimum();
+                    if (estimate <= minMember.estimate) {
+                        threshold = minMember.estimate;
+                        return;
+                    }
+                    heap.poll();
+                    members.remove(minMember.fingerprint);
+                    add(new Member(fingerprint, hashes, estimate));
+                }
+                if (heap.size() == k) {
+                    threshold = heap.peek().estimate;
+                }
+            }
+        }
+
+        private void add(Member member) {
+            heap.add(member);
+            members.put(member.fingerprint, member);
+        }
+
+        /**
+         * Brings the estimate of the member at the top of the heap up to date until the top member's estimate is
+         * current, at which point it is the true minimum since every other member's estimate is at least its last
+         * known value.
+         */
+        private Member refreshMinimum() {
+            while (true) {
+                Member top = heap.peek();
+                long current = sketch.estimate(top.hashes);
+                if (current == top.estimate) {
+                    return top;
+                }
+                heap.poll();
+                top.estimate = current;
+                heap.add(top);
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Immutable point-in-time copy of the values recorded in a {@link LatencyHistogram}. All values are in nanoseconds and,
+ * apart from {@link #getTotalNanos()} and {@link #getMeanNanos()}, are only as precise as the histogram buckets.
+ *
+ * @author dgarson
+ */
+public final class HistogramSnapshot {
+
+    private final long[] counts;
+    private final long totalCount;
+    private final long totalNanos;
+    private final int precisionBits;
+
+    HistogramSnapshot(long[] counts, long totalNanos, int precisionBits) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        this.counts = counts;
+        this.totalCount = total;
+        this.totalNanos = totalNanos;
+        this.precisionBits = precisionBits;
+    }
+
+    /**
+     * Returns the number of values recorded.
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Returns the exact sum of all values recorded.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Returns the exact mean of all values recorded, or zero if there are none.
+     */
+    public double getMeanNanos() {
+        return (totalCount == 0 ? 0.0 : (double)totalNanos / totalCount);
+    }
+
+    /**
+     * Returns the smallest value recorded, or zero if there are none.
+     */
+    public long getMinNanos() {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                return LatencyHistogram.bucketLowerBound(i, precisionBits);
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * Returns the largest value recorded, or zero if there are none.
+     */
+    public long getMaxNanos() {
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] > 0) {
+                return LatencyHistogram.bucketUpperBound(i, precisionBits);
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * Returns the value at or below which <strong>percentile</strong> percent of all recorded values fall, or zero if
+     * there are no values.
+     * @param percentile a percentile between 0.0 and 100.0, such as 99.9
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0L;
+        }
+        double clamped = Math.min(Math.max(percentile, 0.0), 100.0);
+        long targetCount = Math.max(1L, (long)Math.ceil((clamped / 100.0) * totalCount));
+        long cumulativeCount = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulativeCount += counts[i];
+            if (cumulativeCount >= targetCount) {
+                return LatencyHistogram.bucketUpperBound(i, precisionBits);
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * Returns a new snapshot that combines the values of this snapshot with <strong>other</strong>.
+     */
+    public HistogramSnapshot plus(HistogramSnapshot other) {
+        checkCompatible(other);
+        long[] combined = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            combined[i] = counts[i] + other.counts[i];
+        }
+        return new HistogramSnapshot(combined, totalNanos + other.totalNanos, precisionBits);
+    }
+
+    /**
+     * Returns a new snapshot containing only the values in this snapshot that are not in <strong>earlier</strong>,
+     * where <strong>earlier</strong> was taken from the same histogram before this one.
+     */
+    public HistogramSnapshot minus(HistogramSnapshot earlier) {
+        checkCompatible(earlier);
+        long[] difference = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            difference[i] = counts[i] - earlier.counts[i];
+        }
+        return new HistogramSnapshot(difference, totalNanos - earlier.totalNanos, precisionBits);
+    }
+
+    private void checkCompatible(HistogramSnapshot other) {
+        Preconditions.checkArgument(other.precisionBits == precisionBits,
+            "Cannot combine histogram snapshots with different precisions");
+    }
+
+    @Override
+    public String toString() {
+        return "HistogramSnapshot{count=" + totalCount + ", mean=" + (long)getMeanNanos() +
+            ", p50=" + getValueAtPercentile(50.0) + ", p99=" + getValueAtPercentile(99.0) +
+            ", max=" + getMaxNanos() + "}";
+    }
+}
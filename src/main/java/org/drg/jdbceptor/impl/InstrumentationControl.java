@@ -0,0 +1,91 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.base.Preconditions;
+import org.drg.jdbceptor.config.InstrumentationLevel;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Standard MBean exposing the instrumentation level of a single data source, so that operators can turn capturing up
+ * during an incident and back down afterwards from any JMX console. A configuration file watcher or any other mechanism
+ * can instead call {@link DataSourceManager#setInstrumentationLevel(InstrumentationLevel)} directly.
+ *
+ * @author dgarson
+ */
+public class InstrumentationControl implements InstrumentationControlMBean {
+
+    /**
+     * JMX domain that instrumentation controls are registered under.
+     */
+    public static final String DOMAIN = "org.drg.jdbceptor";
+
+    private final DataSourceManager dataSourceManager;
+
+    public InstrumentationControl(DataSourceManager dataSourceManager) {
+        this.dataSourceManager = Preconditions.checkNotNull(dataSourceManager, "dataSourceManager");
+    }
+
+    /**
+     * Registers a control for <strong>dataSourceManager</strong> with the platform MBean server, replacing any control
+     * already registered for a data source with the same id.
+     * @return the name that the control was registered under
+     */
+    public static ObjectName register(DataSourceManager dataSourceManager) throws JMException {
+        ObjectName name = objectName(dataSourceManager.getId());
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(new InstrumentationControl(dataSourceManager), name);
+        return name;
+    }
+
+    /**
+     * Unregisters the control for the data source with the provided <strong>dataSourceId</strong>, if there is one.
+     */
+    public static void unregister(String dataSourceId) throws JMException {
+        ObjectName name = objectName(dataSourceId);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    /**
+     * Returns the name of the control for the data source with the provided <strong>dataSourceId</strong>.
+     */
+    public static ObjectName objectName(String dataSourceId) throws JMException {
+        return new ObjectName(DOMAIN + ":type=Instrumentation,dataSource=" + ObjectName.quote(dataSourceId));
+    }
+
+    @Override
+    public String getDataSourceId() {
+        return dataSourceManager.getId();
+    }
+
+    @Override
+    public String getLevel() {
+        return dataSourceManager.getInstrumentationLevel().name();
+    }
+
+    @Override
+    public void setLevel(String level) {
+        Preconditions.checkArgument(level != null, "level was not provided");
+        dataSourceManager.setInstrumentationLevel(InstrumentationLevel.valueOf(level.trim().toUpperCase(Locale.ROOT)));
+    }
+
+    @Override
+    public String[] getAvailableLevels() {
+        InstrumentationLevel[] levels = InstrumentationLevel.values();
+        String[] names = new String[levels.length];
+        for (int i = 0; i < levels.length; i++) {
+            names[i] = levels[i].name();
+        }
+        return names;
+    }
+}
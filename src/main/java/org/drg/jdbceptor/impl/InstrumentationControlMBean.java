@@ -0,0 +1,29 @@
+package org.drg.jdbceptor.impl;
+
+/**
+ * Management interface for changing the instrumentation level of a data source at runtime through JMX.
+ *
+ * @author dgarson
+ * @see InstrumentationControl
+ */
+public interface InstrumentationControlMBean {
+
+    String getDataSourceId();
+
+    /**
+     * Returns the name of the current {@link org.drg.jdbceptor.config.InstrumentationLevel}.
+     */
+    String getLevel();
+
+    /**
+     * Changes the instrumentation level to the {@link org.drg.jdbceptor.config.InstrumentationLevel} named
+     * <strong>level</strong>, ignoring case.
+     * @throws IllegalArgumentException if there is no level with that name
+     */
+    void setLevel(String level);
+
+    /**
+     * Returns the names of all levels that may be passed to {@link #setLevel(String)}.
+     */
+    String[] getAvailableLevels();
+}
@@ -30,9 +30,33 @@ import java.util.Map;
 public class InstrumentedCallableStatement extends AbstractParameterizedInstrumentedStatement<CallableStatement>
     implements CallableStatement {
 
+    public InstrumentedCallableStatement(InstrumentedConnection connection, CallableStatement statement, int statementId,
+                                         SqlTemplate template, boolean captureQueryParameters) {
+        this(connection, statement, statementId, template, captureQueryParameters, /*metricsOnly=*/false);
+    }
+
+    /**
+     * @param metricsOnly if true then executions are only timed in the data source's statement metrics
+     * @see AbstractInstrumentedStatement#isMetricsOnly()
+     */
+    public InstrumentedCallableStatement(InstrumentedConnection connection, CallableStatement statement, int statementId,
+                                         SqlTemplate template, boolean captureQueryParameters, boolean metricsOnly) {
+        super(connection, statement, statementId, template, captureQueryParameters, metricsOnly);
+    }
+
     public InstrumentedCallableStatement(InstrumentedConnection connection, CallableStatement statement, int statementId,
                                          String sql, boolean captureQueryParameters) {
-        super(connection, statement, statementId, sql, captureQueryParameters);
+        this(connection, statement, statementId, sql, captureQueryParameters, /*metricsOnly=*/false);
+    }
+
+    /**
+     * @param metricsOnly if true then executions are only timed in the data source's statement metrics, and
+     *                    <strong>sql</strong> is not parsed into a shared template
+     * @see AbstractInstrumentedStatement#isMetricsOnly()
+     */
+    public InstrumentedCallableStatement(InstrumentedConnection connection, CallableStatement statement, int statementId,
+                                         String sql, boolean captureQueryParameters, boolean metricsOnly) {
+        super(connection, statement, statementId, sql, captureQueryParameters, metricsOnly);
     }
 
     public void registerOutParameter(int parameterIndex, int sqlType) throws SQLException {
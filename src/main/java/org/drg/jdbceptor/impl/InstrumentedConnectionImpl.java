@@ -6,7 +6,15 @@ import com.google.common.base.Preconditions;
 import org.drg.jdbceptor.Jdbceptor;
 import org.drg.jdbceptor.api.InstrumentedConnection;
 import org.drg.jdbceptor.api.InstrumentedStatement;
+import org.drg.jdbceptor.api.SourceInfo;
+import org.drg.jdbceptor.api.StatementMethod;
+import org.drg.jdbceptor.config.EventRecyclingConfiguration;
+import org.drg.jdbceptor.config.FeatureChecker;
+import org.drg.jdbceptor.config.InstrumentationLevel;
+import org.drg.jdbceptor.config.JdbceptorConfiguration;
+import org.drg.jdbceptor.config.MetricsFeatureChecker;
 import org.drg.jdbceptor.event.ConnectionClosedEvent;
+import org.drg.jdbceptor.event.ConnectionEvent;
 import org.drg.jdbceptor.event.ConnectionClosedListener;
 import org.drg.jdbceptor.event.ConnectionOpenedEvent;
 import org.drg.jdbceptor.event.ConnectionOpenedListener;
@@ -36,11 +44,10 @@ import java.sql.SQLXML;
 import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Struct;
-import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import javax.annotation.Nonnull;
 
@@ -55,6 +62,20 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
 
     private static final Logger log = LoggerFactory.getLogger(InstrumentedConnectionImpl.class);
 
+    // listener snapshots are replaced with a compare-and-set so that registering never blocks or loses a listener
+    private static final AtomicReferenceFieldUpdater<InstrumentedConnectionImpl, ConnectionClosedListener[]>
+        closeListenersUpdater = AtomicReferenceFieldUpdater.newUpdater(InstrumentedConnectionImpl.class,
+            ConnectionClosedListener[].class, "closeListeners");
+    private static final AtomicReferenceFieldUpdater<InstrumentedConnectionImpl, ConnectionClosedListener[]>
+        physicalCloseListenersUpdater = AtomicReferenceFieldUpdater.newUpdater(InstrumentedConnectionImpl.class,
+            ConnectionClosedListener[].class, "physicalCloseListeners");
+    private static final AtomicReferenceFieldUpdater<InstrumentedConnectionImpl, ConnectionOpenedListener[]>
+        poolAcquiredListenersUpdater = AtomicReferenceFieldUpdater.newUpdater(InstrumentedConnectionImpl.class,
+            ConnectionOpenedListener[].class, "poolAcquiredListeners");
+    private static final AtomicReferenceFieldUpdater<InstrumentedConnectionImpl, StatementExecutionListener[]>
+        statementListenersUpdater = AtomicReferenceFieldUpdater.newUpdater(InstrumentedConnectionImpl.class,
+            StatementExecutionListener[].class, "statementListeners");
+
     /**
      * The target connection that we are proxying all actual operations to, whether or not they are being instrumented
      * by this wrapper.
@@ -74,9 +95,11 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
     /**
      * The unique connection identifier. This <i>may</i> be <code>null</code> if the data source is using a connection
      * pool and the connection, although physically established, has not yet been acquired, and logical connection
-     * acquisition triggers the generation and injection of a new connection ID.
+     * acquisition triggers the generation and injection of a new connection ID. Ids generated by the default
+     * generator are only rendered from {@link #numericConnectionId} when first requested.
      */
     private String connectionId;
+    private long numericConnectionId;
 
     /**
      * Optional instance of a connection that is part of a connection pool sitting on top of the Jdbceptor-instrumented
@@ -105,6 +128,24 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
      */
     private boolean captureQueryParams;
 
+    /**
+     * Indicates whether statements should be wrapped in the lightweight metrics-only tier when full SQL statement
+     * capturing is disabled for this connection.
+     * @see org.drg.jdbceptor.config.MetricsFeatureChecker#shouldCollectStatementMetrics()
+     */
+    private boolean collectStatementMetrics;
+
+    /**
+     * Determines whether statements executed through this connection re-use the recycled executing/executed events below
+     * rather than allocating new events for every execution.
+     * @see org.drg.jdbceptor.config.EventRecyclingConfiguration#isRecycleStatementEventsEnabled()
+     */
+    private boolean recycleStatementEvents;
+
+    // lazily created events that are re-populated for each statement execution when recycling is enabled
+    private RecycledStatementExecutingEvent recycledExecutingEvent;
+    private RecycledStatementExecutedEvent recycledExecutedEvent;
+
     /**
      * Next unique statement ID for this connection, or logical connection in the case of this being a pooled physical
      * connection
@@ -120,7 +161,7 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
     /**
      * Optional current statement that has begun executing but has not yet completed.
      */
-    private InstrumentedStatement<?> currentlyExecutingStatement;
+    private volatile InstrumentedStatement<?> currentlyExecutingStatement;
 
     /**
      * The timestamp (in nanoseconds) when this connection was opened, or acquired in the case of a logical/pooled
@@ -143,22 +184,23 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
     private long physicalOpenedTimestampNanos;
 
     /**
-     * Optional list of listeners that will be notified whenever this connection is physically or logically closed
+     * Snapshot of listeners that will be notified whenever this connection is physically or logically closed
      * <strong>NOTE: </strong> listeners registered here rather than with the data source manager will be cleared on any
      *          logical close event
      */
-    private List<ConnectionClosedListener> closeListeners;
-    private List<ConnectionClosedListener> physicalCloseListeners;
+    private volatile ConnectionClosedListener[] closeListeners = DataSourceManager.NO_CLOSED_LISTENERS;
+    private volatile ConnectionClosedListener[] physicalCloseListeners = DataSourceManager.NO_CLOSED_LISTENERS;
 
-    private List<ConnectionOpenedListener> poolAcquiredListeners;
+    private volatile ConnectionOpenedListener[] poolAcquiredListeners = DataSourceManager.NO_OPENED_LISTENERS;
 
     /**
-     * Optional list of statement listeners that will be notified when this connection begins and finishes executing SQL
-     * queries against the database. </br>
+     * Snapshot of statement listeners that will be notified when this connection begins and finishes executing SQL
+     * queries against the database. Snapshots are replaced rather than modified, and resetting a lease only swaps in
+     * the shared empty snapshot, so connections without listeners never allocate for them. </br>
      * <strong>NOTE: </strong> listeners registered here rather than with the data source manager will be cleared on any
      *          logical close event
      */
-    private List<StatementExecutionListener> statementListeners;
+    private volatile StatementExecutionListener[] statementListeners = DataSourceManager.NO_STATEMENT_LISTENERS;
 
     /**
      * Simply tracks whether we have a connection open, or in the case of a pooled connection, whether there should be a
@@ -166,6 +208,12 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
      */
     private boolean active;
 
+    /**
+     * Timer wheel entry used by the data source's lease watchdog, if enabled, which is reused for every lease of this
+     * connection.
+     */
+    private LeaseWatchdog.Lease watchdogLease;
+
     InstrumentedConnectionImpl(DataSourceManager dataSourceManager, Connection targetConnection) {
         Preconditions.checkNotNull(targetConnection, "targetConnection was not provided");
         this.dataSourceManager = dataSourceManager;
@@ -214,12 +262,28 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
 
     @Override
     public String getConnectionId() {
-        return connectionId;
+        String id = connectionId;
+        if (id == null && numericConnectionId != 0L) {
+            // rendering is idempotent, so racing threads at worst render the same string twice
+            id = getDataSourceManager().formatConnectionId(numericConnectionId);
+            connectionId = id;
+        }
+        return id;
     }
 
     void setConnectionId(String connectionId) {
         Preconditions.checkNotNull(connectionId, "null connectionIds are unsupported!");
         this.connectionId = connectionId;
+        this.numericConnectionId = 0L;
+    }
+
+    /**
+     * Assigns an id from the default {@link SnowflakeIdentifierGenerator}, deferring rendering it as a string until
+     * it is first requested.
+     */
+    void setConnectionId(long numericConnectionId) {
+        this.connectionId = null;
+        this.numericConnectionId = numericConnectionId;
     }
 
     public boolean isPoolingConnections() {
@@ -263,22 +327,12 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
 
     @Override
     public void addCloseListener(ConnectionClosedListener listener) {
-        if (closeListeners == null) {
-            closeListeners = new CopyOnWriteArrayList<>();
-        }
-        if (!closeListeners.contains(listener)) {
-            closeListeners.add(listener);
-        }
+        ListenerRegistry.addTo(closeListenersUpdater, this, listener);
     }
 
     @Override
     public void addStatementListener(StatementExecutionListener listener) {
-        if (statementListeners == null) {
-            statementListeners = new CopyOnWriteArrayList<>();
-        }
-        if (!statementListeners.contains(listener)) {
-            statementListeners.add(listener);
-        }
+        ListenerRegistry.addTo(statementListenersUpdater, this, listener);
     }
 
     @Override
@@ -294,8 +348,8 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
      */
     private void reset() {
         nextStatementId = 1;
-        closeListeners = null;
-        statementListeners = null;
+        closeListeners = DataSourceManager.NO_CLOSED_LISTENERS;
+        statementListeners = DataSourceManager.NO_STATEMENT_LISTENERS;
         active = false;
 
         if (pooledConnection != null) {
@@ -330,24 +384,32 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
             // if we are not pooling connections, then this is also the logical open event
             if (getDataSourceManager().isPoolingConnections()) {
                 active = false;
+                isPhysicalConn = true;
                 logicalOpenedTimestampNanos = 0L;
                 logicalClosedTimestampNanos = 0L;
             } else {
                 active = true;
-                isPhysicalConn = true;
                 isLogicalEvent = true;
                 logicalOpenedTimestampNanos = physicalOpenedTimestampNanos;
             }
         }
 
-        // avoid this code block if instrumentation will "never" be enabled for this data source for all of runtime
-        if (!getDataSourceManager().isInstrumented()) {
+        // start the clock on this lease before anything else can hold it up
+        if (isLogicalEvent) {
+            armWatchdog();
+        }
+
+        // read the instrumentation level exactly once for this lease, so that turning it off costs nothing more
+        InstrumentationLevel level = getDataSourceManager().getInstrumentationLevel();
+        if (level == InstrumentationLevel.OFF) {
             instrumented = false;
             captureQueryParams = false;
             captureStatements = false;
+            collectStatementMetrics = false;
         } else {
             // check again whether we want to in fact instrument this connection, if it is being pooled
-            instrumented = getDataSourceManager().getFeatures().shouldInstrumentConnection();
+            instrumented = (level != InstrumentationLevel.FEATURES ||
+                getDataSourceManager().getFeatures().shouldInstrumentConnection());
 
             // if it is a physical connection and instrumentation is at least enabled globally for the data source, then
             // always invoke the physical connection callback to maintain consistency and ensure there are no bookkeeping
@@ -363,8 +425,10 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
                 setPooledConnection(pooledConnection);
 
                 // refresh whether we want to capture statements for this connection lease
-                captureStatements = getDataSourceManager().getFeatures().shouldCaptureStatements();
-                captureQueryParams = captureStatements && Jdbceptor.getSharedConfig().isCaptureQueryParametersEnabled();
+                applyInstrumentationLevel(level);
+                JdbceptorConfiguration config = Jdbceptor.getSharedConfig();
+                recycleStatementEvents = (config instanceof EventRecyclingConfiguration &&
+                    ((EventRecyclingConfiguration)config).isRecycleStatementEventsEnabled());
 
                 // if we have a pooled connection, or we aren't using pooled connections at all, fire logical open event
                 if (isLogicalEvent) {
@@ -378,14 +442,53 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
         }
     }
 
+    /**
+     * Decides what to capture for this lease of an instrumented connection, from <strong>level</strong> or, for
+     * {@link InstrumentationLevel#FEATURES}, from the data source's feature checker.
+     */
+    private void applyInstrumentationLevel(InstrumentationLevel level) {
+        switch (level) {
+            case METRICS:
+                captureStatements = false;
+                collectStatementMetrics = true;
+                break;
+            case STATEMENTS:
+            case FULL:
+                captureStatements = true;
+                collectStatementMetrics = false;
+                break;
+            default:
+                FeatureChecker features = getDataSourceManager().getFeatures();
+                captureStatements = features.shouldCaptureStatements();
+                collectStatementMetrics = !captureStatements && features instanceof MetricsFeatureChecker &&
+                    ((MetricsFeatureChecker)features).shouldCollectStatementMetrics();
+                break;
+        }
+        captureQueryParams = captureStatements && (level == InstrumentationLevel.FULL ||
+            (level == InstrumentationLevel.FEATURES && Jdbceptor.getSharedConfig().isCaptureQueryParametersEnabled()));
+    }
+
+    /**
+     * Invoked by the {@link DataSourceManager} once the physical connection wrapped by this object has been established
+     * through the Jdbceptor driver.
+     * @see DataSourceManager#wrapPhysicalConnection(Connection)
+     */
+    void physicallyOpened() {
+        onOpen(/*pooledConnection=*/null);
+    }
+
     private void onClose() {
         // keep track of close timestamp regardless of whether instrumentation is enabled
         logicalClosedTimestampNanos = timestampNanos();
+        disarmWatchdog();
 
         // always invoke if instrumented at all, since the listeners may be expecting to be invoked since it was enabled
         //      when they were registered w/this connection
         boolean isLogicalClose = true;
-        ConnectionClosedEvent event = null;
+        ConnectionClosedListener[] listeners = closeListeners;
+        // uninstrumented leases without their own listeners have nobody to deliver an event to, so allocate none
+        ConnectionClosedEvent event = (instrumented || listeners.length != 0 ?
+            new ConnectionClosedEvent(this, logicalClosedTimestampNanos, poolingConnections) : null);
         if (instrumented) {
             if (poolingConnections) {
                 // we are wrapped by a connection pool
@@ -408,12 +511,8 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
         }
 
         // invoke close listeners subscribed specifically to this connection, if present
-        if (isLogicalClose) {
-            if (closeListeners != null) {
-                for (ConnectionClosedListener listener : closeListeners) {
-                    listener.connectionClosed(event);
-                }
-            }
+        if (isLogicalClose && listeners.length != 0) {
+            getDataSourceManager().fireConnectionClosed(listeners, event);
         }
 
         // always make sure to clean-up any monitoring data at end of connection usage
@@ -421,6 +520,27 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
         reset();
     }
 
+    /**
+     * Arms the data source's lease watchdog for this connection lease, creating a new timer wheel entry only if the
+     * watchdog has been enabled or replaced since this connection was last leased.
+     */
+    private void armWatchdog() {
+        LeaseWatchdog watchdog = getDataSourceManager().getLeaseWatchdog();
+        if (watchdog == null) {
+            return;
+        }
+        if (watchdogLease == null || watchdogLease.getWatchdog() != watchdog) {
+            watchdogLease = watchdog.newLease(this);
+        }
+        watchdog.arm(watchdogLease);
+    }
+
+    private void disarmWatchdog() {
+        if (watchdogLease != null) {
+            watchdogLease.getWatchdog().disarm(watchdogLease);
+        }
+    }
+
     void setPooledConnection(Connection pooledConnection) {
         // update with new pooled connection
         this.pooledConnection = pooledConnection;
@@ -445,12 +565,14 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
         Preconditions.checkState(currentTransaction == null, "cannot begin a new transaction when the previous one " +
             "is still active");
         setCurrentTransaction(transaction);
+        getDataSourceManager().transactionBegan(this, transaction);
     }
 
     public void finishedTransaction(InstrumentedTransaction transaction, boolean committed) {
         Preconditions.checkState(transaction == currentTransaction, "cannot finish a transaction that is not the " +
             "same as a present, active transaction for this connection!");
         setCurrentTransaction(null);
+        getDataSourceManager().transactionFinished(this, transaction, committed);
     }
 
     @Override
@@ -479,10 +601,7 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
             addCloseListener(closeListener);
             return;
         }
-        if (physicalCloseListeners == null) {
-            physicalCloseListeners = new CopyOnWriteArrayList<>();
-        }
-        physicalCloseListeners.add(closeListener);
+        ListenerRegistry.addTo(physicalCloseListenersUpdater, this, closeListener);
     }
 
     @Override
@@ -491,10 +610,7 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
             throw new IllegalStateException("Unable to attach connection pool acquisition listeners to a connection " +
                 "belonging to a data source (" + dataSourceManager.getId() + ") that is not using a connection pool");
         }
-        if (poolAcquiredListeners == null) {
-            poolAcquiredListeners = new CopyOnWriteArrayList<>();
-        }
-        poolAcquiredListeners.add(openListener);
+        ListenerRegistry.addTo(poolAcquiredListenersUpdater, this, openListener);
     }
 
     @Override
@@ -617,6 +733,59 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
         targetConnection.releaseSavepoint(savepoint);
     }
 
+    /**
+     * Returns an executing event for a statement that is about to run. If event recycling is enabled, this returns the
+     * connection's recycled event unless it is still in use by a re-entrant execution from within a listener, in which
+     * case a new event is allocated. Every event returned must be passed to {@link #releaseEvent(ConnectionEvent)}
+     * once all listeners have been invoked.
+     */
+    StatementExecutingEvent obtainExecutingEvent(InstrumentedStatement<?> statement, long timestampNanos,
+                                                 StatementMethod method) {
+        if (recycleStatementEvents) {
+            if (recycledExecutingEvent == null) {
+                recycledExecutingEvent = new RecycledStatementExecutingEvent(this);
+            }
+            if (!recycledExecutingEvent.isInUse()) {
+                return recycledExecutingEvent.populate(timestampNanos, statement, method.getMethodName());
+            }
+        }
+        return new StatementExecutingEvent(this, timestampNanos, statement, method.getMethodName());
+    }
+
+    /**
+     * Returns an executed event for a statement that has just finished running.
+     * @param updateCount the number of rows affected, or -1 if unknown
+     * @param callSite the application code that executed the statement, or <code>null</code> if it was not captured
+     * @see #obtainExecutingEvent(InstrumentedStatement, long, StatementMethod)
+     */
+    StatementExecutedEvent obtainExecutedEvent(InstrumentedStatement<?> statement, long timestampNanos,
+                                               long executionTimeNanos, Exception exception, StatementMethod method,
+                                               long updateCount, SourceInfo callSite) {
+        if (recycleStatementEvents) {
+            if (recycledExecutedEvent == null) {
+                recycledExecutedEvent = new RecycledStatementExecutedEvent(this);
+            }
+            if (!recycledExecutedEvent.isInUse()) {
+                return recycledExecutedEvent.populate(timestampNanos, executionTimeNanos, statement, exception,
+                    method, updateCount, callSite);
+            }
+        }
+        return new StatementExecutedEvent(this, timestampNanos, executionTimeNanos, statement, exception, method,
+            updateCount, callSite);
+    }
+
+    /**
+     * Releases an event returned from one of the <code>obtain*Event</code> methods so that, if it is a recycled event,
+     * it can be re-used by the next statement execution.
+     */
+    void releaseEvent(ConnectionEvent event) {
+        if (event == recycledExecutingEvent) {
+            recycledExecutingEvent.release();
+        } else if (event == recycledExecutedEvent) {
+            recycledExecutedEvent.release();
+        }
+    }
+
     /**
      * Invoked whenever a statement is about to be executed thru the driver. The raw SQL may not be available at this point
      * because the driver has not yet intercepted the SQL. </br>
@@ -626,10 +795,9 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
     public void beforeExecutingStatement(StatementExecutingEvent event) {
         currentlyExecutingStatement = event.getStatement();
 
-        if (statementListeners != null) {
-            for (StatementExecutionListener listener : statementListeners) {
-                listener.beforeExecutingStatement(event);
-            }
+        StatementExecutionListener[] listeners = statementListeners;
+        if (listeners.length != 0) {
+            getDataSourceManager().fireBeforeExecutingStatement(listeners, event);
         }
     }
 
@@ -639,25 +807,60 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
     public void statementExecuted(StatementExecutedEvent event) {
         currentlyExecutingStatement = null;
 
-        if (statementListeners != null) {
-            for (StatementExecutionListener listener : statementListeners) {
-                listener.statementExecuted(event);
-            }
+        if (currentTransaction != null) {
+            currentTransaction.statementExecuted(event);
+        }
+
+        // feed any statement aggregators enabled for the data source before invoking listeners
+        getDataSourceManager().statementExecuted(event);
+
+        StatementExecutionListener[] listeners = statementListeners;
+        if (listeners.length != 0) {
+            getDataSourceManager().fireStatementExecuted(listeners, event);
+        }
+    }
+
+    /**
+     * Wraps a statement created by the target connection according to the instrumentation tier chosen for this
+     * connection lease: fully instrumented, metrics-only, or not wrapped at all.
+     */
+    private Statement wrapStatement(Statement realStatement) {
+        if (captureStatements || collectStatementMetrics) {
+            return new InstrumentedStatementImpl(this, realStatement, nextStatementId++, !captureStatements);
+        } else {
+            return realStatement;
+        }
+    }
+
+    private PreparedStatement wrapPreparedStatement(PreparedStatement realStatement, String sql) {
+        if (captureStatements || collectStatementMetrics) {
+            // metrics-only statements never format their SQL, so only statements that capture it look up a template
+            return new InstrumentedPreparedStatement(this, realStatement, nextStatementId++, sql, captureQueryParams,
+                !captureStatements);
+        } else {
+            return realStatement;
+        }
+    }
+
+    private CallableStatement wrapCallableStatement(CallableStatement realStatement, String sql) {
+        if (captureStatements || collectStatementMetrics) {
+            return new InstrumentedCallableStatement(this, realStatement, nextStatementId++, sql, captureQueryParams,
+                !captureStatements);
+        } else {
+            return realStatement;
         }
     }
 
     @Override
     public Statement createStatement() throws SQLException {
         Statement realStatement = targetConnection.createStatement();
-        return (captureStatements ? new InstrumentedStatementImpl(this, realStatement, nextStatementId++) :
-            realStatement);
+        return wrapStatement(realStatement);
     }
 
     @Override
     public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
         Statement realStatement = targetConnection.createStatement(resultSetType, resultSetConcurrency);
-        return (captureStatements ? new InstrumentedStatementImpl(this, realStatement, nextStatementId++) :
-            realStatement);
+        return wrapStatement(realStatement);
     }
 
     @Override
@@ -665,23 +868,20 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
                                      int resultSetHoldability) throws SQLException {
         Statement realStatement = targetConnection.createStatement(resultSetType, resultSetConcurrency,
             resultSetHoldability);
-        return (captureStatements ? new InstrumentedStatementImpl(this, realStatement, nextStatementId++) :
-            realStatement);
+        return wrapStatement(realStatement);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql) throws SQLException {
         PreparedStatement realStatement = targetConnection.prepareStatement(sql);
-        return (captureStatements ? new InstrumentedPreparedStatement(this, realStatement, nextStatementId++, sql,
-            captureQueryParams) : realStatement);
+        return wrapPreparedStatement(realStatement, sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType,
                                               int resultSetConcurrency) throws SQLException {
         PreparedStatement realStatement = targetConnection.prepareStatement(sql, resultSetType, resultSetConcurrency);
-        return (captureStatements ? new InstrumentedPreparedStatement(this, realStatement, nextStatementId++, sql,
-            captureQueryParams) : realStatement);
+        return wrapPreparedStatement(realStatement, sql);
     }
 
     @Override
@@ -689,43 +889,37 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
                                               int resultSetHoldability) throws SQLException {
         PreparedStatement realStatement = targetConnection.prepareStatement(sql, resultSetType, resultSetConcurrency,
             resultSetHoldability);
-        return (captureStatements ? new InstrumentedPreparedStatement(this, realStatement, nextStatementId++, sql,
-            captureQueryParams) : realStatement);
+        return wrapPreparedStatement(realStatement, sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
         PreparedStatement realStatement = targetConnection.prepareStatement(sql, autoGeneratedKeys);
-        return (captureStatements ? new InstrumentedPreparedStatement(this, realStatement, nextStatementId++, sql,
-            captureQueryParams) : realStatement);
+        return wrapPreparedStatement(realStatement, sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
         PreparedStatement realStatement = targetConnection.prepareStatement(sql, columnIndexes);
-        return (captureStatements ? new InstrumentedPreparedStatement(this, realStatement, nextStatementId++, sql,
-            captureQueryParams) : realStatement);
+        return wrapPreparedStatement(realStatement, sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
         PreparedStatement realStatement = targetConnection.prepareStatement(sql, columnNames);
-        return (captureStatements ? new InstrumentedPreparedStatement(this, realStatement, nextStatementId++, sql,
-            captureQueryParams) : realStatement);
+        return wrapPreparedStatement(realStatement, sql);
     }
 
     @Override
     public CallableStatement prepareCall(String sql) throws SQLException {
         CallableStatement realStatement = targetConnection.prepareCall(sql);
-        return (captureStatements ? new InstrumentedCallableStatement(this, realStatement, nextStatementId++, sql,
-            captureQueryParams) : realStatement);
+        return wrapCallableStatement(realStatement, sql);
     }
 
     @Override
     public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
         CallableStatement realStatement = targetConnection.prepareCall(sql, resultSetType, resultSetConcurrency);
-        return (captureStatements ? new InstrumentedCallableStatement(this, realStatement, nextStatementId++, sql,
-            captureQueryParams) : realStatement);
+        return wrapCallableStatement(realStatement, sql);
     }
 
     @Override
@@ -733,9 +927,7 @@ public class InstrumentedConnectionImpl extends UserDataStorageImpl implements H
                                          int resultSetHoldability) throws SQLException {
         CallableStatement realStatement = targetConnection.prepareCall(sql, resultSetType, resultSetConcurrency,
             resultSetHoldability);
-        return (captureStatements ? new InstrumentedCallableStatement(this, realStatement, nextStatementId++, sql,
-            captureStatements) :
-            realStatement);
+        return wrapCallableStatement(realStatement, sql);
     }
 
     /**
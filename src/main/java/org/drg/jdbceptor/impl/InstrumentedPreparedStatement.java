@@ -10,8 +10,34 @@ import java.sql.PreparedStatement;
 public class InstrumentedPreparedStatement extends AbstractParameterizedInstrumentedStatement<PreparedStatement>
 {
 
+    public InstrumentedPreparedStatement(InstrumentedConnection connection, PreparedStatement statement,
+                                         int statementId, SqlTemplate template, boolean captureQueryParameters) {
+        this(connection, statement, statementId, template, captureQueryParameters, /*metricsOnly=*/false);
+    }
+
+    /**
+     * @param metricsOnly if true then executions are only timed in the data source's statement metrics
+     * @see AbstractInstrumentedStatement#isMetricsOnly()
+     */
+    public InstrumentedPreparedStatement(InstrumentedConnection connection, PreparedStatement statement,
+                                         int statementId, SqlTemplate template, boolean captureQueryParameters,
+                                         boolean metricsOnly) {
+        super(connection, statement, statementId, template, captureQueryParameters, metricsOnly);
+    }
+
     public InstrumentedPreparedStatement(InstrumentedConnection connection, PreparedStatement statement,
                                          int statementId, String sql, boolean captureQueryParameters) {
-        super(connection, statement, statementId, sql, captureQueryParameters);
+        this(connection, statement, statementId, sql, captureQueryParameters, /*metricsOnly=*/false);
+    }
+
+    /**
+     * @param metricsOnly if true then executions are only timed in the data source's statement metrics, and
+     *                    <strong>sql</strong> is not parsed into a shared template
+     * @see AbstractInstrumentedStatement#isMetricsOnly()
+     */
+    public InstrumentedPreparedStatement(InstrumentedConnection connection, PreparedStatement statement,
+                                         int statementId, String sql, boolean captureQueryParameters,
+                                         boolean metricsOnly) {
+        super(connection, statement, statementId, sql, captureQueryParameters, metricsOnly);
     }
 }
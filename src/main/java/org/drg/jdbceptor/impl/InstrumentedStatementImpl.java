@@ -13,7 +13,16 @@ import java.sql.Statement;
 public class InstrumentedStatementImpl extends AbstractInstrumentedStatement<Statement> implements Statement {
 
     public InstrumentedStatementImpl(InstrumentedConnection connection, Statement statement, int statementId) {
-        super(connection, statement, statementId);
+        this(connection, statement, statementId, /*metricsOnly=*/false);
+    }
+
+    /**
+     * @param metricsOnly if true then executions are only timed in the data source's statement metrics
+     * @see AbstractInstrumentedStatement#isMetricsOnly()
+     */
+    public InstrumentedStatementImpl(InstrumentedConnection connection, Statement statement, int statementId,
+                                     boolean metricsOnly) {
+        super(connection, statement, statementId, metricsOnly);
     }
 
     @Override
@@ -0,0 +1,189 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.base.Preconditions;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates the records written by a {@link StatementJournal}, oldest segment first. Each segment is memory-mapped
+ * read-only and records are exposed through a single re-positioned {@link JournalRecord} view, so iterating does not
+ * copy or allocate per record. </br>
+ * Segments that are still being written can be read as well, in which case iteration of that segment stops at the
+ * first record whose length has not been written yet. Writers fill in the mapped segment without memory fences, so the
+ * length is not a guarantee that the rest of the record is visible; the newest records of a live segment may be
+ * incomplete, and only segments that the journal has rolled over from (or closed) should be relied upon in full.
+ *
+ * @author dgarson
+ */
+public class JournalReader implements Iterable<JournalRecord> {
+
+    private final List<File> segmentFiles;
+
+    /**
+     * Creates a reader over the given segment files, which are read in the order provided.
+     */
+    public JournalReader(List<File> segmentFiles) {
+        Preconditions.checkNotNull(segmentFiles, "segmentFiles");
+        this.segmentFiles = new ArrayList<>(segmentFiles);
+    }
+
+    /**
+     * Creates a reader over every journal segment in <strong>directory</strong>.
+     */
+    public static JournalReader forDirectory(File directory) {
+        return new JournalReader(listSegments(directory));
+    }
+
+    /**
+     * Returns the journal segment files in <strong>directory</strong>, sorted from oldest to newest.
+     */
+    public static List<File> listSegments(File directory) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return StatementJournal.parseSegmentSequence(name) >= 0L;
+            }
+        });
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        // segment names are zero-padded, so lexical order is sequence order
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    /**
+     * Returns the segment files this reader iterates over.
+     */
+    public List<File> getSegmentFiles() {
+        return Collections.unmodifiableList(segmentFiles);
+    }
+
+    /**
+     * Returns an iterator over every record in every segment, excluding template definitions, which are resolved
+     * through {@link JournalRecord#getSql()} instead. The same {@link JournalRecord} instance is returned by every call
+     * to {@link Iterator#next()}. Segments that are deleted while iterating are skipped.
+     */
+    @Override
+    public Iterator<JournalRecord> iterator() {
+        return new RecordIterator();
+    }
+
+    /**
+     * Maps a segment file read-only and validates its header.
+     */
+    static ByteBuffer mapSegment(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (buffer.capacity() < JournalRecord.SEGMENT_HEADER_SIZE ||
+                buffer.getInt(0) != JournalRecord.SEGMENT_MAGIC) {
+                throw new IOException("Not a journal segment: " + file);
+            } else if (buffer.getShort(4) != JournalRecord.SEGMENT_VERSION) {
+                throw new IOException("Unsupported journal segment version " + buffer.getShort(4) + ": " + file);
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * Returns the offset of the record following the one at <strong>offset</strong>, or -1 if there are no further
+     * complete records in the segment.
+     */
+    static int nextRecordOffset(ByteBuffer buffer, int offset) {
+        int length = buffer.getInt(offset);
+        int next = offset + length;
+        return (next <= buffer.capacity() - JournalRecord.RECORD_HEADER_SIZE ? next : -1);
+    }
+
+    private static boolean isComplete(ByteBuffer buffer, int offset) {
+        if (offset < 0 || offset > buffer.capacity() - JournalRecord.RECORD_HEADER_SIZE) {
+            return false;
+        }
+        int length = buffer.getInt(offset);
+        return length >= JournalRecord.RECORD_HEADER_SIZE && length <= buffer.capacity() - offset;
+    }
+
+    /**
+     * Indexes the offsets of the template records in a segment, which may appear after the statements that use them
+     * when several writers race to define the same template.
+     */
+    private static Map<Integer, Integer> indexTemplates(ByteBuffer buffer) {
+        Map<Integer, Integer> templateOffsets = new HashMap<>();
+        JournalRecord record = new JournalRecord();
+        int offset = JournalRecord.SEGMENT_HEADER_SIZE;
+        while (isComplete(buffer, offset)) {
+            record.position(buffer, offset, null);
+            if (record.getType() == JournalRecord.TYPE_TEMPLATE) {
+                templateOffsets.put(record.getTemplateId(), offset);
+            }
+            offset = nextRecordOffset(buffer, offset);
+        }
+        return templateOffsets;
+    }
+
+    private class RecordIterator implements Iterator<JournalRecord> {
+
+        private final JournalRecord record = new JournalRecord();
+        private int segmentIndex = -1;
+        private ByteBuffer buffer;
+        private Map<Integer, Integer> templateOffsets;
+        // offset of the record to return next, or -1 if the current segment is exhausted
+        private int offset = -1;
+
+        @Override
+        public boolean hasNext() {
+            while (true) {
+                while (isComplete(buffer, offset)) {
+                    if (buffer.get(offset + 4) != JournalRecord.TYPE_TEMPLATE) {
+                        return true;
+                    }
+                    offset = nextRecordOffset(buffer, offset);
+                }
+                if (++segmentIndex >= segmentFiles.size()) {
+                    buffer = null;
+                    return false;
+                }
+                File file = segmentFiles.get(segmentIndex);
+                try {
+                    buffer = mapSegment(file);
+                } catch (IOException e) {
+                    if (!file.exists()) {
+                        // removed by the journal's retention policy since this reader was created
+                        continue;
+                    }
+                    throw new IllegalStateException("Unable to read journal segment " + file, e);
+                }
+                templateOffsets = indexTemplates(buffer);
+                offset = JournalRecord.SEGMENT_HEADER_SIZE;
+            }
+        }
+
+        @Override
+        public JournalRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            record.position(buffer, offset, templateOffsets);
+            offset = nextRecordOffset(buffer, offset);
+            return record;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Journal records are read-only");
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package org.drg.jdbceptor.impl;
+
+import org.apache.commons.lang3.StringUtils;
+import org.drg.jdbceptor.api.StatementMethod;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only view of a single record in a {@link StatementJournal} segment. Fixed-size fields are read directly from
+ * the mapped segment without copying, and strings are only decoded when their getter is called. </br>
+ * Instances are flyweights that are re-positioned by {@link JournalReader} as it iterates, so a record must not be
+ * retained once the iterator has advanced; use {@link #slice()} or copy out the fields that are needed instead. </br>
+ * Every record starts with the same header:
+ * <pre>
+ *   int    length (including the header, written last so that a zero marks the end of the segment)
+ *   byte   type
+ *   byte   flags
+ *   short  reserved
+ *   long   timestamp nanos
+ *   str8   connection id
+ *   str8   transaction id
+ * </pre>
+ * where <code>str8</code>, <code>str16</code> and <code>str32</code> are UTF-8 strings prefixed by an unsigned byte,
+ * an unsigned short or an int length respectively. Statement records follow this with the template id, statement
+ * sequence number, elapsed nanos, update count and {@link StatementMethod} ordinal, then the inline SQL as a
+ * <code>str32</code> if the template id is zero, then the bound parameters if {@link #FLAG_PARAMETERS} is set. Batches
+ * have {@link #FLAG_BATCH} set and a template id of zero, and in place of the inline SQL they have an int count
+ * followed by each statement of the batch as a <code>str32</code>.
+ *
+ * @author dgarson
+ */
+public class JournalRecord {
+
+    static final int SEGMENT_MAGIC = 0x4A444A4C;
+    static final short SEGMENT_VERSION = 1;
+    static final int SEGMENT_HEADER_SIZE = 32;
+    static final int RECORD_HEADER_SIZE = 16;
+    static final int STATEMENT_BODY_SIZE = 25;
+    static final int TEMPLATE_BODY_SIZE = 4;
+
+    public static final byte TYPE_TEMPLATE = 1;
+    public static final byte TYPE_STATEMENT_EXECUTED = 2;
+    public static final byte TYPE_CONNECTION_OPENED = 3;
+    public static final byte TYPE_CONNECTION_CLOSED = 4;
+    public static final byte TYPE_TRANSACTION_BEGAN = 5;
+    public static final byte TYPE_TRANSACTION_FINISHED = 6;
+
+    public static final int FLAG_ERROR = 1;
+    public static final int FLAG_PARAMETERS = 1 << 1;
+    public static final int FLAG_POOLED = 1 << 2;
+    public static final int FLAG_PHYSICAL = 1 << 3;
+    public static final int FLAG_COMMITTED = 1 << 4;
+    public static final int FLAG_BATCH = 1 << 5;
+
+    private static final StatementMethod[] METHODS = StatementMethod.values();
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int bodyOffset;
+    private Map<Integer, Integer> templateOffsets;
+
+    JournalRecord() {
+    }
+
+    /**
+     * Re-positions this view at the record starting at <strong>offset</strong> within <strong>buffer</strong>.
+     * @param templateOffsets the offsets of the template records in the same segment, keyed by template id
+     */
+    void position(ByteBuffer buffer, int offset, Map<Integer, Integer> templateOffsets) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.templateOffsets = templateOffsets;
+        int connectionIdOffset = offset + RECORD_HEADER_SIZE;
+        int transactionIdOffset = connectionIdOffset + 1 + (buffer.get(connectionIdOffset) & 0xFF);
+        this.bodyOffset = transactionIdOffset + 1 + (buffer.get(transactionIdOffset) & 0xFF);
+    }
+
+    /**
+     * Returns the total length of this record in bytes, including its header.
+     */
+    public int getLength() {
+        return buffer.getInt(offset);
+    }
+
+    /**
+     * Returns the record type, which is one of the <code>TYPE_*</code> constants.
+     */
+    public byte getType() {
+        return buffer.get(offset + 4);
+    }
+
+    /**
+     * Returns the bit set of <code>FLAG_*</code> constants that apply to this record.
+     */
+    public int getFlags() {
+        return buffer.get(offset + 5) & 0xFF;
+    }
+
+    public boolean hasFlag(int flag) {
+        return (getFlags() & flag) != 0;
+    }
+
+    /**
+     * Returns the timestamp of the event this record was written for.
+     * @see org.drg.jdbceptor.Jdbceptor#timestampNanos()
+     */
+    public long getTimestampNanos() {
+        return buffer.getLong(offset + 8);
+    }
+
+    /**
+     * Returns the id of the connection this record applies to, or <code>null</code> for template records.
+     */
+    public String getConnectionId() {
+        return readString8(offset + RECORD_HEADER_SIZE);
+    }
+
+    /**
+     * Returns the id of the transaction that was active, or <code>null</code> if there was none.
+     */
+    public String getTransactionId() {
+        int connectionIdOffset = offset + RECORD_HEADER_SIZE;
+        return readString8(connectionIdOffset + 1 + (buffer.get(connectionIdOffset) & 0xFF));
+    }
+
+    /**
+     * Returns the journal-local template id for a statement or template record, or zero if the SQL was written inline.
+     * Template ids are only meaningful within the segment they were read from.
+     */
+    public int getTemplateId() {
+        checkType(TYPE_STATEMENT_EXECUTED, TYPE_TEMPLATE);
+        return buffer.getInt(bodyOffset);
+    }
+
+    /**
+     * Returns the sequence number of the statement within its connection.
+     * @see org.drg.jdbceptor.api.InstrumentedStatement#getSeqNo()
+     */
+    public int getStatementSeqNo() {
+        checkType(TYPE_STATEMENT_EXECUTED, TYPE_STATEMENT_EXECUTED);
+        return buffer.getInt(bodyOffset + 4);
+    }
+
+    public long getElapsedNanos() {
+        checkType(TYPE_STATEMENT_EXECUTED, TYPE_STATEMENT_EXECUTED);
+        return buffer.getLong(bodyOffset + 8);
+    }
+
+    /**
+     * Returns the number of rows affected, or -1 if it is unknown.
+     * @see org.drg.jdbceptor.event.StatementExecutedEvent#getUpdateCount()
+     */
+    public long getUpdateCount() {
+        checkType(TYPE_STATEMENT_EXECUTED, TYPE_STATEMENT_EXECUTED);
+        return buffer.getLong(bodyOffset + 16);
+    }
+
+    /**
+     * Returns the execution method of a statement record, or <code>null</code> if it was not one of the timed methods.
+     */
+    public StatementMethod getMethod() {
+        checkType(TYPE_STATEMENT_EXECUTED, TYPE_STATEMENT_EXECUTED);
+        int ordinal = buffer.get(bodyOffset + 24);
+        return (ordinal >= 0 && ordinal < METHODS.length ? METHODS[ordinal] : null);
+    }
+
+    /**
+     * Returns the SQL for a statement or template record, prior to parameter substitution. If the statement refers to a
+     * template whose definition was lost when rolling over to a new segment, this returns <code>null</code>. For a
+     * batch, the statements are joined by a semicolon and a new line, just as they were reported to listeners.
+     * @see #getBatchStatements()
+     */
+    public String getSql() {
+        byte type = getType();
+        checkType(TYPE_STATEMENT_EXECUTED, TYPE_TEMPLATE);
+        int templateId = buffer.getInt(bodyOffset);
+        if (type == TYPE_TEMPLATE) {
+            return readString32(bodyOffset + TEMPLATE_BODY_SIZE);
+        } else if (hasFlag(FLAG_BATCH)) {
+            return StringUtils.join(getBatchStatements(), ";\n");
+        } else if (templateId == 0) {
+            return readString32(bodyOffset + STATEMENT_BODY_SIZE);
+        }
+        Integer templateOffset = (templateOffsets == null ? null : templateOffsets.get(templateId));
+        if (templateOffset == null) {
+            return null;
+        }
+        JournalRecord template = new JournalRecord();
+        template.position(buffer, templateOffset, null);
+        return template.getSql();
+    }
+
+    /**
+     * Returns each statement of a batch separately, or <code>null</code> if this record is not for a batch.
+     */
+    public List<String> getBatchStatements() {
+        checkType(TYPE_STATEMENT_EXECUTED, TYPE_STATEMENT_EXECUTED);
+        if (!hasFlag(FLAG_BATCH)) {
+            return null;
+        }
+        int pos = bodyOffset + STATEMENT_BODY_SIZE;
+        int count = buffer.getInt(pos);
+        pos += 4;
+        List<String> statements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            statements.add(readString32(pos));
+            pos += 4 + buffer.getInt(pos);
+        }
+        return statements;
+    }
+
+    /**
+     * Reads the parameters recorded for a statement into <strong>into</strong>, which is cleared first so that it can
+     * be re-used across records. Object parameters are recorded by their string value.
+     * @return <code>true</code> if parameters were recorded for this statement
+     */
+    public boolean readParameters(ParameterStore into) {
+        checkType(TYPE_STATEMENT_EXECUTED, TYPE_STATEMENT_EXECUTED);
+        into.clear();
+        if (!hasFlag(FLAG_PARAMETERS)) {
+            return false;
+        }
+        int pos = bodyOffset + STATEMENT_BODY_SIZE;
+        if (hasFlag(FLAG_BATCH)) {
+            int count = buffer.getInt(pos);
+            pos += 4;
+            for (int i = 0; i < count; i++) {
+                pos += 4 + buffer.getInt(pos);
+            }
+        } else if (buffer.getInt(bodyOffset) == 0) {
+            pos += 4 + buffer.getInt(pos);
+        }
+        readParameters(buffer, pos, into);
+        return true;
+    }
+
+    /**
+     * Reads parameters encoded by {@link StatementJournal} starting at <strong>pos</strong> of <strong>buffer</strong>
+     * into <strong>into</strong>, which must already be cleared.
+     * @return the position just past the parameters
+     */
+    static int readParameters(ByteBuffer buffer, int pos, ParameterStore into) {
+        int count = buffer.getShort(pos) & 0xFFFF;
+        pos += 2;
+        for (int i = 1; i <= count; i++) {
+            byte type = buffer.get(pos++);
+            switch (type) {
+                case ParameterStore.TYPE_NULL:
+                    into.setNull(i);
+                    break;
+                case ParameterStore.TYPE_BOOLEAN:
+                    into.setBoolean(i, buffer.getLong(pos) != 0L);
+                    pos += 8;
+                    break;
+                case ParameterStore.TYPE_BYTE:
+                    into.setByte(i, (byte)buffer.getLong(pos));
+                    pos += 8;
+                    break;
+                case ParameterStore.TYPE_SHORT:
+                    into.setShort(i, (short)buffer.getLong(pos));
+                    pos += 8;
+                    break;
+                case ParameterStore.TYPE_INT:
+                    into.setInt(i, (int)buffer.getLong(pos));
+                    pos += 8;
+                    break;
+                case ParameterStore.TYPE_LONG:
+                    into.setLong(i, buffer.getLong(pos));
+                    pos += 8;
+                    break;
+                case ParameterStore.TYPE_BYTES:
+                    into.setBytesLength(i, (int)buffer.getLong(pos));
+                    pos += 8;
+                    break;
+                case ParameterStore.TYPE_FLOAT:
+                    into.setFloat(i, (float)buffer.getDouble(pos));
+                    pos += 8;
+                    break;
+                case ParameterStore.TYPE_DOUBLE:
+                    into.setDouble(i, buffer.getDouble(pos));
+                    pos += 8;
+                    break;
+                case ParameterStore.TYPE_OBJECT:
+                    int length = buffer.getShort(pos) & 0xFFFF;
+                    into.setObject(i, decode(buffer, pos + 2, length));
+                    pos += 2 + length;
+                    break;
+                default:
+                    // unset parameters carry no value
+                    break;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Returns a view of the raw bytes of this record that shares the mapped segment rather than copying it, and remains
+     * valid after the reader has moved on.
+     */
+    public ByteBuffer slice() {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + getLength()).position(offset);
+        return view.slice();
+    }
+
+    private void checkType(byte expected, byte alternate) {
+        byte type = getType();
+        if (type != expected && type != alternate) {
+            throw new IllegalStateException("Field is not available for journal records of type " + type);
+        }
+    }
+
+    private String readString8(int pos) {
+        int length = buffer.get(pos) & 0xFF;
+        return (length == 0 ? null : decode(buffer, pos + 1, length));
+    }
+
+    private String readString32(int pos) {
+        return decode(buffer, pos + 4, buffer.getInt(pos));
+    }
+
+    static String decode(ByteBuffer buffer, int pos, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(pos);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return "JournalRecord{type=" + getType() + ", length=" + getLength() + ", timestampNanos=" +
+            getTimestampNanos() + "}";
+    }
+}
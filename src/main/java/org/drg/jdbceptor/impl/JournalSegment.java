@@ -0,0 +1,190 @@
+package org.drg.jdbceptor.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A single memory-mapped segment file that a {@link StatementJournal} appends records to. </br>
+ * Writers reserve space with a single atomic add on the write position and then fill in their region of the mapped
+ * buffer with absolute puts, so any number of threads can append concurrently without locking. A reservation that runs
+ * past the end of the segment fails, which tells the writer to roll over to the next segment. </br>
+ * Each segment also tracks which {@link SqlTemplate}s have been defined in it, so that every segment can be read on its
+ * own once older segments have been deleted. A template is only reported as present once its definition has actually
+ * been written, so a writer whose reservation fails after claiming a template never leaves other records referring to
+ * a definition that is missing from the segment.
+ *
+ * @author dgarson
+ */
+class JournalSegment {
+
+    /**
+     * Result of {@link #claimTemplate(int)} when the template has already been claimed in this segment.
+     */
+    static final int TEMPLATE_PRESENT = 0;
+
+    /**
+     * Result of {@link #claimTemplate(int)} when the caller is responsible for writing the template definition.
+     */
+    static final int TEMPLATE_CLAIMED = 1;
+
+    /**
+     * Result of {@link #claimTemplate(int)} when the template table is full, or another writer has claimed the template
+     * but not yet written its definition, so the SQL must be written inline.
+     */
+    static final int TEMPLATE_UNTRACKED = 2;
+
+    // must be a power of two
+    private static final int TEMPLATE_SLOTS = 4096;
+    private static final int MAX_TEMPLATE_PROBES = 16;
+
+    private final long sequence;
+    private final File file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final AtomicInteger writePosition = new AtomicInteger(JournalRecord.SEGMENT_HEADER_SIZE);
+
+    // open-addressed set of the template ids defined in this segment, where zero marks an empty slot and a negated id
+    // marks a template whose definition is still being written
+    private final AtomicIntegerArray templateIds = new AtomicIntegerArray(TEMPLATE_SLOTS);
+
+    private JournalSegment(long sequence, File file, RandomAccessFile raf, MappedByteBuffer buffer) {
+        this.sequence = sequence;
+        this.file = file;
+        this.raf = raf;
+        this.buffer = buffer;
+        this.capacity = buffer.capacity();
+    }
+
+    /**
+     * Creates a new segment file of <strong>size</strong> bytes, maps it into memory and writes its header.
+     */
+    static JournalSegment create(File file, long sequence, int size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(0, JournalRecord.SEGMENT_MAGIC);
+            buffer.putShort(4, JournalRecord.SEGMENT_VERSION);
+            buffer.putLong(8, sequence);
+            buffer.putLong(16, System.currentTimeMillis());
+            return new JournalSegment(sequence, file, raf, buffer);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    MappedByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the number of bytes reserved so far, which may briefly exceed the capacity once the segment is full.
+     */
+    int getWritePosition() {
+        return writePosition.get();
+    }
+
+    /**
+     * Reserves <strong>length</strong> bytes for a record and returns the offset to write it at, or -1 if there is not
+     * enough space left in this segment.
+     */
+    int reserve(int length) {
+        // never advance past the end, so that a full segment cannot overflow the write position
+        if (writePosition.get() > capacity - length) {
+            return -1;
+        }
+        int offset = writePosition.getAndAdd(length);
+        return (offset <= capacity - length ? offset : -1);
+    }
+
+    /**
+     * Records that <strong>templateId</strong> is used in this segment, returning whether its definition has already
+     * been written, must be written by this caller, or cannot be referred to yet. A caller that claims a template must
+     * follow up with either {@link #templateDefined(int)} or {@link #releaseTemplate(int)}.
+     * @see #TEMPLATE_PRESENT
+     * @see #TEMPLATE_CLAIMED
+     * @see #TEMPLATE_UNTRACKED
+     */
+    int claimTemplate(int templateId) {
+        int mask = TEMPLATE_SLOTS - 1;
+        int index = templateSlot(templateId);
+        for (int probe = 0; probe < MAX_TEMPLATE_PROBES; probe++) {
+            int existing = templateIds.get(index);
+            if (existing == 0 && templateIds.compareAndSet(index, 0, -templateId)) {
+                return TEMPLATE_CLAIMED;
+            } else if (existing == 0) {
+                existing = templateIds.get(index);
+            }
+            if (existing == templateId) {
+                return TEMPLATE_PRESENT;
+            } else if (existing == -templateId) {
+                return TEMPLATE_UNTRACKED;
+            }
+            index = (index + 1) & mask;
+        }
+        return TEMPLATE_UNTRACKED;
+    }
+
+    /**
+     * Marks a template claimed by this caller as defined, once its definition has been written into this segment.
+     */
+    void templateDefined(int templateId) {
+        resolveClaim(templateId, templateId);
+    }
+
+    /**
+     * Gives up a template claimed by this caller without defining it, such as when the reservation for its definition
+     * failed, so that the next writer to use it in this segment claims it again. A template that later probes into the
+     * freed slot may end up defined twice, which readers tolerate.
+     */
+    void releaseTemplate(int templateId) {
+        resolveClaim(templateId, 0);
+    }
+
+    private void resolveClaim(int templateId, int value) {
+        int mask = TEMPLATE_SLOTS - 1;
+        int index = templateSlot(templateId);
+        for (int probe = 0; probe < MAX_TEMPLATE_PROBES; probe++) {
+            if (templateIds.compareAndSet(index, -templateId, value)) {
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        throw new IllegalStateException("Template " + templateId + " was not claimed in segment " + sequence);
+    }
+
+    private static int templateSlot(int templateId) {
+        return (templateId * 0x9E3779B9) >>> 20 & (TEMPLATE_SLOTS - 1);
+    }
+
+    /**
+     * Flushes the mapped contents to disk and releases the file handle. The mapping itself stays valid until it is
+     * garbage collected, so writers that reserved space before the segment was retired can still finish.
+     */
+    void close() {
+        try {
+            buffer.force();
+        } finally {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // nothing left to flush, and the mapping does not depend on the handle
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent, log-linear latency histogram in the style of HdrHistogram. Values are recorded in nanoseconds into buckets
+ * whose width doubles with each power of two, with a fixed number of linear sub-buckets per power of two,
+ * so every recorded value is tracked to within a bounded relative error (roughly 3% by default). </br>
+ * Recording is wait-free: each thread is mapped onto one of a fixed number of stripes and only ever performs atomic
+ * increments within that stripe, so busy threads do not contend on a shared lock or on a single set of counters. Stripes
+ * are merged whenever a snapshot is taken. </br>
+ * Interval snapshots are computed as the difference from the previous interval snapshot rather than by clearing the
+ * live buckets, so recording threads never race with a reset and no values are lost between intervals.
+ *
+ * @author dgarson
+ */
+public class LatencyHistogram {
+
+    /**
+     * Default number of bits of precision retained for each value, which bounds the error to roughly 3%.
+     */
+    public static final int DEFAULT_PRECISION_BITS = 6;
+
+    private static final int MIN_PRECISION_BITS = 2;
+    private static final int MAX_PRECISION_BITS = 10;
+
+    /**
+     * Largest value that can be recorded (a little over 73 minutes); anything larger is recorded as this value.
+     */
+    public static final long MAX_TRACKABLE_NANOS = (1L << 42) - 1;
+
+    private static final int MAX_STRIPES = 64;
+
+    private final int precisionBits;
+    private final int bucketCount;
+
+    // lazily allocated so that rarely used histograms, such as for errors, only use memory for threads that record
+    private final AtomicReferenceArray<AtomicLongArray> stripes;
+    private final int stripeMask;
+
+    // cumulative snapshot at the start of the current interval
+    private HistogramSnapshot intervalStart;
+
+    /**
+     * Creates a histogram with one stripe per available processor and the default precision.
+     */
+    public LatencyHistogram() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a histogram with at least <strong>concurrency</strong> stripes, rounded up to a power of two, and the
+     * default precision.
+     */
+    public LatencyHistogram(int concurrency) {
+        this(concurrency, DEFAULT_PRECISION_BITS);
+    }
+
+    /**
+     * Creates a histogram with at least <strong>concurrency</strong> stripes, rounded up to a power of two.
+     * @param precisionBits the number of bits of precision retained for each value, between 2 and 10; each additional
+     *              bit halves the error and doubles the memory used by each stripe
+     */
+    public LatencyHistogram(int concurrency, int precisionBits) {
+        Preconditions.checkArgument(precisionBits >= MIN_PRECISION_BITS && precisionBits <= MAX_PRECISION_BITS,
+            "precisionBits must be between %s and %s", MIN_PRECISION_BITS, MAX_PRECISION_BITS);
+        int numStripes = 1;
+        while (numStripes < concurrency && numStripes < MAX_STRIPES) {
+            numStripes <<= 1;
+        }
+        this.precisionBits = precisionBits;
+        this.bucketCount = bucketCount(precisionBits);
+        stripes = new AtomicReferenceArray<>(numStripes);
+        stripeMask = numStripes - 1;
+        intervalStart = new HistogramSnapshot(new long[bucketCount], 0L, precisionBits);
+    }
+
+    /**
+     * Records a single value, in nanoseconds. Negative values are recorded as zero and values larger than
+     * {@link #MAX_TRACKABLE_NANOS} are recorded as that maximum.
+     */
+    public void record(long nanos) {
+        long value = (nanos < 0 ? 0 : Math.min(nanos, MAX_TRACKABLE_NANOS));
+        AtomicLongArray stripe = stripeForCurrentThread();
+        stripe.incrementAndGet(bucketIndex(value, precisionBits));
+        // the slot after the last bucket holds the sum of all values recorded in the stripe
+        stripe.addAndGet(bucketCount, value);
+    }
+
+    /**
+     * Returns a snapshot of all values recorded since this histogram was created.
+     */
+    public HistogramSnapshot snapshot() {
+        long[] counts = new long[bucketCount];
+        long totalNanos = 0;
+        for (int i = 0; i < stripes.length(); i++) {
+            AtomicLongArray stripe = stripes.get(i);
+            if (stripe == null) {
+                continue;
+            }
+            for (int b = 0; b < bucketCount; b++) {
+                counts[b] += stripe.get(b);
+            }
+            totalNanos += stripe.get(bucketCount);
+        }
+        return new HistogramSnapshot(counts, totalNanos, precisionBits);
+    }
+
+    /**
+     * Returns a snapshot of the values recorded since the previous interval snapshot (or reset) and starts a new
+     * interval.
+     */
+    public synchronized HistogramSnapshot intervalSnapshot() {
+        HistogramSnapshot current = snapshot();
+        HistogramSnapshot interval = current.minus(intervalStart);
+        intervalStart = current;
+        return interval;
+    }
+
+    /**
+     * Starts a new interval without returning the values recorded during the current one.
+     */
+    public synchronized void resetInterval() {
+        intervalStart = snapshot();
+    }
+
+    private AtomicLongArray stripeForCurrentThread() {
+        int index = (int)Thread.currentThread().getId() & stripeMask;
+        AtomicLongArray stripe = stripes.get(index);
+        if (stripe == null) {
+            AtomicLongArray newStripe = new AtomicLongArray(bucketCount + 1);
+            stripe = (stripes.compareAndSet(index, null, newStripe) ? newStripe : stripes.get(index));
+        }
+        return stripe;
+    }
+
+    static int bucketCount(int precisionBits) {
+        return bucketIndex(MAX_TRACKABLE_NANOS, precisionBits) + 1;
+    }
+
+    /**
+     * Returns the bucket index for a non-negative value. Values below <code>2^precisionBits</code> each have their own
+     * bucket; above that, each power of two is split into <code>2^(precisionBits - 1)</code> equally sized buckets.
+     */
+    static int bucketIndex(long value, int precisionBits) {
+        if (value < (1L << precisionBits)) {
+            return (int)value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (precisionBits - 1);
+        return (shift << (precisionBits - 1)) + (int)(value >>> shift);
+    }
+
+    /**
+     * Returns the smallest value that is recorded into the bucket at <strong>index</strong>.
+     */
+    static long bucketLowerBound(int index, int precisionBits) {
+        if (index < (1 << precisionBits)) {
+            return index;
+        }
+        int shift = (index >> (precisionBits - 1)) - 1;
+        return (long)(index - (shift << (precisionBits - 1))) << shift;
+    }
+
+    /**
+     * Returns the largest value that is recorded into the bucket at <strong>index</strong>.
+     */
+    static long bucketUpperBound(int index, int precisionBits) {
+        if (index < (1 << precisionBits)) {
+            return index;
+        }
+        int shift = (index >> (precisionBits - 1)) - 1;
+        return bucketLowerBound(index, precisionBits) + (1L << shift) - 1;
+    }
+}
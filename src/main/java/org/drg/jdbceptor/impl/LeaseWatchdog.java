@@ -0,0 +1,362 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.base.Preconditions;
+import org.drg.jdbceptor.Jdbceptor;
+import org.drg.jdbceptor.api.InstrumentedConnection;
+import org.drg.jdbceptor.api.SourceInfo;
+import org.drg.jdbceptor.event.OverdueLeaseEvent;
+import org.drg.jdbceptor.event.OverdueLeaseListener;
+import org.drg.jdbceptor.hibernate.InstrumentedTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Watchdog that reports connections held, and transactions left open, for longer than a budget. Leases are tracked in
+ * a hashed timer wheel: each connection and transaction owns a single reusable {@link Lease} that is linked into one
+ * of the wheel's buckets when armed and unlinked when disarmed, so arming and disarming are constant time and do not
+ * allocate, and a single thread per data source advances the wheel one tick at a time. </br>
+ * The wheel is split into several lanes that each have their own buckets and lock, and every lease is assigned to a
+ * lane when it is created, so that threads arming and disarming leases at the same time rarely contend with each other
+ * or with the watchdog thread. </br>
+ * Deadlines are only checked once per tick, so a lease is reported between its budget and its budget plus one tick
+ * after it was armed. Each lease is reported at most once; a lease that is still held after being reported is not
+ * reported again until it has been disarmed and re-armed.
+ *
+ * @author dgarson
+ * @see DataSourceManager#enableLeaseWatchdog(long, long, TimeUnit, boolean, OverdueLeaseListener)
+ */
+public class LeaseWatchdog implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(LeaseWatchdog.class);
+
+    /**
+     * Default tick duration, in milliseconds, which is also the precision with which overdue leases are reported.
+     */
+    public static final long DEFAULT_TICK_MILLIS = 100L;
+
+    /**
+     * Default number of buckets in the wheel, which covers about 51 seconds per revolution at the default tick.
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    // must be a power of two
+    private static final int LANES = 8;
+
+    private final DataSourceManager dataSourceManager;
+    private final long connectionBudgetNanos;
+    private final long transactionBudgetNanos;
+    private final CallSiteCapture sourceCapture;
+    private final OverdueLeaseListener listener;
+    private final long tickNanos;
+    private final Lane[] lanes = new Lane[LANES];
+    private final int wheelSize;
+    private final int mask;
+    private final long startNanos;
+    private final Thread ticker;
+
+    private final AtomicInteger nextLane = new AtomicInteger();
+
+    private volatile boolean running = true;
+
+    private final AtomicLong overdueConnectionCount = new AtomicLong();
+    private final AtomicLong overdueTransactionCount = new AtomicLong();
+
+    /**
+     * @param dataSourceManager the data source whose connections and transactions are watched
+     * @param connectionBudgetNanos the longest a connection may be held, or zero to not watch connections
+     * @param transactionBudgetNanos the longest a transaction may be open, or zero to not watch transactions
+     * @param captureSources whether to capture the call site that acquired each connection or began each transaction,
+     *                       which costs a stack walk per lease
+     * @param listener the listener that is notified of overdue leases
+     * @param tickNanos the interval at which the wheel is advanced
+     * @param wheelSize the number of buckets in the wheel, which must be a power of two
+     */
+    public LeaseWatchdog(DataSourceManager dataSourceManager, long connectionBudgetNanos, long transactionBudgetNanos,
+                         boolean captureSources, OverdueLeaseListener listener, long tickNanos, int wheelSize) {
+        Preconditions.checkNotNull(dataSourceManager, "dataSourceManager");
+        Preconditions.checkNotNull(listener, "listener");
+        Preconditions.checkArgument(connectionBudgetNanos >= 0L, "connectionBudgetNanos must not be negative");
+        Preconditions.checkArgument(transactionBudgetNanos >= 0L, "transactionBudgetNanos must not be negative");
+        Preconditions.checkArgument(tickNanos > 0L, "tickNanos must be positive");
+        Preconditions.checkArgument(wheelSize > 0 && Integer.bitCount(wheelSize) == 1,
+            "wheelSize must be a positive power of two");
+        this.dataSourceManager = dataSourceManager;
+        this.connectionBudgetNanos = connectionBudgetNanos;
+        this.transactionBudgetNanos = transactionBudgetNanos;
+        // leases are rare compared to statements, so every one of them is captured rather than rate limited
+        this.sourceCapture = (captureSources ? new CallSiteCapture(0L, 1) : null);
+        this.listener = listener;
+        this.tickNanos = tickNanos;
+        for (int i = 0; i < LANES; i++) {
+            lanes[i] = new Lane(wheelSize);
+        }
+        this.wheelSize = wheelSize;
+        this.mask = wheelSize - 1;
+        this.startNanos = Jdbceptor.timestampNanos();
+        this.ticker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, "jdbceptor-watchdog-" + dataSourceManager.getId());
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    public long getConnectionBudgetNanos() {
+        return connectionBudgetNanos;
+    }
+
+    public long getTransactionBudgetNanos() {
+        return transactionBudgetNanos;
+    }
+
+    /**
+     * Returns the cache of call sites that acquired connections or began transactions, or <code>null</code> if
+     * sources are not being captured.
+     */
+    public CallSiteInterner getSources() {
+        return (sourceCapture == null ? null : sourceCapture.getInterner());
+    }
+
+    /**
+     * Returns the number of connection leases that have been reported as overdue.
+     */
+    public long getOverdueConnectionCount() {
+        return overdueConnectionCount.get();
+    }
+
+    /**
+     * Returns the number of transactions that have been reported as overdue.
+     */
+    public long getOverdueTransactionCount() {
+        return overdueTransactionCount.get();
+    }
+
+    /**
+     * Creates the reusable lease for a connection, which should be retained by the connection for as long as this
+     * watchdog is enabled.
+     */
+    public Lease newLease(InstrumentedConnection connection) {
+        return new Lease(this, nextLane(), connection, null);
+    }
+
+    /**
+     * Creates the reusable lease for a transaction, which should be retained by the transaction for as long as this
+     * watchdog is enabled.
+     */
+    public Lease newLease(InstrumentedTransaction transaction) {
+        return new Lease(this, nextLane(), null, transaction);
+    }
+
+    private Lane nextLane() {
+        return lanes[nextLane.getAndIncrement() & (LANES - 1)];
+    }
+
+    /**
+     * Starts the clock on <strong>lease</strong>, which must have been created by this watchdog. If the lease is
+     * already armed then it is re-armed from now. This does nothing if this kind of lease is not being watched.
+     */
+    public void arm(Lease lease) {
+        Preconditions.checkArgument(lease.watchdog == this, "lease belongs to a different watchdog");
+        long budgetNanos = (lease.transaction != null ? transactionBudgetNanos : connectionBudgetNanos);
+        if (budgetNanos == 0L || !running) {
+            return;
+        }
+        // capture outside of the lock, since walking the stack is by far the most expensive part of arming
+        SourceInfo source = (sourceCapture != null ? sourceCapture.capture() : SourceInfo.DISABLED);
+        long now = Jdbceptor.timestampNanos();
+        Lane lane = lease.lane;
+        synchronized (lane) {
+            if (lease.bucket >= 0) {
+                lane.unlink(lease);
+            }
+            lease.source = source;
+            lease.armedNanos = now;
+            lease.budgetNanos = budgetNanos;
+            // round up, so that a lease is never reported before its budget has elapsed
+            long deadlineTick = Math.max((now + budgetNanos - startNanos + tickNanos - 1) / tickNanos, lane.nextTick);
+            lease.remainingRounds = (deadlineTick - lane.nextTick) / wheelSize;
+            lane.link(lease, (int)(deadlineTick & mask));
+        }
+    }
+
+    /**
+     * Stops the clock on <strong>lease</strong>. This does nothing if the lease is not armed.
+     */
+    public void disarm(Lease lease) {
+        Lane lane = lease.lane;
+        synchronized (lane) {
+            if (lease.bucket >= 0) {
+                lane.unlink(lease);
+            }
+            lease.source = null;
+        }
+    }
+
+    /**
+     * Stops the watchdog thread. Leases that are still armed are never reported.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(ticker);
+        try {
+            ticker.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Watchdog thread loop, which advances the wheel through every tick that has elapsed and then parks until the next
+     * one is due.
+     */
+    private void tick() {
+        List<OverdueLeaseEvent> overdue = new ArrayList<>();
+        while (running) {
+            long now = Jdbceptor.timestampNanos();
+            long currentTick = (now - startNanos) / tickNanos;
+            for (Lane lane : lanes) {
+                synchronized (lane) {
+                    while (lane.nextTick <= currentTick) {
+                        expire(lane, (int)(lane.nextTick & mask), now, overdue);
+                        lane.nextTick++;
+                    }
+                }
+            }
+            // listeners are invoked outside of the lock so that they cannot stall connections being opened or closed
+            for (OverdueLeaseEvent event : overdue) {
+                fire(event);
+            }
+            overdue.clear();
+            long untilNextTick = startNanos + (currentTick + 1) * tickNanos - Jdbceptor.timestampNanos();
+            if (untilNextTick > 0L) {
+                LockSupport.parkNanos(this, untilNextTick);
+            }
+        }
+    }
+
+    private void expire(Lane lane, int bucket, long now, List<OverdueLeaseEvent> overdue) {
+        Lease lease = lane.buckets[bucket];
+        while (lease != null) {
+            Lease next = lease.next;
+            if (lease.remainingRounds > 0L) {
+                lease.remainingRounds--;
+            } else {
+                lane.unlink(lease);
+                overdue.add(lease.toEvent(now, dataSourceManager.isPoolingConnections()));
+                lease.source = null;
+            }
+            lease = next;
+        }
+    }
+
+    private void fire(OverdueLeaseEvent event) {
+        if (event.isTransaction()) {
+            overdueTransactionCount.incrementAndGet();
+        } else {
+            overdueConnectionCount.incrementAndGet();
+        }
+        try {
+            listener.leaseOverdue(event);
+        } catch (RuntimeException e) {
+            log.error("Overdue lease listener for data source '{}' threw an exception", dataSourceManager.getId(), e);
+        }
+    }
+
+    /**
+     * One lane of the timer wheel, which is also the lock that guards its buckets and every lease assigned to it.
+     */
+    private static final class Lane {
+
+        private final Lease[] buckets;
+
+        // the next tick to be processed, which all leases in this lane are scheduled relative to
+        private long nextTick;
+
+        Lane(int wheelSize) {
+            this.buckets = new Lease[wheelSize];
+        }
+
+        void link(Lease lease, int bucket) {
+            Lease head = buckets[bucket];
+            lease.bucket = bucket;
+            lease.prev = null;
+            lease.next = head;
+            if (head != null) {
+                head.prev = lease;
+            }
+            buckets[bucket] = lease;
+        }
+
+        void unlink(Lease lease) {
+            if (lease.prev != null) {
+                lease.prev.next = lease.next;
+            } else {
+                buckets[lease.bucket] = lease.next;
+            }
+            if (lease.next != null) {
+                lease.next.prev = lease.prev;
+            }
+            lease.prev = null;
+            lease.next = null;
+            lease.bucket = -1;
+        }
+    }
+
+    /**
+     * Timer wheel entry for a single connection or transaction. A connection's lease is reused for every time it is
+     * acquired, and a transaction's for every time it begins, so the only per-lease cost of the watchdog is linking
+     * this into the wheel. All mutable state is guarded by the lane the lease was assigned to.
+     */
+    public static final class Lease {
+        private final LeaseWatchdog watchdog;
+        private final Lane lane;
+        private final InstrumentedConnection connection;
+        private final InstrumentedTransaction transaction;
+
+        private SourceInfo source;
+        private long armedNanos;
+        private long budgetNanos;
+        private long remainingRounds;
+        private int bucket = -1;
+        private Lease prev;
+        private Lease next;
+
+        private Lease(LeaseWatchdog watchdog, Lane lane, InstrumentedConnection connection,
+                      InstrumentedTransaction transaction) {
+            this.watchdog = watchdog;
+            this.lane = lane;
+            this.connection = connection;
+            this.transaction = transaction;
+        }
+
+        /**
+         * Returns the watchdog that this lease is tracked by, so that owners can detect when the watchdog for their
+         * data source has been replaced and a new lease is needed.
+         */
+        public LeaseWatchdog getWatchdog() {
+            return watchdog;
+        }
+
+        private OverdueLeaseEvent toEvent(long now, boolean pooled) {
+            long heldNanos = now - armedNanos;
+            if (transaction == null) {
+                return new OverdueLeaseEvent(connection, now, pooled, source, connection.getExecutingStatement(),
+                    heldNanos, budgetNanos);
+            }
+            InstrumentedConnection txConnection = transaction.getConnection();
+            return new OverdueLeaseEvent(transaction, txConnection, now, pooled, source,
+                (txConnection == null ? null : txConnection.getExecutingStatement()), heldNanos, budgetNanos);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Registry of listeners kept as an immutable snapshot array, which is replaced as a whole whenever a listener is added
+ * or removed. Dispatching only reads a single volatile field and iterates a plain array, without iterators or locks,
+ * and checking for the common case of no listeners is a single length comparison. </br>
+ * Registration is synchronized and copies the array, so it is meant for listeners that are registered far less often
+ * than events are dispatched. The static helpers are for owners, such as connections, that keep the snapshot in a
+ * volatile field of their own and replace it with a compare-and-set so that concurrent registrations are never lost.
+ *
+ * @author dgarson
+ */
+final class ListenerRegistry<L> {
+
+    private final L[] empty;
+    private volatile L[] listeners;
+
+    /**
+     * @param empty an empty array of the listener type, which is returned whenever there are no listeners
+     */
+    ListenerRegistry(L[] empty) {
+        Preconditions.checkArgument(empty.length == 0, "empty array must have a length of zero");
+        this.empty = empty;
+        this.listeners = empty;
+    }
+
+    /**
+     * Returns the current snapshot of listeners, which must not be modified.
+     */
+    L[] get() {
+        return listeners;
+    }
+
+    boolean contains(L listener) {
+        return indexOf(listeners, listener) >= 0;
+    }
+
+    /**
+     * Adds <strong>listener</strong> unless it is already registered.
+     * @return <code>true</code> if the listener was added
+     */
+    synchronized boolean add(L listener) {
+        L[] current = listeners;
+        L[] updated = added(current, listener);
+        listeners = updated;
+        return updated != current;
+    }
+
+    /**
+     * Removes <strong>listener</strong> if it is registered.
+     * @return <code>true</code> if the listener was removed
+     */
+    synchronized boolean remove(L listener) {
+        L[] current = listeners;
+        L[] updated = removed(current, listener, empty);
+        listeners = updated;
+        return updated != current;
+    }
+
+    synchronized void clear() {
+        listeners = empty;
+    }
+
+    /**
+     * Adds <strong>listener</strong> to the snapshot held in the field of <strong>owner</strong> accessed through
+     * <strong>updater</strong> unless it is already registered, retrying if the snapshot is replaced concurrently.
+     * @return <code>true</code> if the listener was added
+     */
+    static <T, L> boolean addTo(AtomicReferenceFieldUpdater<T, L[]> updater, T owner, L listener) {
+        while (true) {
+            L[] current = updater.get(owner);
+            L[] updated = added(current, listener);
+            if (updated == current) {
+                return false;
+            } else if (updater.compareAndSet(owner, current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of <strong>listeners</strong> with <strong>listener</strong> appended, or the same array if it
+     * already contains the listener.
+     */
+    static <L> L[] added(L[] listeners, L listener) {
+        Preconditions.checkNotNull(listener, "listener");
+        if (indexOf(listeners, listener) >= 0) {
+            return listeners;
+        }
+        L[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        return updated;
+    }
+
+    /**
+     * Returns a copy of <strong>listeners</strong> without <strong>listener</strong>, <strong>empty</strong> if no
+     * listeners remain, or the same array if it does not contain the listener.
+     */
+    static <L> L[] removed(L[] listeners, L listener, L[] empty) {
+        int index = indexOf(listeners, listener);
+        if (index < 0) {
+            return listeners;
+        } else if (listeners.length == 1) {
+            return empty;
+        }
+        L[] updated = Arrays.copyOf(listeners, listeners.length - 1);
+        System.arraycopy(listeners, index + 1, updated, index, listeners.length - index - 1);
+        return updated;
+    }
+
+    private static int indexOf(Object[] listeners, Object listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,109 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free queue that supports any number of producer threads but only a single consumer thread. </br>
+ * Every slot carries a sequence number that tells producers whether the slot is free for the lap they are on and tells
+ * the consumer whether the slot has been published yet. Producers claim a slot with a single CAS on the tail counter,
+ * and the buffer itself never takes a lock or allocates once created. Whether publishing an element allocates depends
+ * on the caller, and shutting down the consumer is left to {@link SingleConsumerQueue}, which only takes a lock for
+ * that hand-off.
+ *
+ * @author dgarson
+ */
+class MpscRingBuffer<E> {
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<E> slots;
+    private final AtomicLongArray sequences;
+
+    // next sequence to be claimed by a producer
+    private final AtomicLong tail = new AtomicLong();
+
+    // next sequence to be consumed; only ever written by the consumer thread
+    private volatile long head;
+
+    /**
+     * @param capacity the maximum number of queued elements, which must be a power of two
+     */
+    MpscRingBuffer(int capacity) {
+        Preconditions.checkArgument(capacity > 1 && Integer.bitCount(capacity) == 1,
+            "capacity must be a power of two greater than one");
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds <strong>element</strong> to the queue, returning <code>false</code> without waiting if the queue is full.
+     * This may be called from any thread.
+     */
+    boolean offer(E element) {
+        while (true) {
+            long sequence = tail.get();
+            int index = (int)sequence & mask;
+            long slotSequence = sequences.get(index);
+            if (slotSequence == sequence) {
+                if (tail.compareAndSet(sequence, sequence + 1)) {
+                    slots.lazySet(index, element);
+                    // publishing the sequence releases the element to the consumer
+                    sequences.lazySet(index, sequence + 1);
+                    return true;
+                }
+            } else if (slotSequence < sequence) {
+                // the slot still holds an element from the previous lap that has not been consumed
+                return false;
+            }
+            // otherwise another producer claimed this sequence first, so retry with the new tail
+        }
+    }
+
+    /**
+     * Removes and returns the oldest element in the queue, or <code>null</code> if there is nothing published yet. This
+     * must only ever be called from one consumer thread at a time, and a thread that takes over consuming must first
+     * synchronize with the thread it takes over from.
+     */
+    E poll() {
+        long sequence = head;
+        int index = (int)sequence & mask;
+        if (sequences.get(index) != sequence + 1) {
+            return null;
+        }
+        E element = slots.get(index);
+        slots.lazySet(index, null);
+        // free the slot for the producer that will claim it on the next lap
+        sequences.lazySet(index, sequence + capacity);
+        head = sequence + 1;
+        return element;
+    }
+
+    /**
+     * Checks whether there is nothing published and waiting to be consumed.
+     */
+    boolean isEmpty() {
+        long sequence = head;
+        return sequences.get((int)sequence & mask) != sequence + 1;
+    }
+
+    /**
+     * Returns an approximate count of the elements claimed but not yet consumed.
+     */
+    int size() {
+        long size = tail.get() - head;
+        return (int)Math.max(0L, Math.min(size, capacity));
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,266 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.base.Preconditions;
+import org.drg.jdbceptor.config.InstrumentationLevel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps the cost of instrumentation for a single data source within a budget. Instrumented statements report the time
+ * spent in Jdbceptor itself before and after each execution, which includes building events, formatting SQL and
+ * invoking listeners, along with the execution time of the statement. Once per interval the governor compares the two,
+ * and whenever instrumentation took more than the budgeted fraction of statement time it steps the data source's
+ * {@link InstrumentationLevel} down from {@link InstrumentationLevel#FULL} to {@link InstrumentationLevel#STATEMENTS}
+ * to {@link InstrumentationLevel#METRICS}. After several consecutive intervals well within the budget, it steps back up
+ * one level at a time until it reaches the ceiling it was enabled with. </br>
+ * Level changes apply to connection leases that start afterwards, so overhead comes down as connections are returned
+ * to the pool and acquired again. Statements that only collect metrics are not measured, so intervals without any
+ * measured statements are skipped rather than counted as quiet. At {@link InstrumentationLevel#METRICS} nothing is
+ * measured, so the governor instead probes by stepping up after a number of unmeasured intervals which starts at the
+ * number of quiet intervals and doubles, up to {@link #MAX_PROBE_BACKOFF} times that, every time it has to step down to
+ * metrics again, so a workload that cannot afford more instrumentation does not keep oscillating. </br>
+ * If the level is changed by anyone else while the governor is running, it leaves the new level alone unless it is one
+ * of the three levels above, in which case that level becomes the new ceiling.
+ *
+ * @author dgarson
+ * @see DataSourceManager#enableOverheadGovernor(double, InstrumentationLevel)
+ */
+public class OverheadGovernor implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(OverheadGovernor.class);
+
+    /**
+     * Default length of each measurement interval, in milliseconds.
+     */
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000L;
+
+    /**
+     * Default number of consecutive intervals within half of the budget before stepping back up a level.
+     */
+    public static final int DEFAULT_QUIET_INTERVALS = 5;
+
+    /**
+     * Largest multiple of the quiet intervals that the governor waits at {@link InstrumentationLevel#METRICS} before
+     * probing a higher level again.
+     */
+    public static final int MAX_PROBE_BACKOFF = 64;
+
+    private static final int STRIPE_MASK = 7;
+    // each stripe's counters are padded onto their own cache line so that threads do not contend through false sharing
+    private static final int STRIPE_STRIDE = 8;
+    private static final int OVERHEAD_OFFSET = 0;
+    private static final int STATEMENT_OFFSET = 1;
+
+    private final DataSourceManager dataSourceManager;
+    private final double budget;
+    private final long intervalNanos;
+    private final int quietIntervals;
+    private final Thread governor;
+
+    // (instrumentation nanos, statement nanos) per stripe, only ever added to
+    private final AtomicLongArray counters = new AtomicLongArray((STRIPE_MASK + 1) * STRIPE_STRIDE);
+
+    private volatile boolean running = true;
+    private volatile InstrumentationLevel ceiling;
+    private volatile double lastOverhead;
+    private volatile long stepDownCount;
+    private volatile long stepUpCount;
+
+    // only accessed by the governor thread
+    private InstrumentationLevel applied;
+    private long lastOverheadNanos;
+    private long lastStatementNanos;
+    private int quietCount;
+    private int probeIntervals;
+
+    OverheadGovernor(DataSourceManager dataSourceManager, double budget, InstrumentationLevel ceiling,
+                     long intervalNanos, int quietIntervals) {
+        Preconditions.checkArgument(budget > 0.0, "budget must be positive");
+        Preconditions.checkArgument(isGoverned(ceiling), "ceiling must be one of METRICS, STATEMENTS or FULL");
+        Preconditions.checkArgument(intervalNanos > 0L, "intervalNanos must be positive");
+        Preconditions.checkArgument(quietIntervals > 0, "quietIntervals must be positive");
+        this.dataSourceManager = dataSourceManager;
+        this.budget = budget;
+        this.ceiling = ceiling;
+        this.intervalNanos = intervalNanos;
+        this.quietIntervals = quietIntervals;
+        this.probeIntervals = quietIntervals;
+        this.applied = ceiling;
+        dataSourceManager.setInstrumentationLevel(ceiling);
+        this.governor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                govern();
+            }
+        }, "jdbceptor-governor-" + dataSourceManager.getId());
+        governor.setDaemon(true);
+        governor.start();
+    }
+
+    /**
+     * Returns the largest fraction of statement time that instrumentation may take, such as 0.05 for 5%.
+     */
+    public double getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the highest level that the governor steps back up to.
+     */
+    public InstrumentationLevel getCeiling() {
+        return ceiling;
+    }
+
+    /**
+     * Returns the fraction of statement time taken by instrumentation in the last interval that executed any
+     * instrumented statements.
+     */
+    public double getLastOverhead() {
+        return lastOverhead;
+    }
+
+    /**
+     * Returns the number of times the level was stepped down because the budget was exceeded.
+     */
+    public long getStepDownCount() {
+        return stepDownCount;
+    }
+
+    /**
+     * Returns the number of times the level was stepped back up.
+     */
+    public long getStepUpCount() {
+        return stepUpCount;
+    }
+
+    /**
+     * Records one instrumentation hook, which took <strong>overheadNanos</strong> of Jdbceptor's own time around a
+     * statement execution that took <strong>statementNanos</strong>, or zero if the hook ran before the execution.
+     * This is lock-free and safe to call from any thread.
+     */
+    public void record(long overheadNanos, long statementNanos) {
+        int index = ((int)Thread.currentThread().getId() & STRIPE_MASK) * STRIPE_STRIDE;
+        counters.getAndAdd(index + OVERHEAD_OFFSET, overheadNanos);
+        if (statementNanos > 0L) {
+            counters.getAndAdd(index + STATEMENT_OFFSET, statementNanos);
+        }
+    }
+
+    /**
+     * Stops the governor thread, leaving the data source at whatever level it is currently at.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(governor);
+        try {
+            governor.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void govern() {
+        long deadline = System.nanoTime() + intervalNanos;
+        while (running) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining > 0L) {
+                LockSupport.parkNanos(this, remaining);
+                continue;
+            }
+            deadline += intervalNanos;
+            try {
+                evaluate();
+            } catch (RuntimeException re) {
+                log.error("Unable to evaluate instrumentation overhead for data source '{}'",
+                    dataSourceManager.getId(), re);
+            }
+        }
+    }
+
+    private void evaluate() {
+        long overheadNanos = 0L;
+        long statementNanos = 0L;
+        for (int i = 0; i < counters.length(); i += STRIPE_STRIDE) {
+            overheadNanos += counters.get(i + OVERHEAD_OFFSET);
+            statementNanos += counters.get(i + STATEMENT_OFFSET);
+        }
+        long intervalOverhead = overheadNanos - lastOverheadNanos;
+        long intervalStatements = statementNanos - lastStatementNanos;
+        lastOverheadNanos = overheadNanos;
+        lastStatementNanos = statementNanos;
+
+        InstrumentationLevel current = dataSourceManager.getInstrumentationLevel();
+        if (current != applied) {
+            // changed by someone else, which takes precedence over what the governor last decided
+            applied = current;
+            quietCount = 0;
+            if (isGoverned(current)) {
+                ceiling = current;
+            }
+        }
+        if (!isGoverned(current)) {
+            return;
+        }
+
+        if (intervalStatements <= 0L) {
+            // nothing was measured, which says nothing about the overhead, so only probe upwards from metrics where
+            // nothing ever is
+            if (current == InstrumentationLevel.METRICS && current != ceiling && ++quietCount >= probeIntervals) {
+                quietCount = 0;
+                probeIntervals = Math.min(probeIntervals * 2, quietIntervals * MAX_PROBE_BACKOFF);
+                if (dataSourceManager.compareAndSetInstrumentationLevel(current, InstrumentationLevel.STATEMENTS)) {
+                    applied = InstrumentationLevel.STATEMENTS;
+                    stepUpCount++;
+                    log.info("Probing instrumentation level {} for data source '{}', next probe after {} intervals",
+                        applied, dataSourceManager.getId(), probeIntervals);
+                }
+            }
+            return;
+        }
+        double overhead = (double)intervalOverhead / intervalStatements;
+        lastOverhead = overhead;
+        if (overhead > budget && current != InstrumentationLevel.METRICS) {
+            quietCount = 0;
+            changeLevel(current, current == InstrumentationLevel.FULL ? InstrumentationLevel.STATEMENTS :
+                InstrumentationLevel.METRICS, overhead);
+        } else if (overhead <= budget / 2 && current != ceiling && ++quietCount >= quietIntervals) {
+            quietCount = 0;
+            if (current == InstrumentationLevel.STATEMENTS) {
+                // statements proved affordable, so probe again promptly if the level ever drops to metrics
+                probeIntervals = quietIntervals;
+            }
+            changeLevel(current, current == InstrumentationLevel.METRICS ? InstrumentationLevel.STATEMENTS :
+                InstrumentationLevel.FULL, overhead);
+        } else if (overhead > budget / 2) {
+            quietCount = 0;
+        }
+    }
+
+    private void changeLevel(InstrumentationLevel current, InstrumentationLevel level, double overhead) {
+        if (dataSourceManager.compareAndSetInstrumentationLevel(current, level)) {
+            applied = level;
+            // only count changes that took effect, since someone else may have changed the level in the meantime
+            if (level.compareTo(current) < 0) {
+                stepDownCount++;
+            } else {
+                stepUpCount++;
+            }
+            log.info("Instrumentation overhead for data source '{}' was {}% against a budget of {}%, changed level " +
+                "from {} to {}", dataSourceManager.getId(), percent(overhead), percent(budget), current, level);
+        }
+    }
+
+    private static String percent(double fraction) {
+        return String.format("%.2f", fraction * 100.0);
+    }
+
+    private static boolean isGoverned(InstrumentationLevel level) {
+        return (level == InstrumentationLevel.METRICS || level == InstrumentationLevel.STATEMENTS ||
+            level == InstrumentationLevel.FULL);
+    }
+}
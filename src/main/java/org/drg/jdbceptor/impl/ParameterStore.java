@@ -0,0 +1,253 @@
+package org.drg.jdbceptor.impl;
+
+import java.util.Arrays;
+
+/**
+ * Primitive-specialized storage for the parameters bound to a prepared or callable statement. Numeric and boolean
+ * values are kept in parallel <code>long[]</code> and <code>double[]</code> slots alongside a type tag for each index,
+ * so binding them does not box. Values are only boxed when they are read back through {@link #getValue(int)}, which
+ * happens lazily when the statement SQL is formatted. </br>
+ * The backing arrays grow geometrically and are retained across {@link #clear()} so that a statement which is re-bound
+ * and re-executed in a loop does not allocate once it has reached its steady-state size. </br>
+ * Instances are not thread-safe and are confined to the statement that owns them; use {@link #copy()} to hand the
+ * current values to another thread.
+ *
+ * @author dgarson
+ */
+public class ParameterStore {
+
+    public static final byte TYPE_UNSET = 0;
+    public static final byte TYPE_NULL = 1;
+    public static final byte TYPE_BOOLEAN = 2;
+    public static final byte TYPE_BYTE = 3;
+    public static final byte TYPE_SHORT = 4;
+    public static final byte TYPE_INT = 5;
+    public static final byte TYPE_LONG = 6;
+    public static final byte TYPE_FLOAT = 7;
+    public static final byte TYPE_DOUBLE = 8;
+    public static final byte TYPE_OBJECT = 9;
+    // placeholder for a byte array, where only its length is retained
+    public static final byte TYPE_BYTES = 10;
+
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private byte[] types;
+    private long[] longValues;
+    private double[] doubleValues;
+    private Object[] objectValues;
+
+    // one greater than the highest zero-based index that has been set
+    private int size;
+
+    public ParameterStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new store that can hold <strong>initialCapacity</strong> parameters before having to grow.
+     */
+    public ParameterStore(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        types = new byte[capacity];
+        longValues = new long[capacity];
+        doubleValues = new double[capacity];
+        objectValues = new Object[capacity];
+    }
+
+    /**
+     * Returns the number of parameter slots in use, which is the highest one-based parameter index that was set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether no parameters have been bound since construction or the last {@link #clear()}.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void setNull(int parameterIndex) {
+        int ix = slot(parameterIndex);
+        types[ix] = TYPE_NULL;
+        objectValues[ix] = null;
+    }
+
+    public void setBoolean(int parameterIndex, boolean value) {
+        putLong(parameterIndex, TYPE_BOOLEAN, value ? 1L : 0L);
+    }
+
+    public void setByte(int parameterIndex, byte value) {
+        putLong(parameterIndex, TYPE_BYTE, value);
+    }
+
+    public void setShort(int parameterIndex, short value) {
+        putLong(parameterIndex, TYPE_SHORT, value);
+    }
+
+    public void setInt(int parameterIndex, int value) {
+        putLong(parameterIndex, TYPE_INT, value);
+    }
+
+    public void setLong(int parameterIndex, long value) {
+        putLong(parameterIndex, TYPE_LONG, value);
+    }
+
+    public void setFloat(int parameterIndex, float value) {
+        putDouble(parameterIndex, TYPE_FLOAT, value);
+    }
+
+    public void setDouble(int parameterIndex, double value) {
+        putDouble(parameterIndex, TYPE_DOUBLE, value);
+    }
+
+    /**
+     * Records that a byte array of a given <strong>length</strong> was bound, without retaining the array itself.
+     */
+    public void setBytesLength(int parameterIndex, int length) {
+        putLong(parameterIndex, TYPE_BYTES, length);
+    }
+
+    public void setObject(int parameterIndex, Object value) {
+        if (value == null) {
+            setNull(parameterIndex);
+            return;
+        }
+        int ix = slot(parameterIndex);
+        types[ix] = TYPE_OBJECT;
+        objectValues[ix] = value;
+    }
+
+    private void putLong(int parameterIndex, byte type, long value) {
+        int ix = slot(parameterIndex);
+        types[ix] = type;
+        longValues[ix] = value;
+        objectValues[ix] = null;
+    }
+
+    private void putDouble(int parameterIndex, byte type, double value) {
+        int ix = slot(parameterIndex);
+        types[ix] = type;
+        doubleValues[ix] = value;
+        objectValues[ix] = null;
+    }
+
+    /**
+     * Returns the type tag for a zero-based parameter <strong>index</strong>, or {@link #TYPE_UNSET} if it is out of
+     * range or was never bound.
+     */
+    public byte getType(int index) {
+        return (index < size ? types[index] : TYPE_UNSET);
+    }
+
+    /**
+     * Returns the raw <code>long</code> slot for a zero-based <strong>index</strong>. This is only meaningful for the
+     * boolean, integral and byte-array types.
+     */
+    public long getLong(int index) {
+        return longValues[index];
+    }
+
+    /**
+     * Returns the raw <code>double</code> slot for a zero-based <strong>index</strong>. This is only meaningful for the
+     * floating point types.
+     */
+    public double getDouble(int index) {
+        return doubleValues[index];
+    }
+
+    /**
+     * Returns the value for a zero-based parameter <strong>index</strong> as an object, boxing primitives as necessary.
+     * Both unset and null parameters are returned as <code>null</code>; use {@link #getType(int)} to tell them apart.
+     */
+    public Object getValue(int index) {
+        switch (getType(index)) {
+            case TYPE_BOOLEAN:
+                return longValues[index] != 0L;
+            case TYPE_BYTE:
+                return (byte)longValues[index];
+            case TYPE_SHORT:
+                return (short)longValues[index];
+            case TYPE_INT:
+                return (int)longValues[index];
+            case TYPE_LONG:
+                return longValues[index];
+            case TYPE_FLOAT:
+                return (float)doubleValues[index];
+            case TYPE_DOUBLE:
+                return doubleValues[index];
+            case TYPE_BYTES:
+                return "byte[" + longValues[index] + "]";
+            case TYPE_OBJECT:
+                return objectValues[index];
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Clears all bound parameters while retaining the backing arrays for re-use.
+     */
+    public void clear() {
+        Arrays.fill(types, 0, size, TYPE_UNSET);
+        // release object references so they can be collected while the statement is idle
+        Arrays.fill(objectValues, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Returns an independent copy of this store, sized exactly to the parameters currently bound.
+     */
+    public ParameterStore copy() {
+        ParameterStore copy = new ParameterStore(size);
+        System.arraycopy(types, 0, copy.types, 0, size);
+        System.arraycopy(longValues, 0, copy.longValues, 0, size);
+        System.arraycopy(doubleValues, 0, copy.doubleValues, 0, size);
+        System.arraycopy(objectValues, 0, copy.objectValues, 0, size);
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Replaces the contents of this store with the parameters bound in <strong>other</strong>, reusing the backing
+     * arrays whenever they are already large enough.
+     */
+    void copyFrom(ParameterStore other) {
+        clear();
+        if (other.size > types.length) {
+            grow(other.size);
+        }
+        System.arraycopy(other.types, 0, types, 0, other.size);
+        System.arraycopy(other.longValues, 0, longValues, 0, other.size);
+        System.arraycopy(other.doubleValues, 0, doubleValues, 0, other.size);
+        System.arraycopy(other.objectValues, 0, objectValues, 0, other.size);
+        size = other.size;
+    }
+
+    /**
+     * Converts a one-based JDBC <strong>parameterIndex</strong> into a zero-based slot, growing the backing arrays
+     * if necessary.
+     */
+    private int slot(int parameterIndex) {
+        int ix = parameterIndex - 1;
+        if (ix < 0) {
+            throw new IndexOutOfBoundsException("Invalid parameter index: " + parameterIndex);
+        }
+        if (ix >= types.length) {
+            grow(ix + 1);
+        }
+        if (ix >= size) {
+            size = ix + 1;
+        }
+        return ix;
+    }
+
+    private void grow(int minCapacity) {
+        int newCapacity = Math.max(types.length * 2, minCapacity);
+        types = Arrays.copyOf(types, newCapacity);
+        longValues = Arrays.copyOf(longValues, newCapacity);
+        doubleValues = Arrays.copyOf(doubleValues, newCapacity);
+        objectValues = Arrays.copyOf(objectValues, newCapacity);
+    }
+}
@@ -0,0 +1,119 @@
+package org.drg.jdbceptor.impl;
+
+import org.drg.jdbceptor.api.InstrumentedConnection;
+import org.drg.jdbceptor.api.InstrumentedStatement;
+import org.drg.jdbceptor.api.SourceInfo;
+import org.drg.jdbceptor.api.StatementMethod;
+import org.drg.jdbceptor.event.StatementExecutedEvent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mutable executed event that is owned by a single connection and re-populated for each statement execution, rather
+ * than allocating a new event every time. The event's state is held here rather than in the immutable superclass and
+ * returned by overriding each of its getters. Since connections are confined to a single thread, no synchronization is
+ * required.
+ *
+ * @author dgarson
+ */
+class RecycledStatementExecutedEvent extends StatementExecutedEvent {
+
+    private long timestampNanos;
+    private long executionTimeNanos;
+    private InstrumentedStatement<?> statement;
+    private Exception exception;
+    private StatementMethod method;
+    private long updateCount;
+    private SourceInfo callSite;
+
+    // set while listeners are being invoked, so that re-entrant executions fall back to allocating a new event
+    private boolean inUse;
+
+    RecycledStatementExecutedEvent(InstrumentedConnection connection) {
+        super(connection);
+    }
+
+    boolean isInUse() {
+        return inUse;
+    }
+
+    RecycledStatementExecutedEvent populate(long timestampNanos, long executionTimeNanos,
+                                            InstrumentedStatement<?> statement, Exception exception,
+                                            StatementMethod method, long updateCount, SourceInfo callSite) {
+        this.timestampNanos = timestampNanos;
+        this.executionTimeNanos = executionTimeNanos;
+        this.statement = statement;
+        this.exception = exception;
+        this.method = method;
+        this.updateCount = updateCount;
+        this.callSite = callSite;
+        inUse = true;
+        return this;
+    }
+
+    /**
+     * Clears the statement, exception and call site references so they are not retained by the connection, and makes
+     * this event available for re-use.
+     */
+    void release() {
+        statement = null;
+        exception = null;
+        callSite = null;
+        inUse = false;
+    }
+
+    @Override
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    @Override
+    public long getTimestampMillis() {
+        return TimeUnit.MILLISECONDS.convert(timestampNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public Object getEventSource() {
+        return statement;
+    }
+
+    @Override
+    public InstrumentedStatement<?> getStatement() {
+        return statement;
+    }
+
+    @Override
+    public String getMethodName() {
+        return method.getMethodName();
+    }
+
+    @Override
+    public StatementMethod getStatementMethod() {
+        return method;
+    }
+
+    @Override
+    public Exception getException() {
+        return exception;
+    }
+
+    @Override
+    public long getElapsedNanos() {
+        return executionTimeNanos;
+    }
+
+    @Override
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    @Override
+    public SourceInfo getCallSite() {
+        return callSite;
+    }
+
+    @Override
+    public boolean isRecycled() {
+        return true;
+    }
+}
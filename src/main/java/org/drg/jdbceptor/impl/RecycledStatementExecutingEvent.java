@@ -0,0 +1,80 @@
+package org.drg.jdbceptor.impl;
+
+import org.drg.jdbceptor.api.InstrumentedConnection;
+import org.drg.jdbceptor.api.InstrumentedStatement;
+import org.drg.jdbceptor.event.StatementExecutingEvent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mutable executing event that is owned by a single connection and re-populated for each statement execution, rather
+ * than allocating a new event every time. The event's state is held here rather than in the immutable superclass and
+ * returned by overriding each of its getters. Since connections are confined to a single thread, no synchronization is
+ * required.
+ *
+ * @author dgarson
+ */
+class RecycledStatementExecutingEvent extends StatementExecutingEvent {
+
+    private long timestampNanos;
+    private InstrumentedStatement<?> statement;
+    private String methodName;
+
+    // set while listeners are being invoked, so that re-entrant executions fall back to allocating a new event
+    private boolean inUse;
+
+    RecycledStatementExecutingEvent(InstrumentedConnection connection) {
+        super(connection);
+    }
+
+    boolean isInUse() {
+        return inUse;
+    }
+
+    RecycledStatementExecutingEvent populate(long timestampNanos, InstrumentedStatement<?> statement,
+                                             String methodName) {
+        this.timestampNanos = timestampNanos;
+        this.statement = statement;
+        this.methodName = methodName;
+        inUse = true;
+        return this;
+    }
+
+    /**
+     * Clears the statement reference so it is not retained by the connection, and makes this event available for re-use.
+     */
+    void release() {
+        statement = null;
+        inUse = false;
+    }
+
+    @Override
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    @Override
+    public long getTimestampMillis() {
+        return TimeUnit.MILLISECONDS.convert(timestampNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public Object getEventSource() {
+        return statement;
+    }
+
+    @Override
+    public InstrumentedStatement<?> getStatement() {
+        return statement;
+    }
+
+    @Override
+    public String getMethodName() {
+        return methodName;
+    }
+
+    @Override
+    public boolean isRecycled() {
+        return true;
+    }
+}
@@ -0,0 +1,186 @@
+package org.drg.jdbceptor.impl;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded {@link MpscRingBuffer} drained by a dedicated consumer thread, which parks while the queue is empty and keeps
+ * draining after {@link #shutdown()} until everything queued before then has been consumed. </br>
+ * A producer may still be finishing an offer when the consumer decides to exit, so the consumer makes its final check
+ * for queued elements while holding a termination lock. A producer whose offer succeeds but which then finds the queue
+ * shut down takes the same lock: claiming a slot in the ring buffer is a full fence, so if the consumer has not exited
+ * yet it is guaranteed to see the element, and otherwise the producer takes over as the sole consumer and passes
+ * whatever is left to {@link #consumeAfterTermination(Object)}, including elements from other producers that have not
+ * finished publishing yet. Only this hand-off takes a lock; offering and consuming while running never do.
+ *
+ * @author dgarson
+ */
+abstract class SingleConsumerQueue<E> {
+
+    private final MpscRingBuffer<E> buffer;
+    // upper bound on how long the idle consumer can miss a wake-up from a producer
+    private final long idleParkNanos;
+    private Thread consumer;
+
+    private volatile boolean running = true;
+    private volatile boolean consumerWaiting;
+
+    // guards the hand-off of the queue from the consumer thread to any producer that offers after it has exited
+    private final Object terminationLock = new Object();
+    private boolean terminated;
+
+    /**
+     * @param capacity the maximum number of queued elements, which must be a power of two
+     * @param idleParkNanos how long the consumer parks at a time while the queue is empty
+     */
+    SingleConsumerQueue(int capacity, long idleParkNanos) {
+        this.buffer = new MpscRingBuffer<>(capacity);
+        this.idleParkNanos = idleParkNanos;
+    }
+
+    /**
+     * Starts the consumer thread, which must only be done once.
+     */
+    void start(String threadName) {
+        consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, threadName);
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Consumes an element on the consumer thread.
+     */
+    protected abstract void consume(E element);
+
+    /**
+     * Consumes an element that was queued after the consumer thread exited, on the thread that queued it or another
+     * producer. By default this consumes it as usual.
+     */
+    protected void consumeAfterTermination(E element) {
+        consume(element);
+    }
+
+    /**
+     * Called on the consumer thread whenever it has emptied the queue, before it parks or exits.
+     */
+    protected void drained() {
+    }
+
+    /**
+     * Called on the consumer thread once it has consumed everything queued before shutdown, just before it exits.
+     */
+    protected void terminated() {
+    }
+
+    /**
+     * Adds <strong>element</strong> to the queue, returning <code>false</code> without waiting if the queue is full.
+     * An element added while the queue is being shut down is still consumed, by
+     * {@link #consumeAfterTermination(Object)} if the consumer thread has already exited.
+     */
+    boolean offer(E element) {
+        if (!buffer.offer(element)) {
+            return false;
+        }
+        if (!running) {
+            // shut down while this element was being offered, after which the consumer may already have exited
+            drainAfterTermination();
+        } else if (consumerWaiting) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Stops the consumer thread once everything already queued has been consumed.
+     */
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(consumer);
+    }
+
+    /**
+     * Waits up to <strong>millis</strong> milliseconds, or forever if zero, for the consumer thread to exit after
+     * {@link #shutdown()}.
+     * @return <code>true</code> if the consumer thread has exited
+     */
+    boolean awaitTermination(long millis) throws InterruptedException {
+        consumer.join(millis);
+        return !consumer.isAlive();
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    boolean isConsumerThread() {
+        return Thread.currentThread() == consumer;
+    }
+
+    /**
+     * Returns the approximate number of elements queued and not yet consumed.
+     */
+    int size() {
+        return buffer.size();
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Consumer thread loop, which runs until shut down and the queue has been fully drained.
+     */
+    private void drain() {
+        while (true) {
+            E element = buffer.poll();
+            if (element != null) {
+                consume(element);
+                continue;
+            }
+            drained();
+            if (!running) {
+                // producers may still be finishing an offer that started before shutdown
+                synchronized (terminationLock) {
+                    if (buffer.size() == 0) {
+                        terminated = true;
+                        break;
+                    }
+                }
+                Thread.yield();
+            } else {
+                consumerWaiting = true;
+                if (buffer.isEmpty() && running) {
+                    // producers publish without a full fence, so bound the park rather than rely on the unpark alone
+                    LockSupport.parkNanos(this, idleParkNanos);
+                }
+                consumerWaiting = false;
+            }
+        }
+        terminated();
+    }
+
+    /**
+     * Takes over as the sole consumer if the consumer thread has already exited, consuming whatever is left in the
+     * queue while holding the termination lock.
+     */
+    private void drainAfterTermination() {
+        synchronized (terminationLock) {
+            if (!terminated) {
+                return;
+            }
+            while (buffer.size() > 0) {
+                E element = buffer.poll();
+                if (element != null) {
+                    consumeAfterTermination(element);
+                } else {
+                    // another producer has claimed a slot but not yet published into it
+                    Thread.yield();
+                }
+            }
+        }
+    }
+}
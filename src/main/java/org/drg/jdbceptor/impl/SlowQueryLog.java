@@ -0,0 +1,549 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.base.Preconditions;
+import org.drg.jdbceptor.api.CallSiteSourceInfo;
+import org.drg.jdbceptor.api.InstrumentedConnection;
+import org.drg.jdbceptor.api.SourceInfo;
+import org.drg.jdbceptor.api.SqlSnapshot;
+import org.drg.jdbceptor.api.StackTraceSourceInfo;
+import org.drg.jdbceptor.config.SlowQueryLogFormat;
+import org.drg.jdbceptor.event.StatementExecutedEvent;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes every statement executed through a single data source that takes longer than a configurable threshold to a
+ * rolling log file, along with its connection id, transaction id and fully formatted SQL, as well as its call site if
+ * {@link DataSourceManager#enableCallSiteCapture(long, TimeUnit, int) call site capture} is enabled. </br>
+ * The JDBC caller only compares the elapsed time against the threshold and, for the rare statement that exceeds it,
+ * takes a {@link SqlSnapshot} and queues it. Formatting, encoding and file I/O all happen on a dedicated writer thread,
+ * which formats each statement into re-used character buffers and encodes it into a re-used direct buffer that is
+ * written through a {@link FileChannel}, so steady-state logging allocates nothing beyond the formatted parameter
+ * values themselves. Statements that arrive while the queue is full are dropped and counted rather than making the
+ * caller wait. </br>
+ * Once the log file reaches its maximum size it is renamed with a <code>.1</code> suffix, shifting older files up by
+ * one and deleting the oldest once the configured number of files has been reached.
+ *
+ * @author dgarson
+ * @see DataSourceManager#enableSlowQueryLog(File, long, TimeUnit, SlowQueryLogFormat)
+ */
+public class SlowQueryLog implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SlowQueryLog.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final long DEFAULT_MAX_FILE_SIZE = 64L * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 5;
+
+    // slow statements are rare, so the idle writer can afford to check for them infrequently
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    // the most bytes a single character (or surrogate pair) can take up when encoded as UTF-8
+    private static final int MAX_CHAR_BYTES = 4;
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = ISODateTimeFormat.dateTime().withZoneUTC();
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final String dataSourceId;
+    private final File file;
+    private final SlowQueryLogFormat format;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final SingleConsumerQueue<SlowStatement> queue;
+
+    private volatile long thresholdNanos;
+
+    private final AtomicLong loggedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong writeErrorCount = new AtomicLong();
+
+    // buffers and file state only ever touched by the writer thread
+    private final StringBuilder line = new StringBuilder(1024);
+    private final StringBuilder sql = new StringBuilder(1024);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private FileChannel channel;
+    private long fileSize;
+
+    /**
+     * Opens (or continues appending to) the log file for a data source and starts the writer thread.
+     * @param dataSourceId the id of the data source, used to name the log file and the writer thread
+     * @param directory the directory to write log files to
+     * @param thresholdNanos statements that take at least this long are logged
+     * @param format how each statement is written
+     * @param maxFileSize the size in bytes at which the log file is rolled over
+     * @param maxFiles the number of log files to keep, including the one being written
+     * @param queueCapacity the maximum number of statements waiting to be written, which must be a power of two
+     * @throws IOException if the directory or the log file cannot be created
+     */
+    public SlowQueryLog(String dataSourceId, File directory, long thresholdNanos, SlowQueryLogFormat format,
+                        long maxFileSize, int maxFiles, int queueCapacity) throws IOException {
+        Preconditions.checkNotNull(directory, "directory");
+        Preconditions.checkNotNull(format, "format");
+        Preconditions.checkArgument(thresholdNanos >= 0L, "thresholdNanos must not be negative");
+        Preconditions.checkArgument(maxFileSize >= WRITE_BUFFER_SIZE, "maxFileSize must be at least %s bytes",
+            WRITE_BUFFER_SIZE);
+        Preconditions.checkArgument(maxFiles > 0, "maxFiles must be positive");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create slow query log directory " + directory);
+        }
+        this.dataSourceId = dataSourceId;
+        this.file = new File(directory, "slow-" + dataSourceId + ".log");
+        this.format = format;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        this.queue = new SingleConsumerQueue<SlowStatement>(queueCapacity, IDLE_PARK_NANOS) {
+            @Override
+            protected void consume(SlowStatement statement) {
+                write(statement);
+            }
+
+            @Override
+            protected void consumeAfterTermination(SlowStatement statement) {
+                // the file has already been closed
+                droppedCount.incrementAndGet();
+            }
+
+            @Override
+            protected void drained() {
+                // only hit the file system once the queue has been emptied
+                flushQuietly();
+            }
+
+            @Override
+            protected void terminated() {
+                closeFile();
+            }
+        };
+        this.thresholdNanos = thresholdNanos;
+        openFile();
+        queue.start("jdbceptor-slowlog-" + dataSourceId);
+    }
+
+    /**
+     * Returns the file currently being written. Rolled over files share its name with a numeric suffix.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public SlowQueryLogFormat getFormat() {
+        return format;
+    }
+
+    public long getThresholdNanos() {
+        return thresholdNanos;
+    }
+
+    /**
+     * Changes the threshold above which statements are logged, taking effect immediately.
+     */
+    public void setThreshold(long threshold, TimeUnit unit) {
+        Preconditions.checkArgument(threshold >= 0L, "threshold must not be negative");
+        this.thresholdNanos = unit.toNanos(threshold);
+    }
+
+    /**
+     * Returns the number of statements written to the log.
+     */
+    public long getLoggedCount() {
+        return loggedCount.get();
+    }
+
+    /**
+     * Returns the number of slow statements discarded because the queue was full, or because they were queued after the
+     * log had finished closing.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Returns the number of statements that could not be written because of an I/O error.
+     */
+    public long getWriteErrorCount() {
+        return writeErrorCount.get();
+    }
+
+    /**
+     * Queues a statement to be logged if it took at least as long as the threshold.
+     */
+    public void statementExecuted(StatementExecutedEvent event) {
+        long elapsedNanos = event.getElapsedNanos();
+        if (elapsedNanos < thresholdNanos || !queue.isRunning()) {
+            return;
+        }
+        InstrumentedConnection connection = event.getConnection();
+        SlowStatement statement = new SlowStatement(System.currentTimeMillis(), elapsedNanos, event.getMethodName(),
+            connection.getConnectionId(), StatementHelper.getTransactionIdOrNull(connection), event.getException(),
+            SqlSnapshotImpl.of(event.getStatement()), event.getCallSite());
+        if (!queue.offer(statement)) {
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Stops accepting statements, then waits for everything already queued to be written before closing the file.
+     */
+    @Override
+    public void close() {
+        queue.shutdown();
+        try {
+            queue.awaitTermination(0L);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void closeFile() {
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Unable to close slow query log {}", file, e);
+        }
+    }
+
+    private void write(SlowStatement statement) {
+        line.setLength(0);
+        sql.setLength(0);
+        appendSql(statement.sql);
+        if (format == SlowQueryLogFormat.JSON_LINES) {
+            formatJson(statement);
+        } else {
+            formatText(statement);
+        }
+        line.append('\n');
+        try {
+            if (!channel.isOpen()) {
+                // a previous roll over failed part way through
+                openFile();
+            }
+            long pendingSize = fileSize + writeBuffer.position();
+            // the line length in characters is only an estimate of its encoded size, which is close enough here
+            if (pendingSize > 0L && pendingSize + line.length() > maxFileSize) {
+                rollOver();
+            }
+            encode(line);
+            loggedCount.incrementAndGet();
+        } catch (IOException e) {
+            writeErrorCount.incrementAndGet();
+            log.warn("Unable to write to slow query log {}", file, e);
+        }
+    }
+
+    private void appendSql(SqlSnapshot snapshot) {
+        if (snapshot instanceof SqlSnapshotImpl) {
+            ((SqlSnapshotImpl)snapshot).appendTo(sql);
+        } else if (snapshot != null) {
+            sql.append(snapshot.getSqlStatement());
+        }
+    }
+
+    private void formatJson(SlowStatement statement) {
+        line.append("{\"time\":\"");
+        appendTimestamp(statement.timeMillis);
+        line.append("\",\"dataSource\":");
+        appendJsonString(dataSourceId);
+        line.append(",\"elapsedMs\":");
+        appendMillis(statement.elapsedNanos);
+        line.append(",\"method\":");
+        appendJsonString(statement.methodName);
+        line.append(",\"connectionId\":");
+        appendJsonString(statement.connectionId);
+        line.append(",\"transactionId\":");
+        appendJsonString(statement.transactionId);
+        line.append(",\"error\":");
+        if (statement.exception == null) {
+            line.append("null");
+        } else {
+            line.append('"');
+            appendJsonEscaped(statement.exception.getClass().getName());
+            String message = statement.exception.getMessage();
+            if (message != null) {
+                line.append(": ");
+                appendJsonEscaped(message);
+            }
+            line.append('"');
+        }
+        line.append(",\"callSite\":");
+        List<StackTraceElement> frames = callSiteFrames(statement.callSite);
+        if (frames == null) {
+            line.append("null");
+        } else {
+            line.append('[');
+            for (int i = 0; i < frames.size(); i++) {
+                line.append(i == 0 ? "\"" : ",\"");
+                appendFrame(frames.get(i), /*json=*/true);
+                line.append('"');
+            }
+            line.append(']');
+        }
+        line.append(",\"sql\":\"");
+        appendJsonEscaped(sql);
+        line.append("\"}");
+    }
+
+    private void formatText(SlowStatement statement) {
+        appendTimestamp(statement.timeMillis);
+        line.append(' ');
+        appendMillis(statement.elapsedNanos);
+        line.append("ms ").append(statement.methodName);
+        line.append(" conn=").append(statement.connectionId);
+        if (statement.transactionId != null) {
+            line.append(" tx=").append(statement.transactionId);
+        }
+        if (statement.exception != null) {
+            line.append(" error=\"").append(statement.exception.getClass().getName());
+            String message = statement.exception.getMessage();
+            if (message != null) {
+                line.append(": ");
+                appendSingleLine(message);
+            }
+            line.append('"');
+        }
+        List<StackTraceElement> frames = callSiteFrames(statement.callSite);
+        if (frames != null && !frames.isEmpty()) {
+            line.append(" at=");
+            appendFrame(frames.get(0), /*json=*/false);
+        }
+        line.append(' ');
+        appendSingleLine(sql);
+    }
+
+    private static List<StackTraceElement> callSiteFrames(SourceInfo callSite) {
+        if (callSite instanceof CallSiteSourceInfo) {
+            return ((CallSiteSourceInfo)callSite).getCallSite().getFrames();
+        } else if (callSite instanceof StackTraceSourceInfo) {
+            return Arrays.asList(((StackTraceSourceInfo)callSite).getStackTraceElements());
+        }
+        return null;
+    }
+
+    /**
+     * Appends a stack frame in the same form as {@link StackTraceElement#toString()}, without building a string.
+     */
+    private void appendFrame(StackTraceElement frame, boolean json) {
+        appendName(frame.getClassName(), json);
+        line.append('.');
+        appendName(frame.getMethodName(), json);
+        line.append('(');
+        if (frame.isNativeMethod()) {
+            line.append("Native Method");
+        } else if (frame.getFileName() == null) {
+            line.append("Unknown Source");
+        } else {
+            appendName(frame.getFileName(), json);
+            if (frame.getLineNumber() >= 0) {
+                line.append(':').append(frame.getLineNumber());
+            }
+        }
+        line.append(')');
+    }
+
+    private void appendName(String name, boolean json) {
+        if (json) {
+            appendJsonEscaped(name);
+        } else {
+            line.append(name);
+        }
+    }
+
+    private void appendTimestamp(long timeMillis) {
+        try {
+            TIMESTAMP_FORMAT.printTo(line, timeMillis);
+        } catch (IOException e) {
+            // appending to a StringBuilder never fails
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Appends a duration in milliseconds with microsecond precision, without going through floating point formatting.
+     */
+    private void appendMillis(long nanos) {
+        long micros = nanos / 1000L;
+        line.append(micros / 1000L).append('.');
+        int fraction = (int)(micros % 1000L);
+        if (fraction < 100) {
+            line.append('0');
+        }
+        if (fraction < 10) {
+            line.append('0');
+        }
+        line.append(fraction);
+    }
+
+    private void appendJsonString(String value) {
+        if (value == null) {
+            line.append("null");
+        } else {
+            line.append('"');
+            appendJsonEscaped(value);
+            line.append('"');
+        }
+    }
+
+    private void appendJsonEscaped(CharSequence value) {
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        line.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+                    } else {
+                        line.append(c);
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void appendSingleLine(CharSequence value) {
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            line.append(c == '\n' || c == '\r' ? ' ' : c);
+        }
+    }
+
+    /**
+     * Encodes <strong>chars</strong> as UTF-8 into the write buffer, writing the buffer out whenever it fills up.
+     */
+    private void encode(CharSequence chars) throws IOException {
+        for (int i = 0, n = chars.length(); i < n; i++) {
+            if (writeBuffer.remaining() < MAX_CHAR_BYTES) {
+                flush();
+            }
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                writeBuffer.put((byte)c);
+            } else if (c < 0x800) {
+                writeBuffer.put((byte)(0xC0 | (c >> 6)));
+                writeBuffer.put((byte)(0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                writeBuffer.put((byte)(0xF0 | (codePoint >> 18)));
+                writeBuffer.put((byte)(0x80 | ((codePoint >> 12) & 0x3F)));
+                writeBuffer.put((byte)(0x80 | ((codePoint >> 6) & 0x3F)));
+                writeBuffer.put((byte)(0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                writeBuffer.put((byte)'?');
+            } else {
+                writeBuffer.put((byte)(0xE0 | (c >> 12)));
+                writeBuffer.put((byte)(0x80 | ((c >> 6) & 0x3F)));
+                writeBuffer.put((byte)(0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        try {
+            while (writeBuffer.hasRemaining()) {
+                fileSize += channel.write(writeBuffer);
+            }
+        } finally {
+            // anything that could not be written is discarded rather than retried forever
+            writeBuffer.clear();
+        }
+    }
+
+    private void flushQuietly() {
+        if (writeBuffer.position() == 0) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            writeErrorCount.incrementAndGet();
+            log.warn("Unable to write to slow query log {}", file, e);
+        }
+    }
+
+    private void openFile() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+        fileSize = channel.size();
+    }
+
+    /**
+     * Renames the current log file and those already rolled over, deleting the oldest, and opens a new log file.
+     */
+    private void rollOver() throws IOException {
+        flush();
+        channel.close();
+        // with a single file to keep, this is the current file itself
+        File oldest = rolledFile(maxFiles - 1);
+        if (oldest.exists() && !oldest.delete()) {
+            log.warn("Unable to delete old slow query log {}", oldest);
+        }
+        for (int i = maxFiles - 2; i >= 0; i--) {
+            File rolled = rolledFile(i);
+            if (rolled.exists() && !rolled.renameTo(rolledFile(i + 1))) {
+                log.warn("Unable to roll over slow query log {}", rolled);
+            }
+        }
+        openFile();
+    }
+
+    private File rolledFile(int index) {
+        return (index == 0 ? file : new File(file.getPath() + "." + index));
+    }
+
+    /**
+     * Everything needed to log a slow statement, captured on the JDBC caller's thread.
+     */
+    private static final class SlowStatement {
+
+        final long timeMillis;
+        final long elapsedNanos;
+        final String methodName;
+        final String connectionId;
+        final String transactionId;
+        final Exception exception;
+        final SqlSnapshot sql;
+        final SourceInfo callSite;
+
+        SlowStatement(long timeMillis, long elapsedNanos, String methodName, String connectionId,
+                      String transactionId, Exception exception, SqlSnapshot sql, SourceInfo callSite) {
+            this.timeMillis = timeMillis;
+            this.elapsedNanos = elapsedNanos;
+            this.methodName = methodName;
+            this.connectionId = connectionId;
+            this.transactionId = transactionId;
+            this.exception = exception;
+            this.sql = sql;
+            this.callSite = callSite;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.lang3.StringUtils;
+import org.drg.jdbceptor.config.IdentifierGenerator;
+import org.drg.jdbceptor.internal.DataSourceMember;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Identifier generator producing Snowflake-style 64-bit ids, which is the default for connections and transactions.
+ * Each id is made up of, from the most significant bit:
+ * <ul>
+ *     <li>41 bits of milliseconds since 2015-01-01 UTC, which lasts until 2084</li>
+ *     <li>10 bits of node id, identifying this process</li>
+ *     <li>3 bits of stripe, chosen by the generating thread</li>
+ *     <li>9 bits of sequence within the millisecond and stripe</li>
+ * </ul>
+ * Ids are unique within this process, unique across processes with different node ids, and increase with time.
+ * Generating one is lock-free and does not allocate: threads are spread over several independent sequences so that
+ * they rarely contend on the same counter, and a stripe that uses up its sequence within a millisecond borrows from the
+ * next one rather than waiting. </br>
+ * The node id is taken from the <code>jdbceptor.nodeId</code> system property if set, and is otherwise derived from
+ * the process id and the hardware addresses of the network interfaces, without any DNS lookups, and logged once at
+ * startup. A derived node id only has 10 bits, so processes on different hosts may still end up with the same one;
+ * deployments that correlate ids from several processes should assign each process its own node id explicitly. </br>
+ * Ids are only rendered as strings when first needed; the rendered form is the optional prefix followed by 13
+ * lowercase base-32 characters, which sort in the same order as the ids.
+ *
+ * @author dgarson
+ */
+public class SnowflakeIdentifierGenerator<T extends DataSourceMember> implements IdentifierGenerator<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(SnowflakeIdentifierGenerator.class);
+
+    /**
+     * System property that fixes the node id, from 0 to {@link #MAX_NODE_ID}, so that ids from several processes
+     * never collide.
+     */
+    public static final String NODE_ID_PROPERTY = "jdbceptor.nodeId";
+
+    /**
+     * The epoch that id timestamps are relative to, 2015-01-01T00:00:00Z, in milliseconds.
+     */
+    public static final long EPOCH_MILLIS = 1420070400000L;
+
+    public static final int MAX_NODE_ID = (1 << 10) - 1;
+
+    private static final int SEQUENCE_BITS = 9;
+    private static final int STRIPE_BITS = 3;
+    private static final int NODE_BITS = 10;
+    private static final int STRIPE_SHIFT = SEQUENCE_BITS;
+    private static final int NODE_SHIFT = STRIPE_SHIFT + STRIPE_BITS;
+    private static final int TIMESTAMP_SHIFT = NODE_SHIFT + NODE_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int STRIPE_MASK = (1 << STRIPE_BITS) - 1;
+
+    // each stripe's state is padded onto its own cache line so that stripes do not contend through false sharing
+    private static final int STRIPE_STRIDE = 8;
+
+    private static final char[] BASE32 = "0123456789abcdefghjkmnpqrstvwxyz".toCharArray();
+    private static final int RENDERED_LENGTH = 13;
+
+    private static final int NODE_ID = resolveNodeId();
+
+    // last (timestamp << SEQUENCE_BITS | sequence) issued by each stripe
+    private static final AtomicLongArray stripes = new AtomicLongArray((STRIPE_MASK + 1) * STRIPE_STRIDE);
+
+    private final String prefix;
+
+    /**
+     * Creates a generator that renders ids without a prefix.
+     */
+    public SnowflakeIdentifierGenerator() {
+        this("");
+    }
+
+    /**
+     * Creates a generator that renders ids with the provided <strong>prefix</strong>, such as a data source id. All
+     * generators share the same sequences, so ids are unique regardless of prefix.
+     */
+    public SnowflakeIdentifierGenerator(String prefix) {
+        this.prefix = Preconditions.checkNotNull(prefix, "prefix");
+    }
+
+    @Override
+    @Nonnull
+    public String generateIdentifier(@Nonnull T owner) {
+        return render(nextId());
+    }
+
+    /**
+     * Renders <strong>id</strong> as a string, prefixed with this generator's prefix.
+     */
+    public String render(long id) {
+        char[] chars = new char[prefix.length() + RENDERED_LENGTH];
+        prefix.getChars(0, prefix.length(), chars, 0);
+        renderTo(id, chars, prefix.length());
+        return new String(chars);
+    }
+
+    /**
+     * Returns the node id of this process, which is part of every id it generates.
+     */
+    public static int getNodeId() {
+        return NODE_ID;
+    }
+
+    /**
+     * Generates a new id.
+     */
+    public static long nextId() {
+        int stripe = (int)Thread.currentThread().getId() & STRIPE_MASK;
+        int index = stripe * STRIPE_STRIDE;
+        long now = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        while (true) {
+            long last = stripes.get(index);
+            // start a new millisecond at sequence zero, or continue after the last id if the clock has not moved on
+            // (or moved backwards), which borrows from the next millisecond once the sequence runs out
+            long next = (now > last ? now : last + 1);
+            if (stripes.compareAndSet(index, last, next)) {
+                long timestamp = next >>> SEQUENCE_BITS;
+                return (timestamp << TIMESTAMP_SHIFT) | ((long)NODE_ID << NODE_SHIFT) |
+                    ((long)stripe << STRIPE_SHIFT) | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    /**
+     * Renders <strong>id</strong> as a string without a prefix.
+     */
+    public static String format(long id) {
+        char[] chars = new char[RENDERED_LENGTH];
+        renderTo(id, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Returns the time that <strong>id</strong> was generated, in milliseconds since the Unix epoch.
+     */
+    public static long timestampMillis(long id) {
+        return (id >>> TIMESTAMP_SHIFT) + EPOCH_MILLIS;
+    }
+
+    /**
+     * Returns the node id of the process that generated <strong>id</strong>.
+     */
+    public static int nodeId(long id) {
+        return (int)(id >>> NODE_SHIFT) & MAX_NODE_ID;
+    }
+
+    private static void renderTo(long id, char[] chars, int offset) {
+        for (int i = offset + RENDERED_LENGTH - 1; i >= offset; i--) {
+            chars[i] = BASE32[(int)(id & 31)];
+            id >>>= 5;
+        }
+    }
+
+    private static int resolveNodeId() {
+        String property = System.getProperty(NODE_ID_PROPERTY);
+        if (StringUtils.isNotBlank(property)) {
+            try {
+                int nodeId = Integer.parseInt(property.trim());
+                if (nodeId >= 0 && nodeId <= MAX_NODE_ID) {
+                    return nodeId;
+                }
+            } catch (NumberFormatException nfe) {
+                // fall through to the warning below
+            }
+            log.warn("Ignoring invalid {} '{}', which must be between 0 and {}", NODE_ID_PROPERTY, property,
+                MAX_NODE_ID);
+        }
+        // mix the hardware addresses with the process id so that processes on the same host differ as well; both are
+        // fixed for the life of the process, unlike the host name which may only be resolved later on
+        long hardwareHash = hardwareAddressHash();
+        long processId = processId();
+        String source = "process id " + processId + " and hardware addresses";
+        if (hardwareHash == 0L || processId < 0L) {
+            hardwareHash ^= System.nanoTime();
+            source = "a random value, since the process id or hardware addresses are unavailable";
+        }
+        long hash = hardwareHash * 0x9E3779B97F4A7C15L + processId;
+        hash ^= (hash >>> 33);
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= (hash >>> 33);
+        int nodeId = (int)hash & MAX_NODE_ID;
+        log.info("Using Snowflake node id {} derived from {}; set {} to assign one explicitly", nodeId, source,
+            NODE_ID_PROPERTY);
+        return nodeId;
+    }
+
+    /**
+     * Returns a hash of the hardware addresses of all network interfaces, or zero if none are available.
+     */
+    private static long hardwareAddressHash() {
+        long hash = 0L;
+        try {
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            while (interfaces != null && interfaces.hasMoreElements()) {
+                byte[] address = interfaces.nextElement().getHardwareAddress();
+                if (address != null) {
+                    for (byte b : address) {
+                        hash = hash * 31 + (b & 0xFF);
+                    }
+                }
+            }
+        } catch (SocketException se) {
+            log.debug("Unable to read network interface hardware addresses", se);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the id of this process, or <code>-1</code> if it cannot be determined.
+     */
+    private static long processId() {
+        // the runtime MXBean's name would look up the local host to build "pid@hostname", so the pid is read from
+        // /proc on Linux, and otherwise from the JVM's management internals that the name is built from
+        try {
+            return Long.parseLong(new File("/proc/self").getCanonicalFile().getName());
+        } catch (IOException | NumberFormatException e) {
+            // not Linux, so fall through
+        }
+        try {
+            RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+            Field jvmField = runtime.getClass().getDeclaredField("jvm");
+            jvmField.setAccessible(true);
+            Object jvm = jvmField.get(runtime);
+            Method getProcessId = jvm.getClass().getDeclaredMethod("getProcessId");
+            getProcessId.setAccessible(true);
+            return ((Number)getProcessId.invoke(jvm)).longValue();
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Unable to determine the process id", e);
+            return -1L;
+        }
+    }
+}
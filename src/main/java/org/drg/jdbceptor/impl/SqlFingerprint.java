@@ -0,0 +1,252 @@
+package org.drg.jdbceptor.impl;
+
+import org.drg.jdbceptor.api.InstrumentedStatement;
+import org.drg.jdbceptor.api.SqlFingerprintProvider;
+
+/**
+ * Normalizes SQL queries into <i>fingerprints</i> so that executions of the same logical query can be grouped together
+ * regardless of the literal values used. A fingerprint is produced by:
+ * <ul>
+ *     <li>replacing string and numeric literals with a <code>?</code> placeholder</li>
+ *     <li>removing comments and collapsing all whitespace into single spaces</li>
+ *     <li>lower-casing everything outside of quoted identifiers</li>
+ *     <li>collapsing <code>IN (...)</code> lists and multi-row <code>VALUES</code> lists of placeholders</li>
+ * </ul>
+ * For example, <code>SELECT * FROM t WHERE id IN (1, 2, 3) AND name = 'x'</code> and
+ * <code>select * from t where id in (?) and name = ?</code> share the fingerprint
+ * <code>select * from t where id in (...) and name = ?</code>.
+ *
+ * @author dgarson
+ */
+public final class SqlFingerprint {
+
+    private SqlFingerprint() {
+        // static utility class
+    }
+
+    /**
+     * Returns the fingerprint of the SQL for the current (or most recent) execution of <strong>statement</strong>,
+     * which is only computed here if the statement is not a {@link SqlFingerprintProvider}.
+     */
+    public static String forStatement(InstrumentedStatement<?> statement) {
+        if (statement instanceof SqlFingerprintProvider) {
+            return ((SqlFingerprintProvider)statement).getSqlFingerprint();
+        }
+        return of(statement.getSqlStatement());
+    }
+
+    /**
+     * Returns the fingerprint for <strong>sql</strong>, or <code>null</code> if <strong>sql</strong> is
+     * <code>null</code>.
+     */
+    public static String of(String sql) {
+        if (sql == null) {
+            return null;
+        }
+        StringBuilder fingerprint = new StringBuilder(sql.length());
+        int len = sql.length();
+        int i = 0;
+        boolean pendingSpace = false;
+        while (i < len) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+                i++;
+                continue;
+            } else if (c == '-' && i + 1 < len && sql.charAt(i + 1) == '-') {
+                pendingSpace = true;
+                i = SqlTemplate.skipLineComment(sql, i + 2);
+                continue;
+            } else if (c == '#') {
+                pendingSpace = true;
+                i = SqlTemplate.skipLineComment(sql, i + 1);
+                continue;
+            } else if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                pendingSpace = true;
+                i = (end < 0 ? len : end + 2);
+                continue;
+            }
+
+            if (pendingSpace && fingerprint.length() > 0) {
+                fingerprint.append(' ');
+            }
+            pendingSpace = false;
+
+            if (c == '\'' || c == '"') {
+                fingerprint.append('?');
+                i = SqlTemplate.skipQuoted(sql, i, c);
+            } else if (c == '`') {
+                // quoted identifiers are retained as-is
+                int end = SqlTemplate.skipQuoted(sql, i, c);
+                fingerprint.append(sql, i, end);
+                i = end;
+            } else if (isDigit(c) && !isIdentifierPart(fingerprint)) {
+                fingerprint.append('?');
+                i = skipNumber(sql, i);
+            } else {
+                fingerprint.append(Character.toLowerCase(c));
+                i++;
+            }
+        }
+        return collapseLists(fingerprint);
+    }
+
+    /**
+     * Collapses <code>IN</code> lists containing only placeholders into <code>in (...)</code>, and drops every tuple of
+     * placeholders that follows the first one in a multi-row <code>VALUES</code> clause. This is a single pass over the
+     * partial fingerprint, which only ever contains single spaces.
+     */
+    private static String collapseLists(StringBuilder fingerprint) {
+        int len = fingerprint.length();
+        StringBuilder result = null;
+        int copied = 0;
+        int i = 0;
+        while (i < len) {
+            char c = fingerprint.charAt(i);
+            if (c != 'i' && c != 'v') {
+                i++;
+                continue;
+            }
+            int listEnd;
+            int keepEnd;
+            if (startsWithKeyword(fingerprint, i, "in")) {
+                listEnd = skipPlaceholderTuple(fingerprint, skipSpace(fingerprint, i + 2));
+                keepEnd = listEnd;
+            } else if (startsWithKeyword(fingerprint, i, "values")) {
+                keepEnd = skipPlaceholderTuple(fingerprint, skipSpace(fingerprint, i + 6));
+                listEnd = keepEnd;
+                while (listEnd >= 0) {
+                    int next = skipSpace(fingerprint, listEnd);
+                    if (next >= len || fingerprint.charAt(next) != ',') {
+                        break;
+                    }
+                    next = skipPlaceholderTuple(fingerprint, skipSpace(fingerprint, next + 1));
+                    if (next < 0) {
+                        break;
+                    }
+                    listEnd = next;
+                }
+            } else {
+                i++;
+                continue;
+            }
+            if (listEnd < 0) {
+                i++;
+                continue;
+            }
+            if (result == null) {
+                result = new StringBuilder(len);
+            }
+            result.append(fingerprint, copied, i);
+            if (c == 'i') {
+                result.append("in (...)");
+            } else {
+                result.append(fingerprint, i, keepEnd);
+            }
+            copied = listEnd;
+            i = listEnd;
+        }
+        if (result == null) {
+            return fingerprint.toString();
+        }
+        result.append(fingerprint, copied, len);
+        return result.toString();
+    }
+
+    /**
+     * Checks whether <strong>keyword</strong> appears at <strong>pos</strong> and is not the end of a longer word.
+     */
+    private static boolean startsWithKeyword(StringBuilder fingerprint, int pos, String keyword) {
+        if (pos > 0 && isWordChar(fingerprint.charAt(pos - 1))) {
+            return false;
+        }
+        int end = pos + keyword.length();
+        if (end > fingerprint.length()) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length(); i++) {
+            if (fingerprint.charAt(pos + i) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the position immediately following a parenthesized list of placeholders such as <code>(?, ?)</code>
+     * starting at <strong>pos</strong>, or -1 if there is no such list there.
+     */
+    private static int skipPlaceholderTuple(StringBuilder fingerprint, int pos) {
+        int len = fingerprint.length();
+        if (pos >= len || fingerprint.charAt(pos) != '(') {
+            return -1;
+        }
+        int i = skipSpace(fingerprint, pos + 1);
+        while (true) {
+            if (i >= len || fingerprint.charAt(i) != '?') {
+                return -1;
+            }
+            i = skipSpace(fingerprint, i + 1);
+            if (i >= len) {
+                return -1;
+            } else if (fingerprint.charAt(i) == ')') {
+                return i + 1;
+            } else if (fingerprint.charAt(i) != ',') {
+                return -1;
+            }
+            i = skipSpace(fingerprint, i + 1);
+        }
+    }
+
+    private static int skipSpace(StringBuilder fingerprint, int pos) {
+        return (pos < fingerprint.length() && fingerprint.charAt(pos) == ' ' ? pos + 1 : pos);
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    /**
+     * Checks whether the last character appended to <strong>fingerprint</strong> would make a following digit part of an
+     * identifier (e.g. <code>table2</code>) rather than the start of a numeric literal.
+     */
+    private static boolean isIdentifierPart(StringBuilder fingerprint) {
+        if (fingerprint.length() == 0) {
+            return false;
+        }
+        char last = fingerprint.charAt(fingerprint.length() - 1);
+        return Character.isLetterOrDigit(last) || last == '_' || last == '$';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Returns the position immediately following a numeric literal, including hexadecimal, decimal and exponent forms.
+     */
+    private static int skipNumber(String sql, int start) {
+        int len = sql.length();
+        int i = start;
+        if (sql.charAt(i) == '0' && i + 1 < len && (sql.charAt(i + 1) == 'x' || sql.charAt(i + 1) == 'X')) {
+            i += 2;
+            while (i < len && Character.digit(sql.charAt(i), 16) >= 0) {
+                i++;
+            }
+            return i;
+        }
+        while (i < len) {
+            char c = sql.charAt(i);
+            if (isDigit(c) || c == '.') {
+                i++;
+            } else if ((c == 'e' || c == 'E') && i + 1 < len &&
+                (isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '-' || sql.charAt(i + 1) == '+')) {
+                i += 2;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+}
@@ -0,0 +1,110 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import org.drg.jdbceptor.api.InstrumentedStatement;
+import org.drg.jdbceptor.api.SqlSnapshot;
+import org.drg.jdbceptor.api.SqlSnapshotProvider;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Default implementation of {@link SqlSnapshot} that holds a private copy of the query parameters so that it remains
+ * valid after the statement it was taken from has been re-bound, re-executed or closed.
+ *
+ * @author dgarson
+ */
+class SqlSnapshotImpl implements SqlSnapshot {
+
+    private final DataSourceManager dataSourceManager;
+    private final SqlTemplate template;
+    private final String rawSql;
+    private final ParameterStore params;
+
+    // lazily formatted SQL; formatting is idempotent so a benign race between threads is acceptable here
+    private volatile String formattedSql;
+
+    /**
+     * Creates a snapshot that still requires parameter substitution.
+     */
+    SqlSnapshotImpl(DataSourceManager dataSourceManager, SqlTemplate template, ParameterStore params) {
+        this.dataSourceManager = dataSourceManager;
+        this.template = template;
+        this.rawSql = template.getSql();
+        this.params = params;
+    }
+
+    /**
+     * Creates a snapshot for SQL that has already been formatted (or that has nothing to format).
+     */
+    SqlSnapshotImpl(String rawSql, String formattedSql) {
+        this.dataSourceManager = null;
+        this.template = null;
+        this.rawSql = rawSql;
+        this.params = null;
+        this.formattedSql = formattedSql;
+    }
+
+    /**
+     * Takes a snapshot of <strong>statement</strong>, formatting its SQL immediately if it is not a
+     * {@link SqlSnapshotProvider} that can defer the formatting.
+     */
+    static SqlSnapshot of(InstrumentedStatement<?> statement) {
+        if (statement instanceof SqlSnapshotProvider) {
+            return ((SqlSnapshotProvider)statement).getSqlSnapshot();
+        }
+        String formattedSql = statement.getSqlStatement();
+        return new SqlSnapshotImpl(formattedSql, formattedSql);
+    }
+
+    @Override
+    public String getRawSql() {
+        return rawSql;
+    }
+
+    @Override
+    public String getSqlStatement() {
+        String result = formattedSql;
+        if (result == null) {
+            result = template.format(dataSourceManager, params);
+            formattedSql = result;
+        }
+        return result;
+    }
+
+    /**
+     * Appends the fully formatted SQL to <strong>out</strong>, formatting it directly into the buffer rather than
+     * building and caching a string if it has not been formatted yet.
+     */
+    void appendTo(StringBuilder out) {
+        String result = formattedSql;
+        if (result != null) {
+            out.append(result);
+        } else {
+            template.formatTo(out, dataSourceManager, params);
+        }
+    }
+
+    @Override
+    public ListenableFuture<String> formatAsync(Executor executor) {
+        String result = formattedSql;
+        if (result != null) {
+            return Futures.immediateFuture(result);
+        }
+        ListenableFutureTask<String> task = ListenableFutureTask.create(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return getSqlStatement();
+            }
+        });
+        executor.execute(task);
+        return task;
+    }
+
+    @Override
+    public String toString() {
+        return getSqlStatement();
+    }
+}
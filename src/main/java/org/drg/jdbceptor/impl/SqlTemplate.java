@@ -0,0 +1,225 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pre-tokenized representation of a parameterized SQL query. The positions of all parameter placeholders are located
+ * once when the template is parsed, so that substituting captured parameter values is a single pass over the SQL into
+ * a pre-sized buffer rather than rescanning the query on every execution. </br>
+ * Question marks that appear inside quoted string literals, quoted identifiers or comments are <strong>not</strong>
+ * treated as placeholders. Backslash escapes inside quoted strings are honored, matching the MySQL default.
+ *
+ * @author dgarson
+ */
+public class SqlTemplate {
+
+    /**
+     * Maximum number of distinct SQL strings that will have parsed templates retained at any given time.
+     */
+    public static final int MAX_CACHED_TEMPLATES = 10000;
+
+    // estimated number of characters each formatted parameter value will occupy, used for pre-sizing buffers
+    private static final int ESTIMATED_PARAM_LENGTH = 12;
+
+    private static final int[] NO_PLACEHOLDERS = new int[0];
+
+    private static final AtomicInteger nextTemplateId = new AtomicInteger();
+
+    // templates shared by all data sources, keyed by the exact SQL string used to prepare statements
+    private static final Cache<String, SqlTemplate> templateCache = CacheBuilder.newBuilder()
+        .maximumSize(MAX_CACHED_TEMPLATES)
+        .build();
+
+    private final int id;
+    private final String sql;
+    private final int[] placeholderOffsets;
+
+    // lazily computed since it is only needed when statement statistics are being aggregated
+    private volatile String fingerprint;
+
+    private SqlTemplate(int id, String sql, int[] placeholderOffsets) {
+        this.id = id;
+        this.sql = sql;
+        this.placeholderOffsets = placeholderOffsets;
+    }
+
+    /**
+     * Returns the shared template for a given <strong>sql</strong> query, parsing and caching it if it is not already
+     * present in the template cache. Concurrent callers for the same SQL always receive the same instance, and so the
+     * same template id, for as long as it remains cached.
+     */
+    public static SqlTemplate forSql(String sql) {
+        SqlTemplate template = templateCache.getIfPresent(sql);
+        if (template == null) {
+            // two threads may parse the same SQL concurrently, in which case whichever template is cached first wins so
+            // that the SQL is never known by two different ids
+            SqlTemplate parsed = parse(sql);
+            template = templateCache.asMap().putIfAbsent(sql, parsed);
+            if (template == null) {
+                template = parsed;
+            }
+        }
+        return template;
+    }
+
+    /**
+     * Parses a SQL query into a new template without consulting or populating the shared cache.
+     */
+    static SqlTemplate parse(String sql) {
+        return new SqlTemplate(nextTemplateId.incrementAndGet(), sql, findPlaceholders(sql));
+    }
+
+    /**
+     * Returns an identifier for this template which is unique for as long as the template remains cached.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the raw SQL that this template was parsed from.
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Returns the normalized fingerprint of this template's SQL, computing it on first use.
+     * @see SqlFingerprint#of(String)
+     */
+    public String getFingerprint() {
+        String result = fingerprint;
+        if (result == null) {
+            // computing the fingerprint is idempotent so a benign race between threads is acceptable here
+            result = SqlFingerprint.of(sql);
+            fingerprint = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of parameter placeholders in this template.
+     */
+    public int getPlaceholderCount() {
+        return placeholderOffsets.length;
+    }
+
+    /**
+     * Substitutes the provided parameter values into this template. Placeholders without a corresponding value bound
+     * in <strong>params</strong> are left as question marks.
+     * @param dataSourceManager the data source manager used to format each parameter value
+     * @param params the bound parameter values, or <code>null</code> if there are none
+     */
+    public String format(DataSourceManager dataSourceManager, ParameterStore params) {
+        int numPlaceholders = placeholderOffsets.length;
+        if (numPlaceholders == 0) {
+            return sql;
+        }
+        StringBuilder formattedSql = new StringBuilder(sql.length() + numPlaceholders * ESTIMATED_PARAM_LENGTH);
+        formatTo(formattedSql, dataSourceManager, params);
+        return formattedSql.toString();
+    }
+
+    /**
+     * Appends this template to <strong>out</strong> with the provided parameter values substituted, for callers that
+     * re-use a buffer rather than building a new string for every statement.
+     * @see #format(DataSourceManager, ParameterStore)
+     */
+    public void formatTo(StringBuilder out, DataSourceManager dataSourceManager, ParameterStore params) {
+        int numPlaceholders = placeholderOffsets.length;
+        int numParams = (params == null ? 0 : params.size());
+        int lastPos = 0;
+        for (int i = 0; i < numPlaceholders; i++) {
+            int offset = placeholderOffsets[i];
+            out.append(sql, lastPos, offset);
+            if (i < numParams && params.getType(i) != ParameterStore.TYPE_UNSET) {
+                out.append(dataSourceManager.formatParameterValue(params.getValue(i)));
+            } else {
+                out.append('?');
+            }
+            lastPos = offset + 1;
+        }
+        out.append(sql, lastPos, sql.length());
+    }
+
+    /**
+     * Locates the offset of every placeholder in <strong>sql</strong>, skipping over quoted strings and identifiers
+     * along with line and block comments.
+     */
+    private static int[] findPlaceholders(String sql) {
+        int[] offsets = null;
+        int count = 0;
+        int len = sql.length();
+        int i = 0;
+        while (i < len) {
+            char c = sql.charAt(i);
+            if (c == '?') {
+                if (offsets == null) {
+                    offsets = new int[8];
+                } else if (count == offsets.length) {
+                    int[] grown = new int[count * 2];
+                    System.arraycopy(offsets, 0, grown, 0, count);
+                    offsets = grown;
+                }
+                offsets[count++] = i;
+                i++;
+            } else if (c == '\'' || c == '"' || c == '`') {
+                i = skipQuoted(sql, i, c);
+            } else if (c == '-' && i + 1 < len && sql.charAt(i + 1) == '-') {
+                i = skipLineComment(sql, i + 2);
+            } else if (c == '#') {
+                i = skipLineComment(sql, i + 1);
+            } else if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = (end < 0 ? len : end + 2);
+            } else {
+                i++;
+            }
+        }
+        if (count == 0) {
+            return NO_PLACEHOLDERS;
+        } else if (count == offsets.length) {
+            return offsets;
+        }
+        int[] trimmed = new int[count];
+        System.arraycopy(offsets, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
+    /**
+     * Returns the position immediately following the quoted region that begins at <strong>start</strong>. Doubled
+     * quote characters are treated as escaped quotes, as are backslash escapes within string literals.
+     */
+    static int skipQuoted(String sql, int start, char quote) {
+        int len = sql.length();
+        int i = start + 1;
+        while (i < len) {
+            char c = sql.charAt(i);
+            if (c == '\\' && quote != '`') {
+                i += 2;
+            } else if (c == quote) {
+                if (i + 1 < len && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                i++;
+            }
+        }
+        return len;
+    }
+
+    static int skipLineComment(String sql, int start) {
+        int end = sql.indexOf('\n', start);
+        return (end < 0 ? sql.length() : end + 1);
+    }
+
+    @Override
+    public String toString() {
+        return sql;
+    }
+}
@@ -0,0 +1,637 @@
+package org.drg.jdbceptor.impl;
+
+import static org.drg.jdbceptor.Jdbceptor.timestampNanos;
+
+import com.google.common.base.Preconditions;
+import org.drg.jdbceptor.api.InstrumentedConnection;
+import org.drg.jdbceptor.api.InstrumentedStatement;
+import org.drg.jdbceptor.api.StatementMethod;
+import org.drg.jdbceptor.event.ConnectionEvent;
+import org.drg.jdbceptor.event.StatementExecutedEvent;
+import org.drg.jdbceptor.hibernate.InstrumentedHibernateStatement;
+import org.drg.jdbceptor.hibernate.InstrumentedTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Appends compact binary records of statement, connection and transaction events for a single data source to rolling,
+ * memory-mapped segment files, so that full execution history can be kept at production rates without formatting text
+ * or making a system call per event. Records are read back with a {@link JournalReader}, and their layout is described
+ * on {@link JournalRecord}. </br>
+ * Appending is lock-free: a writer reserves space in the current segment with a single atomic add and then copies its
+ * record into the mapped buffer. Prepared statements refer to their SQL by template id, and the template text is only
+ * written the first time it is used in each segment. Parameters are written from the statement's
+ * {@link ParameterStore} without boxing. </br>
+ * The next segment is created and mapped ahead of time by a background thread, which also flushes full segments and
+ * deletes the oldest ones once there are more than the configured maximum. Rolling over is therefore just a swap, and
+ * if the next segment is not ready yet the record is dropped and counted rather than making the query thread wait.
+ *
+ * @author dgarson
+ * @see DataSourceManager#enableJournal(File, int, int, boolean)
+ */
+public class StatementJournal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(StatementJournal.class);
+
+    /**
+     * Default size of each segment file.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Default number of segment files to retain, including the one being written.
+     */
+    public static final int DEFAULT_MAX_SEGMENTS = 16;
+
+    static final String SEGMENT_PREFIX = "journal-";
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    // limits of the length prefixes used for each kind of string
+    private static final int MAX_STRING8_BYTES = 0xFF;
+    private static final int MAX_STRING16_BYTES = 0xFFFF;
+    private static final int MAX_PARAMETERS = 0xFFFF;
+
+    // how long the maintenance thread sleeps when it has nothing to do, unless woken by a roll-over
+    private static final long MAINTENANCE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final boolean captureParameters;
+
+    private final AtomicReference<JournalSegment> currentSegment = new AtomicReference<>();
+    private final AtomicReference<JournalSegment> spareSegment = new AtomicReference<>();
+    private final ConcurrentLinkedQueue<JournalSegment> retiredSegments = new ConcurrentLinkedQueue<>();
+
+    // only accessed by the maintenance thread once it has been started
+    private final Deque<File> segmentFiles = new ArrayDeque<>();
+    private long nextSequence;
+
+    private final Thread maintainer;
+    private volatile boolean running = true;
+
+    private final AtomicLong appendedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong segmentCount = new AtomicLong();
+
+    /**
+     * Creates a journal that writes segments to <strong>directory</strong>, creating the first segment and starting
+     * the maintenance thread. Segments already in the directory are kept, counted towards the maximum, and never
+     * overwritten.
+     * @param dataSourceId the id of the data source, used to name the maintenance thread
+     * @param directory the directory to write segment files to, which is created if it does not exist
+     * @param segmentSize the size of each segment file in bytes
+     * @param maxSegments the number of segment files to retain, which must be at least two
+     * @param captureParameters whether to record the parameters bound to prepared statements
+     * @throws IOException if the directory or the first segment cannot be created
+     */
+    public StatementJournal(String dataSourceId, File directory, int segmentSize, int maxSegments,
+                            boolean captureParameters) throws IOException {
+        Preconditions.checkNotNull(directory, "directory");
+        Preconditions.checkArgument(segmentSize >= 4096, "segmentSize must be at least 4096 bytes");
+        Preconditions.checkArgument(maxSegments >= 2, "maxSegments must be at least two");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create journal directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.captureParameters = captureParameters;
+
+        List<File> existing = JournalReader.listSegments(directory);
+        segmentFiles.addAll(existing);
+        if (!existing.isEmpty()) {
+            nextSequence = parseSegmentSequence(existing.get(existing.size() - 1).getName()) + 1;
+        }
+        currentSegment.set(createSegment());
+
+        this.maintainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                maintain();
+            }
+        }, "jdbceptor-journal-" + dataSourceId);
+        maintainer.setDaemon(true);
+        maintainer.start();
+    }
+
+    /**
+     * Returns the directory that segment files are written to.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public int getMaxSegments() {
+        return maxSegments;
+    }
+
+    /**
+     * Checks whether parameters bound to prepared statements are recorded along with each execution.
+     */
+    public boolean isCapturingParameters() {
+        return captureParameters;
+    }
+
+    /**
+     * Returns the number of records appended, not counting template definitions.
+     */
+    public long getAppendedCount() {
+        return appendedCount.get();
+    }
+
+    /**
+     * Returns the number of records discarded because the next segment was not ready when the current one filled up,
+     * or because a record was larger than an entire segment.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Returns the number of segment files created by this journal.
+     */
+    public long getSegmentCount() {
+        return segmentCount.get();
+    }
+
+    /**
+     * Returns a reader over the segments currently in the journal directory.
+     */
+    public JournalReader newReader() {
+        return JournalReader.forDirectory(directory);
+    }
+
+    /**
+     * Checks whether the journal is still accepting records.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stops the maintenance thread and flushes the segment being written. Writers that are already appending may still
+     * complete into the mapped segment, but nothing is appended once this returns.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(maintainer);
+        try {
+            maintainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Appends a record for a statement that finished executing.
+     */
+    public void statementExecuted(StatementExecutedEvent event) {
+        if (!running) {
+            return;
+        }
+        InstrumentedStatement<?> statement = event.getStatement();
+        SqlTemplate template = null;
+        String sql;
+        ParameterStore params = null;
+        List<String> batch = null;
+        String transactionId = null;
+        if (statement instanceof AbstractInstrumentedStatement) {
+            AbstractInstrumentedStatement<?> statementImpl = (AbstractInstrumentedStatement<?>)statement;
+            template = statementImpl.getSqlTemplate();
+            batch = statementImpl.getBatchStatements();
+            sql = (template == null ? statementImpl.getRawSql() : template.getSql());
+            params = (captureParameters ? statementImpl.getBoundParameters() : null);
+        } else {
+            sql = statement.getSqlStatement();
+        }
+        if (statement instanceof InstrumentedHibernateStatement) {
+            transactionId = ((InstrumentedHibernateStatement<?>)statement).getTransactionId();
+        }
+        if (sql == null) {
+            sql = "";
+        }
+        String connectionId = event.getConnection().getConnectionId();
+        int flags = (event.hasError() ? JournalRecord.FLAG_ERROR : 0);
+        int paramsLength = 0;
+        if (params != null) {
+            flags |= JournalRecord.FLAG_PARAMETERS;
+            paramsLength = parametersLength(params);
+        }
+        StatementMethod method = event.getStatementMethod();
+        int connectionIdLength = utf8Length(connectionId, MAX_STRING8_BYTES);
+        int transactionIdLength = utf8Length(transactionId, MAX_STRING8_BYTES);
+        int headerLength = JournalRecord.RECORD_HEADER_SIZE + 2 + connectionIdLength + transactionIdLength;
+        int fixedLength = headerLength + JournalRecord.STATEMENT_BODY_SIZE + paramsLength;
+
+        // SQL longer than a whole segment cannot be recorded anyway, so this also keeps the lengths from overflowing
+        int sqlLength;
+        int[] batchLengths = null;
+        if (batch != null) {
+            // each statement of a batch is written separately, since they cannot be split apart again reliably
+            flags |= JournalRecord.FLAG_BATCH;
+            template = null;
+            batchLengths = new int[batch.size()];
+            long batchLength = 0L;
+            for (int i = 0; i < batchLengths.length; i++) {
+                batchLengths[i] = utf8Length(batch.get(i), segmentSize);
+                batchLength += 4 + batchLengths[i];
+            }
+            sqlLength = (int)Math.min(batchLength, segmentSize);
+        } else {
+            sqlLength = utf8Length(sql, segmentSize);
+        }
+
+        JournalSegment segment = currentSegment.get();
+        for (int attempt = 0; attempt < 2 && segment != null; attempt++) {
+            int templateId = 0;
+            int templateLength = 0;
+            if (template != null) {
+                int claim = segment.claimTemplate(template.getId());
+                if (claim != JournalSegment.TEMPLATE_UNTRACKED) {
+                    templateId = template.getId();
+                    if (claim == JournalSegment.TEMPLATE_CLAIMED) {
+                        // the definition is reserved together with this record so that it lands in the same segment
+                        templateLength = JournalRecord.RECORD_HEADER_SIZE + 2 + JournalRecord.TEMPLATE_BODY_SIZE + 4 +
+                            sqlLength;
+                    }
+                }
+            }
+            int recordLength = fixedLength + (templateId == 0 ? 4 + sqlLength : 0);
+            int totalLength = templateLength + recordLength;
+            boolean fits = (totalLength <= segmentSize - JournalRecord.SEGMENT_HEADER_SIZE);
+            int offset = (fits ? segment.reserve(totalLength) : -1);
+            if (offset < 0 && templateLength > 0) {
+                // nothing was written, so the next writer to use this template in the segment must define it instead
+                segment.releaseTemplate(templateId);
+            }
+            if (!fits) {
+                break;
+            }
+            if (offset >= 0) {
+                ByteBuffer buffer = segment.getBuffer();
+                if (templateLength > 0) {
+                    writeTemplate(buffer, offset, templateLength, templateId, sql, sqlLength);
+                    segment.templateDefined(templateId);
+                    offset += templateLength;
+                }
+                int pos = writeHeader(buffer, offset, JournalRecord.TYPE_STATEMENT_EXECUTED, flags,
+                    event.getTimestampNanos(), connectionId, connectionIdLength, transactionId, transactionIdLength);
+                buffer.putInt(pos, templateId);
+                buffer.putInt(pos + 4, statement.getSeqNo());
+                buffer.putLong(pos + 8, event.getElapsedNanos());
+                buffer.putLong(pos + 16, event.getUpdateCount());
+                buffer.put(pos + 24, (byte)(method == null ? -1 : method.ordinal()));
+                pos += JournalRecord.STATEMENT_BODY_SIZE;
+                if (batchLengths != null) {
+                    pos = writeBatch(buffer, pos, batch, batchLengths);
+                } else if (templateId == 0) {
+                    buffer.putInt(pos, sqlLength);
+                    pos = writeUtf8(buffer, pos + 4, sql, sqlLength);
+                }
+                if (params != null) {
+                    writeParameters(buffer, pos, params);
+                }
+                // the length is written last so that a reader of a live segment stops before this record until it
+                // has been filled in, on a best-effort basis since plain puts to the mapping are not ordered
+                buffer.putInt(offset, recordLength);
+                appendedCount.incrementAndGet();
+                return;
+            }
+            segment = rollOver(segment);
+        }
+        droppedCount.incrementAndGet();
+    }
+
+    /**
+     * Appends a record for a connection being opened.
+     * @param physical whether a physical connection was established rather than one being leased from a pool
+     */
+    public void connectionOpened(ConnectionEvent event, boolean physical) {
+        appendConnectionRecord(JournalRecord.TYPE_CONNECTION_OPENED, event, physical);
+    }
+
+    /**
+     * Appends a record for a connection being closed.
+     * @param physical whether a physical connection was closed rather than one being released to a pool
+     */
+    public void connectionClosed(ConnectionEvent event, boolean physical) {
+        appendConnectionRecord(JournalRecord.TYPE_CONNECTION_CLOSED, event, physical);
+    }
+
+    /**
+     * Appends a record for a transaction beginning on <strong>connection</strong>.
+     */
+    public void transactionBegan(InstrumentedConnection connection, InstrumentedTransaction transaction) {
+        append(JournalRecord.TYPE_TRANSACTION_BEGAN, 0, timestampNanos(), connection.getConnectionId(),
+            transaction.getTransactionId());
+    }
+
+    /**
+     * Appends a record for a transaction being committed or rolled back on <strong>connection</strong>.
+     */
+    public void transactionFinished(InstrumentedConnection connection, InstrumentedTransaction transaction,
+                                    boolean committed) {
+        append(JournalRecord.TYPE_TRANSACTION_FINISHED, (committed ? JournalRecord.FLAG_COMMITTED : 0),
+            timestampNanos(), connection.getConnectionId(), transaction.getTransactionId());
+    }
+
+    private void appendConnectionRecord(byte type, ConnectionEvent event, boolean physical) {
+        int flags = (event.isPooled() ? JournalRecord.FLAG_POOLED : 0) | (physical ? JournalRecord.FLAG_PHYSICAL : 0);
+        append(type, flags, event.getTimestampNanos(), event.getConnection().getConnectionId(), null);
+    }
+
+    /**
+     * Appends a record that consists of only the common header.
+     */
+    private void append(byte type, int flags, long timestampNanos, String connectionId, String transactionId) {
+        if (!running) {
+            return;
+        }
+        int connectionIdLength = utf8Length(connectionId, MAX_STRING8_BYTES);
+        int transactionIdLength = utf8Length(transactionId, MAX_STRING8_BYTES);
+        int length = JournalRecord.RECORD_HEADER_SIZE + 2 + connectionIdLength + transactionIdLength;
+        JournalSegment segment = currentSegment.get();
+        for (int attempt = 0; attempt < 2 && segment != null; attempt++) {
+            int offset = segment.reserve(length);
+            if (offset >= 0) {
+                ByteBuffer buffer = segment.getBuffer();
+                writeHeader(buffer, offset, type, flags, timestampNanos, connectionId, connectionIdLength,
+                    transactionId, transactionIdLength);
+                buffer.putInt(offset, length);
+                appendedCount.incrementAndGet();
+                return;
+            }
+            segment = rollOver(segment);
+        }
+        droppedCount.incrementAndGet();
+    }
+
+    /**
+     * Swaps the pre-allocated spare segment in for <strong>full</strong>, returning the segment to retry with or
+     * <code>null</code> if no spare is ready yet.
+     */
+    private JournalSegment rollOver(JournalSegment full) {
+        JournalSegment current = currentSegment.get();
+        if (current != full) {
+            // another writer already rolled over
+            return current;
+        }
+        JournalSegment spare = spareSegment.get();
+        if (spare != null && spareSegment.compareAndSet(spare, null)) {
+            // only the writer that took the spare can get here for this segment, so this always succeeds
+            currentSegment.compareAndSet(full, spare);
+            retiredSegments.offer(full);
+        }
+        // wake the maintenance thread to flush the full segment and prepare the next spare
+        LockSupport.unpark(maintainer);
+        return (spare == null ? null : currentSegment.get());
+    }
+
+    /**
+     * Maintenance thread loop, which keeps a spare segment ready, flushes retired segments and enforces the retention
+     * limit until the journal is closed.
+     */
+    private void maintain() {
+        while (running) {
+            if (spareSegment.get() == null) {
+                try {
+                    spareSegment.set(createSegment());
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Unable to create journal segment in {}", directory, e);
+                }
+            }
+            closeRetiredSegments();
+            while (segmentFiles.size() > maxSegments) {
+                File oldest = segmentFiles.removeFirst();
+                if (!oldest.delete() && oldest.exists()) {
+                    log.warn("Unable to delete journal segment {}", oldest);
+                }
+            }
+            LockSupport.parkNanos(this, MAINTENANCE_INTERVAL_NANOS);
+        }
+        closeRetiredSegments();
+        JournalSegment current = currentSegment.get();
+        if (current != null) {
+            current.close();
+        }
+        JournalSegment spare = spareSegment.getAndSet(null);
+        if (spare != null) {
+            spare.close();
+        }
+    }
+
+    private void closeRetiredSegments() {
+        JournalSegment retired;
+        while ((retired = retiredSegments.poll()) != null) {
+            retired.close();
+        }
+    }
+
+    private JournalSegment createSegment() throws IOException {
+        long sequence = nextSequence++;
+        File file = new File(directory, segmentFileName(sequence));
+        JournalSegment segment = JournalSegment.create(file, sequence, segmentSize);
+        segmentFiles.addLast(file);
+        segmentCount.incrementAndGet();
+        return segment;
+    }
+
+    static String segmentFileName(long sequence) {
+        return String.format("%s%019d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Returns the sequence number from a segment file name, or -1 if it is not the name of a journal segment.
+     */
+    static long parseSegmentSequence(String fileName) {
+        if (!fileName.startsWith(SEGMENT_PREFIX) || !fileName.endsWith(SEGMENT_SUFFIX)) {
+            return -1L;
+        }
+        try {
+            return Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(),
+                fileName.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    private static void writeTemplate(ByteBuffer buffer, int offset, int length, int templateId, String sql,
+                                      int sqlLength) {
+        int pos = writeHeader(buffer, offset, JournalRecord.TYPE_TEMPLATE, 0, 0L, null, 0, null, 0);
+        buffer.putInt(pos, templateId);
+        buffer.putInt(pos + 4, sqlLength);
+        writeUtf8(buffer, pos + 8, sql, sqlLength);
+        buffer.putInt(offset, length);
+    }
+
+    /**
+     * Writes the number of statements in a batch followed by each statement as a <code>str32</code>.
+     * @return the position just past the batch
+     */
+    private static int writeBatch(ByteBuffer buffer, int pos, List<String> batch, int[] batchLengths) {
+        buffer.putInt(pos, batchLengths.length);
+        pos += 4;
+        for (int i = 0; i < batchLengths.length; i++) {
+            buffer.putInt(pos, batchLengths[i]);
+            pos = writeUtf8(buffer, pos + 4, batch.get(i), batchLengths[i]);
+        }
+        return pos;
+    }
+
+    /**
+     * Writes everything in the common record header except for the length, returning the offset of the record body.
+     */
+    private static int writeHeader(ByteBuffer buffer, int offset, byte type, int flags, long timestampNanos,
+                                   String connectionId, int connectionIdLength, String transactionId,
+                                   int transactionIdLength) {
+        buffer.put(offset + 4, type);
+        buffer.put(offset + 5, (byte)flags);
+        buffer.putLong(offset + 8, timestampNanos);
+        int pos = offset + JournalRecord.RECORD_HEADER_SIZE;
+        buffer.put(pos, (byte)connectionIdLength);
+        pos = writeUtf8(buffer, pos + 1, connectionId, connectionIdLength);
+        buffer.put(pos, (byte)transactionIdLength);
+        return writeUtf8(buffer, pos + 1, transactionId, transactionIdLength);
+    }
+
+    static int parametersLength(ParameterStore params) {
+        int count = Math.min(params.size(), MAX_PARAMETERS);
+        int length = 2 + count;
+        for (int i = 0; i < count; i++) {
+            switch (params.getType(i)) {
+                case ParameterStore.TYPE_UNSET:
+                case ParameterStore.TYPE_NULL:
+                    break;
+                case ParameterStore.TYPE_OBJECT:
+                    length += 2 + utf8Length(String.valueOf(params.getValue(i)), MAX_STRING16_BYTES);
+                    break;
+                default:
+                    length += 8;
+                    break;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes <strong>params</strong> at <strong>pos</strong>, taking exactly {@link #parametersLength(ParameterStore)}
+     * bytes.
+     * @return the position just past the parameters
+     */
+    static int writeParameters(ByteBuffer buffer, int pos, ParameterStore params) {
+        int count = Math.min(params.size(), MAX_PARAMETERS);
+        buffer.putShort(pos, (short)count);
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            byte type = params.getType(i);
+            buffer.put(pos++, type);
+            switch (type) {
+                case ParameterStore.TYPE_UNSET:
+                case ParameterStore.TYPE_NULL:
+                    break;
+                case ParameterStore.TYPE_FLOAT:
+                case ParameterStore.TYPE_DOUBLE:
+                    buffer.putDouble(pos, params.getDouble(i));
+                    pos += 8;
+                    break;
+                case ParameterStore.TYPE_OBJECT:
+                    // non-string values are converted twice, here and when sizing the record, to avoid a scratch array
+                    String value = String.valueOf(params.getValue(i));
+                    int length = utf8Length(value, MAX_STRING16_BYTES);
+                    buffer.putShort(pos, (short)length);
+                    pos = writeUtf8(buffer, pos + 2, value, length);
+                    break;
+                default:
+                    buffer.putLong(pos, params.getLong(i));
+                    pos += 8;
+                    break;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Returns the number of bytes needed to encode <strong>str</strong> as UTF-8, truncated at a character boundary so
+     * that it does not exceed <strong>maxBytes</strong>. A <code>null</code> string has a length of zero.
+     */
+    static int utf8Length(String str, int maxBytes) {
+        if (str == null) {
+            return 0;
+        }
+        int length = 0;
+        for (int i = 0, n = str.length(); i < n; i++) {
+            char c = str.charAt(i);
+            int charLength;
+            if (c < 0x80) {
+                charLength = 1;
+            } else if (c < 0x800) {
+                charLength = 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(str.charAt(i + 1))) {
+                charLength = 4;
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogates are written as a replacement character
+                charLength = 1;
+            } else {
+                charLength = 3;
+            }
+            if (length + charLength > maxBytes) {
+                break;
+            }
+            length += charLength;
+            if (charLength == 4) {
+                i++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encodes <strong>str</strong> as UTF-8 at <strong>pos</strong>, stopping once <strong>byteLength</strong> bytes
+     * as computed by {@link #utf8Length(String, int)} have been written, and returns the position after the last byte.
+     */
+    static int writeUtf8(ByteBuffer buffer, int pos, String str, int byteLength) {
+        int end = pos + byteLength;
+        for (int i = 0; pos < end; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                buffer.put(pos++, (byte)c);
+            } else if (c < 0x800) {
+                buffer.put(pos++, (byte)(0xC0 | (c >> 6)));
+                buffer.put(pos++, (byte)(0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < str.length() &&
+                Character.isLowSurrogate(str.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, str.charAt(++i));
+                buffer.put(pos++, (byte)(0xF0 | (codePoint >> 18)));
+                buffer.put(pos++, (byte)(0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put(pos++, (byte)(0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put(pos++, (byte)(0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put(pos++, (byte)'?');
+            } else {
+                buffer.put(pos++, (byte)(0xE0 | (c >> 12)));
+                buffer.put(pos++, (byte)(0x80 | ((c >> 6) & 0x3F)));
+                buffer.put(pos++, (byte)(0x80 | (c & 0x3F)));
+            }
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,111 @@
+package org.drg.jdbceptor.impl;
+
+import org.drg.jdbceptor.api.StatementMethod;
+
+/**
+ * Lock-free execution metrics for a single data source, broken down by {@link StatementMethod} and by whether each
+ * execution succeeded or failed. These are updated by every instrumented statement, including those created for
+ * connections that only collect metrics and do not capture any SQL. </br>
+ * Each combination of method and outcome has its own {@link LatencyHistogram}, which can be read cumulatively or in
+ * resettable intervals.
+ *
+ * @author dgarson
+ * @see org.drg.jdbceptor.config.MetricsFeatureChecker#shouldCollectStatementMetrics()
+ */
+public class StatementMetrics {
+
+    // histograms indexed by (method ordinal * 2) + (1 if error, 0 if success)
+    private final LatencyHistogram[] histograms;
+
+    public StatementMetrics() {
+        histograms = new LatencyHistogram[StatementMethod.values().length * 2];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records a single execution of a statement method. This is wait-free and safe to call from any thread.
+     * @param method the execution method that was invoked
+     * @param elapsedNanos the duration of the execution, in nanoseconds
+     * @param error true if the execution threw an exception
+     */
+    public void record(StatementMethod method, long elapsedNanos, boolean error) {
+        getLatencyHistogram(method, error).record(elapsedNanos);
+    }
+
+    /**
+     * Returns the latency histogram for executions of <strong>method</strong> that either succeeded or failed.
+     */
+    public LatencyHistogram getLatencyHistogram(StatementMethod method, boolean error) {
+        return histograms[method.ordinal() * 2 + (error ? 1 : 0)];
+    }
+
+    /**
+     * Returns a cumulative snapshot of all executions of <strong>method</strong>, both successful and failed.
+     */
+    public HistogramSnapshot getSnapshot(StatementMethod method) {
+        return getLatencyHistogram(method, false).snapshot().plus(getLatencyHistogram(method, true).snapshot());
+    }
+
+    /**
+     * Starts a new interval for every histogram, so that subsequent calls to
+     * {@link LatencyHistogram#intervalSnapshot()} only include executions from this point onwards.
+     */
+    public void resetIntervals() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.resetInterval();
+        }
+    }
+
+    /**
+     * Returns the number of times <strong>method</strong> has been executed, including failed executions.
+     */
+    public long getExecutionCount(StatementMethod method) {
+        return getSnapshot(method).getTotalCount();
+    }
+
+    /**
+     * Returns the number of times <strong>method</strong> threw an exception.
+     */
+    public long getErrorCount(StatementMethod method) {
+        return getLatencyHistogram(method, true).snapshot().getTotalCount();
+    }
+
+    /**
+     * Returns the cumulative time, in nanoseconds, spent executing <strong>method</strong>.
+     */
+    public long getTotalNanos(StatementMethod method) {
+        return getSnapshot(method).getTotalNanos();
+    }
+
+    /**
+     * Returns the longest single execution time, in nanoseconds, observed for <strong>method</strong>. This is only as
+     * precise as the histogram buckets.
+     */
+    public long getMaxNanos(StatementMethod method) {
+        return getSnapshot(method).getMaxNanos();
+    }
+
+    /**
+     * Returns the total number of statement executions across all methods.
+     */
+    public long getTotalExecutionCount() {
+        long total = 0;
+        for (StatementMethod method : StatementMethod.values()) {
+            total += getExecutionCount(method);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the total number of failed statement executions across all methods.
+     */
+    public long getTotalErrorCount() {
+        long total = 0;
+        for (StatementMethod method : StatementMethod.values()) {
+            total += getErrorCount(method);
+        }
+        return total;
+    }
+}
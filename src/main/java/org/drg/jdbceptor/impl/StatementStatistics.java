@@ -0,0 +1,134 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.base.Preconditions;
+import org.drg.jdbceptor.event.StatementExecutedEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Aggregates execution statistics for a single data source, keyed by normalized SQL fingerprint. For each fingerprint
+ * this tracks the execution count, total/min/max time, a latency histogram, the error count and the number of rows
+ * affected. </br>
+ * The number of distinct fingerprints is bounded: once the limit is reached, executions of any fingerprint that is not
+ * already tracked are aggregated into a single {@link #OTHER_FINGERPRINT} bucket, so ad-hoc SQL with inlined values
+ * cannot grow memory without bound. Recording and snapshot iteration never block.
+ *
+ * @author dgarson
+ * @see SqlFingerprint
+ * @see DataSourceManager#enableStatementStatistics(int)
+ */
+public class StatementStatistics {
+
+    /**
+     * Fingerprint of the bucket that collects executions once the maximum number of fingerprints is being tracked.
+     */
+    public static final String OTHER_FINGERPRINT = "<other>";
+
+    private static final Comparator<FingerprintSnapshot> BY_TOTAL_TIME_DESC = new Comparator<FingerprintSnapshot>() {
+        @Override
+        public int compare(FingerprintSnapshot left, FingerprintSnapshot right) {
+            return Long.compare(right.getTotalNanos(), left.getTotalNanos());
+        }
+    };
+
+    private final int maxFingerprints;
+    private final ConcurrentMap<String, FingerprintStatistics> statistics = new ConcurrentHashMap<>();
+    // tracked separately from the map size, which is not constant-time for all concurrent map implementations
+    private final AtomicInteger fingerprintCount = new AtomicInteger();
+    private final FingerprintStatistics otherStatistics = new FingerprintStatistics(OTHER_FINGERPRINT);
+
+    /**
+     * @param maxFingerprints the maximum number of distinct fingerprints to track individually
+     */
+    public StatementStatistics(int maxFingerprints) {
+        Preconditions.checkArgument(maxFingerprints > 0, "maxFingerprints must be positive");
+        this.maxFingerprints = maxFingerprints;
+    }
+
+    /**
+     * Returns the maximum number of distinct fingerprints tracked individually.
+     */
+    public int getMaxFingerprints() {
+        return maxFingerprints;
+    }
+
+    /**
+     * Records a single statement execution. Executions for which no SQL fingerprint is available are ignored.
+     */
+    public void record(StatementExecutedEvent event) {
+        String fingerprint = SqlFingerprint.forStatement(event.getStatement());
+        if (fingerprint != null) {
+            record(fingerprint, event.getElapsedNanos(), event.hasError(), event.getUpdateCount());
+        }
+    }
+
+    /**
+     * Records a single execution of a statement with a given <strong>fingerprint</strong>.
+     * @param updateCount the number of rows affected, or -1 if unknown
+     */
+    public void record(String fingerprint, long elapsedNanos, boolean error, long updateCount) {
+        statisticsFor(fingerprint).record(elapsedNanos, error, updateCount);
+    }
+
+    private FingerprintStatistics statisticsFor(String fingerprint) {
+        FingerprintStatistics stats = statistics.get(fingerprint);
+        if (stats != null) {
+            return stats;
+        }
+        // reserve a slot before inserting so that concurrent inserts can never exceed the limit
+        if (fingerprintCount.incrementAndGet() > maxFingerprints) {
+            fingerprintCount.decrementAndGet();
+            return otherStatistics;
+        }
+        FingerprintStatistics newStats = new FingerprintStatistics(fingerprint);
+        stats = statistics.putIfAbsent(fingerprint, newStats);
+        if (stats == null) {
+            return newStats;
+        }
+        // lost the race to another thread inserting the same fingerprint, so release the slot we reserved
+        fingerprintCount.decrementAndGet();
+        return stats;
+    }
+
+    /**
+     * Returns a snapshot of the statistics for every fingerprint, including the {@link #OTHER_FINGERPRINT} bucket if it
+     * has been used, sorted by descending total execution time.
+     */
+    public List<FingerprintSnapshot> snapshot() {
+        List<FingerprintSnapshot> snapshots = new ArrayList<>(statistics.size() + 1);
+        for (FingerprintStatistics stats : statistics.values()) {
+            snapshots.add(stats.snapshot());
+        }
+        FingerprintSnapshot other = otherStatistics.snapshot();
+        if (other.getCount() > 0) {
+            snapshots.add(other);
+        }
+        Collections.sort(snapshots, BY_TOTAL_TIME_DESC);
+        return snapshots;
+    }
+
+    /**
+     * Returns a snapshot of the statistics for a single <strong>fingerprint</strong>, or <code>null</code> if it is
+     * not being tracked.
+     */
+    public FingerprintSnapshot getSnapshot(String fingerprint) {
+        if (OTHER_FINGERPRINT.equals(fingerprint)) {
+            return otherStatistics.snapshot();
+        }
+        FingerprintStatistics stats = statistics.get(fingerprint);
+        return (stats == null ? null : stats.snapshot());
+    }
+
+    /**
+     * Returns the number of distinct fingerprints currently being tracked individually.
+     */
+    public int getFingerprintCount() {
+        return fingerprintCount.get();
+    }
+}
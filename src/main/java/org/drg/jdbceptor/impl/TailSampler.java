@@ -0,0 +1,146 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.base.Preconditions;
+import org.drg.jdbceptor.api.InstrumentedConnection;
+import org.drg.jdbceptor.api.SqlSnapshot;
+import org.drg.jdbceptor.config.TailSamplingPolicy;
+import org.drg.jdbceptor.hibernate.InstrumentedTransaction;
+import org.drg.jdbceptor.hibernate.event.TracedStatement;
+import org.drg.jdbceptor.hibernate.event.TransactionTrace;
+import org.drg.jdbceptor.hibernate.event.TransactionTraceListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tail-based sampling of transactions for a single data source. Every transaction buffers its statements in a
+ * {@link TransactionTraceBuffer} borrowed from the thread that began it, and once it commits or rolls back the
+ * {@link TailSamplingPolicy} decides, knowing how long it took, how many statements it ran and whether it failed,
+ * whether to materialize those statements into a {@link TransactionTrace} for the listener. Transactions that are not
+ * retained, which should be nearly all of them, are discarded without allocating. </br>
+ * Only statements executed through connections that capture statements are buffered, and their parameters are only
+ * buffered if query parameters are being captured, so tail sampling is best combined with the
+ * {@link org.drg.jdbceptor.config.InstrumentationLevel#FULL} level and without other per-statement aggregation.
+ *
+ * @author dgarson
+ * @see DataSourceManager#enableTailSampling(TailSamplingPolicy, int, TransactionTraceListener)
+ */
+public class TailSampler {
+
+    private static final Logger log = LoggerFactory.getLogger(TailSampler.class);
+
+    /**
+     * Default maximum number of statements buffered per transaction; later statements are counted but not kept.
+     */
+    public static final int DEFAULT_MAX_STATEMENTS = 1000;
+
+    private final String dataSourceId;
+    private final TailSamplingPolicy policy;
+    private final int maxStatements;
+    private final TransactionTraceListener listener;
+
+    private final ThreadLocal<TransactionTraceBuffer> threadBuffers = new ThreadLocal<TransactionTraceBuffer>() {
+        @Override
+        protected TransactionTraceBuffer initialValue() {
+            return new TransactionTraceBuffer(maxStatements, /*pooled=*/true);
+        }
+    };
+
+    private final AtomicLong retainedCount = new AtomicLong();
+    private final AtomicLong discardedCount = new AtomicLong();
+
+    TailSampler(String dataSourceId, TailSamplingPolicy policy, int maxStatements, TransactionTraceListener listener) {
+        Preconditions.checkNotNull(policy, "policy");
+        Preconditions.checkArgument(maxStatements > 0, "maxStatements must be positive");
+        Preconditions.checkNotNull(listener, "listener");
+        this.dataSourceId = dataSourceId;
+        this.policy = policy;
+        this.maxStatements = maxStatements;
+        this.listener = listener;
+    }
+
+    public TailSamplingPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns the number of transactions whose statements were reported to the listener.
+     */
+    public long getRetainedCount() {
+        return retainedCount.get();
+    }
+
+    /**
+     * Returns the number of transactions whose statements were discarded.
+     */
+    public long getDiscardedCount() {
+        return discardedCount.get();
+    }
+
+    /**
+     * Borrows a buffer for a transaction that is beginning on the current thread. This is the thread's own buffer
+     * unless it is already in use by another transaction, such as one on a different data source.
+     */
+    public TransactionTraceBuffer acquireBuffer() {
+        TransactionTraceBuffer buffer = threadBuffers.get();
+        if (buffer.inUse) {
+            return new TransactionTraceBuffer(maxStatements, /*pooled=*/false);
+        }
+        buffer.inUse = true;
+        return buffer;
+    }
+
+    /**
+     * Decides whether to keep the statements buffered by <strong>transaction</strong>, reports them if so, and
+     * returns the buffer for reuse either way. This must be called exactly once for every acquired buffer, whether the
+     * transaction committed, rolled back or failed to do either, and may be called from any thread.
+     * @param connection the connection the transaction ran on, or <code>null</code> if unknown
+     * @param committed true if the transaction was committed, false if it was rolled back
+     */
+    public void finish(InstrumentedTransaction transaction, InstrumentedConnection connection,
+                       TransactionTraceBuffer buffer, boolean committed) {
+        try {
+            long durationNanos = transaction.getDurationNanos();
+            if (!policy.shouldRetain(durationNanos, buffer.statementCount, buffer.errorCount, committed)) {
+                discardedCount.incrementAndGet();
+                return;
+            }
+            retainedCount.incrementAndGet();
+            TransactionTrace trace = new TransactionTrace(dataSourceId,
+                (connection == null ? null : connection.getConnectionId()), transaction.getTransactionId(), committed,
+                durationNanos, buffer.statementCount, buffer.errorCount,
+                materialize(buffer, transaction.getOpenedTimestampNanos(), transaction.getDataSourceManager()));
+            try {
+                listener.transactionTraced(trace);
+            } catch (RuntimeException re) {
+                log.error("Transaction trace listener failed for transaction {}", trace.getTransactionId(), re);
+            }
+        } finally {
+            buffer.reset();
+            buffer.inUse = false;
+        }
+    }
+
+    private static List<TracedStatement> materialize(TransactionTraceBuffer buffer, long openedTimestampNanos,
+                                                     DataSourceManager dataSourceManager) {
+        List<TracedStatement> statements = new ArrayList<>(buffer.size);
+        for (int i = 0; i < buffer.size; i++) {
+            SqlTemplate template = buffer.templates[i];
+            SqlSnapshot sql;
+            if (template == null) {
+                sql = new SqlSnapshotImpl(buffer.rawSql[i], buffer.rawSql[i]);
+            } else if (buffer.hasParams[i]) {
+                sql = new SqlSnapshotImpl(dataSourceManager, template, buffer.params[i].copy());
+            } else {
+                sql = new SqlSnapshotImpl(template.getSql(), template.getSql());
+            }
+            statements.add(new TracedStatement(buffer.methods[i], (template == null ? 0 : template.getId()), sql,
+                buffer.startNanos[i] - openedTimestampNanos, buffer.elapsedNanos[i], buffer.updateCounts[i],
+                buffer.exceptions[i]));
+        }
+        return statements;
+    }
+}
@@ -0,0 +1,168 @@
+package org.drg.jdbceptor.impl;
+
+import com.google.common.base.Preconditions;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Settings shared by the statement logs of every transaction on a single data source, which bound how much memory each
+ * log may use before it spills to a memory-mapped temporary file and how large that file may grow before further
+ * statements are dropped. The heap buffer of a finished log is kept by the thread that finished it and handed to the
+ * next transaction on that thread, so short transactions do not allocate once a thread has warmed up. </br>
+ * The heap buffers of all open logs together are also limited to a total memory budget, and a log that cannot grow
+ * its buffer within that budget spills early instead. In the worst case the heap used is therefore the total memory
+ * budget plus one idle buffer of up to the per-transaction budget for every thread that has finished a transaction,
+ * and the disk used is the maximum spill size for every transaction that is open at the same time.
+ *
+ * @author dgarson
+ * @see TransactionStatementLog
+ * @see DataSourceManager#enableTransactionStatementCapture(int, long, File)
+ */
+public class TransactionStatementCapture {
+
+    /**
+     * Default number of bytes of statements each transaction keeps in memory.
+     */
+    public static final int DEFAULT_MEMORY_BUDGET = 256 * 1024;
+
+    /**
+     * Default maximum size of the file that a single transaction's statements spill to.
+     */
+    public static final long DEFAULT_MAX_SPILL_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * Default number of bytes of statements that all open transactions together keep in memory.
+     */
+    public static final long DEFAULT_TOTAL_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    private final int memoryBudget;
+    private final long totalMemoryBudget;
+    private final long maxSpillBytes;
+    private final File spillDirectory;
+
+    // bytes of heap buffer capacity held by open logs, which never exceeds the total memory budget
+    private final AtomicLong memoryInUse = new AtomicLong();
+
+    private final ThreadLocal<ByteBuffer> idleBuffers = new ThreadLocal<>();
+
+    private final AtomicLong spilledLogCount = new AtomicLong();
+    private final AtomicLong droppedStatementCount = new AtomicLong();
+
+    public TransactionStatementCapture(int memoryBudget, long maxSpillBytes, File spillDirectory) {
+        this(memoryBudget, DEFAULT_TOTAL_MEMORY_BUDGET, maxSpillBytes, spillDirectory);
+    }
+
+    /**
+     * @param memoryBudget the number of bytes of statements each transaction keeps in memory
+     * @param totalMemoryBudget the number of bytes of statements that all open transactions together keep in memory
+     * @param maxSpillBytes the maximum size of the file each transaction spills to, or zero to drop statements once the
+     *                      memory budget is used up
+     * @param spillDirectory the directory that spill files are created in, or <code>null</code> for the default
+     *                       temporary directory
+     */
+    public TransactionStatementCapture(int memoryBudget, long totalMemoryBudget, long maxSpillBytes,
+                                       File spillDirectory) {
+        Preconditions.checkArgument(memoryBudget > 0, "memoryBudget must be positive");
+        Preconditions.checkArgument(totalMemoryBudget >= 0L, "totalMemoryBudget must not be negative");
+        Preconditions.checkArgument(maxSpillBytes >= 0L, "maxSpillBytes must not be negative");
+        this.memoryBudget = memoryBudget;
+        this.totalMemoryBudget = totalMemoryBudget;
+        this.maxSpillBytes = maxSpillBytes;
+        this.spillDirectory = spillDirectory;
+    }
+
+    public int getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public long getTotalMemoryBudget() {
+        return totalMemoryBudget;
+    }
+
+    /**
+     * Returns the number of bytes of heap buffer capacity currently held by the logs of open transactions.
+     */
+    public long getMemoryInUse() {
+        return memoryInUse.get();
+    }
+
+    public long getMaxSpillBytes() {
+        return maxSpillBytes;
+    }
+
+    /**
+     * Returns the directory that spill files are created in, or <code>null</code> for the default temporary directory.
+     */
+    public File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * Returns the number of transactions whose statements did not fit in memory and were spilled to a file.
+     */
+    public long getSpilledLogCount() {
+        return spilledLogCount.get();
+    }
+
+    /**
+     * Returns the number of statements that were not logged because a transaction's log was full.
+     */
+    public long getDroppedStatementCount() {
+        return droppedStatementCount.get();
+    }
+
+    /**
+     * Creates the statement log for a transaction that began at <strong>openedTimestampNanos</strong>.
+     */
+    public TransactionStatementLog newLog(long openedTimestampNanos) {
+        return new TransactionStatementLog(this, openedTimestampNanos);
+    }
+
+    /**
+     * Takes the current thread's idle buffer, if it has one.
+     */
+    ByteBuffer borrowBuffer() {
+        ByteBuffer buffer = idleBuffers.get();
+        if (buffer != null) {
+            idleBuffers.remove();
+            buffer.clear();
+        }
+        return buffer;
+    }
+
+    /**
+     * Keeps <strong>buffer</strong> for the next transaction on the current thread.
+     */
+    void releaseBuffer(ByteBuffer buffer) {
+        idleBuffers.set(buffer);
+    }
+
+    /**
+     * Reserves <strong>bytes</strong> of the total memory budget for a log's heap buffer.
+     * @return <code>false</code> if that would exceed the total memory budget, in which case nothing is reserved
+     */
+    boolean reserveMemory(int bytes) {
+        while (true) {
+            long current = memoryInUse.get();
+            if (current + bytes > totalMemoryBudget) {
+                return false;
+            } else if (memoryInUse.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    void releaseMemory(int bytes) {
+        memoryInUse.addAndGet(-bytes);
+    }
+
+    void spilled() {
+        spilledLogCount.incrementAndGet();
+    }
+
+    void dropped() {
+        droppedStatementCount.incrementAndGet();
+    }
+}
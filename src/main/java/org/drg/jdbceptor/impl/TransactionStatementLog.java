@@ -0,0 +1,434 @@
+package org.drg.jdbceptor.impl;
+
+import org.drg.jdbceptor.api.InstrumentedStatement;
+import org.drg.jdbceptor.api.SqlSnapshot;
+import org.drg.jdbceptor.api.StatementMethod;
+import org.drg.jdbceptor.event.StatementExecutedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Log of every statement executed within a single transaction, kept within a hard memory budget. Each statement is
+ * encoded into a compact binary record holding its timings and outcome, the id of its shared {@link SqlTemplate} (or
+ * its SQL, for plain statements and batches) and its bound parameters, using the same parameter encoding as the
+ * {@link StatementJournal}. Templates are shared by all transactions, so the log only keeps a reference to each
+ * distinct one. </br>
+ * Records are appended to a heap buffer until it reaches the memory budget, or the buffer cannot grow within the total
+ * memory budget shared by all open transactions, after which they spill to a temporary file
+ * that is memory-mapped in {@link #SPILL_CHUNK_SIZE} chunks, so that a batch job running a very large number of
+ * statements in one transaction only costs disk space and page cache. Once the file reaches its own limit, further
+ * statements are counted but dropped. SQL longer than {@link #MAX_SQL_BYTES} is truncated. </br>
+ * Logs are confined to the thread running the transaction and are not thread-safe. A log and everything read from it
+ * is only valid until it is closed, which happens after the transaction's commit or rollback callbacks have run.
+ *
+ * @author dgarson
+ * @see TransactionStatementCapture
+ */
+public class TransactionStatementLog implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionStatementLog.class);
+
+    /**
+     * Size of each memory-mapped chunk of a spill file, which is also the largest record that can be spilled.
+     */
+    public static final int SPILL_CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * Maximum number of bytes of SQL recorded for a single plain statement.
+     */
+    public static final int MAX_SQL_BYTES = 64 * 1024;
+
+    private static final int INITIAL_MEMORY_SIZE = 4096;
+
+    private static final int FLAG_ERROR = 1;
+    private static final int FLAG_PARAMETERS = 1 << 1;
+
+    // record layout: length, template id (zero if the SQL follows), method ordinal plus one, flags, two unused bytes,
+    // offset since the transaction began, elapsed nanos and update count, then the optional SQL and parameters
+    private static final int RECORD_HEADER_SIZE = 36;
+
+    private static final StatementMethod[] METHODS = StatementMethod.values();
+
+    private final TransactionStatementCapture capture;
+    private final long openedTimestampNanos;
+
+    // distinct templates referenced by records, keyed by template id
+    private final Map<Integer, SqlTemplate> templates = new HashMap<>();
+
+    private ByteBuffer memory;
+    private int memoryLength;
+    // bytes of the capture's total memory budget reserved for the memory buffer
+    private int reservedMemory;
+
+    private File spillFile;
+    private RandomAccessFile spillHandle;
+    private List<MappedByteBuffer> spillChunks;
+    private int spillPosition;
+    private boolean spillFailed;
+
+    private int statementCount;
+    private int recordedCount;
+    private int droppedCount;
+    private boolean closed;
+
+    TransactionStatementLog(TransactionStatementCapture capture, long openedTimestampNanos) {
+        this.capture = capture;
+        this.openedTimestampNanos = openedTimestampNanos;
+    }
+
+    /**
+     * Returns the number of statements executed within the transaction, including any that were dropped.
+     */
+    public int getStatementCount() {
+        return statementCount;
+    }
+
+    /**
+     * Returns the number of statements that can be read back from this log.
+     */
+    public int getRecordedCount() {
+        return recordedCount;
+    }
+
+    /**
+     * Returns the number of statements that were not logged because the log was full.
+     */
+    public int getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Returns <code>true</code> if statements no longer fit in memory and were spilled to a file.
+     */
+    public boolean isSpilled() {
+        return spillChunks != null;
+    }
+
+    /**
+     * Returns the number of bytes of statements held in memory and in the spill file, respectively.
+     */
+    public long getMemoryBytes() {
+        return memoryLength;
+    }
+
+    public long getSpilledBytes() {
+        if (spillChunks == null || spillChunks.isEmpty()) {
+            return 0L;
+        }
+        return (long)(spillChunks.size() - 1) * SPILL_CHUNK_SIZE + spillPosition;
+    }
+
+    /**
+     * Appends a statement that finished executing within the transaction.
+     */
+    public void append(StatementExecutedEvent event) {
+        statementCount++;
+        if (closed) {
+            return;
+        }
+        InstrumentedStatement<?> statement = event.getStatement();
+        SqlTemplate template = null;
+        String sql = null;
+        ParameterStore params = null;
+        if (statement instanceof AbstractInstrumentedStatement) {
+            AbstractInstrumentedStatement<?> statementImpl = (AbstractInstrumentedStatement<?>)statement;
+            template = statementImpl.getSqlTemplate();
+            sql = (template == null ? statementImpl.getRawSql() : null);
+            params = statementImpl.getBoundParameters();
+        } else {
+            sql = statement.getSqlStatement();
+        }
+        int sqlLength = (template == null ? StatementJournal.utf8Length(sql, MAX_SQL_BYTES) : 0);
+        int length = RECORD_HEADER_SIZE + (template == null ? 4 + sqlLength : 0) +
+            (params == null ? 0 : StatementJournal.parametersLength(params));
+
+        ByteBuffer buffer;
+        int offset;
+        if (spillChunks == null && memoryLength + length <= capture.getMemoryBudget() &&
+            ensureMemory(memoryLength + length)) {
+            buffer = memory;
+            offset = memoryLength;
+            memoryLength += length;
+        } else {
+            buffer = reserveSpill(length);
+            if (buffer == null) {
+                droppedCount++;
+                capture.dropped();
+                return;
+            }
+            offset = spillPosition;
+            spillPosition += length;
+        }
+
+        StatementMethod method = event.getStatementMethod();
+        int flags = (event.hasError() ? FLAG_ERROR : 0) | (params != null ? FLAG_PARAMETERS : 0);
+        buffer.putInt(offset, length);
+        buffer.putInt(offset + 4, (template == null ? 0 : template.getId()));
+        buffer.put(offset + 8, (byte)(method == null ? 0 : method.ordinal() + 1));
+        buffer.put(offset + 9, (byte)flags);
+        buffer.putLong(offset + 12, event.getTimestampNanos() - event.getElapsedNanos() - openedTimestampNanos);
+        buffer.putLong(offset + 20, event.getElapsedNanos());
+        buffer.putLong(offset + 28, event.getUpdateCount());
+        int pos = offset + RECORD_HEADER_SIZE;
+        if (template == null) {
+            buffer.putInt(pos, sqlLength);
+            pos = StatementJournal.writeUtf8(buffer, pos + 4, sql, sqlLength);
+        } else if (!templates.containsKey(template.getId())) {
+            templates.put(template.getId(), template);
+        }
+        if (params != null) {
+            StatementJournal.writeParameters(buffer, pos, params);
+        }
+        recordedCount++;
+    }
+
+    /**
+     * Returns a cursor over the logged statements, in the order they were executed.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Releases the memory buffer to the current thread for reuse and deletes any spill file. Further statements are
+     * counted but not logged.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        templates.clear();
+        if (memory != null) {
+            capture.releaseMemory(reservedMemory);
+            reservedMemory = 0;
+            capture.releaseBuffer(memory);
+            memory = null;
+        }
+        closeSpillFile();
+    }
+
+    /**
+     * Makes sure that the memory buffer can hold <strong>required</strong> bytes, returning <code>false</code> if that
+     * would exceed the capture's total memory budget.
+     */
+    private boolean ensureMemory(int required) {
+        if (memory == null) {
+            ByteBuffer idle = capture.borrowBuffer();
+            int capacity = (idle != null ? idle.capacity() :
+                Math.min(Math.max(INITIAL_MEMORY_SIZE, required), capture.getMemoryBudget()));
+            if (!capture.reserveMemory(capacity)) {
+                if (idle != null) {
+                    capture.releaseBuffer(idle);
+                }
+                return false;
+            }
+            reservedMemory = capacity;
+            memory = (idle != null ? idle : ByteBuffer.allocate(capacity));
+        }
+        if (required > memory.capacity()) {
+            int capacity = (int)Math.min(Math.max((long)memory.capacity() * 2, required), capture.getMemoryBudget());
+            if (!capture.reserveMemory(capacity - memory.capacity())) {
+                return false;
+            }
+            reservedMemory = capacity;
+            ByteBuffer grown = ByteBuffer.allocate(capacity);
+            memory.limit(memoryLength).position(0);
+            grown.put(memory);
+            memory = grown;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the spill chunk that a record of <strong>length</strong> bytes should be written to at
+     * {@link #spillPosition}, mapping a new chunk if needed, or <code>null</code> if it cannot be spilled.
+     */
+    private ByteBuffer reserveSpill(int length) {
+        if (spillFailed || length > SPILL_CHUNK_SIZE) {
+            return null;
+        }
+        if (spillChunks != null && spillPosition + length <= SPILL_CHUNK_SIZE) {
+            return spillChunks.get(spillChunks.size() - 1);
+        }
+        int chunks = (spillChunks == null ? 0 : spillChunks.size());
+        long fileLength = (long)(chunks + 1) * SPILL_CHUNK_SIZE;
+        if (fileLength > capture.getMaxSpillBytes()) {
+            return null;
+        }
+        try {
+            if (spillHandle == null) {
+                spillFile = File.createTempFile("jdbceptor-tx-", ".log", capture.getSpillDirectory());
+                spillHandle = new RandomAccessFile(spillFile, "rw");
+                spillChunks = new ArrayList<>();
+                capture.spilled();
+            }
+            // the file is extended with zeros, which also terminates the unused tail of the previous chunk
+            spillHandle.setLength(fileLength);
+            MappedByteBuffer chunk = spillHandle.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                fileLength - SPILL_CHUNK_SIZE, SPILL_CHUNK_SIZE);
+            spillChunks.add(chunk);
+            spillPosition = 0;
+            return chunk;
+        } catch (IOException e) {
+            log.warn("Unable to spill transaction statements to {}, dropping further statements", spillFile, e);
+            spillFailed = true;
+            return null;
+        }
+    }
+
+    private void closeSpillFile() {
+        if (spillHandle != null) {
+            try {
+                spillHandle.close();
+            } catch (IOException e) {
+                // the mappings do not depend on the handle, and the file is deleted below
+            }
+            spillHandle = null;
+        }
+        if (spillFile != null) {
+            // mapped chunks are only unmapped once collected, which does not prevent deleting the file on most systems
+            if (!spillFile.delete()) {
+                spillFile.deleteOnExit();
+            }
+            spillFile = null;
+        }
+        spillChunks = null;
+    }
+
+    /**
+     * Forward-only cursor over the statements in a {@link TransactionStatementLog}, which reads each record in place
+     * without copying it. Call {@link #next()} before reading the first statement.
+     */
+    public final class Cursor {
+
+        // -1 while reading the memory buffer, otherwise the index of the spill chunk being read
+        private int chunk = -1;
+        private ByteBuffer buffer = memory;
+        private int limit = memoryLength;
+        private int offset;
+        private int length;
+
+        private Cursor() {
+        }
+
+        /**
+         * Advances to the next statement.
+         * @return <code>false</code> if there are no more statements
+         */
+        public boolean next() {
+            if (closed) {
+                throw new IllegalStateException("Transaction statement log has already been closed");
+            }
+            offset += length;
+            length = 0;
+            while (buffer == null || offset + 4 > limit || buffer.getInt(offset) == 0) {
+                if (spillChunks == null || chunk + 1 >= spillChunks.size()) {
+                    return false;
+                }
+                chunk++;
+                buffer = spillChunks.get(chunk);
+                limit = (chunk == spillChunks.size() - 1 ? spillPosition : SPILL_CHUNK_SIZE);
+                offset = 0;
+            }
+            length = buffer.getInt(offset);
+            return true;
+        }
+
+        /**
+         * Returns the id of the statement's shared SQL template, or zero for plain statements and batches.
+         */
+        public int getTemplateId() {
+            return buffer.getInt(offset + 4);
+        }
+
+        /**
+         * Returns the execution method that was invoked, or <code>null</code> if it was not one of the timed methods.
+         */
+        public StatementMethod getMethod() {
+            int ordinal = buffer.get(offset + 8);
+            return (ordinal == 0 ? null : METHODS[ordinal - 1]);
+        }
+
+        public boolean hasError() {
+            return (buffer.get(offset + 9) & FLAG_ERROR) != 0;
+        }
+
+        /**
+         * Returns when the statement began executing, in nanoseconds since the transaction began.
+         */
+        public long getOffsetNanos() {
+            return buffer.getLong(offset + 12);
+        }
+
+        public long getElapsedNanos() {
+            return buffer.getLong(offset + 20);
+        }
+
+        /**
+         * Returns the number of rows affected, or -1 if unknown.
+         */
+        public long getUpdateCount() {
+            return buffer.getLong(offset + 28);
+        }
+
+        /**
+         * Returns the SQL prior to any parameter substitution.
+         */
+        public String getRawSql() {
+            int templateId = getTemplateId();
+            if (templateId != 0) {
+                return templates.get(templateId).getSql();
+            }
+            int pos = offset + RECORD_HEADER_SIZE;
+            return JournalRecord.decode(buffer, pos + 4, buffer.getInt(pos));
+        }
+
+        /**
+         * Reads the parameters bound to the statement into <strong>into</strong>, which is cleared first so that it
+         * can be re-used across statements. Object parameters are read back as their string value.
+         * @return <code>true</code> if parameters were logged for the statement
+         */
+        public boolean readParameters(ParameterStore into) {
+            into.clear();
+            if ((buffer.get(offset + 9) & FLAG_PARAMETERS) == 0) {
+                return false;
+            }
+            int pos = offset + RECORD_HEADER_SIZE;
+            if (getTemplateId() == 0) {
+                pos += 4 + buffer.getInt(pos);
+            }
+            JournalRecord.readParameters(buffer, pos, into);
+            return true;
+        }
+
+        /**
+         * Returns a snapshot of the statement's SQL that remains valid after this log has been closed, formatting
+         * logged parameters into it only when first requested.
+         */
+        public SqlSnapshot getSqlSnapshot(DataSourceManager dataSourceManager) {
+            int templateId = getTemplateId();
+            if (templateId != 0) {
+                ParameterStore params = new ParameterStore();
+                if (readParameters(params)) {
+                    return new SqlSnapshotImpl(dataSourceManager, templates.get(templateId), params);
+                }
+            }
+            String sql = getRawSql();
+            return new SqlSnapshotImpl(sql, sql);
+        }
+    }
+}
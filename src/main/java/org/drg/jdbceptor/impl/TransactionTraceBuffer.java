@@ -0,0 +1,134 @@
+package org.drg.jdbceptor.impl;
+
+import org.drg.jdbceptor.api.InstrumentedStatement;
+import org.drg.jdbceptor.api.StatementMethod;
+import org.drg.jdbceptor.event.StatementExecutedEvent;
+
+import java.util.Arrays;
+
+/**
+ * Reusable arena that a transaction buffers its statements in until its tail sampling policy has decided whether to
+ * keep them. Each statement is recorded into parallel arrays as a reference to its shared {@link SqlTemplate} (or its
+ * SQL for plain statements), its timings and outcome, and a copy of its bound parameters into a {@link ParameterStore}
+ * that is owned by the slot and reused. Nothing is formatted or boxed while recording, and once the arrays have
+ * reached a transaction's steady-state size, neither recording nor discarding the buffer allocates. </br>
+ * Buffers are confined to the transaction using them and are not thread-safe. A transaction may finish on a different
+ * thread than the one it began on, in which case the buffer it borrowed is handed back to the thread it came from
+ * through the volatile {@link #inUse} flag, which is only cleared once the buffer has been reset.
+ *
+ * @author dgarson
+ * @see TailSampler
+ */
+public final class TransactionTraceBuffer {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int maxStatements;
+    // whether this buffer belongs to a thread and is handed out again once released
+    final boolean pooled;
+    // written by whichever thread finishes the transaction, and read by the owning thread when acquiring the buffer
+    volatile boolean inUse;
+
+    SqlTemplate[] templates = new SqlTemplate[INITIAL_CAPACITY];
+    String[] rawSql = new String[INITIAL_CAPACITY];
+    StatementMethod[] methods = new StatementMethod[INITIAL_CAPACITY];
+    long[] startNanos = new long[INITIAL_CAPACITY];
+    long[] elapsedNanos = new long[INITIAL_CAPACITY];
+    long[] updateCounts = new long[INITIAL_CAPACITY];
+    Exception[] exceptions = new Exception[INITIAL_CAPACITY];
+    // parameter copies owned by each slot, or null for slots that have never held parameters
+    ParameterStore[] params = new ParameterStore[INITIAL_CAPACITY];
+    boolean[] hasParams = new boolean[INITIAL_CAPACITY];
+
+    // number of statements buffered, and number executed including those that did not fit
+    int size;
+    int statementCount;
+    int errorCount;
+
+    TransactionTraceBuffer(int maxStatements, boolean pooled) {
+        this.maxStatements = maxStatements;
+        this.pooled = pooled;
+    }
+
+    /**
+     * Records a statement that finished executing within the transaction.
+     */
+    public void record(StatementExecutedEvent event) {
+        statementCount++;
+        if (event.hasError()) {
+            errorCount++;
+        }
+        if (size == maxStatements) {
+            return;
+        }
+        if (size == templates.length) {
+            grow();
+        }
+        int ix = size++;
+        InstrumentedStatement<?> statement = event.getStatement();
+        ParameterStore bound = null;
+        if (statement instanceof AbstractInstrumentedStatement) {
+            AbstractInstrumentedStatement<?> statementImpl = (AbstractInstrumentedStatement<?>)statement;
+            SqlTemplate template = statementImpl.getSqlTemplate();
+            templates[ix] = template;
+            rawSql[ix] = (template == null ? statementImpl.getRawSql() : null);
+            bound = statementImpl.getBoundParameters();
+        } else {
+            rawSql[ix] = statement.getSqlStatement();
+        }
+        if (bound != null) {
+            ParameterStore copy = params[ix];
+            if (copy == null) {
+                copy = new ParameterStore(bound.size());
+                params[ix] = copy;
+            }
+            copy.copyFrom(bound);
+            hasParams[ix] = true;
+        }
+        methods[ix] = event.getStatementMethod();
+        elapsedNanos[ix] = event.getElapsedNanos();
+        startNanos[ix] = event.getTimestampNanos() - event.getElapsedNanos();
+        updateCounts[ix] = event.getUpdateCount();
+        exceptions[ix] = event.getException();
+    }
+
+    /**
+     * Returns the number of statements executed within the transaction so far.
+     */
+    public int getStatementCount() {
+        return statementCount;
+    }
+
+    /**
+     * Discards everything buffered, releasing references to SQL, parameter values and exceptions but keeping the
+     * arrays for the next transaction.
+     */
+    void reset() {
+        Arrays.fill(templates, 0, size, null);
+        Arrays.fill(rawSql, 0, size, null);
+        Arrays.fill(methods, 0, size, null);
+        Arrays.fill(exceptions, 0, size, null);
+        for (int i = 0; i < size; i++) {
+            if (hasParams[i]) {
+                params[i].clear();
+                hasParams[i] = false;
+            }
+        }
+        size = 0;
+        statementCount = 0;
+        errorCount = 0;
+    }
+
+    private void grow() {
+        int capacity = Math.min(templates.length * 2, maxStatements);
+        templates = Arrays.copyOf(templates, capacity);
+        rawSql = Arrays.copyOf(rawSql, capacity);
+        methods = Arrays.copyOf(methods, capacity);
+        startNanos = Arrays.copyOf(startNanos, capacity);
+        elapsedNanos = Arrays.copyOf(elapsedNanos, capacity);
+        updateCounts = Arrays.copyOf(updateCounts, capacity);
+        exceptions = Arrays.copyOf(exceptions, capacity);
+        params = Arrays.copyOf(params, capacity);
+        hasParams = Arrays.copyOf(hasParams, capacity);
+    }
+}
@@ -1,16 +1,23 @@
 package org.drg.jdbceptor.impl;
 
-import org.drg.jdbceptor.internal.UserDataStorage;
+import org.drg.jdbceptor.internal.TypedUserDataStorage;
+import org.drg.jdbceptor.internal.UserDataKey;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * General base implementation for an object capable of having user-data attached and retrieved from it.
+ * General base implementation for an object capable of having user-data attached and retrieved from it. </br>
+ * Values stored with a {@link UserDataKey} live in an array indexed by the key, which is sized for every key registered
+ * when the first value is stored and is then reused for the lifetime of this object. Typed access does not lock, so it
+ * assumes a single writing thread at a time; {@link ConcurrentUserDataStorageImpl} supports concurrent writers. Values
+ * are still published safely, so other threads may read them at any time and see fully constructed values.
  *
  * @author dgarson
  */
-public class UserDataStorageImpl implements UserDataStorage {
+public class UserDataStorageImpl implements TypedUserDataStorage {
 
     /**
      * Optional map of user data elements. This map is lazily constructed when first storing user data values. </br>
@@ -18,6 +25,13 @@ public class UserDataStorageImpl implements UserDataStorage {
      */
     protected Map<String, Object> userData;
 
+    /**
+     * Optional array of values stored with typed keys, indexed by {@link UserDataKey#getIndex()}. This is lazily
+     * constructed when first storing a typed value, and replaced with a larger copy if a key registered since then is
+     * used.
+     */
+    private volatile AtomicReferenceArray<Object> userDataSlots;
+
     @Override
     public synchronized Object getUserData(String key) {
         return (key == null || userData == null ? null : userData.get(key));
@@ -39,9 +53,63 @@ public class UserDataStorageImpl implements UserDataStorage {
     }
 
     @Override
-    public synchronized void clearUserData() {
-        if (userData != null) {
-            userData.clear();
+    public void clearUserData() {
+        synchronized (this) {
+            if (userData != null) {
+                userData.clear();
+            }
+        }
+        AtomicReferenceArray<Object> slots = userDataSlots;
+        if (slots != null) {
+            // keep the array so that the next lease does not have to allocate it again
+            for (int i = 0; i < slots.length(); i++) {
+                slots.lazySet(i, null);
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getUserData(UserDataKey<T> key) {
+        AtomicReferenceArray<Object> slots = userDataSlots;
+        int index = key.getIndex();
+        return (slots == null || index >= slots.length() ? null : (T)slots.get(index));
+    }
+
+    @Override
+    public <T> void setUserData(UserDataKey<T> key, T value) {
+        int index = key.getIndex();
+        AtomicReferenceArray<Object> slots = userDataSlots;
+        if (slots == null || index >= slots.length()) {
+            if (value == null) {
+                return;
+            }
+            Object[] values = new Object[(slots == null ? 0 : slots.length())];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = slots.get(i);
+            }
+            slots = new AtomicReferenceArray<>(growSlots(values, index));
+            userDataSlots = slots;
+        }
+        // an ordered write is enough with a single writer, and still publishes the value safely to readers
+        slots.lazySet(index, value);
+    }
+
+    @Override
+    public void removeUserData(UserDataKey<?> key) {
+        AtomicReferenceArray<Object> slots = userDataSlots;
+        int index = key.getIndex();
+        if (slots != null && index < slots.length()) {
+            slots.lazySet(index, null);
         }
     }
+
+    /**
+     * Returns a copy of <strong>slots</strong> large enough for every registered key, and at least for
+     * <strong>index</strong>.
+     */
+    static Object[] growSlots(Object[] slots, int index) {
+        int length = Math.max(UserDataKey.getRegisteredCount(), index + 1);
+        return (slots == null ? new Object[length] : Arrays.copyOf(slots, length));
+    }
 }
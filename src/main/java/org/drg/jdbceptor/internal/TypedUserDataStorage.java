@@ -0,0 +1,33 @@
+package org.drg.jdbceptor.internal;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Optional interface for {@link UserDataStorage} that can also store values with {@link UserDataKey typed keys}. This
+ * is kept separate from {@link UserDataStorage} so that existing implementations of that interface are not required to
+ * provide it; callers should check for it with <code>instanceof</code> and fall back to the string keyed methods. </br>
+ * Typed values are the cheaper alternative: they are stored in a small array indexed by key, without hashing or
+ * locking. By default they support a single writing thread at a time, which matches connections, statements and
+ * transactions being used by one thread at a time, while other threads may read them. </br>
+ * All connections, statements and transactions created by Jdbceptor implement this interface.
+ *
+ * @author dgarson
+ */
+@ThreadSafe
+public interface TypedUserDataStorage extends UserDataStorage {
+
+    /**
+     * Retrieves the value stored with the given typed <strong>key</strong>, or <code>null</code> if there is none.
+     */
+    <T> T getUserData(UserDataKey<T> key);
+
+    /**
+     * Stores <strong>value</strong> with the given typed <strong>key</strong>, replacing any existing value.
+     */
+    <T> void setUserData(UserDataKey<T> key, T value);
+
+    /**
+     * Removes the value stored with the given typed <strong>key</strong>.
+     */
+    void removeUserData(UserDataKey<?> key);
+}
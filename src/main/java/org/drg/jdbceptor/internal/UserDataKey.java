@@ -0,0 +1,55 @@
+package org.drg.jdbceptor.internal;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Typed key for a user data slot. Each key is assigned a unique, dense index when it is created, which user data
+ * storage uses to index directly into a small array of values, so typed lookups involve no hashing and no locking.
+ * </br>
+ * Keys are meant to be created once and held in <code>static final</code> fields, such as:
+ * <pre>
+ *   private static final UserDataKey&lt;RequestContext&gt; REQUEST = new UserDataKey&lt;&gt;("request");
+ * </pre>
+ * so that they are registered when the declaring class is initialized. Every key ever created enlarges the slot
+ * arrays of objects that store values, so keys must not be created per connection or per request.
+ *
+ * @author dgarson
+ * @see TypedUserDataStorage#getUserData(UserDataKey)
+ */
+public final class UserDataKey<T> {
+
+    private static final AtomicInteger registeredKeys = new AtomicInteger();
+
+    private final String name;
+    private final int index;
+
+    public UserDataKey(String name) {
+        this.name = Preconditions.checkNotNull(name, "name");
+        this.index = registeredKeys.getAndIncrement();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the index of the slot that this key's values are stored in.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the number of keys created so far, which is the number of slots needed to store a value for each.
+     */
+    public static int getRegisteredCount() {
+        return registeredKeys.get();
+    }
+
+    @Override
+    public String toString() {
+        return "UserDataKey[" + name + "#" + index + "]";
+    }
+}
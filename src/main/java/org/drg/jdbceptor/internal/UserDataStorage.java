@@ -8,6 +8,7 @@ import javax.annotation.concurrent.ThreadSafe;
  * and retrieved from user code. </br>
  * <strong>NOTE: </strong> methods in this class must be thread-safe and will often be synchronized on, so make sure not
  * to use highly concurrent access to the user data.
+ * @see TypedUserDataStorage
  */
 @ThreadSafe
 public interface UserDataStorage {
@@ -29,7 +30,8 @@ public interface UserDataStorage {
     void removeUserData(String key);
 
     /**
-     * Clears all user data from this object.
+     * Clears all user data from this object, including values stored with typed keys if it is a
+     * {@link TypedUserDataStorage}.
      */
     void clearUserData();
 }
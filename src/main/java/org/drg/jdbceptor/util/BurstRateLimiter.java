@@ -0,0 +1,67 @@
+package org.drg.jdbceptor.util;
+
+import com.google.common.base.Preconditions;
+import org.drg.jdbceptor.Jdbceptor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free rate limiter that admits up to a fixed number of permits per second, allowing a burst of up to one
+ * second's worth of permits after an idle period. </br>
+ * Permits are handed out with a virtual scheduling algorithm (GCRA): the limiter only keeps the earliest time at which
+ * the next permit is due, each permit pushes that time back by one interval, and a permit is granted as long as that
+ * time is no more than the burst allowance in the future. Permits are only granted with a compare-and-set, and once the
+ * budget is used up every caller is turned away with a single read, so threads only write to the shared state for the
+ * permits that are actually granted. Time is read from {@link Jdbceptor#timestampNanos()} so that tests can control
+ * it.
+ *
+ * @author dgarson
+ */
+public class BurstRateLimiter {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final int permitsPerSecond;
+    private final long intervalNanos;
+    private final long burstNanos;
+
+    // earliest time at which the next permit is granted once any burst allowance has been used up
+    private final AtomicLong nextPermitNanos = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param permitsPerSecond the maximum sustained number of permits per second, which is also the largest burst
+     */
+    public BurstRateLimiter(int permitsPerSecond) {
+        Preconditions.checkArgument(permitsPerSecond > 0, "permitsPerSecond must be positive");
+        this.permitsPerSecond = permitsPerSecond;
+        this.intervalNanos = NANOS_PER_SECOND / permitsPerSecond;
+        this.burstNanos = NANOS_PER_SECOND - intervalNanos;
+    }
+
+    public int getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * Takes a permit if one is available without waiting.
+     * @return <code>true</code> if a permit was granted
+     */
+    public boolean tryAcquire() {
+        long now = Jdbceptor.timestampNanos();
+        long next = nextPermitNanos.get();
+        long scheduled = Math.max(next, now);
+        if (scheduled - now > burstNanos) {
+            return false;
+        }
+        // losing the race means another thread just took a permit, so retry in case there is one left
+        while (!nextPermitNanos.compareAndSet(next, scheduled + intervalNanos)) {
+            next = nextPermitNanos.get();
+            scheduled = Math.max(next, now);
+            if (scheduled - now > burstNanos) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -6,6 +6,8 @@ import org.hibernate.HibernateException;
 import org.hibernate.cfg.Environment;
 import org.hibernate.jdbc.ConnectionManager;
 import org.hibernate.jdbc.JDBCContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
@@ -17,23 +19,40 @@ import java.util.Properties;
  */
 public class JdbcUtils {
 
-    private static final String cachedHostname = resolveHostname();
+    private static final Logger log = LoggerFactory.getLogger(JdbcUtils.class);
 
     /**
-     * Returns the hostname for this machine.
+     * Returns the canonical hostname for this machine, which is resolved once on the first call and then cached. </br>
+     * Jdbceptor itself no longer uses this, since resolving the name may block on a DNS lookup; it is kept as public
+     * API for applications that relied on it. Resolution is deferred until the first call, rather than done when this
+     * class is initialized, so other utilities here never pay for it.
      */
     public static String getHostname() {
-        return cachedHostname;
+        return HostnameHolder.HOSTNAME;
+    }
+
+    /**
+     * Lazily resolves the hostname when {@link #getHostname()} is first called.
+     */
+    private static class HostnameHolder {
+        static final String HOSTNAME = resolveHostname();
+    }
+
+    private static String hostnameHint() {
+        String hostname = System.getenv("HOSTNAME");
+        if (StringUtils.isBlank(hostname)) {
+            hostname = System.getenv("COMPUTERNAME");
+        }
+        return (StringUtils.isBlank(hostname) ? "localhost" : hostname);
     }
 
     private static String resolveHostname() {
-        InetAddress addr;
         try {
-            addr = InetAddress.getLocalHost();
-        } catch (UnknownHostException uhe) {
-            return "localhost";
+            return InetAddress.getLocalHost().getCanonicalHostName();
+        } catch (UnknownHostException | RuntimeException e) {
+            log.warn("Unable to resolve the local host name", e);
+            return hostnameHint();
         }
-        return addr.getCanonicalHostName();
     }
 
     /**